@@ -0,0 +1,99 @@
+package rht.raytracer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures tracing through the default scene, one primary ray at a time, a
+ * packet of neighbouring primary rays at a time, and as a whole frame.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SceneBenchmark {
+    private static final int SIZE = 1000;
+    private static final int RAY_GRID = 64;
+
+    /** The number of render threads, or 0 for one per available processor. */
+    @Param({ "1", "0" })
+    public int threads;
+
+    private Scene scene;
+    private Camera camera;
+    private Ray[] rays;
+    private int next;
+    private RayPacket[] packets;
+    private Colour[] packetColours;
+    private int nextPacket;
+
+    @Setup
+    public void setUp() {
+        scene = RayTracer.defaultScene();
+        camera = RayTracer.defaultCamera();
+
+        // An evenly spaced grid of primary rays over the whole frame.
+        rays = new Ray[RAY_GRID * RAY_GRID];
+        for (int x = 0; x < RAY_GRID; ++x) {
+            for (int y = 0; y < RAY_GRID; ++y) {
+                rays[y * RAY_GRID + x] = camera.rayForPixel(x * 2.0 / RAY_GRID - 1.0, y * 2.0 / RAY_GRID - 1.0);
+            }
+        }
+
+        // Packets of the rays through adjacent blocks of pixels, spread over the
+        // frame like the rays above.
+        int packetSize = TileRenderer.PACKET_SIZE;
+        packets = new RayPacket[RAY_GRID * RAY_GRID];
+        for (int block = 0; block < packets.length; ++block) {
+            int left = block % RAY_GRID * (SIZE / RAY_GRID);
+            int top = block / RAY_GRID * (SIZE / RAY_GRID);
+            RayPacket packet = new RayPacket(packetSize * packetSize);
+            packet.size = packetSize * packetSize;
+            for (int y = 0; y < packetSize; ++y) {
+                for (int x = 0; x < packetSize; ++x) {
+                    camera.rayForPixel((left + x) * 2.0 / SIZE - 1.0, (top + y) * 2.0 / SIZE - 1.0, packet,
+                            y * packetSize + x);
+                }
+            }
+            packets[block] = packet;
+        }
+        packetColours = new Colour[packetSize * packetSize];
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Colour colourForRay() {
+        next = (next + 1) % rays.length;
+        return scene.colourForRay(rays[next]);
+    }
+
+    /** Each operation traces {@link TileRenderer#PACKET_SIZE} squared rays. */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Colour[] colourForPacket() {
+        nextPacket = (nextPacket + 1) % packets.length;
+        scene.colourForPacket(packets[nextPacket], packetColours);
+        return packetColours;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int[] renderFrame() {
+        int threadCount = threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+        return new TileRenderer(scene, camera, SIZE, SIZE, threadCount).render();
+    }
+}
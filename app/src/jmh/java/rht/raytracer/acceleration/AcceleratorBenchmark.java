@@ -0,0 +1,101 @@
+package rht.raytracer.acceleration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rht.raytracer.Colour;
+import rht.raytracer.ObjectAndDistance;
+import rht.raytracer.Ray;
+import rht.raytracer.maths.Vec3;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.shapes.Sphere;
+
+/**
+ * Compares building each kind of accelerator and finding the closest hit
+ * through it, for small spheres spread evenly through a cube and for the same
+ * number bunched into a few tight clusters. The memory each takes is printed
+ * during setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AcceleratorBenchmark {
+    private static final int RAY_COUNT = 1024;
+
+    @Param({ "bvh", "grid", "octree" })
+    public String type;
+
+    @Param({ "scattered", "clustered" })
+    public String layout;
+
+    @Param({ "10000", "100000" })
+    public int sphereCount;
+
+    private BoundingVolumeHierarchy hierarchy;
+    private Accelerator accelerator;
+    private Ray[] rays;
+    private ObjectAndDistance hit = new ObjectAndDistance();
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        double radius = 0.5 / Math.cbrt(sphereCount);
+        Vec3[] clusters = new Vec3[8];
+        for (int i = 0; i < clusters.length; ++i) {
+            clusters[i] = new Vec3(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5,
+                    random.nextDouble() * 10 - 5);
+        }
+        List<Shape> objects = new ArrayList<>();
+        for (int i = 0; i < sphereCount; ++i) {
+            Vec3 centre = layout.equals("scattered")
+                    ? new Vec3(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5,
+                            random.nextDouble() * 10 - 5)
+                    : clusters[i % clusters.length].plus(new Vec3(random.nextGaussian() * 0.3,
+                            random.nextGaussian() * 0.3, random.nextGaussian() * 0.3));
+            objects.add(new Shape(new Sphere(centre, radius), Colour.WHITE));
+        }
+        hierarchy = new BoundingVolumeHierarchy(objects);
+        accelerator = AcceleratorType.fromName(type).build(hierarchy);
+        System.out.printf("%n%s over %d %s spheres: %.1f MB%n", type, sphereCount, layout,
+                accelerator.getMemorySize() / 1e6);
+
+        rays = new Ray[RAY_COUNT];
+        for (int i = 0; i < RAY_COUNT; ++i) {
+            rays[i] = new Ray(new Vec3(0, 0, -20),
+                    new Vec3(random.nextDouble() * 0.5 - 0.25, random.nextDouble() * 0.5 - 0.25, 1.0));
+        }
+    }
+
+    @Benchmark
+    public boolean trace() {
+        next = (next + 1) & (RAY_COUNT - 1);
+        Vec3 origin = rays[next].getOrigin();
+        Vec3 direction = rays[next].getDirection();
+        return accelerator.findFirstIntersectionExcept(origin.x, origin.y, origin.z, direction.x, direction.y,
+                direction.z, null, Double.POSITIVE_INFINITY, hit);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Accelerator build() {
+        return AcceleratorType.fromName(type).build(hierarchy);
+    }
+}
@@ -0,0 +1,106 @@
+package rht.raytracer.acceleration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rht.raytracer.Colour;
+import rht.raytracer.ObjectAndDistance;
+import rht.raytracer.Ray;
+import rht.raytracer.maths.Vec3;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.shapes.Sphere;
+
+/**
+ * Compares finding the closest of many small spheres through the hierarchy
+ * against testing every sphere in turn, and measures building the hierarchy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BoundingVolumeHierarchyBenchmark {
+    private static final int RAY_COUNT = 1024;
+
+    @Param({ "1000", "10000", "100000" })
+    public int sphereCount;
+
+    private List<Shape> objects;
+    private BoundingVolumeHierarchy hierarchy;
+    private Ray[] rays;
+    private ObjectAndDistance hit = new ObjectAndDistance();
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        // Keep the total volume of spheres roughly constant as their number grows.
+        double radius = 0.5 / Math.cbrt(sphereCount);
+        objects = new ArrayList<>();
+        for (int i = 0; i < sphereCount; ++i) {
+            Vec3 centre = new Vec3(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5,
+                    random.nextDouble() * 10 - 5);
+            objects.add(new Shape(new Sphere(centre, radius), Colour.WHITE));
+        }
+        hierarchy = new BoundingVolumeHierarchy(objects);
+
+        rays = new Ray[RAY_COUNT];
+        for (int i = 0; i < RAY_COUNT; ++i) {
+            rays[i] = new Ray(new Vec3(0, 0, -20),
+                    new Vec3(random.nextDouble() * 0.5 - 0.25, random.nextDouble() * 0.5 - 0.25, 1.0));
+        }
+    }
+
+    private Ray nextRay() {
+        next = (next + 1) & (RAY_COUNT - 1);
+        return rays[next];
+    }
+
+    @Benchmark
+    public boolean hierarchy() {
+        Ray ray = nextRay();
+        Vec3 origin = ray.getOrigin();
+        Vec3 direction = ray.getDirection();
+        return hierarchy.findFirstIntersectionExcept(origin.x, origin.y, origin.z, direction.x, direction.y,
+                direction.z, null, Double.POSITIVE_INFINITY, hit);
+    }
+
+    @Benchmark
+    public Shape linear() {
+        Ray ray = nextRay();
+        Vec3 origin = ray.getOrigin();
+        Vec3 direction = ray.getDirection();
+        double closestDistance = Double.POSITIVE_INFINITY;
+        Shape closest = null;
+        for (Shape object : objects) {
+            double distance = object.getShapeType().intersectDistance(origin.x, origin.y, origin.z, direction.x,
+                    direction.y, direction.z);
+            if (distance < closestDistance) {
+                closestDistance = distance;
+                closest = object;
+            }
+        }
+        return closest;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public BoundingVolumeHierarchy build() {
+        return new BoundingVolumeHierarchy(objects);
+    }
+}
@@ -0,0 +1,79 @@
+package rht.raytracer.acceleration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rht.raytracer.Colour;
+import rht.raytracer.maths.Vec3;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.shapes.Sphere;
+
+/**
+ * Compares building a tree over up to a million small spheres on one thread
+ * and on every processor, and measures building the whole hierarchy around
+ * them. The surface area cost of the tree is printed during setup, and is the
+ * same either way.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ParallelBuildBenchmark {
+    @Param({ "100000", "1000000" })
+    public int sphereCount;
+
+    @Param({ "false", "true" })
+    public boolean parallel;
+
+    private List<Shape> objects;
+    private double[] bounds;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        double radius = 0.5 / Math.cbrt(sphereCount);
+        objects = new ArrayList<>();
+        bounds = new double[sphereCount * 6];
+        for (int i = 0; i < sphereCount; ++i) {
+            Vec3 centre = new Vec3(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5,
+                    random.nextDouble() * 10 - 5);
+            objects.add(new Shape(new Sphere(centre, radius), Colour.WHITE));
+            double[] centreAxes = { centre.x, centre.y, centre.z };
+            for (int axis = 0; axis < 3; ++axis) {
+                bounds[i * 6 + axis] = centreAxes[axis] - radius;
+                bounds[i * 6 + 3 + axis] = centreAxes[axis] + radius;
+            }
+        }
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(objects);
+        System.out.printf("%n%d spheres on %d processors: %d nodes, surface area cost %.1f%n", sphereCount,
+                Runtime.getRuntime().availableProcessors(), hierarchy.getNodeCount(),
+                hierarchy.getSurfaceAreaCost());
+    }
+
+    @Benchmark
+    public BoundingVolumeBuilder tree() {
+        return new BoundingVolumeBuilder(bounds, sphereCount, parallel);
+    }
+
+    /** Builds the whole hierarchy, in parallel whenever there is more than one processor, whatever `parallel` is. */
+    @Benchmark
+    public BoundingVolumeHierarchy hierarchy() {
+        return new BoundingVolumeHierarchy(objects);
+    }
+}
@@ -0,0 +1,78 @@
+package rht.raytracer.maths;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rht.raytracer.Ray;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MatrixBenchmark {
+    private Matrix transformation = Matrix.translation(0.5, -0.5, 2.0).times(Matrix.rotateY(30))
+            .times(Matrix.scale(1, 3, 1));
+    private Matrix other = Matrix.rotateX(45).times(Matrix.translation(1, 2, 3));
+    private Vec3 vector = new Vec3(1.5, -2.25, 3.125);
+    private Matrix4 transformation4 = Matrix4.from(transformation);
+    private Matrix4 other4 = Matrix4.from(other);
+    private Ray ray = new Ray(new Vec3(0, 0, -5), new Vec3(0.1, -0.2, 1.0));
+
+    @Benchmark
+    public Matrix timesMatrix() {
+        return transformation.times(other);
+    }
+
+    @Benchmark
+    public Vec3 timesVector() {
+        return transformation.times(vector);
+    }
+
+    @Benchmark
+    public Vec3 linearTimes() {
+        return transformation.linearTimes(vector);
+    }
+
+    @Benchmark
+    public Matrix inverse() {
+        return transformation.inverse();
+    }
+
+    @Benchmark
+    public Matrix4 matrix4TimesMatrix() {
+        return transformation4.times(other4);
+    }
+
+    @Benchmark
+    public Vec3 matrix4TimesVector() {
+        return transformation4.times(vector);
+    }
+
+    @Benchmark
+    public Matrix4 matrix4Inverse() {
+        return transformation4.inverse();
+    }
+
+    /** The per-ray cost of transforming a ray with the general matrix. */
+    @Benchmark
+    public Ray rayTransform() {
+        return ray.transform(transformation);
+    }
+
+    /** The per-ray cost of transforming a ray with the fixed-size matrix. */
+    @Benchmark
+    public Ray rayTransformMatrix4() {
+        return ray.transform(transformation4);
+    }
+}
@@ -0,0 +1,56 @@
+package rht.raytracer.maths;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class Vec3Benchmark {
+    // Non-final so that the JIT can't constant-fold the arithmetic away.
+    private Vec3 a = new Vec3(1.5, -2.25, 3.125);
+    private Vec3 b = new Vec3(-0.5, 4.0, 0.75);
+    private double scalar = 1.75;
+
+    @Benchmark
+    public Vec3 plus() {
+        return a.plus(b);
+    }
+
+    @Benchmark
+    public Vec3 minus() {
+        return a.minus(b);
+    }
+
+    @Benchmark
+    public Vec3 times() {
+        return a.times(scalar);
+    }
+
+    @Benchmark
+    public double dot() {
+        return a.dot(b);
+    }
+
+    @Benchmark
+    public double length() {
+        return a.length();
+    }
+
+    @Benchmark
+    public Vec3 normalise() {
+        return a.normalise();
+    }
+}
@@ -0,0 +1,138 @@
+package rht.raytracer.shapes;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rht.raytracer.Ray;
+import rht.raytracer.maths.Matrix;
+import rht.raytracer.maths.Vec3;
+
+/**
+ * Measures a single ray-shape intersection test for each shape type, through
+ * both the boxed and the primitive intersection methods, and for a mesh of
+ * 16,384 triangles. The rays are cycled through so that roughly half of them
+ * hit each shape.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ShapeBenchmark {
+    private static final int RAY_COUNT = 1024;
+
+    private ShapeType sphere;
+    private ShapeType plane;
+    private ShapeType transformed;
+    private ShapeType mesh;
+    private Ray[] rays;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        sphere = new Sphere(new Vec3(0, 0, 5), 1.0);
+        plane = new Plane(new Vec3(0, 1, 0), new Vec3(0, -1, 0));
+        transformed = new Transformed(new Sphere(new Vec3(0, 0, 0), 0.5),
+                Matrix.translation(0, 0, 5).times(Matrix.rotateZ(30)).times(Matrix.scale(1, 3, 1)));
+        mesh = tessellatedSphere(new Vec3(0, 0, 5), 1.0, 64, 128);
+
+        Random random = new Random(42);
+        rays = new Ray[RAY_COUNT];
+        for (int i = 0; i < RAY_COUNT; ++i) {
+            rays[i] = new Ray(new Vec3(0, 0, 0),
+                    new Vec3(random.nextDouble() * 0.5 - 0.25, random.nextDouble() * 0.5 - 0.25, 1.0));
+        }
+    }
+
+    /**
+     * Returns a sphere made of triangles, in rings of latitude and longitude.
+     */
+    private static TriangleMesh tessellatedSphere(Vec3 centre, double radius, int rings, int segments) {
+        float[] positions = new float[(rings + 1) * segments * 3];
+        for (int ring = 0; ring <= rings; ++ring) {
+            double latitude = Math.PI * ring / rings;
+            for (int segment = 0; segment < segments; ++segment) {
+                double longitude = 2 * Math.PI * segment / segments;
+                int vertex = (ring * segments + segment) * 3;
+                positions[vertex] = (float) (centre.x + radius * Math.sin(latitude) * Math.cos(longitude));
+                positions[vertex + 1] = (float) (centre.y + radius * Math.cos(latitude));
+                positions[vertex + 2] = (float) (centre.z + radius * Math.sin(latitude) * Math.sin(longitude));
+            }
+        }
+        int[] indices = new int[rings * segments * 6];
+        int i = 0;
+        for (int ring = 0; ring < rings; ++ring) {
+            for (int segment = 0; segment < segments; ++segment) {
+                int a = ring * segments + segment;
+                int b = ring * segments + (segment + 1) % segments;
+                int c = a + segments;
+                int d = b + segments;
+                indices[i++] = a;
+                indices[i++] = b;
+                indices[i++] = d;
+                indices[i++] = a;
+                indices[i++] = d;
+                indices[i++] = c;
+            }
+        }
+        return new TriangleMesh(positions, null, indices);
+    }
+
+    private Ray nextRay() {
+        next = (next + 1) & (RAY_COUNT - 1);
+        return rays[next];
+    }
+
+    private static double intersectDistance(ShapeType shape, Ray ray) {
+        Vec3 origin = ray.getOrigin();
+        Vec3 direction = ray.getDirection();
+        return shape.intersectDistance(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z);
+    }
+
+    @Benchmark
+    public Double sphereIntersect() {
+        return sphere.intersect(nextRay());
+    }
+
+    @Benchmark
+    public double sphereIntersectDistance() {
+        return intersectDistance(sphere, nextRay());
+    }
+
+    @Benchmark
+    public Double planeIntersect() {
+        return plane.intersect(nextRay());
+    }
+
+    @Benchmark
+    public double planeIntersectDistance() {
+        return intersectDistance(plane, nextRay());
+    }
+
+    @Benchmark
+    public Double transformedIntersect() {
+        return transformed.intersect(nextRay());
+    }
+
+    @Benchmark
+    public double transformedIntersectDistance() {
+        return intersectDistance(transformed, nextRay());
+    }
+
+    @Benchmark
+    public double meshIntersectDistance() {
+        return intersectDistance(mesh, nextRay());
+    }
+}
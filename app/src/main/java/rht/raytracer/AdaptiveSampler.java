@@ -0,0 +1,185 @@
+package rht.raytracer;
+
+import java.util.SplittableRandom;
+
+/**
+ * Anti-aliases a tile by tracing a few rays through every pixel, then more only
+ * through pixels whose samples disagree, or which differ from a neighbour, by
+ * more than the threshold. Smooth areas cost only the initial samples, and the
+ * extra rays go to edges and fine detail.
+ *
+ * Samples within a pixel follow the R2 sequence, whose points spread evenly
+ * over the square however many are taken, so refining a pixel adds to the
+ * samples already traced rather than starting again. Each pixel's sequence is
+ * shifted by a random offset, so that neighbouring pixels don't alias in the
+ * same pattern. The offset comes from a generator seeded by the pixel's
+ * position, so the image doesn't depend on which thread traced which pixel.
+ */
+final class AdaptiveSampler {
+    /** The R2 sequence's steps, the reciprocals of the plastic number and its square. */
+    private static final double STEP_X = 0.7548776662466927;
+    private static final double STEP_Y = 0.5698402909980532;
+
+    private final Scene scene;
+    private final Camera camera;
+    private final int width;
+    private final int height;
+    private final Supersampling settings;
+
+    AdaptiveSampler(Scene scene, Camera camera, int width, int height, Supersampling settings) {
+        this.scene = scene;
+        this.camera = camera;
+        this.width = width;
+        this.height = height;
+        this.settings = settings;
+    }
+
+    /**
+     * Renders a tile, writing the mean colour of each pixel's samples into
+     * `colours` as red, green and blue values, three per pixel in row-major order
+     * within the tile.
+     *
+     * Pixels are compared with their neighbours, so the initial samples of the
+     * pixels just outside the tile are traced too. They are traced again by the
+     * tile they belong to, which costs a little more than sharing them, but keeps
+     * every tile independent of the others.
+     *
+     * @return the number of rays traced for pixels inside the tile.
+     */
+    long renderTile(Tile tile, double[] colours) {
+        int left = Math.max(0, tile.x - 1);
+        int top = Math.max(0, tile.y - 1);
+        int right = Math.min(width, tile.x + tile.width + 1);
+        int bottom = Math.min(height, tile.y + tile.height + 1);
+        int regionWidth = right - left;
+        int regionHeight = bottom - top;
+        int initial = settings.initialSamples;
+
+        // Unclamped sums make up the final colour; clamped ones, which ignore
+        // differences too bright to see, decide where to refine.
+        double[] sums = new double[regionWidth * regionHeight * 3];
+        double[] clampedSums = new double[sums.length];
+        double[] clampedSquares = new double[sums.length];
+        for (int y = top; y < bottom; ++y) {
+            for (int x = left; x < right; ++x) {
+                int offset = ((y - top) * regionWidth + x - left) * 3;
+                addSamples(x, y, 0, initial, sums, clampedSums, clampedSquares, offset);
+            }
+        }
+
+        // Every pixel is judged on its initial samples and those of its neighbours,
+        // before any of them has been refined.
+        boolean[] refine = new boolean[tile.width * tile.height];
+        for (int y = tile.y; y < tile.y + tile.height; ++y) {
+            for (int x = tile.x; x < tile.x + tile.width; ++x) {
+                int offset = ((y - top) * regionWidth + x - left) * 3;
+                refine[(y - tile.y) * tile.width + x - tile.x] = initial < settings.maxSamples
+                        && (standardError(clampedSums, clampedSquares, offset, initial) > settings.threshold
+                                || contrast(clampedSums, offset, x, y, left, top, right, bottom,
+                                        regionWidth) > settings.threshold);
+            }
+        }
+
+        long samplesTraced = 0;
+        for (int y = tile.y; y < tile.y + tile.height; ++y) {
+            for (int x = tile.x; x < tile.x + tile.width; ++x) {
+                int offset = ((y - top) * regionWidth + x - left) * 3;
+                int index = (y - tile.y) * tile.width + x - tile.x;
+                int samples = initial;
+                // Neighbour contrast can flag a pixel whose initial samples all agree, so
+                // at least one more batch is traced before its samples are trusted.
+                boolean more = refine[index];
+                while (more) {
+                    int batch = Math.min(initial, settings.maxSamples - samples);
+                    addSamples(x, y, samples, batch, sums, clampedSums, clampedSquares, offset);
+                    samples += batch;
+                    more = samples < settings.maxSamples
+                            && standardError(clampedSums, clampedSquares, offset, samples) > settings.threshold;
+                }
+                samplesTraced += samples;
+
+                colours[index * 3] = sums[offset] / samples;
+                colours[index * 3 + 1] = sums[offset + 1] / samples;
+                colours[index * 3 + 2] = sums[offset + 2] / samples;
+            }
+        }
+        return samplesTraced;
+    }
+
+    /**
+     * Traces samples `first` to `first + count - 1` of a pixel's sequence, adding
+     * their colours to the sums at `offset`.
+     */
+    private void addSamples(int x, int y, int first, int count, double[] sums, double[] clampedSums,
+            double[] clampedSquares, int offset) {
+        SplittableRandom random = new SplittableRandom((long) y * width + x);
+        double shiftX = random.nextDouble();
+        double shiftY = random.nextDouble();
+        for (int sample = first; sample < first + count; ++sample) {
+            double u = shiftX + sample * STEP_X;
+            double v = shiftY + sample * STEP_Y;
+            u -= Math.floor(u);
+            v -= Math.floor(v);
+            Ray ray = camera.rayForPixel((x + u) * 2.0 / width - 1.0, (y + v) * 2.0 / height - 1.0);
+            Colour colour = scene.colourForRay(ray);
+            add(colour.r, sums, clampedSums, clampedSquares, offset);
+            add(colour.g, sums, clampedSums, clampedSquares, offset + 1);
+            add(colour.b, sums, clampedSums, clampedSquares, offset + 2);
+        }
+    }
+
+    private static void add(double value, double[] sums, double[] clampedSums, double[] clampedSquares,
+            int index) {
+        double clamped = Math.max(0.0, Math.min(1.0, value));
+        sums[index] += value;
+        clampedSums[index] += clamped;
+        clampedSquares[index] += clamped * clamped;
+    }
+
+    /**
+     * Returns the largest, over the three channels, of the estimated standard
+     * error of the pixel's mean: how far the mean of its samples is likely to be
+     * from its true colour. A single sample gives no estimate, and returns zero.
+     */
+    private static double standardError(double[] sums, double[] squares, int offset, int samples) {
+        if (samples < 2) {
+            return 0.0;
+        }
+        double largestVariance = 0.0;
+        for (int channel = offset; channel < offset + 3; ++channel) {
+            double mean = sums[channel] / samples;
+            double variance = (squares[channel] / samples - mean * mean) * samples / (samples - 1);
+            largestVariance = Math.max(largestVariance, variance);
+        }
+        return Math.sqrt(largestVariance / samples);
+    }
+
+    /**
+     * Returns the largest difference in any channel between the initial mean
+     * colour of a pixel and that of any of the four pixels beside it.
+     */
+    private double contrast(double[] sums, int offset, int x, int y, int left, int top, int right,
+            int bottom, int regionWidth) {
+        double largest = 0.0;
+        if (x > left) {
+            largest = Math.max(largest, difference(sums, offset, offset - 3));
+        }
+        if (x + 1 < right) {
+            largest = Math.max(largest, difference(sums, offset, offset + 3));
+        }
+        if (y > top) {
+            largest = Math.max(largest, difference(sums, offset, offset - regionWidth * 3));
+        }
+        if (y + 1 < bottom) {
+            largest = Math.max(largest, difference(sums, offset, offset + regionWidth * 3));
+        }
+        return largest / settings.initialSamples;
+    }
+
+    private static double difference(double[] sums, int first, int second) {
+        double red = Math.abs(sums[first] - sums[second]);
+        double green = Math.abs(sums[first + 1] - sums[second + 1]);
+        double blue = Math.abs(sums[first + 2] - sums[second + 2]);
+        return Math.max(red, Math.max(green, blue));
+    }
+}
@@ -15,9 +15,42 @@ public class Camera {
         this.yDirection = yDirection;
     }
 
+    public Vec3 getFocalPoint() {
+        return focalPoint;
+    }
+
+    public Vec3 getFrameCentre() {
+        return frameCentre;
+    }
+
+    public Vec3 getXDirection() {
+        return xDirection;
+    }
+
+    public Vec3 getYDirection() {
+        return yDirection;
+    }
+
     public Ray rayForPixel(double frameX, double frameY) {
         Vec3 framePoint = frameCentre.plus(xDirection.times(frameX)).plus(yDirection.times(frameY));
         Vec3 direction = framePoint.minus(focalPoint);
         return new Ray(focalPoint, direction);
     }
+
+    /**
+     * Stores the ray {@link #rayForPixel} would return in a slot of a packet,
+     * without allocating. The arithmetic is the same, so the ray is too.
+     */
+    public void rayForPixel(double frameX, double frameY, RayPacket packet, int index) {
+        double directionX = frameCentre.x + xDirection.x * frameX + yDirection.x * frameY - focalPoint.x;
+        double directionY = frameCentre.y + xDirection.y * frameX + yDirection.y * frameY - focalPoint.y;
+        double directionZ = frameCentre.z + xDirection.z * frameX + yDirection.z * frameY - focalPoint.z;
+        double length = Math.sqrt(directionX * directionX + directionY * directionY + directionZ * directionZ);
+        packet.originX = focalPoint.x;
+        packet.originY = focalPoint.y;
+        packet.originZ = focalPoint.z;
+        packet.directionX[index] = directionX / length;
+        packet.directionY[index] = directionY / length;
+        packet.directionZ[index] = directionZ / length;
+    }
 }
@@ -0,0 +1,107 @@
+package rht.raytracer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Writes rendered images to disk.
+ */
+public class ImageFiles {
+    private ImageFiles() {
+    }
+
+    /** Whether the file should be written from unclamped colours. */
+    public static boolean isHighDynamicRange(Path path) {
+        return extension(path).equals("pfm");
+    }
+
+    /**
+     * Checks that an image can be written to a file, by its extension, before
+     * anything is rendered for it.
+     *
+     * @throws IllegalArgumentException if the file has no extension, or one
+     *                                  for a format that can't be written.
+     */
+    public static void checkWritable(Path path) {
+        String extension = extension(path);
+        if (!extension.equals("ppm") && !extension.equals("pfm")
+                && !ImageIO.getImageWritersBySuffix(extension).hasNext()) {
+            throw new IllegalArgumentException("Output file " + path.getFileName() + " has an extension, ."
+                    + extension + ", which no image writer knows.");
+        }
+    }
+
+    /**
+     * Writes row-major RGB pixels to a file, choosing the format from the file's
+     * extension. PPM is written directly; anything else goes through ImageIO.
+     */
+    public static void write(Path path, int width, int height, int[] pixels) throws IOException {
+        String extension = extension(path);
+        if (extension.equals("ppm")) {
+            writePpm(path, width, height, pixels);
+            return;
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] imagePixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        System.arraycopy(pixels, 0, imagePixels, 0, pixels.length);
+        if (!ImageIO.write(image, extension, path.toFile())) {
+            throw new IOException("No image writer for ." + extension + " files.");
+        }
+    }
+
+    /**
+     * Writes row-major RGB pixels as a binary (P6) PPM file.
+     */
+    public static void writePpm(Path path, int width, int height, int[] pixels) throws IOException {
+        byte[] header = ("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] data = new byte[width * height * 3];
+        for (int i = 0; i < pixels.length; ++i) {
+            int pixel = pixels[i];
+            data[i * 3] = (byte) (pixel >> 16);
+            data[i * 3 + 1] = (byte) (pixel >> 8);
+            data[i * 3 + 2] = (byte) pixel;
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            out.write(header);
+            out.write(data);
+        }
+    }
+
+    /**
+     * Writes unclamped row-major colours, three floats per pixel, as a
+     * little-endian PFM file. PFM stores rows from the bottom up.
+     */
+    public static void writePfm(Path path, int width, int height, float[] radiance) throws IOException {
+        byte[] header = ("PF\n" + width + " " + height + "\n-1.0\n").getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer data = ByteBuffer.allocate(radiance.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int y = height - 1; y >= 0; --y) {
+            for (int i = y * width * 3; i < (y + 1) * width * 3; ++i) {
+                data.putFloat(radiance[i]);
+            }
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            out.write(header);
+            out.write(data.array());
+        }
+    }
+
+    private static String extension(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) {
+            throw new IllegalArgumentException("Output file " + name + " has no extension to pick a format from.");
+        }
+        return name.substring(dot + 1).toLowerCase();
+    }
+}
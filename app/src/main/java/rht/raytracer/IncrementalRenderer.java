@@ -0,0 +1,111 @@
+package rht.raytracer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import rht.raytracer.shapes.Shape;
+
+/**
+ * Renders a scene, then renders it again after each edit to its objects by
+ * tracing only the tiles the edit could have changed, such as when an object is
+ * nudged in an interactive session.
+ *
+ * While a tile is rendered, a {@link TileFootprint} records what its rays met.
+ * After an edit, a tile is traced again only if its footprint says that one of
+ * its rays stopped at a replaced object, or that a replacement lies somewhere
+ * its rays went. Every other tile would render exactly as before, so the image
+ * is always the same as rendering the edited scene in full.
+ */
+public class IncrementalRenderer {
+    private final Scene scene;
+    private final TileRenderer renderer;
+    private final List<Tile> tiles;
+    /** Each tile's footprint, made up front so that threads only read the map. */
+    private final Map<Tile, TileFootprint> footprints = new HashMap<>();
+    private final int[] pixels;
+    private boolean rendered;
+    private long tilesRendered;
+
+    /**
+     * @param supersampling How to anti-alias the image, or null to trace a single
+     *                      ray through each pixel.
+     */
+    public IncrementalRenderer(Scene scene, Camera camera, int width, int height, int threads, int tileSize,
+            Supersampling supersampling) {
+        this.scene = scene;
+        this.renderer = new TileRenderer(scene, camera, width, height, threads, tileSize, supersampling);
+        this.tiles = renderer.tiles();
+        for (Tile tile : tiles) {
+            footprints.put(tile, new TileFootprint(scene.getLights().size()));
+        }
+        this.pixels = new int[width * height];
+    }
+
+    public IncrementalRenderer(Scene scene, Camera camera, int width, int height, int threads) {
+        this(scene, camera, width, height, threads, TileRenderer.DEFAULT_TILE_SIZE, null);
+    }
+
+    /**
+     * Renders the whole frame and returns its row-major RGB pixels. The same
+     * array is updated by every later edit.
+     */
+    public int[] render() {
+        renderTiles(tiles);
+        rendered = true;
+        return pixels;
+    }
+
+    /**
+     * Replaces objects in the scene as {@link Scene#replaceObjects} does, then
+     * renders again the tiles which the change could have affected. Replacing an
+     * object by one with no bounding box affects every tile.
+     *
+     * @return the tiles rendered again, in row-major order.
+     * @throws IllegalStateException if the frame hasn't been rendered yet.
+     */
+    public List<Tile> replaceObjects(Map<Shape, Shape> replacements) {
+        if (!rendered) {
+            throw new IllegalStateException("The frame must be rendered before it can be updated.");
+        }
+        List<Tile> affected = new ArrayList<>();
+        for (Tile tile : tiles) {
+            if (footprints.get(tile).isAffectedBy(replacements, scene.getLights())) {
+                affected.add(tile);
+            }
+        }
+        scene.replaceObjects(replacements);
+        renderTiles(affected);
+        return affected;
+    }
+
+    /** The row-major RGB pixels of the frame as last rendered. */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    /** The number of tiles rendered so far, counting every full frame and every edit. */
+    public long getTilesRendered() {
+        return tilesRendered;
+    }
+
+    /** The total number of tiles in the frame. */
+    public int getTileCount() {
+        return tiles.size();
+    }
+
+    private void renderTiles(List<Tile> toRender) {
+        renderer.forEachTile(toRender, tile -> {
+            TileFootprint footprint = footprints.get(tile);
+            footprint.clear();
+            scene.recordFootprint(footprint);
+            try {
+                renderer.renderTile(tile, pixels);
+            } finally {
+                scene.recordFootprint(null);
+            }
+        });
+        tilesRendered += toRender.size();
+    }
+}
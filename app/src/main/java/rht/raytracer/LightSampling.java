@@ -0,0 +1,46 @@
+package rht.raytracer;
+
+/**
+ * Settings for which lights to trace shadow rays to from each point being lit.
+ *
+ * A light's contribution falls off with the square of its distance, so beyond
+ * some distance it can add no more than {@link #cutoff} to any channel even
+ * when it shines straight onto the surface. Points that far away skip the
+ * light, and its shadow ray, altogether. The scene finds the lights near a
+ * point through a grid, so the cost of lighting a point grows with the number
+ * of lights in range of it rather than the number in the scene.
+ *
+ * When more than {@link #samples} lights are in range of a point, that many of
+ * them are chosen at random instead, each with a chance in proportion to how
+ * much it would add if nothing shadowed it, and weighted to keep the expected
+ * colour. Like Russian roulette for reflections, the choice depends only on
+ * the point, so the image doesn't depend on the order or threads in which
+ * pixels are traced.
+ */
+public class LightSampling {
+    public static final LightSampling DEFAULT = new LightSampling(0.0, 0);
+
+    /**
+     * The most a light may add to a channel at a point for it to be skipped
+     * there, or 0 to never skip lights.
+     */
+    public final double cutoff;
+    /** The number of lights to choose at each point, or 0 for all in range. */
+    public final int samples;
+
+    public LightSampling(double cutoff, int samples) {
+        if (!(cutoff >= 0.0 && cutoff <= 1.0)) {
+            throw new IllegalArgumentException("The light cutoff must be between 0 and 1.");
+        }
+        if (samples < 0) {
+            throw new IllegalArgumentException("The number of light samples can't be negative.");
+        }
+        this.cutoff = cutoff;
+        this.samples = samples;
+    }
+
+    public String toString() {
+        String sampling = cutoff > 0.0 ? "light cutoff " + cutoff : "no light cutoff";
+        return samples > 0 ? sampling + ", " + samples + " lights sampled" : sampling;
+    }
+}
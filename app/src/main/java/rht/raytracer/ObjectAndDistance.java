@@ -0,0 +1,23 @@
+package rht.raytracer;
+
+import rht.raytracer.shapes.Shape;
+
+/**
+ * The object a ray hits, and the distance along the ray at which it hits it.
+ *
+ * Intersection queries fill in an existing instance rather than returning a
+ * new one, so that a record can be reused for every ray a thread traces.
+ */
+public class ObjectAndDistance {
+    public Shape object;
+    public double distance;
+
+    public ObjectAndDistance() {
+        this(null, Double.POSITIVE_INFINITY);
+    }
+
+    public ObjectAndDistance(Shape object, double distance) {
+        this.object = object;
+        this.distance = distance;
+    }
+}
@@ -1,6 +1,7 @@
 package rht.raytracer;
 
 import rht.raytracer.maths.Matrix;
+import rht.raytracer.maths.Matrix4;
 import rht.raytracer.maths.Vec3;
 
 public class Ray {
@@ -26,7 +27,14 @@ public class Ray {
     }
 
     public Ray transform(Matrix transformation) {
-        return new Ray(transformation.times(origin),
-                transformation.linearTimes(direction).normalise());
+        return transform(Matrix4.from(transformation));
+    }
+
+    /**
+     * Returns this ray transformed by an affine transformation. The constructor
+     * normalises the new direction, so it isn't normalised here as well.
+     */
+    public Ray transform(Matrix4 transformation) {
+        return new Ray(transformation.times(origin), transformation.linearTimes(direction));
     }
 }
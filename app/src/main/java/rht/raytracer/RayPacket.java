@@ -0,0 +1,60 @@
+package rht.raytracer;
+
+import rht.raytracer.shapes.Shape;
+
+/**
+ * A batch of rays from a common origin, such as the primary rays through a
+ * small block of neighbouring pixels, held as separate arrays of components
+ * so that they can be intersected together.
+ *
+ * Rays from one point through neighbouring pixels travel in almost the same
+ * direction, so they tend to visit the same parts of the scene. Tracing them
+ * together lets a bounding box be rejected once for the whole packet, and
+ * lets the parts of each intersection test that depend only on the origin be
+ * worked out once rather than once per ray.
+ *
+ * A packet is reused for every batch a thread traces, so that tracing doesn't
+ * allocate.
+ */
+public final class RayPacket {
+    public double originX;
+    public double originY;
+    public double originZ;
+    /** Unit direction of each ray. */
+    public final double[] directionX;
+    public final double[] directionY;
+    public final double[] directionZ;
+    /** The number of rays in use, from the start of the arrays. */
+    public int size;
+
+    /**
+     * The distance to the closest hit found so far for each ray, or
+     * {@link Double#POSITIVE_INFINITY}. Intersection queries only look for hits
+     * closer than this.
+     */
+    public final double[] distance;
+    /** The object hit at {@link #distance}, or null. */
+    public final Shape[] hit;
+
+    public RayPacket(int capacity) {
+        directionX = new double[capacity];
+        directionY = new double[capacity];
+        directionZ = new double[capacity];
+        distance = new double[capacity];
+        hit = new Shape[capacity];
+    }
+
+    public int capacity() {
+        return directionX.length;
+    }
+
+    /**
+     * Forgets the hits found for every ray, ready for a new query.
+     */
+    public void clearHits() {
+        for (int i = 0; i < size; ++i) {
+            distance[i] = Double.POSITIVE_INFINITY;
+            hit[i] = null;
+        }
+    }
+}
@@ -1,39 +1,411 @@
 package rht.raytracer;
 
+import javax.management.JMException;
 import javax.swing.ImageIcon;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 
+import rht.raytracer.acceleration.AcceleratorType;
+import rht.raytracer.acceleration.BoundingVolumeHierarchy;
+import rht.raytracer.animation.Animation;
+import rht.raytracer.animation.SequenceRenderer;
+import rht.raytracer.cache.RenderCache;
+import rht.raytracer.cache.RenderKey;
+import rht.raytracer.distributed.RenderCoordinator;
+import rht.raytracer.distributed.RenderJob;
+import rht.raytracer.distributed.RenderWorker;
 import rht.raytracer.maths.Matrix;
 import rht.raytracer.maths.Vec3;
+import rht.raytracer.scenefile.LoadedScene;
+import rht.raytracer.scenefile.SceneBuilder;
+import rht.raytracer.scenefile.SceneFiles;
 import rht.raytracer.shapes.Plane;
 import rht.raytracer.shapes.Shape;
 import rht.raytracer.shapes.Sphere;
 import rht.raytracer.shapes.Transformed;
+import rht.raytracer.statistics.RenderStatistics;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
 public class RayTracer extends JPanel {
-    private static final int WIDTH = 1000;
-    private static final int HEIGHT = 1000;
+    private static final int DEFAULT_SIZE = 1000;
 
-    private final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
-    private final Scene scene;
-    private final Camera camera;
+    private final BufferedImage image;
+    private final TileRenderer renderer;
 
-    public RayTracer(Scene scene, Camera camera) {
-        this.scene = scene;
-        this.camera = camera;
+    /**
+     * @param supersampling How to anti-alias the image, or null to trace a single
+     *                      ray through each pixel.
+     */
+    public RayTracer(Scene scene, Camera camera, int width, int height, int threads,
+            Supersampling supersampling) {
+        this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        this.renderer = new TileRenderer(scene, camera, width, height, threads, TileRenderer.DEFAULT_TILE_SIZE,
+                supersampling);
         ImageIcon icon = new ImageIcon(image);
         add(new JLabel(icon));
     }
 
+    public RayTracer(Scene scene, Camera camera, int width, int height, int threads) {
+        this(scene, camera, width, height, threads, null);
+    }
+
+    public RayTracer(Scene scene, Camera camera) {
+        this(scene, camera, DEFAULT_SIZE, DEFAULT_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
     public static void main(String[] args) {
+        RenderOptions options;
+        try {
+            options = RenderOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(RenderOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        if (options.help) {
+            System.out.print(RenderOptions.USAGE);
+            return;
+        }
+
+        if (options.workerHost != null) {
+            try {
+                RenderWorker.run(options.workerHost, options.workerPort, options.threads);
+            } catch (IOException e) {
+                System.err.println("Worker failed: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+
+        if (options.convert != null) {
+            try {
+                SceneFiles.convertToBinary(Paths.get(options.scene), Paths.get(options.convert));
+            } catch (IOException e) {
+                System.err.println("Could not convert " + options.scene + ": " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+
+        if (options.stats != null) {
+            // This must happen before anything reads RenderStatistics.ENABLED.
+            System.setProperty(RenderStatistics.PROPERTY, "true");
+        }
+        if (RenderStatistics.ENABLED) {
+            try {
+                RenderStatistics.registerMBean();
+            } catch (JMException e) {
+                System.err.println("Could not publish render statistics over JMX: " + e.getMessage());
+            }
+        }
+
+        if (options.animation != null) {
+            System.setProperty("java.awt.headless", "true");
+            try {
+                renderSequence(options);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Could not render " + options.animation + ": " + e.getMessage());
+                System.exit(1);
+            }
+            writeStatistics(options.stats);
+            return;
+        }
+
+        long start = System.nanoTime();
+        LoadedScene loaded;
+        try {
+            loaded = loadScene(options);
+        } catch (IOException e) {
+            System.err.println("Could not read " + options.scene + ": " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        loaded.scene.setReflectionLimits(options.reflectionLimits());
+        loaded.scene.setLightSampling(options.lightSampling());
+        loaded.scene.setSinglePrecision(options.singlePrecision);
+        if (options.accelerator == AcceleratorType.AUTO) {
+            System.out.println(loaded.scene.chooseAccelerator(loaded.camera, options.width, options.height));
+        } else {
+            loaded.scene.setAccelerator(options.accelerator);
+        }
+
+        if (options.isHeadless()) {
+            System.setProperty("java.awt.headless", "true");
+            try {
+                renderToFile(options, loaded, start);
+            } catch (IOException e) {
+                System.err.println("Could not write " + options.output + ": " + e.getMessage());
+                System.exit(1);
+            }
+            writeStatistics(options.stats);
+            return;
+        }
+
+        JFrame frame = new JFrame("Ray tracer");
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        RayTracer rayTracer = new RayTracer(loaded.scene, loaded.camera, options.width, options.height,
+                options.threads, options.supersampling());
+        frame.add(rayTracer);
+        frame.pack();
+        frame.setVisible(true);
+        rayTracer.renderInBackground(options.progressive, options.stats);
+
+    }
+
+    /**
+     * Loads the scene file given in the options, or builds the default scene if
+     * there isn't one. A scene file without a camera is viewed through the
+     * default camera.
+     */
+    private static LoadedScene loadScene(RenderOptions options) throws IOException {
+        if (options.scene == null) {
+            return new LoadedScene(defaultScene(), defaultCamera());
+        }
+        LoadedScene loaded;
+        if (options.snapshot) {
+            loaded = SceneFiles.loadWithSnapshot(Paths.get(options.scene));
+            if (loaded.snapshotFailure != null) {
+                for (Throwable earlier : loaded.snapshotFailure.getSuppressed()) {
+                    System.err.println(earlier.getMessage());
+                }
+                System.err.println(loaded.snapshotFailure.getMessage());
+            }
+        } else {
+            SceneBuilder builder = SceneFiles.load(Paths.get(options.scene));
+            loaded = new LoadedScene(builder.getScene(), builder.getCamera());
+        }
+        return loaded.camera != null ? loaded : new LoadedScene(loaded.scene, defaultCamera());
+    }
+
+    /**
+     * Renders the scene without opening a window, writes it to the output file,
+     * and prints how long each stage took.
+     *
+     * @param start When loading the scene began, by {@link System#nanoTime()}.
+     */
+    private static void renderToFile(RenderOptions options, LoadedScene loaded, long start) throws IOException {
+        Path output = Paths.get(options.output);
+        boolean highDynamicRange = ImageFiles.isHighDynamicRange(output);
+
+        long sceneBuilt = System.nanoTime();
+        Supersampling supersampling = options.supersampling();
+        RenderCache cache = null;
+        RenderKey key = null;
+        float[] radiance = null;
+        int[] pixels = null;
+        if (options.cache != null) {
+            cache = new RenderCache(Paths.get(options.cache), options.cacheBytes);
+            try {
+                key = RenderKey.of(loaded.scene, loaded.camera, options.width, options.height, supersampling,
+                        highDynamicRange);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Not using the render cache: " + e.getMessage());
+            }
+        }
+        if (key != null) {
+            if (highDynamicRange) {
+                radiance = cache.getRadiance(key);
+            } else {
+                pixels = cache.getPixels(key);
+            }
+        }
+        boolean cached = radiance != null || pixels != null;
+        RenderKey previousKey = key != null && !cached ? cache.getMostRecentKey() : null;
+
+        long primaryRays = 0;
+        String renderedOn = null;
+        if (!cached) {
+            if (options.isDistributed()) {
+                RenderJob job = RenderJob.create(options.scene == null ? null : Paths.get(options.scene), loaded.camera,
+                        options.width, options.height, supersampling, options.reflectionLimits(),
+                        options.lightSampling(), options.singlePrecision, loaded.scene.getAcceleratorType());
+                try (RenderCoordinator coordinator = new RenderCoordinator(job, Math.max(0, options.listen))) {
+                    System.out.printf("Coordinating workers on port %d%n", coordinator.getPort());
+                    if (options.workers > 0) {
+                        coordinator.startLocalWorkers(options.workers,
+                                Math.max(1, options.threads / options.workers));
+                    }
+                    if (highDynamicRange) {
+                        radiance = coordinator.renderHighDynamicRange();
+                    } else {
+                        pixels = coordinator.render();
+                    }
+                    primaryRays = coordinator.getSamplesTraced();
+                    renderedOn = coordinator.getWorkersConnected() + " workers";
+                    if (coordinator.getWorkersLost() > 0) {
+                        renderedOn += ", " + coordinator.getWorkersLost() + " lost";
+                    }
+                    if (coordinator.getTilesReissued() > 0) {
+                        renderedOn += " (" + coordinator.getTilesReissued() + " tiles reissued)";
+                    }
+                }
+            } else {
+                TileRenderer renderer = new TileRenderer(loaded.scene, loaded.camera, options.width,
+                        options.height, options.threads, TileRenderer.DEFAULT_TILE_SIZE, supersampling);
+                if (highDynamicRange) {
+                    radiance = renderer.renderHighDynamicRange();
+                } else {
+                    pixels = renderer.render();
+                }
+                primaryRays = renderer.getSamplesTraced();
+                renderedOn = options.threads + " threads";
+            }
+        }
+        long rendered = System.nanoTime();
+        if (key != null && !cached) {
+            if (radiance != null) {
+                cache.putRadiance(key, options.width, options.height, radiance);
+            } else {
+                cache.putPixels(key, options.width, options.height, pixels);
+            }
+        }
+
+        if (radiance != null) {
+            ImageFiles.writePfm(output, options.width, options.height, radiance);
+        } else {
+            ImageFiles.write(output, options.width, options.height, pixels);
+        }
+        long written = System.nanoTime();
+
+        double renderSeconds = (rendered - sceneBuilt) / 1e9;
+        System.out.printf("Scene built in %.1f ms%n", (sceneBuilt - start) / 1e6);
+        printHierarchy(loaded.scene.getHierarchy());
+        if (key != null) {
+            printCacheUse(cache, key, previousKey, cached);
+        }
+        if (cached) {
+            System.out.printf("Read %dx%d from the render cache in %.1f ms%n", options.width, options.height,
+                    renderSeconds * 1e3);
+        } else {
+            System.out.printf("Rendered %dx%d on %s in %.1f ms (%.0f primary rays/s)%n", options.width,
+                    options.height, renderedOn, renderSeconds * 1e3, primaryRays / renderSeconds);
+        }
+        if (supersampling != null && !cached) {
+            System.out.printf("Anti-aliased with %s: average %.2f samples per pixel%n", supersampling,
+                    primaryRays / ((double) options.width * options.height));
+        }
+        System.out.printf("Wrote %s in %.1f ms%n", output, (written - rendered) / 1e6);
+        System.out.printf("Total %.1f ms%n", (written - start) / 1e6);
+    }
+
+    /** Prints how long the scene's hierarchy took to build and how good a tree it is. */
+    private static void printHierarchy(BoundingVolumeHierarchy hierarchy) {
+        String built = hierarchy.getBuildNanos() > 0
+                ? String.format("built in %.1f ms", hierarchy.getBuildNanos() / 1e6)
+                : "read back";
+        System.out.printf("Hierarchy of %d shapes %s: %d nodes, surface area cost %.1f%n", hierarchy.size(), built,
+                hierarchy.getNodeCount(), hierarchy.getSurfaceAreaCost());
+    }
+
+    /**
+     * Prints whether the image came from the render cache, what changed since
+     * the last image cached if it didn't, and the cache's counts.
+     */
+    private static void printCacheUse(RenderCache cache, RenderKey key, RenderKey previousKey, boolean cached)
+            throws IOException {
+        String result;
+        if (cached) {
+            result = "hit";
+        } else if (previousKey == null) {
+            result = "miss (cache empty)";
+        } else {
+            result = "miss (" + String.join(", ", key.changesFrom(previousKey)) + " changed since the last image)";
+        }
+        System.out.printf("Render cache %s: %d hits, %d misses, %d evictions, %.1f of %.1f MB used%n", result,
+                cache.getHits(), cache.getMisses(), cache.getEvictions(), cache.getSize() / 1048576.0,
+                cache.getMaxSize() / 1048576.0);
+    }
+
+    /**
+     * Renders every frame of the animation to numbered files, and prints how
+     * long it took and how fast frames were rendered.
+     */
+    private static void renderSequence(RenderOptions options) throws IOException {
+        long start = System.nanoTime();
+        Animation animation = Animation.read(Paths.get(options.animation));
+        List<Shape> objects;
+        List<Light> lights;
+        Camera camera;
+        if (options.scene == null) {
+            objects = defaultObjects();
+            lights = defaultLights();
+            camera = defaultCamera();
+        } else {
+            // Objects are animated by their place in the scene file, so the scene is
+            // built from the file rather than from a snapshot.
+            SceneBuilder builder = SceneFiles.load(Paths.get(options.scene));
+            objects = builder.getObjects();
+            lights = builder.getLights();
+            camera = builder.getCamera() != null ? builder.getCamera() : defaultCamera();
+        }
+        Supersampling supersampling = options.supersampling();
+        SequenceRenderer renderer = new SequenceRenderer(objects, lights, animation, camera, options.width,
+                options.height, options.threads, supersampling, options.reflectionLimits(),
+                options.lightSampling(), options.singlePrecision, options.accelerator);
+        long loaded = System.nanoTime();
+
+        int frames = animation.getFrameCount();
+        long[] frameStart = { loaded };
+        renderer.renderToFiles(0, frames - 1, options.output, frame -> {
+            long now = System.nanoTime();
+            System.out.printf("Frame %d of %d rendered in %.1f ms%n", frame + 1, frames,
+                    (now - frameStart[0]) / 1e6);
+            frameStart[0] = now;
+        });
+        long done = System.nanoTime();
+
+        double seconds = (done - loaded) / 1e9;
+        System.out.printf("Animation and scene loaded in %.1f ms%n", (loaded - start) / 1e6);
+        System.out.printf("Rendered %d frames of %dx%d on %d threads in %.1f s"
+                + " (%.0f frames/hour, %.0f primary rays/s)%n", frames, options.width, options.height,
+                options.threads, seconds, frames * 3600 / seconds, renderer.getSamplesTraced() / seconds);
+        System.out.printf("Hierarchy refitted %d times and built %d times%n", renderer.getRefits(),
+                renderer.getBuilds());
+        System.out.printf("Waited %.1f ms in all for frames to be written%n", renderer.getWriteWaitNanos() / 1e6);
+    }
+
+    /**
+     * Writes the render statistics as JSON to the given file, or to standard
+     * output if it is "-". Does nothing if the file is null.
+     */
+    private static void writeStatistics(String file) {
+        if (file == null) {
+            return;
+        }
+        String json = RenderStatistics.total().toJson();
+        if (file.equals("-")) {
+            System.out.print(json);
+            return;
+        }
+        try {
+            Files.write(Paths.get(file), json.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.err.println("Could not write " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Builds the demonstration scene: a few spheres, a grid of little spheres, and
+     * planes on three sides.
+     */
+    public static Scene defaultScene() {
+        return new Scene(defaultObjects(), defaultLights());
+    }
+
+    /** The shapes of the demonstration scene, in the order of scenes/default.scene. */
+    private static List<Shape> defaultObjects() {
         List<Shape> objects = new ArrayList<>();
-        List<Light> lights = new ArrayList<>();
         // Medium spheres
         objects.add(new Shape(new Sphere(new Vec3(-1.0, -1.0, 5.0), 1.0), new Colour(1.0, 0.9, 0.9),
                 new Colour(0.2, 0.2, 0.2)));
@@ -58,31 +430,48 @@ public class RayTracer extends JPanel {
                         Colour.WHITE));
         // Back plane
         objects.add(new Shape(new Plane(new Vec3(0.0, 0.0, 10.0), new Vec3(0.0, 0.0, -1.0)), Colour.WHITE));
-        // Lights
+        return objects;
+    }
+
+    private static List<Light> defaultLights() {
+        List<Light> lights = new ArrayList<>();
         lights.add(new Light(new Vec3(0.0, -5.0, -5.0), Colour.WHITE));
         lights.add(new Light(new Vec3(-1.0, 0.7, 1.0), new Colour(0.2, 0.15, 0.2)));
-        Scene scene = new Scene(objects, lights);
+        return lights;
+    }
 
-        Camera camera = new Camera(new Vec3(0.0, 0.0, -5.0), new Vec3(0.0, 0.0, -2.0), new Vec3(1.0, 0.0, 0.0),
+    /**
+     * Returns the camera the demonstration scene is viewed through.
+     */
+    public static Camera defaultCamera() {
+        return new Camera(new Vec3(0.0, 0.0, -5.0), new Vec3(0.0, 0.0, -2.0), new Vec3(1.0, 0.0, 0.0),
                 new Vec3(0.0, 1.0, 0.0));
-
-        JFrame frame = new JFrame("Ray tracer");
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        RayTracer rayTracer = new RayTracer(scene, camera);
-        rayTracer.render();
-        frame.add(rayTracer);
-        frame.pack();
-        frame.setVisible(true);
-
     }
 
-    private void render() {
-        for (int x = 0; x < WIDTH; ++x) {
-            for (int y = 0; y < HEIGHT; ++y) {
-                Ray ray = camera.rayForPixel(x * 2.0 / WIDTH - 1.0, y * 2.0 / HEIGHT - 1.0);
-                Colour rayColour = scene.colourForRay(ray);
-                image.setRGB(x, y, rayColour.toRGBInt());
+    /**
+     * Starts rendering on a background thread, repainting the window as each tile
+     * is finished.
+     *
+     * @param progressive    Whether to render a coarse image first and refine it,
+     *                       rather than tracing each tile at full resolution.
+     * @param statisticsFile Where to write the render statistics when rendering
+     *                       has finished, as for {@link #writeStatistics}.
+     */
+    private void renderInBackground(boolean progressive, String statisticsFile) {
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        Thread renderThread = new Thread(() -> {
+            if (progressive) {
+                renderer.renderProgressive(pixels, tile -> repaint());
+            } else {
+                renderer.forEachTile(renderer.tiles(), tile -> {
+                    renderer.renderTile(tile, pixels);
+                    repaint();
+                });
             }
-        }
+            repaint();
+            writeStatistics(statisticsFile);
+        }, "Ray tracer render");
+        renderThread.setDaemon(true);
+        renderThread.start();
     }
 }
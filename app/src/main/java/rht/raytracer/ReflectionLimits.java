@@ -0,0 +1,55 @@
+package rht.raytracer;
+
+/**
+ * Settings for when to stop following reflections: after how many bounces at
+ * most, and how little of the light arriving along a reflected ray may still
+ * reach the camera before it is no longer worth tracing.
+ *
+ * Each reflection scales what the following ones can contribute by the
+ * surface's reflection colour. Once that product, the path's throughput, is
+ * below {@link #cutoff} in every channel, the rest of the path can change the
+ * pixel by no more than about that fraction of the brightness of what it would
+ * see, and tracing stops. Surfaces near a light can be lit far above full
+ * brightness, so even a small cutoff can visibly change a pixel, and there is
+ * none by default: paths then end only at the depth limit, as they used to.
+ *
+ * Above the cutoff but below {@link #rouletteThroughput}, a path can instead be
+ * ended at random, with a chance that grows as its throughput falls, and the
+ * paths that survive are weighted up to make up for those that don't. This
+ * plays Russian roulette: the expected colour is unchanged, but dim paths are
+ * mostly not traced. Which paths survive depends only on where they bounce,
+ * so the image doesn't depend on the order or threads in which pixels are
+ * traced.
+ */
+public class ReflectionLimits {
+    public static final int DEFAULT_MAX_DEPTH = 10;
+    public static final double DEFAULT_CUTOFF = 0.0;
+    public static final ReflectionLimits DEFAULT = new ReflectionLimits(DEFAULT_MAX_DEPTH, DEFAULT_CUTOFF, 0.0);
+
+    /** The most reflections followed from any one ray. */
+    public final int maxDepth;
+    /** The throughput below which reflections are no longer followed, or 0 for never. */
+    public final double cutoff;
+    /** The throughput below which paths play Russian roulette, or 0 for never. */
+    public final double rouletteThroughput;
+
+    public ReflectionLimits(int maxDepth, double cutoff, double rouletteThroughput) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("The maximum depth can't be negative.");
+        }
+        if (!(cutoff >= 0.0 && cutoff <= 1.0)) {
+            throw new IllegalArgumentException("The cutoff must be between 0 and 1.");
+        }
+        if (!(rouletteThroughput >= 0.0 && rouletteThroughput <= 1.0)) {
+            throw new IllegalArgumentException("The roulette throughput must be between 0 and 1.");
+        }
+        this.maxDepth = maxDepth;
+        this.cutoff = cutoff;
+        this.rouletteThroughput = rouletteThroughput;
+    }
+
+    public String toString() {
+        String limits = "at most " + maxDepth + " reflections, cutoff " + cutoff;
+        return rouletteThroughput > 0.0 ? limits + ", roulette below " + rouletteThroughput : limits;
+    }
+}
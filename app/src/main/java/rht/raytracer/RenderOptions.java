@@ -0,0 +1,339 @@
+package rht.raytracer;
+
+import java.nio.file.Paths;
+import java.util.IllegalFormatException;
+
+import rht.raytracer.acceleration.AcceleratorType;
+import rht.raytracer.cache.RenderCache;
+
+/**
+ * Settings for a render, parsed from the command line.
+ */
+public class RenderOptions {
+    public static final String USAGE = "Usage: raytracer [options]\n"
+            + "  --width <pixels>     Image width (default 1000)\n"
+            + "  --height <pixels>    Image height (default 1000)\n"
+            + "  --threads <count>    Render threads (default: one per processor)\n"
+            + "  --output <file>      Render without a window, writing to a .png, .ppm or .pfm\n"
+            + "                       file (other extensions are passed to ImageIO)\n"
+            + "  --scene <file>       Render a scene file (text, or binary if it ends in .rtsb)\n"
+            + "                       instead of the built-in scene\n"
+            + "  --snapshot           Keep a snapshot of the built --scene beside it, and start\n"
+            + "                       from that while the scene file is unchanged\n"
+            + "  --convert <file>     Convert the --scene file to the binary format and exit\n"
+            + "  --animation <file>   Render every frame of an animation file, writing each to\n"
+            + "                       --output formatted with the frame number, such as\n"
+            + "                       frame%04d.png\n"
+            + "  --samples <count>    Rays to trace through every pixel; more than 1 turns on\n"
+            + "                       adaptive anti-aliasing (default 1)\n"
+            + "  --max-samples <count>\n"
+            + "                       Most rays per pixel when anti-aliasing (default 16 times\n"
+            + "                       --samples)\n"
+            + "  --aa-threshold <value>\n"
+            + "                       How far, from 0 to 1, a pixel's colour may be in doubt\n"
+            + "                       before more rays are traced (default 0.02)\n"
+            + "  --max-depth <count>  Most reflections followed from any ray (default 10)\n"
+            + "  --reflection-cutoff <value>\n"
+            + "                       Stop following reflections once the product of their\n"
+            + "                       reflection colours is below this (default 0: never)\n"
+            + "  --roulette <value>   End dimmer reflection paths than this at random, weighting\n"
+            + "                       the rest to keep the expected colour (default 0: never)\n"
+            + "  --light-cutoff <value>\n"
+            + "                       Skip lights where they can add no more than this fraction\n"
+            + "                       of full brightness, finding the rest through a grid\n"
+            + "                       (default 0: never)\n"
+            + "  --light-samples <count>\n"
+            + "                       Trace shadow rays to this many lights at each point, chosen\n"
+            + "                       at random by how much they could add (default 0: all)\n"
+            + "  --single-precision   Store spheres in single precision, which halves their memory\n"
+            + "                       at the cost of rounding them slightly\n"
+            + "  --accelerator <kind> Find what rays hit through a bvh, grid or octree, or auto to\n"
+            + "                       time each on a sample of rays and keep the quickest\n"
+            + "                       (default bvh)\n"
+            + "  --cache <directory>  Keep rendered images in this directory, and reuse one when\n"
+            + "                       the scene, camera and settings are unchanged\n"
+            + "  --cache-size <megabytes>\n"
+            + "                       Most space the --cache may take before the least recently\n"
+            + "                       used images are deleted (default 1024)\n"
+            + "  --stats <file>       Count rays, intersection tests and tile times, readable over\n"
+            + "                       JMX while rendering, and write them to the file as JSON\n"
+            + "                       at the end (- for standard output)\n"
+            + "  --workers <count>    Render in this many worker processes started on this\n"
+            + "                       machine, each with --threads divided between them\n"
+            + "  --listen <port>      Coordinate workers on this port, including any started\n"
+            + "                       elsewhere with --worker (default: any free port)\n"
+            + "  --worker <host:port> Render tiles for the coordinator at this address, then exit\n"
+            + "  --no-progressive     In a window, render each tile at full resolution instead\n"
+            + "                       of showing a coarse image first and refining it\n"
+            + "  --help               Show this message\n";
+
+    public int width = 1000;
+    public int height = 1000;
+    public int threads = Runtime.getRuntime().availableProcessors();
+    /** The file to write the image to, or null to show it in a window. */
+    public String output = null;
+    /** The scene file to render, or null for the built-in scene. */
+    public String scene = null;
+    /** Whether to load the scene file through a snapshot of the built scene. */
+    public boolean snapshot = false;
+    /** The binary scene file to convert the scene file to, or null to render. */
+    public String convert = null;
+    /** The animation file to render the frames of, or null to render one image. */
+    public String animation = null;
+    /** The number of rays traced through every pixel. */
+    public int samples = 1;
+    /** The most rays traced through any pixel, or 0 for the default. */
+    public int maxSamples = 0;
+    public double aaThreshold = Supersampling.DEFAULT_THRESHOLD;
+    public int maxDepth = ReflectionLimits.DEFAULT_MAX_DEPTH;
+    public double reflectionCutoff = ReflectionLimits.DEFAULT_CUTOFF;
+    public double roulette = 0.0;
+    public double lightCutoff = 0.0;
+    /** The number of lights to sample at each point, or 0 for all. */
+    public int lightSamples = 0;
+    /** Whether to store the scene's spheres in single precision. */
+    public boolean singlePrecision = false;
+    public AcceleratorType accelerator = AcceleratorType.BVH;
+    /** The directory of the render cache, or null to always render. */
+    public String cache = null;
+    public long cacheBytes = RenderCache.DEFAULT_MAX_BYTES;
+    /** The file to write render statistics to, "-" for standard output, or null for none. */
+    public String stats = null;
+    /** The number of local worker processes to render in, or 0 for none. */
+    public int workers = 0;
+    /** The port to coordinate workers on, 0 for any, or -1 to render in this process. */
+    public int listen = -1;
+    /** The coordinator to render tiles for, or null to render a whole frame. */
+    public String workerHost = null;
+    public int workerPort = 0;
+    /** Whether the window shows a coarse image first and refines it. */
+    public boolean progressive = true;
+    public boolean help = false;
+
+    /**
+     * Parses command line arguments.
+     *
+     * @throws IllegalArgumentException if an argument is unknown, missing its
+     *                                  value, or out of range.
+     */
+    public static RenderOptions parse(String[] args) {
+        RenderOptions options = new RenderOptions();
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            switch (arg) {
+                case "--width":
+                    options.width = positiveInt(arg, value(args, ++i, arg));
+                    break;
+                case "--height":
+                    options.height = positiveInt(arg, value(args, ++i, arg));
+                    break;
+                case "--threads":
+                    options.threads = positiveInt(arg, value(args, ++i, arg));
+                    break;
+                case "--output":
+                    options.output = value(args, ++i, arg);
+                    break;
+                case "--scene":
+                    options.scene = value(args, ++i, arg);
+                    break;
+                case "--snapshot":
+                    options.snapshot = true;
+                    break;
+                case "--convert":
+                    options.convert = value(args, ++i, arg);
+                    break;
+                case "--animation":
+                    options.animation = value(args, ++i, arg);
+                    break;
+                case "--samples":
+                    options.samples = positiveInt(arg, value(args, ++i, arg));
+                    break;
+                case "--max-samples":
+                    options.maxSamples = positiveInt(arg, value(args, ++i, arg));
+                    break;
+                case "--aa-threshold":
+                    options.aaThreshold = fraction(arg, value(args, ++i, arg));
+                    break;
+                case "--max-depth":
+                    options.maxDepth = nonNegativeInt(arg, value(args, ++i, arg));
+                    break;
+                case "--reflection-cutoff":
+                    options.reflectionCutoff = fraction(arg, value(args, ++i, arg));
+                    break;
+                case "--roulette":
+                    options.roulette = fraction(arg, value(args, ++i, arg));
+                    break;
+                case "--light-cutoff":
+                    options.lightCutoff = fraction(arg, value(args, ++i, arg));
+                    break;
+                case "--light-samples":
+                    options.lightSamples = nonNegativeInt(arg, value(args, ++i, arg));
+                    break;
+                case "--single-precision":
+                    options.singlePrecision = true;
+                    break;
+                case "--accelerator":
+                    options.accelerator = AcceleratorType.fromName(value(args, ++i, arg));
+                    break;
+                case "--cache":
+                    options.cache = value(args, ++i, arg);
+                    break;
+                case "--cache-size":
+                    options.cacheBytes = positiveInt(arg, value(args, ++i, arg)) * (1L << 20);
+                    break;
+                case "--stats":
+                    options.stats = value(args, ++i, arg);
+                    break;
+                case "--workers":
+                    options.workers = positiveInt(arg, value(args, ++i, arg));
+                    break;
+                case "--listen":
+                    options.listen = port(arg, value(args, ++i, arg));
+                    break;
+                case "--worker": {
+                    String address = value(args, ++i, arg);
+                    int colon = address.lastIndexOf(':');
+                    if (colon <= 0) {
+                        throw new IllegalArgumentException(arg + " must be a host and port, such as localhost:7000.");
+                    }
+                    options.workerHost = address.substring(0, colon);
+                    options.workerPort = port(arg, address.substring(colon + 1));
+                    break;
+                }
+                case "--no-progressive":
+                    options.progressive = false;
+                    break;
+                case "--help":
+                case "-h":
+                    options.help = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+        if (options.convert != null && options.scene == null) {
+            throw new IllegalArgumentException("--convert needs a --scene to convert.");
+        }
+        if (options.snapshot && options.scene == null) {
+            throw new IllegalArgumentException("--snapshot needs a --scene to load.");
+        }
+        if (options.output != null) {
+            ImageFiles.checkWritable(Paths.get(options.output));
+        }
+        if (options.isDistributed() && !options.isHeadless()) {
+            throw new IllegalArgumentException("--workers and --listen need an --output file.");
+        }
+        if (options.animation != null) {
+            checkAnimation(options);
+        }
+        if (options.cache != null && (!options.isHeadless() || options.animation != null)) {
+            throw new IllegalArgumentException(
+                    "--cache needs an --output file, and can't be used with --animation.");
+        }
+        if (options.maxSamples != 0 && options.maxSamples < options.samples) {
+            throw new IllegalArgumentException("--max-samples can't be fewer than --samples.");
+        }
+        return options;
+    }
+
+    private static void checkAnimation(RenderOptions options) {
+        boolean numbered;
+        try {
+            numbered = options.output != null
+                    && !String.format(options.output, 0).equals(String.format(options.output, 1));
+        } catch (IllegalFormatException e) {
+            numbered = false;
+        }
+        if (!numbered) {
+            throw new IllegalArgumentException(
+                    "--animation needs an --output file name with a frame number, such as frame%04d.png.");
+        }
+        if (options.snapshot || options.isDistributed()) {
+            throw new IllegalArgumentException("--animation can't be used with --snapshot, --workers or --listen.");
+        }
+    }
+
+    /**
+     * Returns how to anti-alias the image, or null to trace a single ray through
+     * each pixel.
+     */
+    public Supersampling supersampling() {
+        int max = maxSamples != 0 ? maxSamples : samples * Supersampling.DEFAULT_MAX_MULTIPLE;
+        if (samples == 1 && maxSamples <= 1) {
+            return null;
+        }
+        return new Supersampling(samples, max, aaThreshold);
+    }
+
+    /** Returns when to stop following reflections. */
+    public ReflectionLimits reflectionLimits() {
+        return new ReflectionLimits(maxDepth, reflectionCutoff, roulette);
+    }
+
+    /** Returns which lights to trace shadow rays to. */
+    public LightSampling lightSampling() {
+        return new LightSampling(lightCutoff, lightSamples);
+    }
+
+    /** Whether to render straight to a file rather than showing a window. */
+    public boolean isHeadless() {
+        return output != null;
+    }
+
+    /** Whether to render through worker processes rather than in this one. */
+    public boolean isDistributed() {
+        return workers > 0 || listen >= 0;
+    }
+
+    private static String value(String[] args, int index, String name) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(name + " needs a value.");
+        }
+        return args[index];
+    }
+
+    private static double fraction(String name, String value) {
+        double result;
+        try {
+            result = Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number, not " + value + ".");
+        }
+        if (!(result >= 0.0 && result <= 1.0)) {
+            throw new IllegalArgumentException(name + " must be between 0 and 1.");
+        }
+        return result;
+    }
+
+    private static int positiveInt(String name, String value) {
+        int result = wholeNumber(name, value);
+        if (result < 1) {
+            throw new IllegalArgumentException(name + " must be at least 1.");
+        }
+        return result;
+    }
+
+    private static int nonNegativeInt(String name, String value) {
+        int result = wholeNumber(name, value);
+        if (result < 0) {
+            throw new IllegalArgumentException(name + " can't be negative.");
+        }
+        return result;
+    }
+
+    private static int port(String name, String value) {
+        int result = wholeNumber(name, value);
+        if (result < 0 || result > 65535) {
+            throw new IllegalArgumentException(name + " must have a port from 0 to 65535.");
+        }
+        return result;
+    }
+
+    private static int wholeNumber(String name, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a whole number, not " + value + ".");
+        }
+    }
+}
@@ -1,20 +1,294 @@
 package rht.raytracer;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
+import rht.raytracer.acceleration.Accelerator;
+import rht.raytracer.acceleration.AcceleratorProbe;
+import rht.raytracer.acceleration.AcceleratorType;
+import rht.raytracer.acceleration.BoundingVolumeHierarchy;
+import rht.raytracer.acceleration.LightGrid;
 import rht.raytracer.maths.Vec3;
 import rht.raytracer.shapes.Shape;
+import rht.raytracer.statistics.RenderCounters;
+import rht.raytracer.statistics.RenderStatistics;
 
 public class Scene {
     private static final double BRIGHTNESS_CORRECTION_FACTOR = 40.0;
-    private static final int RECURSION_LIMIT = 10;
+    /** The blocks of pixels along each side of the image whose rays choose an accelerator. */
+    private static final int PROBE_BLOCKS = 4;
+    /** The most lights that shadow rays are traced to when choosing an accelerator. */
+    private static final int PROBE_LIGHTS = 4;
 
-    private final List<Shape> objects;
     private final List<Light> lights;
+    private final Light[] lightArray;
+    /** The index of every light, in order, for looking at all of them. */
+    private final int[] allLights;
+    /** The brightest channel of each light's colour. */
+    private final double[] lightStrengths;
+    /** Objects with no bounding box, which must be tested against every ray. */
+    private final Shape[] unboundedObjects;
+    private final BoundingVolumeHierarchy hierarchy;
+    /**
+     * What the bounded objects are searched with, which is the hierarchy unless
+     * another kind is chosen. Replaced while the scene is not being rendered.
+     */
+    private Accelerator accelerator;
+    private AcceleratorType acceleratorType = AcceleratorType.BVH;
+
+    /**
+     * Each thread's reusable scratch space, so that tracing doesn't allocate.
+     * Read through {@link #traceState()}, since it remembers objects between rays.
+     */
+    private final ThreadLocal<TraceState> traceStates;
+    /**
+     * Counts the times objects have been replaced, so that each thread's trace
+     * state can forget the objects it remembered from before.
+     */
+    private int objectGeneration;
+    /** When to stop following reflections. Set before rendering, not during it. */
+    private ReflectionLimits reflectionLimits = ReflectionLimits.DEFAULT;
+    /** Which lights to trace shadow rays to. Set before rendering, not during it. */
+    private LightSampling lightSampling = LightSampling.DEFAULT;
+    /**
+     * The square of the distance beyond which each light falls below the light
+     * cutoff, which is infinite without a cutoff.
+     */
+    private double[] lightRangesSquared;
+    /** The lights near each part of the scene, or null without a light cutoff. */
+    private LightGrid lightGrid;
 
     public Scene(List<Shape> objects, List<Light> lights) {
-        this.objects = objects;
+        this(lights, selectObjects(objects, false), new BoundingVolumeHierarchy(selectObjects(objects, true)));
+    }
+
+    /**
+     * Creates a scene around a hierarchy which has already been built, such as one
+     * read back from a snapshot.
+     *
+     * @param unboundedObjects The objects with no bounding box, which are not in
+     *                         the hierarchy.
+     */
+    public Scene(List<Light> lights, List<Shape> unboundedObjects, BoundingVolumeHierarchy hierarchy) {
         this.lights = lights;
+        this.lightArray = lights.toArray(new Light[0]);
+        this.allLights = new int[lightArray.length];
+        this.lightStrengths = new double[lightArray.length];
+        for (int i = 0; i < lightArray.length; ++i) {
+            allLights[i] = i;
+            Colour colour = lightArray[i].getColour();
+            lightStrengths[i] = Math.max(colour.r, Math.max(colour.g, colour.b));
+        }
+        this.lightRangesSquared = new double[lightArray.length];
+        Arrays.fill(lightRangesSquared, Double.POSITIVE_INFINITY);
+        int lightCount = lightArray.length;
+        this.traceStates = ThreadLocal.withInitial(() -> new TraceState(lightCount));
+        this.unboundedObjects = unboundedObjects.toArray(new Shape[0]);
+        this.hierarchy = hierarchy;
+        this.accelerator = hierarchy;
+    }
+
+    /**
+     * Returns the current thread's trace state, first forgetting the objects it
+     * remembered if any have been replaced since it last traced.
+     */
+    private TraceState traceState() {
+        TraceState state = traceStates.get();
+        if (state.objectGeneration != objectGeneration) {
+            Arrays.fill(state.lastOccluders, null);
+            state.objectGeneration = objectGeneration;
+        }
+        return state;
+    }
+
+    private static List<Shape> selectObjects(List<Shape> objects, boolean bounded) {
+        List<Shape> selected = new ArrayList<>();
+        for (Shape object : objects) {
+            if ((object.getShapeType().boundingBox() != null) == bounded) {
+                selected.add(object);
+            }
+        }
+        return selected;
+    }
+
+    public List<Light> getLights() {
+        return lights;
+    }
+
+    /** The objects with no bounding box, which every ray is tested against. */
+    public List<Shape> getUnboundedObjects() {
+        return Collections.unmodifiableList(Arrays.asList(unboundedObjects));
+    }
+
+    /** The hierarchy holding every object with a bounding box. */
+    public BoundingVolumeHierarchy getHierarchy() {
+        return hierarchy;
+    }
+
+    /**
+     * Replaces some of the scene's objects with others, normally the same
+     * objects moved, refitting the hierarchy around them instead of building it
+     * again. Any other kind of accelerator is built again from the refitted
+     * hierarchy. This must not be called while the scene is being rendered.
+     *
+     * @param replacements The replacement for each object to replace. Each must
+     *                     have a bounding box if and only if the object it
+     *                     replaces does.
+     * @throws IllegalArgumentException if an object to replace isn't in the
+     *                                  scene.
+     */
+    public void replaceObjects(Map<Shape, Shape> replacements) {
+        int replaced = 0;
+        for (int i = 0; i < unboundedObjects.length; ++i) {
+            Shape replacement = replacements.get(unboundedObjects[i]);
+            if (replacement != null) {
+                if (replacement.getShapeType().boundingBox() != null) {
+                    throw new IllegalArgumentException("An unbounded object can't be replaced by a bounded one.");
+                }
+                unboundedObjects[i] = replacement;
+                ++replaced;
+            }
+        }
+        replaced += hierarchy.replaceShapes(replacements);
+        if (replaced < replacements.size()) {
+            throw new IllegalArgumentException("Only objects in the scene can be replaced.");
+        }
+        rebuildAccelerator();
+        // Forget the shadowing objects remembered from before, which may have moved.
+        ++objectGeneration;
+    }
+
+    /**
+     * Starts recording what the rays which the current thread traces meet into a
+     * tile's footprint, or stops if it is null.
+     */
+    void recordFootprint(TileFootprint footprint) {
+        traceState().footprint = footprint;
+    }
+
+    /** Whether the plain spheres of the scene's hierarchy are stored in single precision. */
+    public boolean isSinglePrecision() {
+        return hierarchy.isSinglePrecision();
+    }
+
+    /**
+     * Stores the plain spheres of the scene's hierarchy in single or double
+     * precision, as {@link BoundingVolumeHierarchy#setSinglePrecision}
+     * describes. This must not be called while the scene is being rendered.
+     */
+    public void setSinglePrecision(boolean singlePrecision) {
+        if (singlePrecision != hierarchy.isSinglePrecision()) {
+            hierarchy.setSinglePrecision(singlePrecision);
+            rebuildAccelerator();
+        }
+    }
+
+    /** The kind of accelerator the bounded objects are searched with. */
+    public AcceleratorType getAcceleratorType() {
+        return acceleratorType;
+    }
+
+    /**
+     * Searches the bounded objects with the given kind of accelerator, building
+     * it over the hierarchy's shapes. This must not be called while the scene is
+     * being rendered.
+     *
+     * @param type The kind of accelerator, which must not be
+     *             {@link AcceleratorType#AUTO}; {@link #chooseAccelerator} makes
+     *             that choice.
+     */
+    public void setAccelerator(AcceleratorType type) {
+        accelerator = type.build(hierarchy);
+        acceleratorType = type;
+    }
+
+    /**
+     * Chooses the kind of accelerator to search the bounded objects with, by
+     * timing each kind on the primary rays through a few blocks of pixels spread
+     * over the image, and on shadow rays from where they hit towards a few of
+     * the lights, as {@link AcceleratorProbe} describes. This must not be called
+     * while the scene is being rendered.
+     *
+     * @param width  The width in pixels of the image to be rendered, which with
+     *               the height sets how many rays are expected.
+     * @return the probe, which describes how each kind did.
+     */
+    public AcceleratorProbe chooseAccelerator(Camera camera, int width, int height) {
+        int blockSize = TileRenderer.PACKET_SIZE;
+        RayPacket[] packets = new RayPacket[PROBE_BLOCKS * PROBE_BLOCKS];
+        for (int block = 0; block < packets.length; ++block) {
+            // Centre each block in its share of the image.
+            int left = (int) ((block % PROBE_BLOCKS + 0.5) * width / PROBE_BLOCKS) - blockSize / 2;
+            int top = (int) ((block / PROBE_BLOCKS + 0.5) * height / PROBE_BLOCKS) - blockSize / 2;
+            packets[block] = new RayPacket(blockSize * blockSize);
+            packets[block].size = blockSize * blockSize;
+            for (int y = 0; y < blockSize; ++y) {
+                for (int x = 0; x < blockSize; ++x) {
+                    camera.rayForPixel((left + x) * 2.0 / width - 1.0, (top + y) * 2.0 / height - 1.0,
+                            packets[block], y * blockSize + x);
+                }
+            }
+        }
+        Vec3[] lightPositions = new Vec3[Math.min(lightArray.length, PROBE_LIGHTS)];
+        for (int i = 0; i < lightPositions.length; ++i) {
+            lightPositions[i] = lightArray[i * lightArray.length / lightPositions.length].getPosition();
+        }
+        int shadowRays = lightSampling.samples > 0 ? Math.min(lightSampling.samples, lightArray.length)
+                : lightArray.length;
+        long expectedRays = (long) width * height * (1 + shadowRays);
+        AcceleratorProbe probe = new AcceleratorProbe(hierarchy, packets, lightPositions, expectedRays);
+        accelerator = probe.getAccelerator();
+        acceleratorType = probe.getChosenType();
+        return probe;
+    }
+
+    /** Builds the accelerator again after the hierarchy's shapes have changed. */
+    private void rebuildAccelerator() {
+        if (accelerator != hierarchy) {
+            accelerator = acceleratorType.build(hierarchy);
+        }
+    }
+
+    public ReflectionLimits getReflectionLimits() {
+        return reflectionLimits;
+    }
+
+    /**
+     * Sets when to stop following reflections. This must not be called while the
+     * scene is being rendered.
+     */
+    public void setReflectionLimits(ReflectionLimits reflectionLimits) {
+        this.reflectionLimits = reflectionLimits;
+    }
+
+    public LightSampling getLightSampling() {
+        return lightSampling;
+    }
+
+    /**
+     * Sets which lights to trace shadow rays to, building a grid over the lights
+     * if there is a light cutoff. This must not be called while the scene is
+     * being rendered.
+     */
+    public void setLightSampling(LightSampling lightSampling) {
+        this.lightSampling = lightSampling;
+        if (lightSampling.cutoff == 0.0) {
+            Arrays.fill(lightRangesSquared, Double.POSITIVE_INFINITY);
+            lightGrid = null;
+            return;
+        }
+        Vec3[] positions = new Vec3[lightArray.length];
+        double[] ranges = new double[lightArray.length];
+        for (int i = 0; i < lightArray.length; ++i) {
+            // A light adds at most strength * factor / distance squared to a channel.
+            lightRangesSquared[i] = lightStrengths[i] * BRIGHTNESS_CORRECTION_FACTOR / lightSampling.cutoff;
+            positions[i] = lightArray[i].getPosition();
+            ranges[i] = Math.sqrt(lightRangesSquared[i]);
+        }
+        lightGrid = new LightGrid(positions, ranges);
     }
 
     /**
@@ -22,13 +296,13 @@ public class Scene {
      * or null if none.
      */
     public Colour colourForRay(Ray ray) {
-        return colourForRay(ray, RECURSION_LIMIT, null);
+        return colourForRay(ray, reflectionLimits.maxDepth, null);
     }
 
     /**
      * Returns the colour of the first object in the scene which a ray intersects,
      * or null if none.
-     * 
+     *
      * @param ray            The ray along which to find the intersection.
      * @param recursionLimit The maximum number of reflections.
      * @param ignored        A shape to be ignored.
@@ -36,105 +310,466 @@ public class Scene {
      *         reflectivity.
      */
     public Colour colourForRay(Ray ray, int recursionLimit, Shape ignored) {
-        ObjectAndDistance closest = findFirstIntersectionExcept(ray, ignored);
-        if (closest == null) {
-            return new Colour(0, 0, 0);
+        TraceState state = traceState();
+        if (RenderStatistics.ENABLED) {
+            ++state.counters.primaryRays;
+        }
+        Vec3 origin = ray.getOrigin();
+        Vec3 direction = ray.getDirection();
+        ObjectAndDistance hit = state.hit;
+        boolean found = findFirstIntersectionExcept(origin.x, origin.y, origin.z, direction.x, direction.y,
+                direction.z, ignored, Double.POSITIVE_INFINITY, hit);
+        if (state.footprint != null) {
+            state.footprint.addPrimaryRay(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z,
+                    found ? hit.distance : Double.POSITIVE_INFINITY);
+            if (found) {
+                state.footprint.touch(hit.object);
+            }
         }
+        if (!found) {
+            return Colour.BLACK;
+        }
+        return shade(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z, hit.object, hit.distance,
+                recursionLimit, state);
+    }
 
-        Vec3 intersectionPoint = ray.distanceAlong(closest.distance);
-        Vec3 normal = closest.object.getShapeType().normalAtPoint(intersectionPoint);
+    /**
+     * Traces a packet of primary rays, which must all start from the packet's
+     * origin, and stores the colour of each in `colours`.
+     *
+     * The rays are intersected with the scene together. Once each ray's closest
+     * hit is known, it is shaded alone, since the shadow and reflection rays
+     * leaving different points have little in common.
+     */
+    public void colourForPacket(RayPacket packet, Colour[] colours) {
+        TraceState state = traceState();
+        if (RenderStatistics.ENABLED) {
+            state.counters.primaryRays += packet.size;
+        }
+        packet.clearHits();
+        for (Shape object : unboundedObjects) {
+            if (RenderStatistics.ENABLED) {
+                state.counters.countIntersections(object.getShapeType().getClass(), packet.size);
+            }
+            for (int i = 0; i < packet.size; ++i) {
+                double distance = object.getShapeType().intersectDistance(packet.originX, packet.originY,
+                        packet.originZ, packet.directionX[i], packet.directionY[i], packet.directionZ[i]);
+                if (distance < packet.distance[i]) {
+                    packet.distance[i] = distance;
+                    packet.hit[i] = object;
+                }
+            }
+        }
+        accelerator.findFirstIntersections(packet);
 
-        // Find colour from lights.
-        Colour totalIncidentLight = new Colour(0, 0, 0);
-        for (Light light : lights) {
-            Vec3 directionToLight = light.getPosition().minus(intersectionPoint);
-            double lightDistance = directionToLight.length();
-            Vec3 unitDirectionToLight = directionToLight.normalise();
-            double dotProduct = normal.dot(unitDirectionToLight);
+        for (int i = 0; i < packet.size; ++i) {
+            if (state.footprint != null) {
+                state.footprint.addPrimaryRay(packet.originX, packet.originY, packet.originZ, packet.directionX[i],
+                        packet.directionY[i], packet.directionZ[i], packet.distance[i]);
+                if (packet.hit[i] != null) {
+                    state.footprint.touch(packet.hit[i]);
+                }
+            }
+            if (packet.hit[i] == null) {
+                colours[i] = Colour.BLACK;
+            } else {
+                colours[i] = shade(packet.originX, packet.originY, packet.originZ, packet.directionX[i],
+                        packet.directionY[i], packet.directionZ[i], packet.hit[i], packet.distance[i],
+                        reflectionLimits.maxDepth, state);
+            }
+        }
+    }
 
-            // Check whether some other object is between us and the light.
-            ObjectAndDistance firstObjectTowardsLight = findFirstIntersectionExcept(
-                    new Ray(intersectionPoint, unitDirectionToLight), closest.object);
+    /**
+     * Returns whether anything (except for `ignored`) lies along the ray closer
+     * than `maxDistance`. This stops at the first object found, rather than
+     * looking for the closest.
+     */
+    public boolean occluded(Ray ray, double maxDistance, Shape ignored) {
+        Vec3 origin = ray.getOrigin();
+        Vec3 direction = ray.getDirection();
+        return findOccluder(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z, ignored,
+                maxDistance) != null;
+    }
 
-            if (dotProduct > 0.0
-                    && (firstObjectTowardsLight == null || firstObjectTowardsLight.distance > lightDistance)) {
-                Colour incidentLight = light.getColour()
-                        .times(dotProduct * BRIGHTNESS_CORRECTION_FACTOR
-                                / (lightDistance * lightDistance));
-                totalIncidentLight = totalIncidentLight.plus(incidentLight);
+    /**
+     * Returns the colour seen along a ray with the given origin and unit
+     * direction, which hits `closest` at `distance`: the light reaching that
+     * point directly, and whatever is seen in it by reflection.
+     *
+     * Reflections are followed in a loop rather than by recursion. The loop
+     * carries the path's throughput, the product of the reflection colours so
+     * far, which scales everything seen further along it, and stops when the
+     * {@link #reflectionLimits} say the rest can't be worth tracing. Each
+     * bounce's own colour and reflection colour are kept, and folded together
+     * from the last bounce back once the path ends, so that the sums are the
+     * same as those the recursion made.
+     */
+    private Colour shade(double originX, double originY, double originZ, double directionX, double directionY,
+            double directionZ, Shape closest, double distance, int recursionLimit, TraceState state) {
+        ReflectionLimits limits = reflectionLimits;
+        if (state.bounces.length < (recursionLimit + 1) * 6) {
+            state.bounces = new double[(recursionLimit + 1) * 6];
+        }
+        double[] bounces = state.bounces;
+        int depth = 0;
+        double throughputR = 1.0;
+        double throughputG = 1.0;
+        double throughputB = 1.0;
+        for (;; ++depth) {
+            double pointX = originX + directionX * distance;
+            double pointY = originY + directionY * distance;
+            double pointZ = originZ + directionZ * distance;
+            Vec3 normal = closest.getShapeType().normalAtPoint(new Vec3(pointX, pointY, pointZ));
+            // Rays leaving the surface skip the object they leave, unless it's one which
+            // they could hit elsewhere.
+            Shape leaving = closest.getShapeType().canHitItself() ? null : closest;
+
+            gatherLight(pointX, pointY, pointZ, normal, leaving, state);
+            Colour colour = closest.getColour();
+            int bounce = depth * 6;
+            bounces[bounce] = colour.r * state.incidentR;
+            bounces[bounce + 1] = colour.g * state.incidentG;
+            bounces[bounce + 2] = colour.b * state.incidentB;
+
+            Colour reflectionColour = closest.getReflectionColour();
+            if (depth >= recursionLimit || reflectionColour.equals(Colour.BLACK)) {
+                break;
+            }
+            double reflectionR = reflectionColour.r;
+            double reflectionG = reflectionColour.g;
+            double reflectionB = reflectionColour.b;
+            throughputR *= reflectionR;
+            throughputG *= reflectionG;
+            throughputB *= reflectionB;
+            double strongest = Math.max(throughputR, Math.max(throughputG, throughputB));
+            if (strongest < limits.cutoff) {
+                break;
+            }
+            if (strongest < limits.rouletteThroughput) {
+                double survival = strongest / limits.rouletteThroughput;
+                if (randomDraw(pointX, pointY, pointZ, depth) >= survival) {
+                    break;
+                }
+                throughputR /= survival;
+                throughputG /= survival;
+                throughputB /= survival;
+                reflectionR /= survival;
+                reflectionG /= survival;
+                reflectionB /= survival;
+            }
+            bounces[bounce + 3] = reflectionR;
+            bounces[bounce + 4] = reflectionG;
+            bounces[bounce + 5] = reflectionB;
+
+            // Follow the reflection, about the normal.
+            double twiceNormalDotDirection = 2 * (normal.x * directionX + normal.y * directionY
+                    + normal.z * directionZ);
+            double reflectedX = directionX - normal.x * twiceNormalDotDirection;
+            double reflectedY = directionY - normal.y * twiceNormalDotDirection;
+            double reflectedZ = directionZ - normal.z * twiceNormalDotDirection;
+            double length = Math.sqrt(reflectedX * reflectedX + reflectedY * reflectedY + reflectedZ * reflectedZ);
+            originX = pointX;
+            originY = pointY;
+            originZ = pointZ;
+            directionX = reflectedX / length;
+            directionY = reflectedY / length;
+            directionZ = reflectedZ / length;
+            if (RenderStatistics.ENABLED) {
+                ++state.counters.reflectionRays;
+                state.counters.maxDepth = Math.max(state.counters.maxDepth, depth + 1);
+            }
+            ObjectAndDistance hit = state.hit;
+            boolean found = findFirstIntersectionExcept(originX, originY, originZ, directionX, directionY,
+                    directionZ, leaving, Double.POSITIVE_INFINITY, hit);
+            if (state.footprint != null) {
+                state.footprint.addReflectedRay(originX, originY, originZ, directionX, directionY, directionZ,
+                        found ? hit.distance : Double.POSITIVE_INFINITY);
+                if (found) {
+                    state.footprint.touch(hit.object);
+                }
+            }
+            if (!found) {
+                break;
             }
+            closest = hit.object;
+            distance = hit.distance;
         }
 
-        Colour reflectedColour;
-        if (recursionLimit > 0 && !closest.object.getReflectionColour().equals(Colour.BLACK)) {
-            // Find colour from reflection.
-            Ray reflectedRay = reflectAt(ray.getDirection(), intersectionPoint, normal);
-            reflectedColour = colourForRay(reflectedRay, recursionLimit - 1, closest.object);
-        } else {
-            reflectedColour = Colour.BLACK;
+        double red = bounces[depth * 6];
+        double green = bounces[depth * 6 + 1];
+        double blue = bounces[depth * 6 + 2];
+        for (int bounce = (depth - 1) * 6; bounce >= 0; bounce -= 6) {
+            red = bounces[bounce] + red * bounces[bounce + 3];
+            green = bounces[bounce + 1] + green * bounces[bounce + 4];
+            blue = bounces[bounce + 2] + blue * bounces[bounce + 5];
+        }
+        return new Colour(red, green, blue);
+    }
+
+    /**
+     * Adds up the light reaching a point on a surface with the given normal
+     * directly from each light, leaving it in the state's incident fields. With
+     * a light cutoff, only the lights the grid lists for the point are looked
+     * at, and with light sampling, only some of those are traced.
+     */
+    private void gatherLight(double pointX, double pointY, double pointZ, Vec3 normal, Shape leaving,
+            TraceState state) {
+        state.incidentR = 0.0;
+        state.incidentG = 0.0;
+        state.incidentB = 0.0;
+        int[] lights = allLights;
+        int start = 0;
+        int end = lights.length;
+        if (lightGrid != null) {
+            int cell = lightGrid.cellAt(pointX, pointY, pointZ);
+            if (cell < 0) {
+                return;
+            }
+            lights = lightGrid.getLightIndices();
+            start = lightGrid.cellStart(cell);
+            end = lightGrid.cellEnd(cell);
+        }
+        int samples = lightSampling.samples;
+        if (samples == 0 || end - start <= samples) {
+            for (int i = start; i < end; ++i) {
+                addLight(lights[i], 1.0, pointX, pointY, pointZ, normal, leaving, state);
+            }
+            return;
         }
 
-        // Calculate total colour.
-        return closest.object.getColour().times(totalIncidentLight)
-                .plus(reflectedColour.times(closest.object.getReflectionColour()));
+        // Weigh each light in range by what it would add if nothing shadowed it, up
+        // to a constant factor, keeping the running totals so that a light can be
+        // chosen by a binary search.
+        int count = 0;
+        double total = 0.0;
+        for (int i = start; i < end; ++i) {
+            int lightIndex = lights[i];
+            Vec3 lightPosition = lightArray[lightIndex].getPosition();
+            double toLightX = lightPosition.x - pointX;
+            double toLightY = lightPosition.y - pointY;
+            double toLightZ = lightPosition.z - pointZ;
+            double distanceSquared = toLightX * toLightX + toLightY * toLightY + toLightZ * toLightZ;
+            double dotProduct = (normal.x * toLightX + normal.y * toLightY + normal.z * toLightZ)
+                    / Math.sqrt(distanceSquared);
+            double estimate = lightStrengths[lightIndex] * dotProduct / distanceSquared;
+            if (distanceSquared > lightRangesSquared[lightIndex] || !(estimate > 0.0)) {
+                continue;
+            }
+            total += estimate;
+            state.candidateLights[count] = lightIndex;
+            state.candidateTotals[count] = total;
+            ++count;
+        }
+        if (count <= samples) {
+            for (int i = 0; i < count; ++i) {
+                addLight(state.candidateLights[i], 1.0, pointX, pointY, pointZ, normal, leaving, state);
+            }
+            return;
+        }
+        for (int sample = 0; sample < samples; ++sample) {
+            double target = randomDraw(pointX, pointY, pointZ, -1 - sample) * total;
+            int chosen = Arrays.binarySearch(state.candidateTotals, 0, count, target);
+            // The first light whose running total is above the target.
+            chosen = chosen >= 0 ? chosen + 1 : -chosen - 1;
+            chosen = Math.min(chosen, count - 1);
+            double estimate = state.candidateTotals[chosen] - (chosen == 0 ? 0.0 : state.candidateTotals[chosen - 1]);
+            addLight(state.candidateLights[chosen], total / (samples * estimate), pointX, pointY, pointZ, normal,
+                    leaving, state);
+        }
+    }
+
+    /**
+     * Adds the light reaching a point directly from one light, scaled by
+     * `weight`, to the state's incident fields. Nothing is added if the light is
+     * out of range, behind the surface, or shadowed.
+     */
+    private void addLight(int lightIndex, double weight, double pointX, double pointY, double pointZ,
+            Vec3 normal, Shape leaving, TraceState state) {
+        Light light = lightArray[lightIndex];
+        Vec3 lightPosition = light.getPosition();
+        double toLightX = lightPosition.x - pointX;
+        double toLightY = lightPosition.y - pointY;
+        double toLightZ = lightPosition.z - pointZ;
+        double distanceSquared = toLightX * toLightX + toLightY * toLightY + toLightZ * toLightZ;
+        if (distanceSquared > lightRangesSquared[lightIndex]) {
+            return;
+        }
+        double lightDistance = Math.sqrt(distanceSquared);
+        toLightX /= lightDistance;
+        toLightY /= lightDistance;
+        toLightZ /= lightDistance;
+        double dotProduct = normal.x * toLightX + normal.y * toLightY + normal.z * toLightZ;
+        if (dotProduct <= 0.0) {
+            return;
+        }
+
+        // Check whether some other object is between us and the light. Neighbouring
+        // points tend to be shadowed by the same object, so try the last one that
+        // shadowed this light first.
+        Shape lastOccluder = state.lastOccluders[lightIndex];
+        boolean shadowed = lastOccluder != null && lastOccluder != leaving
+                && lastOccluder.getShapeType().intersectDistance(pointX, pointY, pointZ, toLightX, toLightY,
+                        toLightZ) < lightDistance;
+        if (RenderStatistics.ENABLED) {
+            ++state.counters.shadowRays;
+            if (lastOccluder != null && lastOccluder != leaving) {
+                state.counters.countIntersection(lastOccluder.getShapeType().getClass());
+            }
+            if (shadowed) {
+                ++state.counters.shadowCacheHits;
+            }
+        }
+        if (!shadowed) {
+            Shape occluder = findOccluder(pointX, pointY, pointZ, toLightX, toLightY, toLightZ, leaving,
+                    lightDistance);
+            if (occluder != null) {
+                state.lastOccluders[lightIndex] = occluder;
+                shadowed = true;
+            }
+        }
+        if (state.footprint != null) {
+            if (shadowed) {
+                state.footprint.touch(state.lastOccluders[lightIndex]);
+            } else {
+                state.footprint.addLitPoint(lightIndex, pointX, pointY, pointZ);
+            }
+        }
+        if (!shadowed) {
+            Colour lightColour = light.getColour();
+            double intensity = weight * dotProduct * BRIGHTNESS_CORRECTION_FACTOR / (lightDistance * lightDistance);
+            state.incidentR += lightColour.r * intensity;
+            state.incidentG += lightColour.g * intensity;
+            state.incidentB += lightColour.b * intensity;
+        }
     }
 
     /**
-     * Loops through all objects in the scene (except for `ignored`) to find the
-     * first one that the ray hits.
-     * 
-     * @param ray     The ray along which to find an intersection.
-     * @param ignored An object to ignore when looking for intersections, or null
-     *                for none.
-     * @return the object and the distance along the ray to it, or null if the ray
-     *         doesn't hit any objects.
+     * Returns a number in [0, 1) for a random choice made at the given point,
+     * such as whether a path bouncing there survives Russian roulette, with a
+     * different `salt` for each choice. It is a hash of the point and salt
+     * rather than drawn from a generator, so it is the same whichever thread
+     * traces the path, and in whatever order.
      */
-    private ObjectAndDistance findFirstIntersectionExcept(Ray ray, Shape ignored) {
-        Double closestIntersection = null;
+    private static double randomDraw(double pointX, double pointY, double pointZ, int salt) {
+        long hash = Double.doubleToLongBits(pointX);
+        hash = mix(hash ^ Double.doubleToLongBits(pointY));
+        hash = mix(hash ^ Double.doubleToLongBits(pointZ));
+        hash = mix(hash + salt);
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+
+    /** The finalising step of the SplitMix64 generator, which scrambles every bit. */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * Finds the first object in the scene (except for `ignored`) that the ray
+     * with the given origin and unit direction hits before `maxDistance`.
+     * Unbounded objects are tested directly, and everything else is found through
+     * the scene's accelerator.
+     *
+     * @param ignored     An object to ignore when looking for intersections, or
+     *                    null for none.
+     * @param maxDistance The distance beyond which hits are not counted.
+     * @param hit         Filled in with the object and the distance along the ray
+     *                    to it, if there is one.
+     * @return whether the ray hits any objects.
+     */
+    private boolean findFirstIntersectionExcept(double originX, double originY, double originZ,
+            double directionX, double directionY, double directionZ, Shape ignored, double maxDistance,
+            ObjectAndDistance hit) {
+        double closestDistance = maxDistance;
         Shape closest = null;
+        RenderCounters counters = RenderStatistics.ENABLED ? RenderStatistics.forCurrentThread() : null;
 
-        for (Shape object : objects) {
+        for (Shape object : unboundedObjects) {
             if (object == ignored) {
                 continue;
             }
-            Double distance = object.getShapeType().intersect(ray);
-            if (distance != null &&
-                    (closestIntersection == null || distance < closestIntersection)) {
-                closestIntersection = distance;
+            if (RenderStatistics.ENABLED) {
+                counters.countIntersection(object.getShapeType().getClass());
+            }
+            double distance = object.getShapeType().intersectDistance(originX, originY, originZ, directionX,
+                    directionY, directionZ);
+            if (distance < closestDistance) {
+                closestDistance = distance;
                 closest = object;
-
             }
         }
 
-        if (closest == null) {
-            return null;
+        if (accelerator.findFirstIntersectionExcept(originX, originY, originZ, directionX, directionY, directionZ,
+                ignored, closestDistance, hit)) {
+            return true;
+        } else if (closest == null) {
+            return false;
         } else {
-            return new ObjectAndDistance(closest, closestIntersection);
+            hit.object = closest;
+            hit.distance = closestDistance;
+            return true;
         }
     }
 
     /**
-     * Find the reflected ray at a point on the surface of a shape about the normal.
+     * Finds any object (except for `ignored`) that the ray with the given origin
+     * and unit direction hits before `maxDistance`, stopping at the first.
      *
-     * @param incidentDirection The direction of the incident ray.
-     * @param intersectionPoint The point of intersection of the ray and the surface
-     *                          of the shape.
-     * @param surfaceNormal     The normal at the point of intersection.
-     * @return The reflected ray.
+     * @return the object found, or null if there is none.
      */
-    private static Ray reflectAt(Vec3 incidentDirection, Vec3 intersectionPoint, Vec3 surfaceNormal) {
-        Vec3 reflectedDirection = incidentDirection
-                .minus(surfaceNormal.times(2 * surfaceNormal.dot(incidentDirection)));
-        return new Ray(intersectionPoint, reflectedDirection);
+    private Shape findOccluder(double originX, double originY, double originZ, double directionX,
+            double directionY, double directionZ, Shape ignored, double maxDistance) {
+        RenderCounters counters = RenderStatistics.ENABLED ? RenderStatistics.forCurrentThread() : null;
+        for (Shape object : unboundedObjects) {
+            if (object == ignored) {
+                continue;
+            }
+            if (RenderStatistics.ENABLED) {
+                counters.countIntersection(object.getShapeType().getClass());
+            }
+            if (object.getShapeType().intersectDistance(originX, originY, originZ, directionX, directionY,
+                    directionZ) < maxDistance) {
+                return object;
+            }
+        }
+        return accelerator.findAnyIntersectionExcept(originX, originY, originZ, directionX, directionY, directionZ,
+                ignored, maxDistance);
     }
-}
 
-class ObjectAndDistance {
-    final Shape object;
-    final double distance;
+    /**
+     * Scratch space for one thread's tracing, reused for every ray it traces.
+     */
+    private static class TraceState {
+        /** The hit record for the ray being traced. */
+        final ObjectAndDistance hit = new ObjectAndDistance();
+        /** The object that last shadowed each light, or null. */
+        final Shape[] lastOccluders;
+        /** The scene's object generation when {@link #lastOccluders} was last cleared. */
+        int objectGeneration;
+        /** This thread's statistics, or null if they are off. */
+        final RenderCounters counters = RenderStatistics.ENABLED ? RenderStatistics.forCurrentThread() : null;
+        /** Where to record what this thread's rays meet, or null if nothing is recording. */
+        TileFootprint footprint;
+        /** The lights in range of the point being lit, when choosing among them. */
+        final int[] candidateLights;
+        /** The running totals of the candidate lights' estimated contributions. */
+        final double[] candidateTotals;
+        /** The light reaching the point last passed to {@link Scene#gatherLight}. */
+        double incidentR;
+        double incidentG;
+        double incidentB;
+        /**
+         * For each bounce of the path being shaded, the colour it adds itself and
+         * the colour it reflects, three channels each.
+         */
+        double[] bounces = new double[(ReflectionLimits.DEFAULT_MAX_DEPTH + 1) * 6];
 
-    public ObjectAndDistance(Shape object, double distance) {
-        this.object = object;
-        this.distance = distance;
+        TraceState(int lightCount) {
+            lastOccluders = new Shape[lightCount];
+            candidateLights = new int[lightCount];
+            candidateTotals = new double[lightCount];
+        }
     }
 }
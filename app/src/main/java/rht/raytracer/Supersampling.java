@@ -0,0 +1,47 @@
+package rht.raytracer;
+
+/**
+ * Settings for adaptive anti-aliasing: how many rays to trace through each
+ * pixel to begin with, how many at most, and how much a pixel's colour may be
+ * in doubt before more are traced.
+ */
+public class Supersampling {
+    public static final int DEFAULT_INITIAL_SAMPLES = 4;
+    /** The default maximum, as a multiple of the initial number of samples. */
+    public static final int DEFAULT_MAX_MULTIPLE = 16;
+    public static final double DEFAULT_THRESHOLD = 0.02;
+
+    /** The number of rays traced through every pixel. */
+    public final int initialSamples;
+    /** The most rays traced through any one pixel. */
+    public final int maxSamples;
+    /**
+     * How far, as a fraction of full brightness, a pixel's colour may differ from
+     * a neighbour's, or its samples' mean from the true colour, before more
+     * samples are traced.
+     */
+    public final double threshold;
+
+    public Supersampling(int initialSamples, int maxSamples, double threshold) {
+        if (initialSamples < 1) {
+            throw new IllegalArgumentException("There must be at least 1 initial sample.");
+        }
+        if (maxSamples < initialSamples) {
+            throw new IllegalArgumentException("The maximum samples can't be fewer than the initial samples.");
+        }
+        if (!(threshold >= 0.0)) {
+            throw new IllegalArgumentException("The threshold can't be negative.");
+        }
+        this.initialSamples = initialSamples;
+        this.maxSamples = maxSamples;
+        this.threshold = threshold;
+    }
+
+    public Supersampling(int initialSamples) {
+        this(initialSamples, initialSamples * DEFAULT_MAX_MULTIPLE, DEFAULT_THRESHOLD);
+    }
+
+    public String toString() {
+        return initialSamples + "-" + maxSamples + " samples, threshold " + threshold;
+    }
+}
@@ -0,0 +1,35 @@
+package rht.raytracer;
+
+/**
+ * A rectangular region of the image, rendered as a single unit of work.
+ */
+public class Tile {
+    public final int x;
+    public final int y;
+    public final int width;
+    public final int height;
+
+    public Tile(int x, int y, int width, int height) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    public boolean equals(Object other) {
+        if (other instanceof Tile) {
+            Tile otherTile = (Tile) other;
+            return x == otherTile.x && y == otherTile.y && width == otherTile.width && height == otherTile.height;
+        } else {
+            return false;
+        }
+    }
+
+    public int hashCode() {
+        return ((x * 31 + y) * 31 + width) * 31 + height;
+    }
+
+    public String toString() {
+        return "Tile(" + x + ", " + y + ", " + width + "x" + height + ")";
+    }
+}
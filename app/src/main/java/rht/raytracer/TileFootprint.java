@@ -0,0 +1,213 @@
+package rht.raytracer;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import rht.raytracer.maths.BoundingBox;
+import rht.raytracer.maths.Vec3;
+import rht.raytracer.shapes.Shape;
+
+/**
+ * A record of what the rays traced for one tile met, filled in while the tile
+ * is rendered, so that after some of the scene's objects are replaced the tile
+ * can be left alone if none of its rays could see the difference.
+ *
+ * A ray's result can only change if the object it stopped at is replaced, or if
+ * a replacement lies somewhere along it before that point. So the record holds
+ * the objects which rays stopped at: the objects seen by primary and reflected
+ * rays, and the objects which shadowed a light. It also holds the regions the
+ * rays swept: the primary rays and the reflected rays each as a bundle, with a
+ * box around their origins, a box around their directions and the furthest any
+ * of them went, and the shadow rays which reached each light as a box around
+ * the points they left from.
+ */
+final class TileFootprint {
+    /** Every object a ray of the tile stopped at. */
+    private final Set<Shape> touched = new HashSet<>();
+    private final RayBundle primary = new RayBundle();
+    private final RayBundle reflected = new RayBundle();
+    /**
+     * For each light, the minimum then maximum corner of a box around the lit
+     * points whose shadow rays reached it, or an empty box if there were none.
+     */
+    private final double[] litPoints;
+
+    TileFootprint(int lightCount) {
+        litPoints = new double[lightCount * 6];
+        clear();
+    }
+
+    /** Forgets everything recorded, ready for the tile to be rendered again. */
+    void clear() {
+        touched.clear();
+        primary.clear();
+        reflected.clear();
+        for (int i = 0; i < litPoints.length; i += 6) {
+            Arrays.fill(litPoints, i, i + 3, Double.POSITIVE_INFINITY);
+            Arrays.fill(litPoints, i + 3, i + 6, Double.NEGATIVE_INFINITY);
+        }
+    }
+
+    /** Records an object which a ray stopped at. */
+    void touch(Shape object) {
+        touched.add(object);
+    }
+
+    /**
+     * Records a primary ray which went `distance` along its direction, which is
+     * infinite if it hit nothing.
+     */
+    void addPrimaryRay(double originX, double originY, double originZ, double directionX, double directionY,
+            double directionZ, double distance) {
+        primary.add(originX, originY, originZ, directionX, directionY, directionZ, distance);
+    }
+
+    /**
+     * Records a reflected ray which went `distance` along its direction, which is
+     * infinite if it hit nothing.
+     */
+    void addReflectedRay(double originX, double originY, double originZ, double directionX, double directionY,
+            double directionZ, double distance) {
+        reflected.add(originX, originY, originZ, directionX, directionY, directionZ, distance);
+    }
+
+    /** Records that the light with the given index reached a point unshadowed. */
+    void addLitPoint(int lightIndex, double pointX, double pointY, double pointZ) {
+        int offset = lightIndex * 6;
+        litPoints[offset] = Math.min(litPoints[offset], pointX);
+        litPoints[offset + 1] = Math.min(litPoints[offset + 1], pointY);
+        litPoints[offset + 2] = Math.min(litPoints[offset + 2], pointZ);
+        litPoints[offset + 3] = Math.max(litPoints[offset + 3], pointX);
+        litPoints[offset + 4] = Math.max(litPoints[offset + 4], pointY);
+        litPoints[offset + 5] = Math.max(litPoints[offset + 5], pointZ);
+    }
+
+    /**
+     * Returns whether replacing objects as given might change any of the tile's
+     * rays. This is conservative: it may say so for a tile which would in fact
+     * render the same, but never the other way round.
+     *
+     * @param lights The scene's lights, in the order they were indexed by.
+     */
+    boolean isAffectedBy(Map<Shape, Shape> replacements, List<Light> lights) {
+        for (Map.Entry<Shape, Shape> replacement : replacements.entrySet()) {
+            if (touched.contains(replacement.getKey())) {
+                return true;
+            }
+            BoundingBox box = replacement.getValue().getShapeType().boundingBox();
+            if (box == null || primary.meets(box) || reflected.meets(box)) {
+                return true;
+            }
+            for (int lightIndex = 0; lightIndex < lights.size(); ++lightIndex) {
+                if (shadowRaysMeet(lightIndex, lights.get(lightIndex).getPosition(), box)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether a box meets any segment from a point in the box of lit
+     * points for a light to the light. The points (1 - s) p + s light for the
+     * points p in the box form the box scaled towards the light, so its edges
+     * move linearly in s from the lit points' box at 0 to the light at 1.
+     */
+    private boolean shadowRaysMeet(int lightIndex, Vec3 light, BoundingBox box) {
+        int offset = lightIndex * 6;
+        if (litPoints[offset] > litPoints[offset + 3]) {
+            return false;
+        }
+        double[] low = Arrays.copyOfRange(litPoints, offset, offset + 3);
+        double[] high = Arrays.copyOfRange(litPoints, offset + 3, offset + 6);
+        double[] lowStep = { light.x - low[0], light.y - low[1], light.z - low[2] };
+        double[] highStep = { light.x - high[0], light.y - high[1], light.z - high[2] };
+        return sweepMeets(low, lowStep, high, highStep, 1.0, box);
+    }
+
+    /**
+     * Returns whether a box whose minimum corner is low + t lowStep and whose
+     * maximum corner is high + t highStep overlaps `box` for any t from 0 to
+     * `maxT`. On each axis the overlap holds for an interval of t, so this
+     * narrows [0, maxT] axis by axis and sees whether anything is left.
+     *
+     * The box is padded by a little, so that rounding can't hide a ray which
+     * only grazes it.
+     */
+    private static boolean sweepMeets(double[] low, double[] lowStep, double[] high, double[] highStep,
+            double maxT, BoundingBox box) {
+        double[] boxMin = { box.min.x, box.min.y, box.min.z };
+        double[] boxMax = { box.max.x, box.max.y, box.max.z };
+        double tMin = 0.0;
+        double tMax = maxT;
+        for (int axis = 0; axis < 3; ++axis) {
+            double padding = 1e-9 * (1.0 + Math.abs(boxMin[axis]) + Math.abs(boxMax[axis]));
+            // The swept box's minimum must not pass the box's maximum...
+            double limit = boxMax[axis] + padding - low[axis];
+            if (lowStep[axis] > 0.0) {
+                tMax = Math.min(tMax, limit / lowStep[axis]);
+            } else if (lowStep[axis] < 0.0) {
+                tMin = Math.max(tMin, limit / lowStep[axis]);
+            } else if (limit < 0.0) {
+                return false;
+            }
+            // ...and its maximum must reach the box's minimum.
+            limit = boxMin[axis] - padding - high[axis];
+            if (highStep[axis] < 0.0) {
+                tMax = Math.min(tMax, limit / highStep[axis]);
+            } else if (highStep[axis] > 0.0) {
+                tMin = Math.max(tMin, limit / highStep[axis]);
+            } else if (limit > 0.0) {
+                return false;
+            }
+        }
+        return tMin <= tMax;
+    }
+
+    /**
+     * The region swept by a set of rays: every point origin + t direction with
+     * the origin and direction in boxes around the rays' ones, and t from 0 to
+     * the furthest any ray went. Since t is never negative, the minimum corner
+     * of the points at t is the origins' minimum plus t times the directions'
+     * minimum, and likewise for the maximum.
+     */
+    private static final class RayBundle {
+        final double[] originMin = new double[3];
+        final double[] originMax = new double[3];
+        final double[] directionMin = new double[3];
+        final double[] directionMax = new double[3];
+        double maxDistance;
+
+        void clear() {
+            Arrays.fill(originMin, Double.POSITIVE_INFINITY);
+            Arrays.fill(directionMin, Double.POSITIVE_INFINITY);
+            Arrays.fill(originMax, Double.NEGATIVE_INFINITY);
+            Arrays.fill(directionMax, Double.NEGATIVE_INFINITY);
+            maxDistance = 0.0;
+        }
+
+        void add(double originX, double originY, double originZ, double directionX, double directionY,
+                double directionZ, double distance) {
+            include(originMin, originMax, originX, originY, originZ);
+            include(directionMin, directionMax, directionX, directionY, directionZ);
+            maxDistance = Math.max(maxDistance, distance);
+        }
+
+        boolean meets(BoundingBox box) {
+            return originMin[0] <= originMax[0]
+                    && sweepMeets(originMin, directionMin, originMax, directionMax, maxDistance, box);
+        }
+
+        private static void include(double[] min, double[] max, double x, double y, double z) {
+            min[0] = Math.min(min[0], x);
+            min[1] = Math.min(min[1], y);
+            min[2] = Math.min(min[2], z);
+            max[0] = Math.max(max[0], x);
+            max[1] = Math.max(max[1], y);
+            max[2] = Math.max(max[2], z);
+        }
+    }
+}
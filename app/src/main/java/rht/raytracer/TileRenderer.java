@@ -0,0 +1,406 @@
+package rht.raytracer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import rht.raytracer.statistics.RenderStatistics;
+
+/**
+ * Renders a scene by splitting the image into square tiles and tracing them on
+ * a work-stealing thread pool.
+ *
+ * Every pixel is computed independently of every other, so the output is
+ * identical regardless of the number of threads used. With anti-aliasing, a
+ * pixel also depends on the neighbours it is compared with, but every tile
+ * traces those for itself, so this still holds.
+ */
+public class TileRenderer {
+    public static final int DEFAULT_TILE_SIZE = 32;
+    /** The spacing between traced pixels in the first pass of a progressive render. */
+    public static final int COARSEST_STEP = 16;
+    /** The side of the square blocks of pixels whose primary rays are traced together. */
+    public static final int PACKET_SIZE = 8;
+
+    /**
+     * One pool for each number of threads asked for, shared by every renderer
+     * for the life of the program, so that each pass, frame and edit reuses the
+     * same threads and the scratch space they keep.
+     */
+    private static final ConcurrentMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    private final Scene scene;
+    private final Camera camera;
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int threads;
+    /** Anti-aliases each pixel, or null to trace a single ray through each. */
+    private final AdaptiveSampler sampler;
+    private final LongAdder samplesTraced = new LongAdder();
+    private final ThreadLocal<RayPacket> packets = ThreadLocal
+            .withInitial(() -> new RayPacket(PACKET_SIZE * PACKET_SIZE));
+    private final ThreadLocal<Colour[]> packetColours = ThreadLocal
+            .withInitial(() -> new Colour[PACKET_SIZE * PACKET_SIZE]);
+
+    /**
+     * @param supersampling How to anti-alias the image, or null to trace a single
+     *                      ray through each pixel.
+     */
+    public TileRenderer(Scene scene, Camera camera, int width, int height, int threads, int tileSize,
+            Supersampling supersampling) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1.");
+        }
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("Tile size must be at least 1.");
+        }
+        this.scene = scene;
+        this.camera = camera;
+        this.width = width;
+        this.height = height;
+        this.threads = threads;
+        this.tileSize = tileSize;
+        this.sampler = supersampling == null ? null
+                : new AdaptiveSampler(scene, camera, width, height, supersampling);
+    }
+
+    public TileRenderer(Scene scene, Camera camera, int width, int height, int threads, int tileSize) {
+        this(scene, camera, width, height, threads, tileSize, null);
+    }
+
+    public TileRenderer(Scene scene, Camera camera, int width, int height, int threads) {
+        this(scene, camera, width, height, threads, DEFAULT_TILE_SIZE);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns the number of primary rays traced by this renderer so far, for
+     * every pass and frame it has rendered.
+     */
+    public long getSamplesTraced() {
+        return samplesTraced.sum();
+    }
+
+    /**
+     * Splits the image into tiles of at most `tileSize` square, in row-major
+     * order.
+     */
+    public List<Tile> tiles() {
+        return tiles(width, height, tileSize);
+    }
+
+    /**
+     * Splits an image of the given size into tiles of at most `tileSize` square,
+     * in row-major order.
+     */
+    public static List<Tile> tiles(int width, int height, int tileSize) {
+        List<Tile> tiles = new ArrayList<>();
+        for (int y = 0; y < height; y += tileSize) {
+            for (int x = 0; x < width; x += tileSize) {
+                tiles.add(new Tile(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y)));
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Renders the whole frame into a new row-major array of RGB pixels.
+     */
+    public int[] render() {
+        int[] pixels = new int[width * height];
+        render(tiles(), pixels);
+        return pixels;
+    }
+
+    /**
+     * Renders the whole frame directly into the given image, which must be of
+     * type {@link BufferedImage#TYPE_INT_RGB} and the same size as this renderer.
+     */
+    public void render(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_INT_RGB || image.getWidth() != width
+                || image.getHeight() != height) {
+            throw new IllegalArgumentException("Image must be a " + width + "x" + height + " TYPE_INT_RGB image.");
+        }
+        render(tiles(), ((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+    }
+
+    /**
+     * Renders the given tiles into a row-major array of RGB pixels covering the
+     * whole frame. Tiles never overlap, so threads write to disjoint parts of the
+     * array and need no locking.
+     */
+    public void render(List<Tile> tiles, int[] pixels) {
+        forEachTile(tiles, tile -> renderTile(tile, pixels));
+    }
+
+    /**
+     * Renders the whole frame in a series of passes of increasing resolution, so
+     * that a rough image is available almost immediately.
+     *
+     * The first pass traces one pixel in every {@link #COARSEST_STEP} square block
+     * and fills the block with its colour. Each later pass halves the block size
+     * and traces only the pixels no earlier pass traced, so every pixel is still
+     * traced exactly once and the final image is identical to {@link #render()}.
+     * When anti-aliasing, the last pass instead renders every tile in full, to
+     * the same result as {@link #render()}.
+     *
+     * @param pixels      A row-major array of RGB pixels covering the whole frame.
+     * @param onTileDone  Called from the rendering thread after each tile of each
+     *                    pass has been written.
+     */
+    public void renderProgressive(int[] pixels, Consumer<Tile> onTileDone) {
+        List<Tile> tiles = tiles();
+        int finestStep = sampler == null ? 1 : 2;
+        for (int step = COARSEST_STEP; step >= finestStep; step /= 2) {
+            int passStep = step;
+            forEachTile(tiles, tile -> {
+                renderTileCoarse(tile, pixels, passStep);
+                onTileDone.accept(tile);
+            });
+        }
+        if (sampler != null) {
+            forEachTile(tiles, tile -> {
+                renderTile(tile, pixels);
+                onTileDone.accept(tile);
+            });
+        }
+    }
+
+    /**
+     * Renders one progressive pass over a tile: traces the pixels whose
+     * coordinates are both multiples of `step` but not both multiples of twice
+     * `step` (those were traced by an earlier pass), filling the `step` square
+     * block below and to the right of each with its colour.
+     */
+    private void renderTileCoarse(Tile tile, int[] pixels, int step) {
+        int firstX = (tile.x + step - 1) / step * step;
+        int firstY = (tile.y + step - 1) / step * step;
+        int tileRight = tile.x + tile.width;
+        int tileBottom = tile.y + tile.height;
+        long traced = 0;
+        for (int y = firstY; y < tileBottom; y += step) {
+            for (int x = firstX; x < tileRight; x += step) {
+                boolean tracedEarlier = step < COARSEST_STEP && x % (2 * step) == 0 && y % (2 * step) == 0;
+                if (tracedEarlier) {
+                    continue;
+                }
+                int rgb = renderPixel(x, y);
+                ++traced;
+                int blockRight = Math.min(x + step, tileRight);
+                int blockBottom = Math.min(y + step, tileBottom);
+                for (int blockY = y; blockY < blockBottom; ++blockY) {
+                    int rowOffset = blockY * width;
+                    for (int blockX = x; blockX < blockRight; ++blockX) {
+                        pixels[rowOffset + blockX] = rgb;
+                    }
+                }
+            }
+        }
+        samplesTraced.add(traced);
+    }
+
+    /**
+     * Renders the whole frame without clamping, into a new row-major array of red,
+     * green and blue values, three per pixel.
+     */
+    public float[] renderHighDynamicRange() {
+        float[] radiance = new float[width * height * 3];
+        forEachTile(tiles(), tile -> renderTileHighDynamicRange(tile, radiance));
+        return radiance;
+    }
+
+    /**
+     * Runs an action for each of the given tiles on the thread pool, returning
+     * once all of them have finished.
+     */
+    public void forEachTile(List<Tile> tiles, Consumer<Tile> tileAction) {
+        Consumer<Tile> action = tileAction;
+        if (RenderStatistics.ENABLED) {
+            action = tile -> {
+                long start = System.nanoTime();
+                tileAction.accept(tile);
+                RenderStatistics.forCurrentThread().countTile(System.nanoTime() - start);
+            };
+        }
+        if (threads == 1) {
+            for (Tile tile : tiles) {
+                action.accept(tile);
+            }
+            return;
+        }
+
+        POOLS.computeIfAbsent(threads, ForkJoinPool::new).invoke(new TileTask(tiles, action, 0, tiles.size()));
+    }
+
+    /**
+     * Traces every pixel in a tile, writing the results into a row-major array of
+     * RGB pixels covering the whole frame.
+     *
+     * @return the number of primary rays traced.
+     */
+    public long renderTile(Tile tile, int[] pixels) {
+        if (sampler != null) {
+            double[] colours = new double[tile.width * tile.height * 3];
+            long samples = sampleTile(tile, colours);
+            for (int y = 0; y < tile.height; ++y) {
+                int rowOffset = (tile.y + y) * width + tile.x;
+                for (int x = 0; x < tile.width; ++x) {
+                    int offset = (y * tile.width + x) * 3;
+                    pixels[rowOffset + x] = new Colour(colours[offset], colours[offset + 1], colours[offset + 2])
+                            .toRGBInt();
+                }
+            }
+            return samples;
+        }
+        Colour[] colours = packetColours.get();
+        for (int top = tile.y; top < tile.y + tile.height; top += PACKET_SIZE) {
+            for (int left = tile.x; left < tile.x + tile.width; left += PACKET_SIZE) {
+                int blockWidth = Math.min(PACKET_SIZE, tile.x + tile.width - left);
+                int blockHeight = Math.min(PACKET_SIZE, tile.y + tile.height - top);
+                traceBlock(left, top, blockWidth, blockHeight, colours);
+                for (int y = 0; y < blockHeight; ++y) {
+                    int rowOffset = (top + y) * width + left;
+                    for (int x = 0; x < blockWidth; ++x) {
+                        pixels[rowOffset + x] = colours[y * blockWidth + x].toRGBInt();
+                    }
+                }
+            }
+        }
+        long samples = (long) tile.width * tile.height;
+        samplesTraced.add(samples);
+        return samples;
+    }
+
+    /**
+     * Traces every pixel in a tile without clamping, writing red, green and blue
+     * values into a row-major array covering the whole frame.
+     *
+     * @return the number of primary rays traced.
+     */
+    public long renderTileHighDynamicRange(Tile tile, float[] radiance) {
+        if (sampler != null) {
+            double[] colours = new double[tile.width * tile.height * 3];
+            long samples = sampleTile(tile, colours);
+            for (int y = 0; y < tile.height; ++y) {
+                int outOffset = ((tile.y + y) * width + tile.x) * 3;
+                int inOffset = y * tile.width * 3;
+                for (int i = 0; i < tile.width * 3; ++i) {
+                    radiance[outOffset + i] = (float) colours[inOffset + i];
+                }
+            }
+            return samples;
+        }
+        Colour[] colours = packetColours.get();
+        for (int top = tile.y; top < tile.y + tile.height; top += PACKET_SIZE) {
+            for (int left = tile.x; left < tile.x + tile.width; left += PACKET_SIZE) {
+                int blockWidth = Math.min(PACKET_SIZE, tile.x + tile.width - left);
+                int blockHeight = Math.min(PACKET_SIZE, tile.y + tile.height - top);
+                traceBlock(left, top, blockWidth, blockHeight, colours);
+                for (int y = 0; y < blockHeight; ++y) {
+                    for (int x = 0; x < blockWidth; ++x) {
+                        Colour colour = colours[y * blockWidth + x];
+                        int offset = ((top + y) * width + left + x) * 3;
+                        radiance[offset] = (float) colour.r;
+                        radiance[offset + 1] = (float) colour.g;
+                        radiance[offset + 2] = (float) colour.b;
+                    }
+                }
+            }
+        }
+        long samples = (long) tile.width * tile.height;
+        samplesTraced.add(samples);
+        return samples;
+    }
+
+    /**
+     * Anti-aliases a tile, writing its colours three per pixel in row-major order
+     * within the tile, and returns the number of rays traced.
+     */
+    private long sampleTile(Tile tile, double[] colours) {
+        long samples = sampler.renderTile(tile, colours);
+        samplesTraced.add(samples);
+        return samples;
+    }
+
+    /**
+     * Traces the primary rays through a block of at most {@link #PACKET_SIZE}
+     * pixels square as one packet, storing their colours in row-major order
+     * within the block. Each pixel's colour is exactly what
+     * {@link #colourForPixel} would return for it.
+     */
+    private void traceBlock(int left, int top, int blockWidth, int blockHeight, Colour[] colours) {
+        RayPacket packet = packets.get();
+        packet.size = blockWidth * blockHeight;
+        for (int y = 0; y < blockHeight; ++y) {
+            for (int x = 0; x < blockWidth; ++x) {
+                camera.rayForPixel((left + x) * 2.0 / width - 1.0, (top + y) * 2.0 / height - 1.0, packet,
+                        y * blockWidth + x);
+            }
+        }
+        scene.colourForPacket(packet, colours);
+    }
+
+    /**
+     * Traces the primary ray through the given pixel and returns its RGB value.
+     */
+    public int renderPixel(int x, int y) {
+        return colourForPixel(x, y).toRGBInt();
+    }
+
+    /**
+     * Traces the primary ray through the given pixel and returns its colour.
+     */
+    public Colour colourForPixel(int x, int y) {
+        Ray ray = camera.rayForPixel(x * 2.0 / width - 1.0, y * 2.0 / height - 1.0);
+        return scene.colourForRay(ray);
+    }
+
+    /**
+     * Runs an action on a contiguous range of tiles, splitting it in half until
+     * only one tile remains so that idle threads can steal the other halves.
+     */
+    private static class TileTask extends RecursiveAction {
+        private final List<Tile> tiles;
+        private final Consumer<Tile> action;
+        private final int start;
+        private final int end;
+
+        TileTask(List<Tile> tiles, Consumer<Tile> action, int start, int end) {
+            this.tiles = tiles;
+            this.action = action;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= 1) {
+                if (end > start) {
+                    action.accept(tiles.get(start));
+                }
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new TileTask(tiles, action, start, middle), new TileTask(tiles, action, middle, end));
+        }
+    }
+}
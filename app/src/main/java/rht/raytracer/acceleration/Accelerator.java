@@ -0,0 +1,62 @@
+package rht.raytracer.acceleration;
+
+import rht.raytracer.ObjectAndDistance;
+import rht.raytracer.RayPacket;
+import rht.raytracer.shapes.Shape;
+
+/**
+ * A structure over a set of bounded shapes which finds what a ray hits without
+ * testing every shape. The {@link BoundingVolumeHierarchy} is one, and the
+ * {@link UniformGrid} and {@link Octree} are built over a hierarchy's shapes as
+ * alternatives to searching it.
+ *
+ * Every implementation finds exactly the same hits, so the choice between them
+ * only changes how quickly a scene renders. {@link AcceleratorType} describes
+ * which scenes suit which.
+ */
+public interface Accelerator {
+    /**
+     * Finds the closest shape (except for `ignored`) which the ray with the given
+     * origin and unit direction hits at a distance less than `maxDistance`,
+     * without allocating.
+     *
+     * @param hit Filled in with the object and distance if there is a hit, and
+     *            left untouched otherwise.
+     * @return whether the ray hits any objects closer than `maxDistance`.
+     */
+    boolean findFirstIntersectionExcept(double ox, double oy, double oz, double dx, double dy, double dz,
+            Shape ignored, double maxDistance, ObjectAndDistance hit);
+
+    /**
+     * Finds any shape (except for `ignored`) which the ray with the given origin
+     * and unit direction hits at a distance less than `maxDistance`, stopping at
+     * the first one found.
+     *
+     * @return the shape found, or null if nothing is hit before `maxDistance`.
+     */
+    Shape findAnyIntersectionExcept(double ox, double oy, double oz, double dx, double dy, double dz,
+            Shape ignored, double maxDistance);
+
+    /**
+     * Finds the closest shape hit by each ray of a packet, where it is closer than
+     * the hit already recorded in the packet for that ray.
+     *
+     * By default this traces the rays one at a time.
+     */
+    default void findFirstIntersections(RayPacket packet) {
+        ObjectAndDistance hit = new ObjectAndDistance();
+        for (int i = 0; i < packet.size; ++i) {
+            if (findFirstIntersectionExcept(packet.originX, packet.originY, packet.originZ, packet.directionX[i],
+                    packet.directionY[i], packet.directionZ[i], null, packet.distance[i], hit)) {
+                packet.distance[i] = hit.distance;
+                packet.hit[i] = hit.object;
+            }
+        }
+    }
+
+    /**
+     * Returns roughly how many bytes the structure takes, not counting the shapes
+     * it refers to or the hierarchy's packed copies of them.
+     */
+    long getMemorySize();
+}
@@ -0,0 +1,144 @@
+package rht.raytracer.acceleration;
+
+import java.util.Locale;
+
+import rht.raytracer.RayPacket;
+import rht.raytracer.maths.Vec3;
+
+/**
+ * Chooses an accelerator for a hierarchy's shapes by building each kind and
+ * timing it on a sample of the rays a render will trace: packets of primary
+ * rays through small blocks of pixels, traced together as they are when
+ * rendering, and shadow rays from where they hit.
+ *
+ * Each kind is charged the time to build it plus its time per sample ray
+ * times the number of rays expected, so a structure which traces a little
+ * quicker is only chosen when the render is long enough to repay building it.
+ * The hierarchy is already built, so costs nothing to build, and the others
+ * must beat it by a clear margin, since a few rays are timed only roughly.
+ *
+ * The samples are traced through each structure in turn, over several rounds,
+ * and each is timed by its quickest round, so that the first rounds warm them
+ * all up. The rounds stop early once they have taken long enough, which for a
+ * large scene may be after only a couple.
+ */
+public final class AcceleratorProbe {
+    private static final AcceleratorType[] CANDIDATES = { AcceleratorType.BVH, AcceleratorType.GRID,
+            AcceleratorType.OCTREE };
+    private static final int MIN_ROUNDS = 2;
+    private static final int MAX_ROUNDS = 16;
+    /** How long to keep timing rounds for, once the fewest have been timed. */
+    private static final long TIME_LIMIT_NANOS = 200_000_000L;
+    /** How much quicker than the hierarchy another kind is expected to be to be chosen. */
+    private static final double MARGIN = 0.8;
+
+    private final long[] buildNanos = new long[CANDIDATES.length];
+    private final double[] nanosPerRay = new double[CANDIDATES.length];
+    private final long[] memorySizes = new long[CANDIDATES.length];
+    private final int chosen;
+    private final Accelerator accelerator;
+
+    /**
+     * Builds and times each kind of accelerator, keeping the one expected to
+     * finish the render soonest.
+     *
+     * @param primaryRays  Packets of the rays to be traced from the camera, whose
+     *                     hits are cleared before each is traced.
+     * @param lights       The positions of the scene's lights, to trace shadow
+     *                     rays towards from where the sample rays hit.
+     * @param expectedRays Roughly how many rays the render will trace.
+     */
+    public AcceleratorProbe(BoundingVolumeHierarchy hierarchy, RayPacket[] primaryRays, Vec3[] lights,
+            long expectedRays) {
+        Accelerator[] built = new Accelerator[CANDIDATES.length];
+        for (int i = 0; i < CANDIDATES.length; ++i) {
+            long start = System.nanoTime();
+            built[i] = CANDIDATES[i].build(hierarchy);
+            buildNanos[i] = CANDIDATES[i] == AcceleratorType.BVH ? 0 : System.nanoTime() - start;
+            memorySizes[i] = built[i].getMemorySize();
+            nanosPerRay[i] = Double.POSITIVE_INFINITY;
+        }
+        long probeStart = System.nanoTime();
+        for (int round = 0; round < MAX_ROUNDS; ++round) {
+            if (round >= MIN_ROUNDS && System.nanoTime() - probeStart > TIME_LIMIT_NANOS) {
+                break;
+            }
+            for (int i = 0; i < CANDIDATES.length; ++i) {
+                long start = System.nanoTime();
+                long rays = trace(built[i], primaryRays, lights);
+                nanosPerRay[i] = Math.min(nanosPerRay[i], (System.nanoTime() - start) / (double) Math.max(rays, 1));
+            }
+        }
+        int best = 0;
+        for (int i = 1; i < CANDIDATES.length; ++i) {
+            if (cost(i, expectedRays) < cost(best, expectedRays)) {
+                best = i;
+            }
+        }
+        chosen = best;
+        accelerator = built[best];
+    }
+
+    /** The expected time to build a kind and trace the rays, favouring the hierarchy. */
+    private double cost(int candidate, long expectedRays) {
+        double cost = buildNanos[candidate] + nanosPerRay[candidate] * expectedRays;
+        return CANDIDATES[candidate] == AcceleratorType.BVH ? cost * MARGIN : cost;
+    }
+
+    /**
+     * Traces each packet of sample rays, and a shadow ray from where each ray
+     * hits towards each light, returning the number of rays traced.
+     */
+    private static long trace(Accelerator accelerator, RayPacket[] primaryRays, Vec3[] lights) {
+        long rays = 0;
+        for (RayPacket packet : primaryRays) {
+            packet.clearHits();
+            accelerator.findFirstIntersections(packet);
+            rays += packet.size;
+            for (int i = 0; i < packet.size; ++i) {
+                if (packet.hit[i] == null) {
+                    continue;
+                }
+                double distance = packet.distance[i];
+                double pointX = packet.originX + packet.directionX[i] * distance;
+                double pointY = packet.originY + packet.directionY[i] * distance;
+                double pointZ = packet.originZ + packet.directionZ[i] * distance;
+                for (Vec3 light : lights) {
+                    double toLightX = light.x - pointX;
+                    double toLightY = light.y - pointY;
+                    double toLightZ = light.z - pointZ;
+                    double lightDistance = Math.sqrt(toLightX * toLightX + toLightY * toLightY + toLightZ * toLightZ);
+                    if (lightDistance > 0.0) {
+                        accelerator.findAnyIntersectionExcept(pointX, pointY, pointZ, toLightX / lightDistance,
+                                toLightY / lightDistance, toLightZ / lightDistance, packet.hit[i], lightDistance);
+                        ++rays;
+                    }
+                }
+            }
+        }
+        return rays;
+    }
+
+    /** The kind of accelerator chosen. */
+    public AcceleratorType getChosenType() {
+        return CANDIDATES[chosen];
+    }
+
+    /** The accelerator chosen, already built. */
+    public Accelerator getAccelerator() {
+        return accelerator;
+    }
+
+    /**
+     * Describes each kind's build time, memory and time per ray, and which was
+     * chosen.
+     */
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < CANDIDATES.length; ++i) {
+            result.append(String.format(Locale.ROOT, "%-6s built in %7.1f ms, %8.1f MB, %6.0f ns per ray%n",
+                    CANDIDATES[i], buildNanos[i] / 1e6, memorySizes[i] / 1e6, nanosPerRay[i]));
+        }
+        return result.append("Chose ").append(getChosenType()).toString();
+    }
+}
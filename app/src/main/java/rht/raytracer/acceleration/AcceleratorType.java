@@ -0,0 +1,61 @@
+package rht.raytracer.acceleration;
+
+/**
+ * The kinds of {@link Accelerator} a scene can search its bounded objects with.
+ *
+ * The hierarchy adapts to any scene and is always built, since it holds the
+ * shapes. It is quickest for small scenes such as the default one. A grid is
+ * quickest for many thousands of small shapes spread evenly, but slow when most
+ * shapes crowd into a small part of the scene, where an octree keeps up with
+ * the hierarchy. When it isn't clear which suits a scene, {@link #AUTO} has the
+ * scene try each with a sample of rays, and keep the hierarchy unless another
+ * is clearly quicker.
+ */
+public enum AcceleratorType {
+    /** The {@link BoundingVolumeHierarchy} itself. */
+    BVH,
+    /** A {@link UniformGrid} over the hierarchy's shapes. */
+    GRID,
+    /** An {@link Octree} over the hierarchy's shapes. */
+    OCTREE,
+    /** Whichever of the others finds a sample of rays' hits quickest. */
+    AUTO;
+
+    /**
+     * Builds this kind of accelerator over the shapes of a hierarchy.
+     *
+     * @throws IllegalStateException for {@link #AUTO}, which needs rays to
+     *                               choose with.
+     */
+    public Accelerator build(BoundingVolumeHierarchy hierarchy) {
+        switch (this) {
+            case BVH:
+                return hierarchy;
+            case GRID:
+                return new UniformGrid(hierarchy);
+            case OCTREE:
+                return new Octree(hierarchy);
+            default:
+                throw new IllegalStateException("An automatic choice of accelerator needs rays to choose with.");
+        }
+    }
+
+    /**
+     * Returns the type with the given name, ignoring case, as given on the
+     * command line.
+     *
+     * @throws IllegalArgumentException if there is no such type.
+     */
+    public static AcceleratorType fromName(String name) {
+        for (AcceleratorType type : values()) {
+            if (type.name().equalsIgnoreCase(name)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown accelerator: " + name);
+    }
+
+    public String toString() {
+        return name().toLowerCase();
+    }
+}
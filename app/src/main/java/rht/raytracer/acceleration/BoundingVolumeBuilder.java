@@ -0,0 +1,515 @@
+package rht.raytracer.acceleration;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Builds a binary tree of axis-aligned bounding boxes over a set of
+ * primitives, given only each primitive's box.
+ *
+ * The tree is built top-down using the surface area heuristic over a fixed
+ * number of centroid bins, and stored flattened in depth-first order: the left
+ * child of an interior node immediately follows it, and the node records the
+ * index of its right child. Callers reorder their primitives by {@link #order}
+ * so that every leaf refers to a contiguous range of them.
+ *
+ * The primitives' boxes are copied and partitioned along with their indices,
+ * so that every pass over a node reads them in sequence. The two halves of a
+ * large node are built in parallel, each into its own range of nodes: a
+ * subtree over `n` primitives has at most `2n - 1` of them. The gaps left are
+ * closed once the tree is built. The largest nodes, near the root, are binned
+ * in parallel too. The tree is the same however many threads built it.
+ */
+public class BoundingVolumeBuilder {
+    /** The deepest a tree can be, so traversal stacks of this size never overflow. */
+    public static final int MAX_DEPTH = 64;
+    private static final int MAX_LEAF_SIZE = 4;
+    private static final int BIN_COUNT = 12;
+    /** The fewest primitives under a node for its halves to be built in parallel. */
+    private static final int PARALLEL_THRESHOLD = 4096;
+    /** The most primitives binned on one thread, for nodes binned in parallel. */
+    private static final int BIN_CHUNK_SIZE = 1 << 15;
+
+    /** Six values per node: minimum x, y, z followed by maximum x, y, z. */
+    public final double[] nodeBounds;
+    /** For leaves, the index of the first primitive; for interior nodes, the right child. */
+    public final int[] nodeOffset;
+    /** For leaves, the number of primitives; zero for interior nodes. */
+    public final int[] nodeItemCount;
+    /** The number of nodes built. The arrays may be longer. */
+    public final int nodeCount;
+    /** The original index of each primitive, in tree order. */
+    public final int[] order;
+
+    /** Each primitive's box, as for {@link #nodeBounds}, in the same order as {@link #order}. */
+    private final double[] bounds;
+    /** Whether to build the halves of large nodes in parallel. */
+    private final boolean parallel;
+
+    /**
+     * Builds a tree over `count` primitives, in parallel if there are many of
+     * them and more than one processor.
+     *
+     * @param primitiveBounds Six values per primitive, as for {@link #nodeBounds}.
+     *                        Not modified.
+     */
+    public BoundingVolumeBuilder(double[] primitiveBounds, int count) {
+        this(primitiveBounds, count, Runtime.getRuntime().availableProcessors() > 1);
+    }
+
+    /**
+     * Builds a tree over `count` primitives.
+     *
+     * @param primitiveBounds Six values per primitive, as for {@link #nodeBounds}.
+     *                        Not modified.
+     * @param parallel        Whether to build the halves of nodes over many
+     *                        primitives in parallel, on this thread and the
+     *                        common fork-join pool.
+     */
+    public BoundingVolumeBuilder(double[] primitiveBounds, int count, boolean parallel) {
+        this.parallel = parallel;
+        bounds = Arrays.copyOf(primitiveBounds, count * 6);
+        order = new int[count];
+        for (int i = 0; i < count; ++i) {
+            order[i] = i;
+        }
+
+        int maxNodes = Math.max(1, 2 * count - 1);
+        nodeBounds = new double[maxNodes * 6];
+        nodeOffset = new int[maxNodes];
+        nodeItemCount = new int[maxNodes];
+        if (count == 0) {
+            nodeCount = 0;
+            return;
+        }
+
+        // With no scale every primitive falls in the first bin. Every later node's
+        // boxes are found while splitting its parent.
+        Bins root = bin(0, count, 0, 0.0, 0.0);
+        System.arraycopy(root.boxBounds, 0, nodeBounds, 0, 6);
+        double[] centroidBounds = Arrays.copyOf(root.centroidBounds, 6);
+        if (parallel && count >= PARALLEL_THRESHOLD) {
+            new BuildTask(0, 0, count, 1, centroidBounds).invoke();
+        } else {
+            build(0, 0, count, 1, centroidBounds);
+        }
+        nodeCount = closeGaps(0, 0);
+    }
+
+    /**
+     * Returns the bounds of the nodes built, in single precision and rounded
+     * outwards so that every box still contains everything under it. A ray finds
+     * the same hits through these slightly larger boxes, which take half the
+     * memory per node of {@link #nodeBounds}, and none for the spare room it
+     * keeps for the most nodes `count` primitives could need.
+     */
+    public float[] compactBounds() {
+        float[] compact = new float[nodeCount * 6];
+        forEachIndex(nodeCount, node -> {
+            int b = node * 6;
+            for (int axis = 0; axis < 3; ++axis) {
+                compact[b + axis] = roundDown(nodeBounds[b + axis]);
+                compact[b + 3 + axis] = roundUp(nodeBounds[b + 3 + axis]);
+            }
+        });
+        return compact;
+    }
+
+    /**
+     * Runs an action for each index from zero up to `count`, in parallel if
+     * there are enough of them for that to pay.
+     */
+    static void forEachIndex(int count, IntConsumer action) {
+        if (count >= PARALLEL_THRESHOLD) {
+            IntStream.range(0, count).parallel().forEach(action);
+        } else {
+            for (int i = 0; i < count; ++i) {
+                action.accept(i);
+            }
+        }
+    }
+
+    /** Returns the largest float no greater than `value`. */
+    public static float roundDown(double value) {
+        float rounded = (float) value;
+        return rounded > value ? Math.nextDown(rounded) : rounded;
+    }
+
+    /** Returns the smallest float no less than `value`. */
+    public static float roundUp(double value) {
+        float rounded = (float) value;
+        return rounded < value ? Math.nextUp(rounded) : rounded;
+    }
+
+    /**
+     * Returns the distance at which a ray enters a node's box, or positive infinity
+     * if it misses the box or only reaches it beyond `maxDistance`.
+     *
+     * @param nodeBounds Node bounds laid out as for {@link #nodeBounds}, such as
+     *                   those from {@link #compactBounds}.
+     * @param ix         The reciprocal of the ray direction's x component, and
+     *                   likewise for `iy` and `iz`.
+     */
+    public static double entryDistance(float[] nodeBounds, int node, double ox, double oy, double oz,
+            double ix, double iy, double iz, double maxDistance) {
+        int b = node * 6;
+        double near = 0.0;
+        double far = maxDistance;
+
+        double t1 = (nodeBounds[b] - ox) * ix;
+        double t2 = (nodeBounds[b + 3] - ox) * ix;
+        if (t1 > t2) {
+            double swap = t1;
+            t1 = t2;
+            t2 = swap;
+        }
+        // Comparisons with NaN are false, so degenerate slabs leave the interval alone.
+        if (t1 > near) {
+            near = t1;
+        }
+        if (t2 < far) {
+            far = t2;
+        }
+
+        t1 = (nodeBounds[b + 1] - oy) * iy;
+        t2 = (nodeBounds[b + 4] - oy) * iy;
+        if (t1 > t2) {
+            double swap = t1;
+            t1 = t2;
+            t2 = swap;
+        }
+        if (t1 > near) {
+            near = t1;
+        }
+        if (t2 < far) {
+            far = t2;
+        }
+
+        t1 = (nodeBounds[b + 2] - oz) * iz;
+        t2 = (nodeBounds[b + 5] - oz) * iz;
+        if (t1 > t2) {
+            double swap = t1;
+            t1 = t2;
+            t2 = swap;
+        }
+        if (t1 > near) {
+            near = t1;
+        }
+        if (t2 < far) {
+            far = t2;
+        }
+
+        return near <= far ? near : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Recursively builds the subtree over `order[start..end)` with its root at
+     * `node`, whose box has already been set, and its other nodes at most
+     * `2 * (end - start) - 1` nodes on.
+     *
+     * @param centroidBounds The box around the centres of the subtree's primitives.
+     */
+    private void build(int node, int start, int end, int depth, double[] centroidBounds) {
+        int count = end - start;
+        int axis = 0;
+        for (int a = 1; a < 3; ++a) {
+            if (centroidBounds[3 + a] - centroidBounds[a] > centroidBounds[3 + axis] - centroidBounds[axis]) {
+                axis = a;
+            }
+        }
+        double extent = centroidBounds[3 + axis] - centroidBounds[axis];
+
+        if (count <= MAX_LEAF_SIZE || depth >= MAX_DEPTH - 1 || extent <= 0.0) {
+            makeLeaf(node, start, count);
+            return;
+        }
+
+        // The left child follows this node, and the right follows all the nodes the left could need.
+        double[] childCentroidBounds = new double[12];
+        int middle = partitionBySurfaceArea(node, start, end, axis, centroidBounds[axis], extent,
+                childCentroidBounds);
+        if (middle < 0) {
+            makeLeaf(node, start, count);
+            return;
+        }
+        int left = node + 1;
+        int right = node + 2 * (middle - start);
+        nodeOffset[node] = right;
+        nodeItemCount[node] = 0;
+
+        double[] leftCentroidBounds = Arrays.copyOfRange(childCentroidBounds, 0, 6);
+        double[] rightCentroidBounds = Arrays.copyOfRange(childCentroidBounds, 6, 12);
+        if (parallel && count >= PARALLEL_THRESHOLD) {
+            ForkJoinTask.invokeAll(new BuildTask(left, start, middle, depth + 1, leftCentroidBounds),
+                    new BuildTask(right, middle, end, depth + 1, rightCentroidBounds));
+        } else {
+            build(left, start, middle, depth + 1, leftCentroidBounds);
+            build(right, middle, end, depth + 1, rightCentroidBounds);
+        }
+    }
+
+    /**
+     * Moves the subtree at `node` and everything under it to start at `target`,
+     * closing the gaps between subtrees. Every node moves to the same place or
+     * earlier, and only once every node before it has moved, so nothing is
+     * overwritten before it is moved.
+     *
+     * @return the number of nodes in the subtree.
+     */
+    private int closeGaps(int node, int target) {
+        System.arraycopy(nodeBounds, node * 6, nodeBounds, target * 6, 6);
+        nodeItemCount[target] = nodeItemCount[node];
+        if (nodeItemCount[node] > 0) {
+            nodeOffset[target] = nodeOffset[node];
+            return 1;
+        }
+        int right = nodeOffset[node];
+        int leftSize = closeGaps(node + 1, target + 1);
+        nodeOffset[target] = target + 1 + leftSize;
+        return 1 + leftSize + closeGaps(right, target + 1 + leftSize);
+    }
+
+    /**
+     * Bins the centroids of `order[start..end)` along an axis, picks the bin
+     * boundary with the lowest surface area heuristic cost, and partitions the
+     * range about it. The boxes of the two halves are set on the nodes they
+     * will be built at.
+     *
+     * @param childCentroidBounds Set to the boxes around the centres of the left
+     *                            then the right half's primitives.
+     * @return the index of the first primitive in the right half, or -1 if a leaf is
+     *         cheaper than any split.
+     */
+    private int partitionBySurfaceArea(int node, int start, int end, int axis, double centroidMin,
+            double extent, double[] childCentroidBounds) {
+        double scale = BIN_COUNT / extent;
+        Bins bins = bin(start, end, axis, centroidMin, scale);
+        int[] binCounts = bins.counts;
+        double[] binBounds = bins.boxBounds;
+
+        // Sweep from the right to find the area and count on the right of each split.
+        double[] rightArea = new double[BIN_COUNT];
+        int[] rightCount = new int[BIN_COUNT];
+        double[] sweep = new double[6];
+        emptyBounds(sweep, 0);
+        int runningCount = 0;
+        for (int bin = BIN_COUNT - 1; bin > 0; --bin) {
+            growBounds(sweep, 0, binBounds, bin);
+            runningCount += binCounts[bin];
+            rightArea[bin] = surfaceArea(sweep, 0);
+            rightCount[bin] = runningCount;
+        }
+
+        emptyBounds(sweep, 0);
+        runningCount = 0;
+        int bestSplit = -1;
+        double bestCost = Double.POSITIVE_INFINITY;
+        for (int split = 1; split < BIN_COUNT; ++split) {
+            growBounds(sweep, 0, binBounds, split - 1);
+            runningCount += binCounts[split - 1];
+            if (runningCount == 0 || rightCount[split] == 0) {
+                continue;
+            }
+            double cost = surfaceArea(sweep, 0) * runningCount + rightArea[split] * rightCount[split];
+            if (cost < bestCost) {
+                bestCost = cost;
+                bestSplit = split;
+            }
+        }
+
+        // The extremal centroids always fall in the first and last bins, so some
+        // split exists. Only stop early while leaves would stay reasonably small.
+        int count = end - start;
+        double leafCost = surfaceArea(nodeBounds, node) * count;
+        if (bestCost >= leafCost && count <= 4 * MAX_LEAF_SIZE) {
+            return -1;
+        }
+
+        int left = start;
+        int right = end - 1;
+        while (left <= right) {
+            if (binFor(left, axis, centroidMin, scale) < bestSplit) {
+                ++left;
+            } else {
+                swap(left, right);
+                --right;
+            }
+        }
+
+        int leftNode = node + 1;
+        int rightNode = node + 2 * (left - start);
+        emptyBounds(nodeBounds, leftNode);
+        emptyBounds(nodeBounds, rightNode);
+        emptyBounds(childCentroidBounds, 0);
+        emptyBounds(childCentroidBounds, 1);
+        for (int bin = 0; bin < BIN_COUNT; ++bin) {
+            boolean inLeft = bin < bestSplit;
+            growBounds(nodeBounds, inLeft ? leftNode : rightNode, binBounds, bin);
+            growBounds(childCentroidBounds, inLeft ? 0 : 1, bins.centroidBounds, bin);
+        }
+        return left;
+    }
+
+    /**
+     * Bins the primitives `order[start..end)`, in parallel chunks if there are
+     * many of them.
+     */
+    private Bins bin(int start, int end, int axis, double centroidMin, double scale) {
+        if (parallel && end - start > BIN_CHUNK_SIZE) {
+            return new BinTask(start, end, axis, centroidMin, scale).invoke();
+        }
+        return binRange(start, end, axis, centroidMin, scale);
+    }
+
+    /** Bins the primitives `order[start..end)` on this thread. */
+    private Bins binRange(int start, int end, int axis, double centroidMin, double scale) {
+        Bins bins = new Bins();
+        for (int i = start; i < end; ++i) {
+            int bin = binFor(i, axis, centroidMin, scale);
+            bins.counts[bin]++;
+            growBounds(bins.boxBounds, bin, bounds, i);
+            growCentroidBounds(bins.centroidBounds, bin, i);
+        }
+        return bins;
+    }
+
+    /** Finds the bin of the primitive at `index` in tree order. */
+    private int binFor(int index, int axis, double centroidMin, double scale) {
+        double centroid = (bounds[index * 6 + axis] + bounds[index * 6 + 3 + axis]) * 0.5;
+        int bin = (int) ((centroid - centroidMin) * scale);
+        return Math.min(BIN_COUNT - 1, Math.max(0, bin));
+    }
+
+    /** Swaps two primitives in tree order, along with their boxes. */
+    private void swap(int i, int j) {
+        int index = order[i];
+        order[i] = order[j];
+        order[j] = index;
+        for (int k = 0; k < 6; ++k) {
+            double value = bounds[i * 6 + k];
+            bounds[i * 6 + k] = bounds[j * 6 + k];
+            bounds[j * 6 + k] = value;
+        }
+    }
+
+    /** Grows box `index` of `centroidBounds` to hold the centre of the primitive at `primitive` in tree order. */
+    private void growCentroidBounds(double[] centroidBounds, int index, int primitive) {
+        int b = index * 6;
+        for (int axis = 0; axis < 3; ++axis) {
+            double centroid = (bounds[primitive * 6 + axis] + bounds[primitive * 6 + 3 + axis]) * 0.5;
+            centroidBounds[b + axis] = Math.min(centroidBounds[b + axis], centroid);
+            centroidBounds[b + 3 + axis] = Math.max(centroidBounds[b + 3 + axis], centroid);
+        }
+    }
+
+    private void makeLeaf(int node, int start, int count) {
+        nodeOffset[node] = start;
+        nodeItemCount[node] = count;
+    }
+
+    private static void emptyBounds(double[] bounds, int index) {
+        int b = index * 6;
+        for (int axis = 0; axis < 3; ++axis) {
+            bounds[b + axis] = Double.POSITIVE_INFINITY;
+            bounds[b + 3 + axis] = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    private static void growBounds(double[] bounds, int index, double[] other, int otherIndex) {
+        int b = index * 6;
+        int o = otherIndex * 6;
+        for (int axis = 0; axis < 3; ++axis) {
+            bounds[b + axis] = Math.min(bounds[b + axis], other[o + axis]);
+            bounds[b + 3 + axis] = Math.max(bounds[b + 3 + axis], other[o + 3 + axis]);
+        }
+    }
+
+    private static double surfaceArea(double[] bounds, int index) {
+        int b = index * 6;
+        double dx = bounds[b + 3] - bounds[b];
+        double dy = bounds[b + 4] - bounds[b + 1];
+        double dz = bounds[b + 5] - bounds[b + 2];
+        if (dx < 0 || dy < 0 || dz < 0) {
+            return 0.0;
+        }
+        return 2.0 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    /** The number of primitives in each bin, with the boxes around them and around their centres. */
+    private static class Bins {
+        final int[] counts = new int[BIN_COUNT];
+        final double[] boxBounds = new double[BIN_COUNT * 6];
+        final double[] centroidBounds = new double[BIN_COUNT * 6];
+
+        Bins() {
+            for (int bin = 0; bin < BIN_COUNT; ++bin) {
+                emptyBounds(boxBounds, bin);
+                emptyBounds(centroidBounds, bin);
+            }
+        }
+
+        void add(Bins other) {
+            for (int bin = 0; bin < BIN_COUNT; ++bin) {
+                counts[bin] += other.counts[bin];
+                growBounds(boxBounds, bin, other.boxBounds, bin);
+                growBounds(centroidBounds, bin, other.centroidBounds, bin);
+            }
+        }
+    }
+
+    /** Bins a range of primitives by splitting it in half until each part is small enough. */
+    private class BinTask extends RecursiveTask<Bins> {
+        private final int start;
+        private final int end;
+        private final int axis;
+        private final double centroidMin;
+        private final double scale;
+
+        BinTask(int start, int end, int axis, double centroidMin, double scale) {
+            this.start = start;
+            this.end = end;
+            this.axis = axis;
+            this.centroidMin = centroidMin;
+            this.scale = scale;
+        }
+
+        @Override
+        protected Bins compute() {
+            if (end - start <= BIN_CHUNK_SIZE) {
+                return binRange(start, end, axis, centroidMin, scale);
+            }
+            int middle = (start + end) >>> 1;
+            BinTask right = new BinTask(middle, end, axis, centroidMin, scale);
+            right.fork();
+            Bins bins = new BinTask(start, middle, axis, centroidMin, scale).compute();
+            bins.add(right.join());
+            return bins;
+        }
+    }
+
+    /** Builds a subtree as {@link BoundingVolumeBuilder#build} does, splitting its work between threads. */
+    private class BuildTask extends RecursiveAction {
+        private final int node;
+        private final int start;
+        private final int end;
+        private final int depth;
+        private final double[] centroidBounds;
+
+        BuildTask(int node, int start, int end, int depth, double[] centroidBounds) {
+            this.node = node;
+            this.start = start;
+            this.end = end;
+            this.depth = depth;
+            this.centroidBounds = centroidBounds;
+        }
+
+        @Override
+        protected void compute() {
+            build(node, start, end, depth, centroidBounds);
+        }
+    }
+}
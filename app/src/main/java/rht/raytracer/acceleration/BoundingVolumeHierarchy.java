@@ -0,0 +1,873 @@
+package rht.raytracer.acceleration;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import rht.raytracer.ObjectAndDistance;
+import rht.raytracer.Ray;
+import rht.raytracer.RayPacket;
+import rht.raytracer.maths.BoundingBox;
+import rht.raytracer.maths.Vec3;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.shapes.ShapeType;
+import rht.raytracer.shapes.Sphere;
+import rht.raytracer.statistics.RenderCounters;
+import rht.raytracer.statistics.RenderStatistics;
+
+/**
+ * A binary tree of axis-aligned bounding boxes over a set of bounded shapes,
+ * used to find the first shape a ray hits without testing every shape.
+ *
+ * The tree is built by {@link BoundingVolumeBuilder}, and the shapes are
+ * stored in tree order so that every leaf refers to a contiguous range.
+ *
+ * A built hierarchy can be saved with {@link #write} as one flat block of
+ * little-endian arrays, and read back from a memory-mapped file with one bulk
+ * copy per array instead of being rebuilt. Only the shapes which aren't plain
+ * spheres need to be supplied when reading it back; a {@link Shape} for a
+ * sphere is only created once a ray hits it.
+ */
+public class BoundingVolumeHierarchy implements Accelerator {
+    private static final int WRITE_BUFFER_BYTES = 1 << 16;
+
+    /**
+     * The shapes, reordered so that every leaf refers to a contiguous range. In a
+     * hierarchy read back by {@link #read}, entries for spheres are null until
+     * they are first needed.
+     */
+    private final Shape[] shapes;
+    /** Creates the missing shapes of a hierarchy that was read back, or null. */
+    private final SphereShapes sphereShapes;
+    /**
+     * The plain spheres among `shapes`, in the same order. Only replaced while
+     * the hierarchy is not being searched.
+     */
+    private PackedSpheres spheres;
+    /**
+     * Six values per node: minimum x, y, z followed by maximum x, y, z, rounded
+     * outwards as by {@link BoundingVolumeBuilder#compactBounds}.
+     */
+    private final float[] nodeBounds;
+    /** For leaves, the index of the first shape; for interior nodes, the right child. */
+    private final int[] nodeOffset;
+    /** For leaves, the number of shapes; zero for interior nodes. */
+    private final int[] nodeShapeCount;
+    private final int nodeCount;
+    /** How long building the hierarchy took, or zero if it was read back. */
+    private final long buildNanos;
+
+    private final ThreadLocal<int[]> traversalStacks = ThreadLocal
+            .withInitial(() -> new int[BoundingVolumeBuilder.MAX_DEPTH]);
+    /** The index of the shape each ray of a packet hits, or -1. */
+    private final ThreadLocal<int[]> packetHits = ThreadLocal.withInitial(() -> new int[0]);
+    /** The range of a packet's reciprocal directions along each axis, as for {@link #setInverseRange}. */
+    private final ThreadLocal<double[]> inverseRanges = ThreadLocal.withInitial(() -> new double[6]);
+
+    /**
+     * Creates the shape for a sphere in a hierarchy that was saved without its
+     * shapes.
+     */
+    public interface SphereShapes {
+        /**
+         * @param index  The sphere's index in hierarchy order, as for
+         *               {@link BoundingVolumeHierarchy#getShape(int)}.
+         * @param sphere The sphere's geometry.
+         */
+        public Shape shapeFor(int index, Sphere sphere);
+    }
+
+    /**
+     * Builds a hierarchy over the given shapes, all of which must have a
+     * bounding box.
+     */
+    public BoundingVolumeHierarchy(List<Shape> objects) {
+        long start = System.nanoTime();
+        int count = objects.size();
+        double[] shapeBounds = new double[count * 6];
+        BoundingVolumeBuilder.forEachIndex(count, i -> {
+            BoundingBox box = objects.get(i).getShapeType().boundingBox();
+            if (box == null) {
+                throw new IllegalArgumentException("Only bounded shapes can be put in a hierarchy.");
+            }
+            setBounds(shapeBounds, i, box.min, box.max);
+        });
+        BoundingVolumeBuilder builder = new BoundingVolumeBuilder(shapeBounds, count);
+        nodeBounds = builder.compactBounds();
+        nodeOffset = builder.nodeOffset;
+        nodeShapeCount = builder.nodeItemCount;
+        nodeCount = builder.nodeCount;
+
+        shapes = new Shape[count];
+        BoundingVolumeBuilder.forEachIndex(count, i -> shapes[i] = objects.get(builder.order[i]));
+        spheres = PackedSpheres.pack(shapes);
+        sphereShapes = null;
+        buildNanos = System.nanoTime() - start;
+    }
+
+    private BoundingVolumeHierarchy(Shape[] shapes, SphereShapes sphereShapes, PackedSpheres spheres,
+            float[] nodeBounds, int[] nodeOffset, int[] nodeShapeCount) {
+        this.shapes = shapes;
+        this.sphereShapes = sphereShapes;
+        this.spheres = spheres;
+        this.nodeBounds = nodeBounds;
+        this.nodeOffset = nodeOffset;
+        this.nodeShapeCount = nodeShapeCount;
+        this.nodeCount = nodeOffset.length;
+        this.buildNanos = 0;
+    }
+
+    /**
+     * Reads back a hierarchy saved by {@link #write}, for example from a
+     * memory-mapped file, without rebuilding it.
+     *
+     * @param data         The saved block, from its current position. The
+     *                     position is left just after it.
+     * @param shapes       The shapes in hierarchy order, with null for the plain
+     *                     spheres, which are created by `sphereShapes` when first
+     *                     needed. The array is filled in as they are.
+     * @param sphereShapes Creates the shape for each sphere.
+     * @throws IllegalArgumentException if the block doesn't match the shapes.
+     */
+    public static BoundingVolumeHierarchy read(ByteBuffer data, Shape[] shapes, SphereShapes sphereShapes) {
+        ByteBuffer in = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int nodeCount = in.getInt();
+        int count = in.getInt();
+        if (count != shapes.length || in.remaining() < dataSize(nodeCount, count) - 8) {
+            throw new IllegalArgumentException("Saved hierarchy does not match its shapes.");
+        }
+        float[] nodeBounds = readFloats(in, nodeCount * 6);
+        PackedSpheres spheres = PackedSpheres.wrap(readDoubles(in, count), readDoubles(in, count),
+                readDoubles(in, count), readDoubles(in, count));
+        int[] nodeOffset = readInts(in, nodeCount);
+        int[] nodeShapeCount = readInts(in, nodeCount);
+        for (int i = 0; i < count; ++i) {
+            if (shapes[i] == null && !spheres.isSphere(i)) {
+                throw new IllegalArgumentException("Shape " + i + " is not a sphere, so must be given.");
+            }
+        }
+        data.position(data.position() + in.position());
+        return new BoundingVolumeHierarchy(shapes, sphereShapes, spheres, nodeBounds, nodeOffset, nodeShapeCount);
+    }
+
+    public int size() {
+        return shapes.length;
+    }
+
+    /**
+     * Returns the shape at the given index in hierarchy order, creating it first
+     * if this hierarchy was read back and it hasn't been needed yet.
+     */
+    public Shape getShape(int index) {
+        Shape shape = shapes[index];
+        return shape != null ? shape : createShape(index);
+    }
+
+    /**
+     * Whether the shape at the given index is a plain sphere, which {@link #read}
+     * can create from the saved data.
+     */
+    public boolean isPackedSphere(int index) {
+        return spheres.isSphere(index);
+    }
+
+    /** The number of bytes {@link #write} writes. */
+    public long getDataSize() {
+        return dataSize(nodeCount, shapes.length);
+    }
+
+    /**
+     * Writes the nodes and packed spheres as one block, which {@link #read} can
+     * read back. The shapes themselves are not written. Spheres are always
+     * written in double precision.
+     */
+    public void write(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(nodeCount);
+        buffer.putInt(shapes.length);
+        writeFloats(channel, buffer, nodeBounds, nodeCount * 6);
+        double[] values = new double[shapes.length];
+        for (int component = 0; component < 4; ++component) {
+            for (int i = 0; i < shapes.length; ++i) {
+                values[i] = component == 0 ? spheres.centreX(i) : component == 1 ? spheres.centreY(i)
+                        : component == 2 ? spheres.centreZ(i) : spheres.radius(i);
+            }
+            writeDoubles(channel, buffer, values, shapes.length);
+        }
+        writeInts(channel, buffer, nodeOffset, nodeCount);
+        writeInts(channel, buffer, nodeShapeCount, nodeCount);
+        flush(channel, buffer);
+    }
+
+    /**
+     * Creates and records the shape for a sphere that was read back. Every
+     * thread must get the same object, since shapes are compared by identity
+     * when ignoring the one a ray starts from.
+     */
+    private synchronized Shape createShape(int index) {
+        if (shapes[index] == null) {
+            shapes[index] = sphereShapes.shapeFor(index, spheres.sphereAt(index));
+        }
+        return shapes[index];
+    }
+
+    /**
+     * Returns the shape at the given index if it has been created, or null for a
+     * sphere of a hierarchy read back which no ray has hit yet.
+     */
+    Shape createdShape(int index) {
+        return shapes[index];
+    }
+
+    /**
+     * Returns the bounds of every shape in hierarchy order, six values each laid
+     * out as for the nodes. Packed spheres are bounded as stored, which may be
+     * rounded.
+     */
+    double[] shapeBounds() {
+        double[] bounds = new double[shapes.length * 6];
+        for (int i = 0; i < shapes.length; ++i) {
+            if (spheres.isSphere(i)) {
+                double r = spheres.radius(i);
+                setBounds(bounds, i, spheres.centreX(i) - r, spheres.centreY(i) - r, spheres.centreZ(i) - r,
+                        spheres.centreX(i) + r, spheres.centreY(i) + r, spheres.centreZ(i) + r);
+            } else {
+                BoundingBox box = shapes[i].getShapeType().boundingBox();
+                setBounds(bounds, i, box.min, box.max);
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Returns the distance at which the ray with the given origin and unit
+     * direction hits the shape at the given index, or {@link ShapeType#MISS} if
+     * it misses or the shape is `ignored`. This lets the other structures built
+     * over the hierarchy's shapes test them just as the hierarchy does.
+     *
+     * @param counters The current thread's counters, if statistics are enabled.
+     */
+    double intersectShape(int index, Shape ignored, double ox, double oy, double oz, double dx, double dy,
+            double dz, RenderCounters counters) {
+        Shape object = shapes[index];
+        if (object == ignored && object != null) {
+            return ShapeType.MISS;
+        }
+        if (spheres.isSphere(index)) {
+            if (RenderStatistics.ENABLED) {
+                counters.countIntersection(Sphere.class);
+            }
+            return spheres.intersectDistance(index, ox, oy, oz, dx, dy, dz);
+        }
+        if (RenderStatistics.ENABLED) {
+            counters.countIntersection(object.getShapeType().getClass());
+        }
+        return object.getShapeType().intersectDistance(ox, oy, oz, dx, dy, dz);
+    }
+
+    private static long dataSize(int nodeCount, int shapeCount) {
+        return 8 + (long) nodeCount * (6 * Float.BYTES + 2 * Integer.BYTES)
+                + (long) shapeCount * 4 * Double.BYTES;
+    }
+
+    private static double[] readDoubles(ByteBuffer in, int length) {
+        double[] values = new double[length];
+        in.asDoubleBuffer().get(values);
+        in.position(in.position() + length * Double.BYTES);
+        return values;
+    }
+
+    private static float[] readFloats(ByteBuffer in, int length) {
+        float[] values = new float[length];
+        in.asFloatBuffer().get(values);
+        in.position(in.position() + length * Float.BYTES);
+        return values;
+    }
+
+    private static int[] readInts(ByteBuffer in, int length) {
+        int[] values = new int[length];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + length * Integer.BYTES);
+        return values;
+    }
+
+    private static void writeDoubles(WritableByteChannel channel, ByteBuffer buffer, double[] values, int length)
+            throws IOException {
+        for (int i = 0; i < length;) {
+            if (buffer.remaining() < Double.BYTES) {
+                flush(channel, buffer);
+            }
+            DoubleBuffer view = buffer.asDoubleBuffer();
+            int chunk = Math.min(view.remaining(), length - i);
+            view.put(values, i, chunk);
+            buffer.position(buffer.position() + chunk * Double.BYTES);
+            i += chunk;
+        }
+    }
+
+    private static void writeFloats(WritableByteChannel channel, ByteBuffer buffer, float[] values, int length)
+            throws IOException {
+        for (int i = 0; i < length;) {
+            if (buffer.remaining() < Float.BYTES) {
+                flush(channel, buffer);
+            }
+            FloatBuffer view = buffer.asFloatBuffer();
+            int chunk = Math.min(view.remaining(), length - i);
+            view.put(values, i, chunk);
+            buffer.position(buffer.position() + chunk * Float.BYTES);
+            i += chunk;
+        }
+    }
+
+    private static void writeInts(WritableByteChannel channel, ByteBuffer buffer, int[] values, int length)
+            throws IOException {
+        for (int i = 0; i < length;) {
+            if (buffer.remaining() < Integer.BYTES) {
+                flush(channel, buffer);
+            }
+            IntBuffer view = buffer.asIntBuffer();
+            int chunk = Math.min(view.remaining(), length - i);
+            view.put(values, i, chunk);
+            buffer.position(buffer.position() + chunk * Integer.BYTES);
+            i += chunk;
+        }
+    }
+
+    private static void flush(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /** How long building the hierarchy took, in nanoseconds, or zero if it was read back by {@link #read}. */
+    public long getBuildNanos() {
+        return buildNanos;
+    }
+
+    @Override
+    public long getMemorySize() {
+        return (long) nodeCount * (6 * Float.BYTES + 2 * Integer.BYTES);
+    }
+
+    /** Whether the packed spheres are stored in single precision. */
+    public boolean isSinglePrecision() {
+        return spheres.isSinglePrecision();
+    }
+
+    /**
+     * Stores the packed spheres in single or double precision. Single precision
+     * halves their memory, but rounds each sphere to the nearest float values,
+     * and the boxes around them are refitted to the rounded spheres. Switching
+     * back to double precision keeps the rounded values.
+     *
+     * This must not be called while the hierarchy is being searched.
+     */
+    public void setSinglePrecision(boolean singlePrecision) {
+        if (singlePrecision == spheres.isSinglePrecision()) {
+            return;
+        }
+        spheres = spheres.withSinglePrecision(singlePrecision);
+        boolean[] moved = new boolean[shapes.length];
+        for (int i = 0; i < moved.length; ++i) {
+            moved[i] = spheres.isSphere(i);
+        }
+        refit(moved);
+    }
+
+    /**
+     * Replaces shapes with others, normally the same shapes moved, and refits
+     * the boxes of the nodes above them without changing the shape of the tree.
+     * This is far quicker than building a new hierarchy, but the tree gets worse
+     * as shapes move away from where it was built, as
+     * {@link #getSurfaceAreaCost()} shows.
+     *
+     * This must not be called while the hierarchy is being searched.
+     *
+     * @param replacements The replacement for each shape to replace, which must
+     *                     have a bounding box too. Shapes not in this hierarchy
+     *                     are ignored.
+     * @return the number of shapes replaced.
+     */
+    public int replaceShapes(Map<Shape, Shape> replacements) {
+        boolean[] moved = new boolean[shapes.length];
+        int replaced = 0;
+        for (int i = 0; i < shapes.length; ++i) {
+            Shape replacement = shapes[i] == null ? null : replacements.get(shapes[i]);
+            if (replacement == null) {
+                continue;
+            }
+            if (replacement.getShapeType().boundingBox() == null) {
+                throw new IllegalArgumentException("Only bounded shapes can be put in a hierarchy.");
+            }
+            shapes[i] = replacement;
+            spheres.set(i, replacement);
+            moved[i] = true;
+            ++replaced;
+        }
+        if (replaced > 0) {
+            refit(moved);
+        }
+        return replaced;
+    }
+
+    /**
+     * Recomputes the boxes of the leaves holding the moved shapes, and of every
+     * node above them.
+     */
+    private void refit(boolean[] moved) {
+        boolean[] changed = new boolean[nodeCount];
+        // Children always come after their parent, so sweeping backwards refits
+        // both children before the node that holds them.
+        for (int node = nodeCount - 1; node >= 0; --node) {
+            int b = node * 6;
+            int shapeCount = nodeShapeCount[node];
+            if (shapeCount > 0) {
+                int first = nodeOffset[node];
+                for (int i = first; i < first + shapeCount; ++i) {
+                    changed[node] |= moved[i];
+                }
+                if (!changed[node]) {
+                    continue;
+                }
+                for (int axis = 0; axis < 3; ++axis) {
+                    nodeBounds[b + axis] = Float.POSITIVE_INFINITY;
+                    nodeBounds[b + 3 + axis] = Float.NEGATIVE_INFINITY;
+                }
+                for (int i = first; i < first + shapeCount; ++i) {
+                    // A packed sphere is bounded as stored, which may be rounded.
+                    BoundingBox box = spheres.isSphere(i) ? spheres.sphereAt(i).boundingBox()
+                            : shapes[i].getShapeType().boundingBox();
+                    nodeBounds[b] = Math.min(nodeBounds[b], BoundingVolumeBuilder.roundDown(box.min.x));
+                    nodeBounds[b + 1] = Math.min(nodeBounds[b + 1], BoundingVolumeBuilder.roundDown(box.min.y));
+                    nodeBounds[b + 2] = Math.min(nodeBounds[b + 2], BoundingVolumeBuilder.roundDown(box.min.z));
+                    nodeBounds[b + 3] = Math.max(nodeBounds[b + 3], BoundingVolumeBuilder.roundUp(box.max.x));
+                    nodeBounds[b + 4] = Math.max(nodeBounds[b + 4], BoundingVolumeBuilder.roundUp(box.max.y));
+                    nodeBounds[b + 5] = Math.max(nodeBounds[b + 5], BoundingVolumeBuilder.roundUp(box.max.z));
+                }
+            } else {
+                int left = (node + 1) * 6;
+                int right = nodeOffset[node] * 6;
+                if (!changed[node + 1] && !changed[nodeOffset[node]]) {
+                    continue;
+                }
+                changed[node] = true;
+                for (int axis = 0; axis < 3; ++axis) {
+                    nodeBounds[b + axis] = Math.min(nodeBounds[left + axis], nodeBounds[right + axis]);
+                    nodeBounds[b + 3 + axis] = Math.max(nodeBounds[left + 3 + axis], nodeBounds[right + 3 + axis]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the surface area heuristic's estimate of the cost of finding what
+     * a ray entering the root box hits: the number of boxes and shapes tested at
+     * each node, weighted by the chance of such a ray passing through the node,
+     * which is proportional to its surface area. Lower is better. Returns 0 for
+     * an empty hierarchy or one whose root box has no area.
+     */
+    public double getSurfaceAreaCost() {
+        double rootArea = nodeCount == 0 ? 0.0 : surfaceArea(0);
+        if (rootArea <= 0.0) {
+            return 0.0;
+        }
+        double cost = 0.0;
+        for (int node = 0; node < nodeCount; ++node) {
+            // An interior node tests the boxes of its two children.
+            int tests = nodeShapeCount[node] > 0 ? nodeShapeCount[node] : 2;
+            cost += surfaceArea(node) * tests;
+        }
+        return cost / rootArea;
+    }
+
+    private double surfaceArea(int node) {
+        int b = node * 6;
+        double dx = nodeBounds[b + 3] - nodeBounds[b];
+        double dy = nodeBounds[b + 4] - nodeBounds[b + 1];
+        double dz = nodeBounds[b + 5] - nodeBounds[b + 2];
+        return 2.0 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    /**
+     * Finds the closest shape (except for `ignored`) which the ray hits at a
+     * distance less than `maxDistance`.
+     *
+     * @return the object and the distance along the ray to it, or null if the ray
+     *         doesn't hit any objects closer than `maxDistance`.
+     */
+    public ObjectAndDistance findFirstIntersectionExcept(Ray ray, Shape ignored, double maxDistance) {
+        Vec3 origin = ray.getOrigin();
+        Vec3 direction = ray.getDirection();
+        ObjectAndDistance hit = new ObjectAndDistance();
+        if (findFirstIntersectionExcept(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z,
+                ignored, maxDistance, hit)) {
+            return hit;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Finds the closest shape (except for `ignored`) which the ray with the given
+     * origin and unit direction hits at a distance less than `maxDistance`,
+     * without allocating.
+     *
+     * @param hit Filled in with the object and distance if there is a hit, and
+     *            left untouched otherwise.
+     * @return whether the ray hits any objects closer than `maxDistance`.
+     */
+    @Override
+    public boolean findFirstIntersectionExcept(double ox, double oy, double oz, double dx, double dy, double dz,
+            Shape ignored, double maxDistance, ObjectAndDistance hit) {
+        if (nodeCount == 0) {
+            return false;
+        }
+
+        double ix = 1.0 / dx;
+        double iy = 1.0 / dy;
+        double iz = 1.0 / dz;
+
+        double closestDistance = maxDistance;
+        int closest = -1;
+        RenderCounters counters = RenderStatistics.ENABLED ? RenderStatistics.forCurrentThread() : null;
+
+        int[] stack = traversalStacks.get();
+        int stackSize = 0;
+        if (entryDistance(0, ox, oy, oz, ix, iy, iz, closestDistance) < closestDistance) {
+            stack[stackSize++] = 0;
+        }
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            if (RenderStatistics.ENABLED) {
+                ++counters.nodesVisited;
+            }
+            int shapeCount = nodeShapeCount[node];
+            if (shapeCount > 0) {
+                int first = nodeOffset[node];
+                for (int i = first; i < first + shapeCount; ++i) {
+                    Shape object = shapes[i];
+                    if (object == ignored && object != null) {
+                        continue;
+                    }
+                    double distance;
+                    if (spheres.isSphere(i)) {
+                        if (RenderStatistics.ENABLED) {
+                            counters.countIntersection(Sphere.class);
+                        }
+                        distance = spheres.intersectDistance(i, ox, oy, oz, dx, dy, dz);
+                    } else {
+                        if (RenderStatistics.ENABLED) {
+                            counters.countIntersection(object.getShapeType().getClass());
+                        }
+                        distance = object.getShapeType().intersectDistance(ox, oy, oz, dx, dy, dz);
+                    }
+                    if (distance < closestDistance) {
+                        closestDistance = distance;
+                        closest = i;
+                    }
+                }
+            } else {
+                // Visit the nearer child first, so that its hits can cull the farther one.
+                int left = node + 1;
+                int right = nodeOffset[node];
+                double leftEntry = entryDistance(left, ox, oy, oz, ix, iy, iz, closestDistance);
+                double rightEntry = entryDistance(right, ox, oy, oz, ix, iy, iz, closestDistance);
+                if (leftEntry <= rightEntry) {
+                    if (rightEntry < closestDistance) {
+                        stack[stackSize++] = right;
+                    }
+                    if (leftEntry < closestDistance) {
+                        stack[stackSize++] = left;
+                    }
+                } else {
+                    if (leftEntry < closestDistance) {
+                        stack[stackSize++] = left;
+                    }
+                    if (rightEntry < closestDistance) {
+                        stack[stackSize++] = right;
+                    }
+                }
+            }
+        }
+
+        if (closest < 0) {
+            return false;
+        }
+        hit.object = getShape(closest);
+        hit.distance = closestDistance;
+        return true;
+    }
+
+    /**
+     * Finds the closest shape hit by each ray of a packet, where it is closer than
+     * the hit already recorded in the packet for that ray.
+     *
+     * Nodes are rejected for the whole packet at once, by bounding the distances
+     * at which any of its rays could enter and leave each box. On each axis where
+     * the rays' directions all have the same sign, those distances lie between
+     * the ones given by the smallest and largest reciprocal direction. Spheres
+     * are then tested against every ray, with the terms that depend only on the
+     * common origin worked out once per sphere.
+     */
+    @Override
+    public void findFirstIntersections(RayPacket packet) {
+        int size = packet.size;
+        if (nodeCount == 0 || size == 0) {
+            return;
+        }
+        double ox = packet.originX;
+        double oy = packet.originY;
+        double oz = packet.originZ;
+        double[] dx = packet.directionX;
+        double[] dy = packet.directionY;
+        double[] dz = packet.directionZ;
+        double[] closestDistance = packet.distance;
+
+        // The range of each axis's reciprocal direction, or NaN where the rays
+        // disagree in sign and the axis can't bound the packet.
+        double[] inverseRange = inverseRanges.get();
+        setInverseRange(inverseRange, 0, dx, size);
+        setInverseRange(inverseRange, 1, dy, size);
+        setInverseRange(inverseRange, 2, dz, size);
+
+        int[] closest = packetHits.get();
+        if (closest.length < size) {
+            closest = new int[packet.capacity()];
+            packetHits.set(closest);
+        }
+        Arrays.fill(closest, 0, size, -1);
+        double farthest = farthest(closestDistance, size);
+        RenderCounters counters = RenderStatistics.ENABLED ? RenderStatistics.forCurrentThread() : null;
+
+        int[] stack = traversalStacks.get();
+        int stackSize = 0;
+        if (packetEntryDistance(0, ox, oy, oz, inverseRange, farthest) < farthest) {
+            stack[stackSize++] = 0;
+        }
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            if (RenderStatistics.ENABLED) {
+                ++counters.nodesVisited;
+            }
+            int shapeCount = nodeShapeCount[node];
+            if (shapeCount > 0) {
+                int first = nodeOffset[node];
+                for (int i = first; i < first + shapeCount; ++i) {
+                    if (spheres.isSphere(i)) {
+                        if (RenderStatistics.ENABLED) {
+                            counters.countIntersections(Sphere.class, size);
+                        }
+                        // The same arithmetic as PackedSpheres.intersectDistance, so each
+                        // ray finds exactly the distance it would have alone.
+                        double vX = ox - spheres.centreX(i);
+                        double vY = oy - spheres.centreY(i);
+                        double vZ = oz - spheres.centreZ(i);
+                        double vSquared = vX * vX + vY * vY + vZ * vZ;
+                        double radius = spheres.radius(i);
+                        double radiusSquared = radius * radius;
+                        for (int ray = 0; ray < size; ++ray) {
+                            double dirDotV = dx[ray] * vX + dy[ray] * vY + dz[ray] * vZ;
+                            double discriminant = dirDotV * dirDotV - vSquared + radiusSquared;
+                            if (discriminant < 0) {
+                                continue;
+                            }
+                            double distance = -dirDotV - Math.sqrt(discriminant);
+                            if (distance >= 0 && distance < closestDistance[ray]) {
+                                closestDistance[ray] = distance;
+                                closest[ray] = i;
+                            }
+                        }
+                    } else {
+                        ShapeType shapeType = shapes[i].getShapeType();
+                        if (RenderStatistics.ENABLED) {
+                            counters.countIntersections(shapeType.getClass(), size);
+                        }
+                        for (int ray = 0; ray < size; ++ray) {
+                            double distance = shapeType.intersectDistance(ox, oy, oz, dx[ray], dy[ray], dz[ray]);
+                            if (distance < closestDistance[ray]) {
+                                closestDistance[ray] = distance;
+                                closest[ray] = i;
+                            }
+                        }
+                    }
+                }
+                farthest = farthest(closestDistance, size);
+            } else {
+                // Visit the nearer child first, so that its hits can cull the farther one.
+                int left = node + 1;
+                int right = nodeOffset[node];
+                double leftEntry = packetEntryDistance(left, ox, oy, oz, inverseRange, farthest);
+                double rightEntry = packetEntryDistance(right, ox, oy, oz, inverseRange, farthest);
+                if (leftEntry <= rightEntry) {
+                    if (rightEntry < farthest) {
+                        stack[stackSize++] = right;
+                    }
+                    if (leftEntry < farthest) {
+                        stack[stackSize++] = left;
+                    }
+                } else {
+                    if (leftEntry < farthest) {
+                        stack[stackSize++] = left;
+                    }
+                    if (rightEntry < farthest) {
+                        stack[stackSize++] = right;
+                    }
+                }
+            }
+        }
+
+        for (int ray = 0; ray < size; ++ray) {
+            if (closest[ray] >= 0) {
+                packet.hit[ray] = getShape(closest[ray]);
+            }
+        }
+    }
+
+    /**
+     * Stores the smallest and largest reciprocals of the given direction
+     * components at `inverseRange[axis]` and `inverseRange[axis + 3]`, or NaN if
+     * they don't all have the same sign.
+     */
+    private static void setInverseRange(double[] inverseRange, int axis, double[] direction, int size) {
+        double smallest = Double.POSITIVE_INFINITY;
+        double largest = Double.NEGATIVE_INFINITY;
+        for (int ray = 0; ray < size; ++ray) {
+            double inverse = 1.0 / direction[ray];
+            smallest = Math.min(smallest, inverse);
+            largest = Math.max(largest, inverse);
+        }
+        boolean usable = Double.isFinite(smallest) && Double.isFinite(largest)
+                && (smallest > 0.0 || largest < 0.0);
+        inverseRange[axis] = usable ? smallest : Double.NaN;
+        inverseRange[axis + 3] = usable ? largest : Double.NaN;
+    }
+
+    private static double farthest(double[] distances, int size) {
+        double farthest = 0.0;
+        for (int ray = 0; ray < size; ++ray) {
+            farthest = Math.max(farthest, distances[ray]);
+        }
+        return farthest;
+    }
+
+    /**
+     * Returns a lower bound on the distance at which any ray of a packet enters a
+     * node's box, or infinity if no ray can hit the box before `maxDistance`.
+     */
+    private double packetEntryDistance(int node, double ox, double oy, double oz, double[] inverseRange,
+            double maxDistance) {
+        int b = node * 6;
+        double entry = 0.0;
+        double exit = maxDistance;
+        for (int axis = 0; axis < 3; ++axis) {
+            double smallest = inverseRange[axis];
+            if (Double.isNaN(smallest)) {
+                continue;
+            }
+            double largest = inverseRange[axis + 3];
+            double origin = axis == 0 ? ox : axis == 1 ? oy : oz;
+            double near = (smallest > 0.0 ? nodeBounds[b + axis] : nodeBounds[b + 3 + axis]) - origin;
+            double far = (smallest > 0.0 ? nodeBounds[b + 3 + axis] : nodeBounds[b + axis]) - origin;
+            entry = Math.max(entry, Math.min(near * smallest, near * largest));
+            exit = Math.min(exit, Math.max(far * smallest, far * largest));
+        }
+        return entry <= exit ? entry : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Finds any shape (except for `ignored`) which the ray with the given origin
+     * and unit direction hits at a distance less than `maxDistance`, stopping at
+     * the first one found. This is cheaper than finding the closest hit when only
+     * occlusion matters, as for shadow rays.
+     *
+     * @return the shape found, or null if nothing is hit before `maxDistance`.
+     */
+    @Override
+    public Shape findAnyIntersectionExcept(double ox, double oy, double oz, double dx, double dy, double dz,
+            Shape ignored, double maxDistance) {
+        if (nodeCount == 0) {
+            return null;
+        }
+
+        double ix = 1.0 / dx;
+        double iy = 1.0 / dy;
+        double iz = 1.0 / dz;
+
+        RenderCounters counters = RenderStatistics.ENABLED ? RenderStatistics.forCurrentThread() : null;
+
+        int[] stack = traversalStacks.get();
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            if (entryDistance(node, ox, oy, oz, ix, iy, iz, maxDistance) >= maxDistance) {
+                continue;
+            }
+            if (RenderStatistics.ENABLED) {
+                ++counters.nodesVisited;
+            }
+            int shapeCount = nodeShapeCount[node];
+            if (shapeCount > 0) {
+                int first = nodeOffset[node];
+                for (int i = first; i < first + shapeCount; ++i) {
+                    Shape object = shapes[i];
+                    if (object == ignored && object != null) {
+                        continue;
+                    }
+                    double distance;
+                    if (spheres.isSphere(i)) {
+                        if (RenderStatistics.ENABLED) {
+                            counters.countIntersection(Sphere.class);
+                        }
+                        distance = spheres.intersectDistance(i, ox, oy, oz, dx, dy, dz);
+                    } else {
+                        if (RenderStatistics.ENABLED) {
+                            counters.countIntersection(object.getShapeType().getClass());
+                        }
+                        distance = object.getShapeType().intersectDistance(ox, oy, oz, dx, dy, dz);
+                    }
+                    if (distance < maxDistance) {
+                        return getShape(i);
+                    }
+                }
+            } else {
+                stack[stackSize++] = nodeOffset[node];
+                stack[stackSize++] = node + 1;
+            }
+        }
+        return null;
+    }
+
+    private double entryDistance(int node, double ox, double oy, double oz, double ix, double iy, double iz,
+            double maxDistance) {
+        return BoundingVolumeBuilder.entryDistance(nodeBounds, node, ox, oy, oz, ix, iy, iz, maxDistance);
+    }
+
+    private static void setBounds(double[] bounds, int index, Vec3 min, Vec3 max) {
+        setBounds(bounds, index, min.x, min.y, min.z, max.x, max.y, max.z);
+    }
+
+    private static void setBounds(double[] bounds, int index, double minX, double minY, double minZ, double maxX,
+            double maxY, double maxZ) {
+        int b = index * 6;
+        bounds[b] = minX;
+        bounds[b + 1] = minY;
+        bounds[b + 2] = minZ;
+        bounds[b + 3] = maxX;
+        bounds[b + 4] = maxY;
+        bounds[b + 5] = maxZ;
+    }
+}
@@ -0,0 +1,187 @@
+package rht.raytracer.acceleration;
+
+import java.util.Arrays;
+
+import rht.raytracer.maths.Vec3;
+
+/**
+ * A uniform grid over the lights of a scene, each of which only reaches as far
+ * as some range, used to find the lights in range of a point without looking
+ * at every light.
+ *
+ * Each cell lists every light whose sphere of influence overlaps it, so the
+ * lights in range of any point in the cell are among them. The lists are
+ * stored one after another in a single array, each in increasing light order.
+ * Points outside the grid are out of range of every light.
+ */
+public class LightGrid {
+    /** The most cells the grid has for each light, and in all, to bound its memory. */
+    private static final int MAX_CELLS_PER_LIGHT = 64;
+    private static final int MAX_CELLS = 1 << 22;
+    private static final int MAX_CELLS_PER_AXIS = 256;
+
+    private final double minX;
+    private final double minY;
+    private final double minZ;
+    private final double maxX;
+    private final double maxY;
+    private final double maxZ;
+    private final double inverseCellSize;
+    private final int cellsX;
+    private final int cellsY;
+    private final int cellsZ;
+    /** Where each cell's lights start in `lightIndices`, with one extra entry for the end. */
+    private final int[] cellStart;
+    private final int[] lightIndices;
+
+    /**
+     * Builds a grid over lights at the given positions, each reaching no further
+     * than its range. Every range must be finite and not negative.
+     *
+     * The cells are roughly as wide as the average range, so that each light
+     * overlaps only a few, unless that would make far more cells than lights.
+     */
+    public LightGrid(Vec3[] positions, double[] ranges) {
+        double[] min = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+        double[] max = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+        double totalRange = 0.0;
+        for (int i = 0; i < positions.length; ++i) {
+            if (!(ranges[i] >= 0.0 && ranges[i] < Double.POSITIVE_INFINITY)) {
+                throw new IllegalArgumentException("Light ranges must be finite and not negative.");
+            }
+            double[] position = { positions[i].x, positions[i].y, positions[i].z };
+            for (int axis = 0; axis < 3; ++axis) {
+                min[axis] = Math.min(min[axis], position[axis] - ranges[i]);
+                max[axis] = Math.max(max[axis], position[axis] + ranges[i]);
+            }
+            totalRange += ranges[i];
+        }
+        if (positions.length == 0) {
+            Arrays.fill(min, 0.0);
+            Arrays.fill(max, 0.0);
+        }
+        // Pad the bounds a little, so that rounding can't leave out a point just
+        // in range of a light.
+        for (int axis = 0; axis < 3; ++axis) {
+            double padding = 1e-9 * (1.0 + Math.abs(min[axis]) + Math.abs(max[axis]));
+            min[axis] -= padding;
+            max[axis] += padding;
+        }
+        double largestExtent = Math.max(max[0] - min[0], Math.max(max[1] - min[1], max[2] - min[2]));
+        double cellSize = Math.max(totalRange / Math.max(positions.length, 1),
+                largestExtent / MAX_CELLS_PER_AXIS);
+        double maxCells = Math.min((double) MAX_CELLS_PER_LIGHT * Math.max(positions.length, 1), MAX_CELLS);
+        double cells = cellCount(max[0] - min[0], cellSize) * cellCount(max[1] - min[1], cellSize)
+                * cellCount(max[2] - min[2], cellSize);
+        if (cells > maxCells) {
+            cellSize *= Math.cbrt(cells / maxCells);
+        }
+        if (!(cellSize > 0.0)) {
+            cellSize = 1.0;
+        }
+        minX = min[0];
+        minY = min[1];
+        minZ = min[2];
+        maxX = max[0];
+        maxY = max[1];
+        maxZ = max[2];
+        inverseCellSize = 1.0 / cellSize;
+        cellsX = cellCount(max[0] - min[0], cellSize);
+        cellsY = cellCount(max[1] - min[1], cellSize);
+        cellsZ = cellCount(max[2] - min[2], cellSize);
+
+        // Count each cell's lights, then place them, so the lists need no
+        // resizing.
+        cellStart = new int[cellsX * cellsY * cellsZ + 1];
+        for (int i = 0; i < positions.length; ++i) {
+            forEachCell(positions[i], ranges[i], cellSize, cell -> ++cellStart[cell + 1]);
+        }
+        for (int cell = 0; cell < cellStart.length - 1; ++cell) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+        lightIndices = new int[cellStart[cellStart.length - 1]];
+        int[] next = Arrays.copyOf(cellStart, cellStart.length - 1);
+        for (int i = 0; i < positions.length; ++i) {
+            int light = i;
+            forEachCell(positions[i], ranges[i], cellSize, cell -> lightIndices[next[cell]++] = light);
+        }
+    }
+
+    private static int cellCount(double extent, double cellSize) {
+        return Math.max(1, Math.min(MAX_CELLS_PER_AXIS, (int) Math.ceil(extent / cellSize)));
+    }
+
+    /** Runs an action for each cell which a light's sphere of influence overlaps. */
+    private void forEachCell(Vec3 position, double range, double cellSize, CellAction action) {
+        int firstX = clamp((int) ((position.x - range - minX) * inverseCellSize), cellsX);
+        int firstY = clamp((int) ((position.y - range - minY) * inverseCellSize), cellsY);
+        int firstZ = clamp((int) ((position.z - range - minZ) * inverseCellSize), cellsZ);
+        int lastX = clamp((int) ((position.x + range - minX) * inverseCellSize), cellsX);
+        int lastY = clamp((int) ((position.y + range - minY) * inverseCellSize), cellsY);
+        int lastZ = clamp((int) ((position.z + range - minZ) * inverseCellSize), cellsZ);
+        for (int z = firstZ; z <= lastZ; ++z) {
+            for (int y = firstY; y <= lastY; ++y) {
+                for (int x = firstX; x <= lastX; ++x) {
+                    // The last cells along each axis reach to the edge of the grid,
+                    // however far past their nominal size.
+                    double dx = distanceOutside(position.x, minX + x * cellSize,
+                            x == cellsX - 1 ? Double.POSITIVE_INFINITY : minX + (x + 1) * cellSize);
+                    double dy = distanceOutside(position.y, minY + y * cellSize,
+                            y == cellsY - 1 ? Double.POSITIVE_INFINITY : minY + (y + 1) * cellSize);
+                    double dz = distanceOutside(position.z, minZ + z * cellSize,
+                            z == cellsZ - 1 ? Double.POSITIVE_INFINITY : minZ + (z + 1) * cellSize);
+                    double padded = range * (1.0 + 1e-9) + 1e-9;
+                    if (dx * dx + dy * dy + dz * dz <= padded * padded) {
+                        action.run((z * cellsY + y) * cellsX + x);
+                    }
+                }
+            }
+        }
+    }
+
+    private static double distanceOutside(double value, double low, double high) {
+        return value < low ? low - value : value > high ? value - high : 0.0;
+    }
+
+    private static int clamp(int index, int count) {
+        return Math.max(0, Math.min(count - 1, index));
+    }
+
+    /**
+     * Returns the index of the cell holding a point, or -1 if it is outside the
+     * grid and so out of range of every light.
+     */
+    public int cellAt(double x, double y, double z) {
+        if (!(x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ)) {
+            return -1;
+        }
+        // The last cells reach to the grid's far edges.
+        int cellX = Math.min((int) ((x - minX) * inverseCellSize), cellsX - 1);
+        int cellY = Math.min((int) ((y - minY) * inverseCellSize), cellsY - 1);
+        int cellZ = Math.min((int) ((z - minZ) * inverseCellSize), cellsZ - 1);
+        return (cellZ * cellsY + cellY) * cellsX + cellX;
+    }
+
+    /** Where a cell's lights start in {@link #getLightIndices()}. */
+    public int cellStart(int cell) {
+        return cellStart[cell];
+    }
+
+    /** Where a cell's lights end in {@link #getLightIndices()}. */
+    public int cellEnd(int cell) {
+        return cellStart[cell + 1];
+    }
+
+    /** Every cell's list of light indices, one after another. This must not be modified. */
+    public int[] getLightIndices() {
+        return lightIndices;
+    }
+
+    public int getCellCount() {
+        return cellStart.length - 1;
+    }
+
+    private interface CellAction {
+        void run(int cell);
+    }
+}
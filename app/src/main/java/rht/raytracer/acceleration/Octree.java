@@ -0,0 +1,349 @@
+package rht.raytracer.acceleration;
+
+import java.util.Arrays;
+
+import rht.raytracer.ObjectAndDistance;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.statistics.RenderCounters;
+import rht.raytracer.statistics.RenderStatistics;
+
+/**
+ * An octree over the shapes of a hierarchy: a tree of boxes, each split at its
+ * centre into up to eight children, with the shapes in the leaves.
+ *
+ * A shape goes into every child its bounding box overlaps, so unlike in the
+ * hierarchy the children never overlap, and a ray can visit them in the order
+ * it enters them. Each node's box is shrunk to the part of its octant that its
+ * shapes' boxes cover, so empty space is skipped as it is by the hierarchy.
+ * Only the children which hold shapes are kept, one after another, so a node
+ * refers to them by the index of the first and their number.
+ *
+ * Splitting stops once a node holds few shapes, or when splitting wouldn't
+ * separate them or would copy too many of them into several children. This
+ * adapts to shapes bunched into a few places, which a {@link UniformGrid} does
+ * not, at the cost of a deeper walk than the grid's for shapes spread evenly.
+ *
+ * The octree refers to the hierarchy's shapes by index, so it must be built
+ * again whenever they are replaced.
+ */
+public class Octree implements Accelerator {
+    private static final int MAX_DEPTH = 16;
+    private static final int MAX_LEAF_SIZE = 8;
+    /**
+     * The most shapes a node's children may hold together, as a multiple of the
+     * shapes in the node, for it to be split.
+     */
+    private static final double MAX_DUPLICATION = 2.0;
+
+    private final BoundingVolumeHierarchy hierarchy;
+    /**
+     * Six values per node: minimum x, y, z followed by maximum x, y, z, rounded
+     * outwards as by {@link BoundingVolumeBuilder#compactBounds}.
+     */
+    private final float[] nodeBounds;
+    /** For leaves, where the shapes start in `shapeIndices`; for interior nodes, the first child. */
+    private final int[] nodeOffset;
+    /** The number of children, or zero for leaves. */
+    private final int[] nodeChildCount;
+    /** The number of shapes in leaves, or zero for interior nodes. */
+    private final int[] nodeShapeCount;
+    private final int nodeCount;
+    /** The hierarchy index of each shape in each leaf, leaf by leaf. */
+    private final int[] shapeIndices;
+
+    private final ThreadLocal<Stack> traversalStacks = ThreadLocal.withInitial(Stack::new);
+
+    /**
+     * Builds an octree over the shapes of a hierarchy.
+     */
+    public Octree(BoundingVolumeHierarchy hierarchy) {
+        this.hierarchy = hierarchy;
+        int count = hierarchy.size();
+        Builder builder = new Builder(hierarchy.shapeBounds());
+        if (count > 0) {
+            int[] all = new int[count];
+            for (int i = 0; i < count; ++i) {
+                all[i] = i;
+            }
+            double[] everywhere = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                    Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+            builder.build(builder.addNodes(1), everywhere, all, 0);
+        }
+        nodeCount = builder.nodeCount;
+        nodeBounds = Arrays.copyOf(builder.nodeBounds, nodeCount * 6);
+        nodeOffset = Arrays.copyOf(builder.nodeOffset, nodeCount);
+        nodeChildCount = Arrays.copyOf(builder.nodeChildCount, nodeCount);
+        nodeShapeCount = Arrays.copyOf(builder.nodeShapeCount, nodeCount);
+        shapeIndices = Arrays.copyOf(builder.shapeIndices, builder.shapeCount);
+    }
+
+    @Override
+    public boolean findFirstIntersectionExcept(double ox, double oy, double oz, double dx, double dy, double dz,
+            Shape ignored, double maxDistance, ObjectAndDistance hit) {
+        if (nodeCount == 0) {
+            return false;
+        }
+
+        double ix = 1.0 / dx;
+        double iy = 1.0 / dy;
+        double iz = 1.0 / dz;
+
+        double closestDistance = maxDistance;
+        int closest = -1;
+        RenderCounters counters = RenderStatistics.ENABLED ? RenderStatistics.forCurrentThread() : null;
+
+        Stack stack = traversalStacks.get();
+        int[] nodes = stack.nodes;
+        double[] entries = stack.entries;
+        int stackSize = 0;
+        double rootEntry = entryDistance(0, ox, oy, oz, ix, iy, iz, closestDistance);
+        if (rootEntry < closestDistance) {
+            nodes[stackSize] = 0;
+            entries[stackSize++] = rootEntry;
+        }
+        while (stackSize > 0) {
+            --stackSize;
+            if (entries[stackSize] >= closestDistance) {
+                continue;
+            }
+            int node = nodes[stackSize];
+            if (RenderStatistics.ENABLED) {
+                ++counters.nodesVisited;
+            }
+            int first = nodeOffset[node];
+            int childCount = nodeChildCount[node];
+            if (childCount == 0) {
+                for (int i = first; i < first + nodeShapeCount[node]; ++i) {
+                    int shape = shapeIndices[i];
+                    double distance = hierarchy.intersectShape(shape, ignored, ox, oy, oz, dx, dy, dz, counters);
+                    if (distance < closestDistance) {
+                        closestDistance = distance;
+                        closest = shape;
+                    }
+                }
+                continue;
+            }
+            // Push the children the ray enters in decreasing order of entry, so that
+            // the nearest is visited first and its hits can cull the others.
+            int base = stackSize;
+            for (int child = first; child < first + childCount; ++child) {
+                double entry = entryDistance(child, ox, oy, oz, ix, iy, iz, closestDistance);
+                if (entry >= closestDistance) {
+                    continue;
+                }
+                int j = stackSize++;
+                while (j > base && entries[j - 1] < entry) {
+                    nodes[j] = nodes[j - 1];
+                    entries[j] = entries[j - 1];
+                    --j;
+                }
+                nodes[j] = child;
+                entries[j] = entry;
+            }
+        }
+
+        if (closest < 0) {
+            return false;
+        }
+        hit.object = hierarchy.getShape(closest);
+        hit.distance = closestDistance;
+        return true;
+    }
+
+    @Override
+    public Shape findAnyIntersectionExcept(double ox, double oy, double oz, double dx, double dy, double dz,
+            Shape ignored, double maxDistance) {
+        if (nodeCount == 0) {
+            return null;
+        }
+
+        double ix = 1.0 / dx;
+        double iy = 1.0 / dy;
+        double iz = 1.0 / dz;
+
+        RenderCounters counters = RenderStatistics.ENABLED ? RenderStatistics.forCurrentThread() : null;
+
+        int[] nodes = traversalStacks.get().nodes;
+        int stackSize = 0;
+        nodes[stackSize++] = 0;
+        while (stackSize > 0) {
+            int node = nodes[--stackSize];
+            if (entryDistance(node, ox, oy, oz, ix, iy, iz, maxDistance) >= maxDistance) {
+                continue;
+            }
+            if (RenderStatistics.ENABLED) {
+                ++counters.nodesVisited;
+            }
+            int first = nodeOffset[node];
+            int childCount = nodeChildCount[node];
+            if (childCount == 0) {
+                for (int i = first; i < first + nodeShapeCount[node]; ++i) {
+                    int shape = shapeIndices[i];
+                    if (hierarchy.intersectShape(shape, ignored, ox, oy, oz, dx, dy, dz, counters) < maxDistance) {
+                        return hierarchy.getShape(shape);
+                    }
+                }
+            } else {
+                for (int child = first; child < first + childCount; ++child) {
+                    nodes[stackSize++] = child;
+                }
+            }
+        }
+        return null;
+    }
+
+    private double entryDistance(int node, double ox, double oy, double oz, double ix, double iy, double iz,
+            double maxDistance) {
+        return BoundingVolumeBuilder.entryDistance(nodeBounds, node, ox, oy, oz, ix, iy, iz, maxDistance);
+    }
+
+    @Override
+    public long getMemorySize() {
+        return (long) nodeCount * (6 * Float.BYTES + 3 * Integer.BYTES) + (long) shapeIndices.length * Integer.BYTES;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /** The number of entries in all the leaves, counting a shape once for each leaf it is in. */
+    public int getListedCount() {
+        return shapeIndices.length;
+    }
+
+    /**
+     * Each thread's stack of nodes still to visit, with the distance at which the
+     * ray enters each. Every level pushes at most seven more nodes than it pops.
+     */
+    private static final class Stack {
+        final int[] nodes = new int[8 * (MAX_DEPTH + 1)];
+        final double[] entries = new double[8 * (MAX_DEPTH + 1)];
+    }
+
+    /** Grows the node and shape arrays as the tree is built, depth first. */
+    private static final class Builder {
+        private final double[] shapeBounds;
+        float[] nodeBounds = new float[6 * 64];
+        int[] nodeOffset = new int[64];
+        int[] nodeChildCount = new int[64];
+        int[] nodeShapeCount = new int[64];
+        int nodeCount;
+        int[] shapeIndices = new int[64];
+        int shapeCount;
+
+        Builder(double[] shapeBounds) {
+            this.shapeBounds = shapeBounds;
+        }
+
+        /** Adds nodes one after another, returning the index of the first. */
+        int addNodes(int count) {
+            int first = nodeCount;
+            nodeCount += count;
+            if (nodeCount > nodeOffset.length) {
+                int capacity = Math.max(nodeCount, nodeOffset.length * 2);
+                nodeBounds = Arrays.copyOf(nodeBounds, capacity * 6);
+                nodeOffset = Arrays.copyOf(nodeOffset, capacity);
+                nodeChildCount = Arrays.copyOf(nodeChildCount, capacity);
+                nodeShapeCount = Arrays.copyOf(nodeShapeCount, capacity);
+            }
+            return first;
+        }
+
+        /**
+         * Fills in a node holding the given shapes, which all overlap `region`,
+         * and the subtree below it.
+         */
+        void build(int node, double[] region, int[] shapes, int depth) {
+            // Shrink the node to the part of its region its shapes cover.
+            double[] box = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                    Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+            for (int shape : shapes) {
+                for (int axis = 0; axis < 3; ++axis) {
+                    box[axis] = Math.min(box[axis], shapeBounds[shape * 6 + axis]);
+                    box[axis + 3] = Math.max(box[axis + 3], shapeBounds[shape * 6 + 3 + axis]);
+                }
+            }
+            for (int axis = 0; axis < 3; ++axis) {
+                box[axis] = Math.max(box[axis], region[axis]);
+                box[axis + 3] = Math.min(box[axis + 3], region[axis + 3]);
+                nodeBounds[node * 6 + axis] = BoundingVolumeBuilder.roundDown(box[axis]);
+                nodeBounds[node * 6 + 3 + axis] = BoundingVolumeBuilder.roundUp(box[axis + 3]);
+            }
+
+            int[][] children = shapes.length <= MAX_LEAF_SIZE || depth == MAX_DEPTH ? null : split(box, shapes);
+            if (children == null) {
+                nodeOffset[node] = shapeCount;
+                nodeChildCount[node] = 0;
+                nodeShapeCount[node] = shapes.length;
+                if (shapeCount + shapes.length > shapeIndices.length) {
+                    shapeIndices = Arrays.copyOf(shapeIndices,
+                            Math.max(shapeCount + shapes.length, shapeIndices.length * 2));
+                }
+                System.arraycopy(shapes, 0, shapeIndices, shapeCount, shapes.length);
+                shapeCount += shapes.length;
+                return;
+            }
+
+            int childCount = 0;
+            for (int[] child : children) {
+                childCount += child.length > 0 ? 1 : 0;
+            }
+            int first = addNodes(childCount);
+            nodeOffset[node] = first;
+            nodeChildCount[node] = childCount;
+            nodeShapeCount[node] = 0;
+            for (int octant = 0, child = first; octant < 8; ++octant) {
+                if (children[octant].length > 0) {
+                    build(child++, octantOf(box, octant), children[octant], depth + 1);
+                }
+            }
+        }
+
+        /**
+         * Returns the shapes overlapping each octant of a box, or null if that
+         * doesn't separate them or copies too many into several octants.
+         */
+        private int[][] split(double[] box, int[] shapes) {
+            int[][] children = new int[8][];
+            long total = 0;
+            for (int octant = 0; octant < 8; ++octant) {
+                double[] region = octantOf(box, octant);
+                int[] inside = new int[shapes.length];
+                int count = 0;
+                for (int shape : shapes) {
+                    if (overlaps(shape, region)) {
+                        inside[count++] = shape;
+                    }
+                }
+                if (count == shapes.length) {
+                    return null;
+                }
+                children[octant] = Arrays.copyOf(inside, count);
+                total += count;
+            }
+            return total > MAX_DUPLICATION * shapes.length ? null : children;
+        }
+
+        private boolean overlaps(int shape, double[] region) {
+            int b = shape * 6;
+            return shapeBounds[b] <= region[3] && shapeBounds[b + 3] >= region[0]
+                    && shapeBounds[b + 1] <= region[4] && shapeBounds[b + 4] >= region[1]
+                    && shapeBounds[b + 2] <= region[5] && shapeBounds[b + 5] >= region[2];
+        }
+
+        /**
+         * Returns one eighth of a box, split at its centre. Bit 0 of `octant`
+         * picks the upper half along x, bit 1 along y and bit 2 along z.
+         */
+        private static double[] octantOf(double[] box, int octant) {
+            double[] region = new double[6];
+            for (int axis = 0; axis < 3; ++axis) {
+                double centre = 0.5 * (box[axis] + box[axis + 3]);
+                boolean upper = (octant & (1 << axis)) != 0;
+                region[axis] = upper ? centre : box[axis];
+                region[axis + 3] = upper ? box[axis + 3] : centre;
+            }
+            return region;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package rht.raytracer.acceleration;
+
+import rht.raytracer.maths.Vec3;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.shapes.ShapeType;
+import rht.raytracer.shapes.Sphere;
+
+/**
+ * The centres and radii of a list of shapes' spheres, stored as parallel arrays
+ * so that intersecting a run of neighbouring spheres reads contiguous memory
+ * instead of following a chain of object references for each one.
+ *
+ * Entries for shapes which are not plain spheres are marked as absent, and must
+ * be intersected through their {@link ShapeType} instead.
+ *
+ * The arrays hold doubles, or in single precision floats, which halves their
+ * memory at the cost of rounding each sphere to the nearest float values. The
+ * intersection arithmetic is done in double precision either way, so a rounded
+ * sphere is hit exactly where a double precision sphere of the same size would
+ * be.
+ */
+public abstract class PackedSpheres {
+    private int sphereCount;
+
+    /** Packs the spheres among the given shapes, in double precision. */
+    public static PackedSpheres pack(Shape[] shapes) {
+        PackedSpheres spheres = new DoubleSpheres(new double[shapes.length], new double[shapes.length],
+                new double[shapes.length], new double[shapes.length]);
+        spheres.fill(shapes);
+        return spheres;
+    }
+
+    /**
+     * Wraps arrays of centres and radii, such as ones read back from a saved
+     * scene, without copying them. A negative radius marks a shape which isn't
+     * a plain sphere.
+     */
+    public static PackedSpheres wrap(double[] centreX, double[] centreY, double[] centreZ, double[] radius) {
+        PackedSpheres spheres = new DoubleSpheres(centreX, centreY, centreZ, radius);
+        spheres.countSpheres();
+        return spheres;
+    }
+
+    /**
+     * Returns these spheres in the given precision: this object if they already
+     * are, or a copy otherwise.
+     */
+    public PackedSpheres withSinglePrecision(boolean singlePrecision) {
+        if (singlePrecision == isSinglePrecision()) {
+            return this;
+        }
+        int size = size();
+        PackedSpheres copy = singlePrecision
+                ? new FloatSpheres(new float[size], new float[size], new float[size], new float[size])
+                : new DoubleSpheres(new double[size], new double[size], new double[size], new double[size]);
+        for (int i = 0; i < size; ++i) {
+            copy.put(i, centreX(i), centreY(i), centreZ(i), radius(i));
+        }
+        copy.sphereCount = sphereCount;
+        return copy;
+    }
+
+    public abstract boolean isSinglePrecision();
+
+    public abstract int size();
+
+    /** The number of entries which are plain spheres. */
+    public int getSphereCount() {
+        return sphereCount;
+    }
+
+    public boolean isSphere(int index) {
+        return radius(index) >= 0.0;
+    }
+
+    public abstract double centreX(int index);
+
+    public abstract double centreY(int index);
+
+    public abstract double centreZ(int index);
+
+    /** The radius, or negative for shapes which aren't plain spheres. */
+    public abstract double radius(int index);
+
+    /** Stores an entry, rounded to this object's precision. */
+    abstract void put(int index, double centreX, double centreY, double centreZ, double radius);
+
+    private void fill(Shape[] shapes) {
+        // Each entry is packed on its own, so many can be packed at once and counted after.
+        BoundingVolumeBuilder.forEachIndex(shapes.length, i -> put(i, shapes[i]));
+        countSpheres();
+    }
+
+    private void countSpheres() {
+        int count = 0;
+        for (int i = 0; i < size(); ++i) {
+            if (isSphere(i)) {
+                ++count;
+            }
+        }
+        sphereCount = count;
+    }
+
+    /**
+     * Packs the entry at `index` for a new shape, replacing whatever was there.
+     */
+    void set(int index, Shape shape) {
+        boolean wasSphere = isSphere(index);
+        boolean sphere = put(index, shape);
+        if (sphere && !wasSphere) {
+            ++sphereCount;
+        } else if (wasSphere && !sphere) {
+            --sphereCount;
+        }
+    }
+
+    /**
+     * Packs the entry at `index` for a shape without counting it.
+     *
+     * @return whether the shape is a plain sphere.
+     */
+    private boolean put(int index, Shape shape) {
+        ShapeType shapeType = shape.getShapeType();
+        // Subclasses of Sphere might intersect differently, so are left alone.
+        if (shapeType.getClass() == Sphere.class) {
+            Sphere sphere = (Sphere) shapeType;
+            Vec3 centre = sphere.getCentre();
+            put(index, centre.x, centre.y, centre.z, sphere.getRadius());
+            return true;
+        }
+        put(index, 0.0, 0.0, 0.0, -1.0);
+        return false;
+    }
+
+    /**
+     * Creates a sphere object equivalent to the entry at `index`, which must be
+     * a sphere.
+     */
+    public Sphere sphereAt(int index) {
+        return new Sphere(new Vec3(centreX(index), centreY(index), centreZ(index)), radius(index));
+    }
+
+    /**
+     * Returns the distance at which the ray with the given origin and unit
+     * direction hits the sphere at `index`, or {@link ShapeType#MISS}. This gives
+     * exactly the same result as {@link Sphere#intersectDistance} for the sphere
+     * {@link #sphereAt} returns.
+     */
+    public double intersectDistance(int index, double originX, double originY, double originZ,
+            double directionX, double directionY, double directionZ) {
+        double vX = originX - centreX(index);
+        double vY = originY - centreY(index);
+        double vZ = originZ - centreZ(index);
+        double r = radius(index);
+        double dirDotV = directionX * vX + directionY * vY + directionZ * vZ;
+        double discriminant = dirDotV * dirDotV - (vX * vX + vY * vY + vZ * vZ) + r * r;
+        if (discriminant < 0) {
+            return ShapeType.MISS;
+        }
+        double distance = -dirDotV - Math.sqrt(discriminant);
+        if (distance >= 0) {
+            return distance;
+        } else {
+            return ShapeType.MISS;
+        }
+    }
+
+    private static final class DoubleSpheres extends PackedSpheres {
+        private final double[] centreX;
+        private final double[] centreY;
+        private final double[] centreZ;
+        private final double[] radius;
+
+        DoubleSpheres(double[] centreX, double[] centreY, double[] centreZ, double[] radius) {
+            this.centreX = centreX;
+            this.centreY = centreY;
+            this.centreZ = centreZ;
+            this.radius = radius;
+        }
+
+        @Override
+        public boolean isSinglePrecision() {
+            return false;
+        }
+
+        @Override
+        public int size() {
+            return radius.length;
+        }
+
+        @Override
+        public double centreX(int index) {
+            return centreX[index];
+        }
+
+        @Override
+        public double centreY(int index) {
+            return centreY[index];
+        }
+
+        @Override
+        public double centreZ(int index) {
+            return centreZ[index];
+        }
+
+        @Override
+        public double radius(int index) {
+            return radius[index];
+        }
+
+        @Override
+        void put(int index, double x, double y, double z, double r) {
+            centreX[index] = x;
+            centreY[index] = y;
+            centreZ[index] = z;
+            radius[index] = r;
+        }
+    }
+
+    private static final class FloatSpheres extends PackedSpheres {
+        private final float[] centreX;
+        private final float[] centreY;
+        private final float[] centreZ;
+        private final float[] radius;
+
+        FloatSpheres(float[] centreX, float[] centreY, float[] centreZ, float[] radius) {
+            this.centreX = centreX;
+            this.centreY = centreY;
+            this.centreZ = centreZ;
+            this.radius = radius;
+        }
+
+        @Override
+        public boolean isSinglePrecision() {
+            return true;
+        }
+
+        @Override
+        public int size() {
+            return radius.length;
+        }
+
+        @Override
+        public double centreX(int index) {
+            return centreX[index];
+        }
+
+        @Override
+        public double centreY(int index) {
+            return centreY[index];
+        }
+
+        @Override
+        public double centreZ(int index) {
+            return centreZ[index];
+        }
+
+        @Override
+        public double radius(int index) {
+            return radius[index];
+        }
+
+        @Override
+        void put(int index, double x, double y, double z, double r) {
+            centreX[index] = (float) x;
+            centreY[index] = (float) y;
+            centreZ[index] = (float) z;
+            radius[index] = (float) r;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package rht.raytracer.acceleration;
+
+import java.util.Arrays;
+
+import rht.raytracer.ObjectAndDistance;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.statistics.RenderCounters;
+import rht.raytracer.statistics.RenderStatistics;
+
+/**
+ * A uniform grid of cells over the shapes of a hierarchy, walked cell by cell
+ * along each ray with a 3D digital differential analyser.
+ *
+ * Each cell lists every shape whose bounding box overlaps it, so a shape may be
+ * listed in several cells. The lists are stored one after another in a single
+ * array. A ray visits the cells it passes through in order, and stops at the
+ * first cell where it has found a hit no further than the cell's far side,
+ * since whatever is in later cells is further away.
+ *
+ * This suits small shapes spread evenly through the scene, where most cells
+ * hold a shape or two and finding the next cell costs a few additions. Shapes
+ * bunched into a few places leave most cells empty and the rest crowded, and a
+ * large shape is listed in every cell it overlaps, so such scenes are better
+ * served by the hierarchy or an {@link Octree}.
+ *
+ * The grid refers to the hierarchy's shapes by index, so it must be built again
+ * whenever they are replaced.
+ */
+public class UniformGrid implements Accelerator {
+    /** The number of cells to aim for per shape. */
+    private static final double CELLS_PER_SHAPE = 2.0;
+    /** The most cells the grid has along each axis, and in all, to bound its memory. */
+    private static final int MAX_CELLS_PER_AXIS = 1024;
+    private static final int MAX_CELLS = 1 << 24;
+
+    private final BoundingVolumeHierarchy hierarchy;
+    private final double minX;
+    private final double minY;
+    private final double minZ;
+    private final double maxX;
+    private final double maxY;
+    private final double maxZ;
+    private final double cellSizeX;
+    private final double cellSizeY;
+    private final double cellSizeZ;
+    private final int cellsX;
+    private final int cellsY;
+    private final int cellsZ;
+    /** Where each cell's shapes start in `shapeIndices`, with one extra entry for the end. */
+    private final int[] cellStart;
+    /** The hierarchy index of each shape listed, cell by cell. */
+    private final int[] shapeIndices;
+
+    private final ThreadLocal<Walk> walks = ThreadLocal.withInitial(Walk::new);
+
+    /**
+     * Builds a grid over the shapes of a hierarchy, with cells shaped to fit the
+     * box around them and about {@link #CELLS_PER_SHAPE} cells for each shape.
+     */
+    public UniformGrid(BoundingVolumeHierarchy hierarchy) {
+        this.hierarchy = hierarchy;
+        int count = hierarchy.size();
+        double[] shapeBounds = hierarchy.shapeBounds();
+        double[] min = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+        double[] max = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+        for (int i = 0; i < count; ++i) {
+            for (int axis = 0; axis < 3; ++axis) {
+                min[axis] = Math.min(min[axis], shapeBounds[i * 6 + axis]);
+                max[axis] = Math.max(max[axis], shapeBounds[i * 6 + 3 + axis]);
+            }
+        }
+        if (count == 0) {
+            Arrays.fill(min, 0.0);
+            Arrays.fill(max, 0.0);
+        }
+        // Pad the bounds a little, so that every axis has some extent and rounding
+        // can't leave a hit just outside the grid.
+        double[] extent = new double[3];
+        for (int axis = 0; axis < 3; ++axis) {
+            double padding = 1e-9 * (1.0 + Math.abs(min[axis]) + Math.abs(max[axis]));
+            min[axis] -= padding;
+            max[axis] += padding;
+            extent[axis] = max[axis] - min[axis];
+        }
+        // Choose cells of roughly equal sides, of which there are about the number
+        // wanted, and then stretch them along each axis to fit the bounds exactly.
+        double largestExtent = Math.max(extent[0], Math.max(extent[1], extent[2]));
+        double volume = 1.0;
+        for (int axis = 0; axis < 3; ++axis) {
+            volume *= Math.max(extent[axis], largestExtent / MAX_CELLS_PER_AXIS);
+        }
+        double wantedCells = Math.max(1.0, Math.min(CELLS_PER_SHAPE * count, MAX_CELLS));
+        double side = Math.cbrt(volume / wantedCells);
+        int[] cells = new int[3];
+        for (int axis = 0; axis < 3; ++axis) {
+            cells[axis] = Math.max(1, Math.min(MAX_CELLS_PER_AXIS, (int) Math.ceil(extent[axis] / side)));
+        }
+        minX = min[0];
+        minY = min[1];
+        minZ = min[2];
+        maxX = max[0];
+        maxY = max[1];
+        maxZ = max[2];
+        cellsX = cells[0];
+        cellsY = cells[1];
+        cellsZ = cells[2];
+        cellSizeX = extent[0] / cellsX;
+        cellSizeY = extent[1] / cellsY;
+        cellSizeZ = extent[2] / cellsZ;
+
+        // Count each cell's shapes, then place them, so the lists need no resizing.
+        cellStart = new int[cellsX * cellsY * cellsZ + 1];
+        long listed = 0;
+        for (int i = 0; i < count; ++i) {
+            listed += forEachCell(shapeBounds, i, cell -> ++cellStart[cell + 1]);
+        }
+        if (listed > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("The shapes overlap too many cells to fit in a grid.");
+        }
+        for (int cell = 0; cell < cellStart.length - 1; ++cell) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+        shapeIndices = new int[cellStart[cellStart.length - 1]];
+        int[] next = Arrays.copyOf(cellStart, cellStart.length - 1);
+        for (int i = 0; i < count; ++i) {
+            int shape = i;
+            forEachCell(shapeBounds, i, cell -> shapeIndices[next[cell]++] = shape);
+        }
+    }
+
+    /**
+     * Runs an action for each cell which a shape's box overlaps, padded a little
+     * so that rounding can't leave out a cell the shape only touches.
+     *
+     * @return the number of cells.
+     */
+    private long forEachCell(double[] shapeBounds, int shape, CellAction action) {
+        int b = shape * 6;
+        int firstX = cellIndex(shapeBounds[b], minX, cellSizeX, cellsX, -1);
+        int firstY = cellIndex(shapeBounds[b + 1], minY, cellSizeY, cellsY, -1);
+        int firstZ = cellIndex(shapeBounds[b + 2], minZ, cellSizeZ, cellsZ, -1);
+        int lastX = cellIndex(shapeBounds[b + 3], minX, cellSizeX, cellsX, 1);
+        int lastY = cellIndex(shapeBounds[b + 4], minY, cellSizeY, cellsY, 1);
+        int lastZ = cellIndex(shapeBounds[b + 5], minZ, cellSizeZ, cellsZ, 1);
+        for (int z = firstZ; z <= lastZ; ++z) {
+            for (int y = firstY; y <= lastY; ++y) {
+                for (int x = firstX; x <= lastX; ++x) {
+                    action.run((z * cellsY + y) * cellsX + x);
+                }
+            }
+        }
+        return (long) (lastX - firstX + 1) * (lastY - firstY + 1) * (lastZ - firstZ + 1);
+    }
+
+    /**
+     * Returns the index along one axis of the cell holding a coordinate, moved by
+     * a small fraction of a cell in the direction of `nudge`, and clamped to the
+     * grid.
+     */
+    private static int cellIndex(double value, double min, double cellSize, int cells, int nudge) {
+        double position = (value - min) / cellSize + nudge * 1e-6;
+        return Math.max(0, Math.min(cells - 1, (int) Math.floor(position)));
+    }
+
+    @Override
+    public boolean findFirstIntersectionExcept(double ox, double oy, double oz, double dx, double dy, double dz,
+            Shape ignored, double maxDistance, ObjectAndDistance hit) {
+        Walk walk = walks.get();
+        if (!walk.start(ox, oy, oz, dx, dy, dz, maxDistance)) {
+            return false;
+        }
+        RenderCounters counters = RenderStatistics.ENABLED ? RenderStatistics.forCurrentThread() : null;
+        double closestDistance = maxDistance;
+        int closest = -1;
+        do {
+            if (RenderStatistics.ENABLED) {
+                ++counters.nodesVisited;
+            }
+            int cell = walk.cell();
+            for (int i = cellStart[cell]; i < cellStart[cell + 1]; ++i) {
+                int shape = shapeIndices[i];
+                double distance = hierarchy.intersectShape(shape, ignored, ox, oy, oz, dx, dy, dz, counters);
+                if (distance < closestDistance) {
+                    closestDistance = distance;
+                    closest = shape;
+                }
+            }
+            // A hit this close lies in this cell or one already visited, and
+            // anything in later cells is further away.
+        } while (closestDistance > walk.cellExit() && walk.next());
+
+        if (closest < 0) {
+            return false;
+        }
+        hit.object = hierarchy.getShape(closest);
+        hit.distance = closestDistance;
+        return true;
+    }
+
+    @Override
+    public Shape findAnyIntersectionExcept(double ox, double oy, double oz, double dx, double dy, double dz,
+            Shape ignored, double maxDistance) {
+        Walk walk = walks.get();
+        if (!walk.start(ox, oy, oz, dx, dy, dz, maxDistance)) {
+            return null;
+        }
+        RenderCounters counters = RenderStatistics.ENABLED ? RenderStatistics.forCurrentThread() : null;
+        do {
+            if (RenderStatistics.ENABLED) {
+                ++counters.nodesVisited;
+            }
+            int cell = walk.cell();
+            for (int i = cellStart[cell]; i < cellStart[cell + 1]; ++i) {
+                int shape = shapeIndices[i];
+                if (hierarchy.intersectShape(shape, ignored, ox, oy, oz, dx, dy, dz, counters) < maxDistance) {
+                    return hierarchy.getShape(shape);
+                }
+            }
+        } while (walk.next());
+        return null;
+    }
+
+    @Override
+    public long getMemorySize() {
+        return (long) cellStart.length * Integer.BYTES + (long) shapeIndices.length * Integer.BYTES;
+    }
+
+    public int getCellCount() {
+        return cellStart.length - 1;
+    }
+
+    /** The number of entries in all the cells' lists, counting a shape once for each cell it is in. */
+    public int getListedCount() {
+        return shapeIndices.length;
+    }
+
+    /**
+     * The state of one ray's walk through the grid's cells, reused for every ray
+     * a thread traces so that tracing doesn't allocate.
+     */
+    private final class Walk {
+        private int x;
+        private int y;
+        private int z;
+        private int stepX;
+        private int stepY;
+        private int stepZ;
+        /** The distance along the ray at which it leaves the current cell along each axis. */
+        private double nextX;
+        private double nextY;
+        private double nextZ;
+        /** The distance along the ray between crossings of each axis's cell boundaries. */
+        private double deltaX;
+        private double deltaY;
+        private double deltaZ;
+        /** The distance at which the ray enters the grid. */
+        private double near;
+        /** The distance at which the walk ends, where the ray leaves the grid or passes its limit. */
+        private double end;
+
+        /**
+         * Starts a walk from the cell where a ray enters the grid, returning false
+         * if it misses the grid or only reaches it beyond `maxDistance`.
+         */
+        boolean start(double ox, double oy, double oz, double dx, double dy, double dz, double maxDistance) {
+            near = 0.0;
+            end = maxDistance;
+            if (!clip(ox, dx, minX, maxX) || !clip(oy, dy, minY, maxY) || !clip(oz, dz, minZ, maxZ)) {
+                return false;
+            }
+            x = cellIndex(ox + near * dx, minX, cellSizeX, cellsX, 0);
+            y = cellIndex(oy + near * dy, minY, cellSizeY, cellsY, 0);
+            z = cellIndex(oz + near * dz, minZ, cellSizeZ, cellsZ, 0);
+            stepX = dx > 0.0 ? 1 : dx < 0.0 ? -1 : 0;
+            stepY = dy > 0.0 ? 1 : dy < 0.0 ? -1 : 0;
+            stepZ = dz > 0.0 ? 1 : dz < 0.0 ? -1 : 0;
+            nextX = boundaryDistance(ox, dx, minX, cellSizeX, x, stepX);
+            nextY = boundaryDistance(oy, dy, minY, cellSizeY, y, stepY);
+            nextZ = boundaryDistance(oz, dz, minZ, cellSizeZ, z, stepZ);
+            deltaX = stepX == 0 ? Double.POSITIVE_INFINITY : cellSizeX / Math.abs(dx);
+            deltaY = stepY == 0 ? Double.POSITIVE_INFINITY : cellSizeY / Math.abs(dy);
+            deltaZ = stepZ == 0 ? Double.POSITIVE_INFINITY : cellSizeZ / Math.abs(dz);
+            return true;
+        }
+
+        int cell() {
+            return (z * cellsY + y) * cellsX + x;
+        }
+
+        /** The distance along the ray at which it leaves the current cell. */
+        double cellExit() {
+            return Math.min(nextX, Math.min(nextY, nextZ));
+        }
+
+        /**
+         * Moves to the next cell along the ray, returning false if the walk has
+         * ended instead.
+         */
+        boolean next() {
+            if (nextX <= nextY && nextX <= nextZ) {
+                if (nextX >= end) {
+                    return false;
+                }
+                x += stepX;
+                nextX += deltaX;
+                return x >= 0 && x < cellsX;
+            } else if (nextY <= nextZ) {
+                if (nextY >= end) {
+                    return false;
+                }
+                y += stepY;
+                nextY += deltaY;
+                return y >= 0 && y < cellsY;
+            } else {
+                if (nextZ >= end) {
+                    return false;
+                }
+                z += stepZ;
+                nextZ += deltaZ;
+                return z >= 0 && z < cellsZ;
+            }
+        }
+
+        /**
+         * Narrows the distances along the ray from `near` to `end` to those within
+         * the grid's slab along one axis, returning false if none are left.
+         */
+        private boolean clip(double origin, double direction, double min, double max) {
+            if (direction == 0.0) {
+                return origin >= min && origin <= max;
+            }
+            double t1 = (min - origin) / direction;
+            double t2 = (max - origin) / direction;
+            near = Math.max(near, Math.min(t1, t2));
+            end = Math.min(end, Math.max(t1, t2));
+            return near <= end;
+        }
+
+        /** The distance along the ray at which it leaves cell `index` along one axis. */
+        private double boundaryDistance(double origin, double direction, double min, double cellSize, int index,
+                int step) {
+            if (step == 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            double boundary = min + (step > 0 ? index + 1 : index) * cellSize;
+            return (boundary - origin) / direction;
+        }
+    }
+
+    private interface CellAction {
+        void run(int cell);
+    }
+}
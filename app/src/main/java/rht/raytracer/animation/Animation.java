@@ -0,0 +1,75 @@
+package rht.raytracer.animation;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import rht.raytracer.Camera;
+import rht.raytracer.maths.Matrix4;
+
+/**
+ * How a scene changes over a sequence of frames: a keyframed camera path, and
+ * keyframed transformations of some of its objects. Frames are numbered from
+ * 0, and keyframes may fall between frames.
+ */
+public final class Animation {
+    private final int frameCount;
+    private final Keyframes<Camera> camera;
+    /** The track of each animated object, by its index in the scene file. */
+    private final Map<Integer, TransformTrack> objects;
+
+    Animation(int frameCount, Keyframes<Camera> camera, Map<Integer, TransformTrack> objects) {
+        this.frameCount = frameCount;
+        this.camera = camera;
+        this.objects = objects;
+    }
+
+    /**
+     * Reads an animation file, in the format {@link AnimationParser} describes.
+     *
+     * @throws IOException if the file can't be read, or is not a valid
+     *                     animation.
+     */
+    public static Animation read(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return new AnimationParser(reader).parse();
+        }
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Returns the camera at the given frame, or null if the animation doesn't
+     * move the camera.
+     */
+    public Camera cameraAt(double frame) {
+        return camera.isEmpty() ? null : camera.at(frame);
+    }
+
+    /**
+     * The indices of the objects the animation moves, counting the shapes of
+     * the scene file in order from 0.
+     */
+    public Set<Integer> getAnimatedObjects() {
+        return Collections.unmodifiableSet(objects.keySet());
+    }
+
+    /**
+     * Returns the transformation of an animated object at the given frame,
+     * which applies on top of any it was given in the scene file.
+     */
+    public Matrix4 transformationAt(int object, double frame) {
+        TransformTrack track = objects.get(object);
+        if (track == null) {
+            throw new IllegalArgumentException("Object " + object + " is not animated.");
+        }
+        return track.at(frame);
+    }
+}
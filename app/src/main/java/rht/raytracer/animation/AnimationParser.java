@@ -0,0 +1,198 @@
+package rht.raytracer.animation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import rht.raytracer.Camera;
+import rht.raytracer.maths.Vec3;
+
+/**
+ * Reads the text animation format, which is laid out like the scene format:
+ * one element per line, a keyword followed by its values, with blank lines and
+ * everything after a `#` ignored.
+ *
+ * <pre>
+ * frames &lt;count&gt;
+ * camera &lt;frame&gt; &lt;focal point&gt; &lt;frame centre&gt; &lt;x direction&gt; &lt;y direction&gt;
+ * object &lt;index&gt; &lt;frame&gt; &lt;transformation&gt;...
+ * </pre>
+ *
+ * `object` moves the shape at the given index in the scene file, counting from
+ * 0, by transformations written as in a scene file (`translate`, `scale` and
+ * `rotatex`, `rotatey` and `rotatez`), applied on top of the shape's own.
+ * Every keyframe of an object must list the same transformations in the same
+ * order, so that their values can be interpolated. The camera's vectors are
+ * interpolated too. Keyframes of each track must be in order.
+ *
+ * Without a `frames` line, the animation runs to the frame of its last
+ * keyframe.
+ */
+class AnimationParser {
+    private final BufferedReader reader;
+    private final Keyframes<Camera> camera = new Keyframes<>(AnimationParser::between);
+    private final Map<Integer, TransformTrack> objects = new TreeMap<>();
+    private int frameCount = 0;
+    private int lineNumber = 0;
+    private String line;
+    private int position;
+
+    AnimationParser(Reader reader) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    /**
+     * Reads the whole animation.
+     *
+     * @throws IOException if the file can't be read, or is not a valid
+     *                     animation.
+     */
+    Animation parse() throws IOException {
+        while ((line = reader.readLine()) != null) {
+            ++lineNumber;
+            position = 0;
+            String keyword = nextToken();
+            if (keyword == null) {
+                continue;
+            }
+            try {
+                parseElement(keyword);
+            } catch (IllegalArgumentException e) {
+                throw error(e.getMessage());
+            }
+            if (nextToken() != null) {
+                throw error("Too many values for " + keyword + ".");
+            }
+        }
+        if (frameCount == 0) {
+            double last = camera.isEmpty() ? -1.0 : camera.lastFrame();
+            for (TransformTrack track : objects.values()) {
+                last = Math.max(last, track.lastFrame());
+            }
+            if (last < 0.0) {
+                throw new IOException("An animation needs a frames line or a keyframe.");
+            }
+            frameCount = (int) Math.floor(last) + 1;
+        }
+        return new Animation(frameCount, camera, objects);
+    }
+
+    private void parseElement(String keyword) throws IOException {
+        switch (keyword) {
+            case "frames": {
+                double count = nextDouble();
+                if (count < 1 || count != Math.floor(count) || count > Integer.MAX_VALUE) {
+                    throw error("The frame count must be a whole number of at least 1.");
+                }
+                frameCount = (int) count;
+                break;
+            }
+            case "camera":
+                camera.add(nextFrame(), new Camera(nextVec3(), nextVec3(), nextVec3(), nextVec3()));
+                break;
+            case "object":
+                parseObject();
+                break;
+            default:
+                throw error("Unknown element " + keyword + ".");
+        }
+    }
+
+    private void parseObject() throws IOException {
+        double index = nextDouble();
+        if (index < 0 || index != Math.floor(index)) {
+            throw error("Object index " + index + " must be a whole number from 0.");
+        }
+        double frame = nextFrame();
+        List<String> operations = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        String operation;
+        while ((operation = nextToken()) != null) {
+            int count = TransformTrack.valueCount(operation);
+            if (count < 0) {
+                throw error("Unknown transformation " + operation + ".");
+            }
+            operations.add(operation);
+            for (int i = 0; i < count; ++i) {
+                values.add(nextDouble());
+            }
+        }
+        if (operations.isEmpty()) {
+            throw error("Missing transformation.");
+        }
+
+        TransformTrack track = objects.computeIfAbsent((int) index, key -> new TransformTrack(operations));
+        if (!track.getOperations().equals(operations)) {
+            throw error("Every keyframe of object " + (int) index
+                    + " must give the same transformations in the same order.");
+        }
+        double[] array = new double[values.size()];
+        for (int i = 0; i < array.length; ++i) {
+            array[i] = values.get(i);
+        }
+        track.add(frame, array);
+    }
+
+    private static Camera between(Camera from, Camera to, double fraction) {
+        return new Camera(between(from.getFocalPoint(), to.getFocalPoint(), fraction),
+                between(from.getFrameCentre(), to.getFrameCentre(), fraction),
+                between(from.getXDirection(), to.getXDirection(), fraction),
+                between(from.getYDirection(), to.getYDirection(), fraction));
+    }
+
+    private static Vec3 between(Vec3 from, Vec3 to, double fraction) {
+        return from.plus(to.minus(from).times(fraction));
+    }
+
+    /**
+     * Returns the next space-separated token on the current line, or null at the
+     * end of the line or the start of a comment.
+     */
+    private String nextToken() {
+        int length = line.length();
+        while (position < length && Character.isWhitespace(line.charAt(position))) {
+            ++position;
+        }
+        if (position == length || line.charAt(position) == '#') {
+            return null;
+        }
+        int start = position;
+        while (position < length && !Character.isWhitespace(line.charAt(position))
+                && line.charAt(position) != '#') {
+            ++position;
+        }
+        return line.substring(start, position);
+    }
+
+    private double nextDouble() throws IOException {
+        String token = nextToken();
+        if (token == null) {
+            throw error("Missing value.");
+        }
+        try {
+            return Double.parseDouble(token);
+        } catch (NumberFormatException e) {
+            throw error("Expected a number, not " + token + ".");
+        }
+    }
+
+    private double nextFrame() throws IOException {
+        double frame = nextDouble();
+        if (!(frame >= 0.0) || Double.isInfinite(frame)) {
+            throw error("Keyframe frame numbers can't be negative.");
+        }
+        return frame;
+    }
+
+    private Vec3 nextVec3() throws IOException {
+        return new Vec3(nextDouble(), nextDouble(), nextDouble());
+    }
+
+    private IOException error(String message) {
+        return new IOException("Line " + lineNumber + ": " + message);
+    }
+}
@@ -0,0 +1,64 @@
+package rht.raytracer.animation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Values given at increasing frame numbers, interpolated between them. Before
+ * the first keyframe the value is the first keyframe's, and after the last it
+ * is the last's.
+ */
+final class Keyframes<T> {
+    /** Works out a value part of the way from one keyframe's value to the next's. */
+    interface Interpolation<T> {
+        /**
+         * @param fraction How far between the keyframes, from 0 to 1.
+         */
+        T between(T from, T to, double fraction);
+    }
+
+    private final Interpolation<T> interpolation;
+    private final List<Double> frames = new ArrayList<>();
+    private final List<T> values = new ArrayList<>();
+
+    Keyframes(Interpolation<T> interpolation) {
+        this.interpolation = interpolation;
+    }
+
+    /**
+     * Adds a keyframe, which must come after every keyframe added so far.
+     */
+    void add(double frame, T value) {
+        if (!frames.isEmpty() && frame <= frames.get(frames.size() - 1)) {
+            throw new IllegalArgumentException("Keyframes must be given in order, at different frames.");
+        }
+        frames.add(frame);
+        values.add(value);
+    }
+
+    boolean isEmpty() {
+        return frames.isEmpty();
+    }
+
+    /** The frame of the last keyframe. There must be at least one. */
+    double lastFrame() {
+        return frames.get(frames.size() - 1);
+    }
+
+    /** The value at the given frame. There must be at least one keyframe. */
+    T at(double frame) {
+        int next = 0;
+        while (next < frames.size() && frames.get(next) <= frame) {
+            ++next;
+        }
+        if (next == 0) {
+            return values.get(0);
+        }
+        double previousFrame = frames.get(next - 1);
+        if (next == frames.size() || previousFrame == frame) {
+            return values.get(next - 1);
+        }
+        double fraction = (frame - previousFrame) / (frames.get(next) - previousFrame);
+        return interpolation.between(values.get(next - 1), values.get(next), fraction);
+    }
+}
@@ -0,0 +1,273 @@
+package rht.raytracer.animation;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+import rht.raytracer.Camera;
+import rht.raytracer.ImageFiles;
+import rht.raytracer.Light;
+import rht.raytracer.LightSampling;
+import rht.raytracer.ReflectionLimits;
+import rht.raytracer.Scene;
+import rht.raytracer.Supersampling;
+import rht.raytracer.TileRenderer;
+import rht.raytracer.acceleration.AcceleratorType;
+import rht.raytracer.maths.Matrix4;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.shapes.Transformed;
+
+/**
+ * Renders the frames of an {@link Animation}, keeping one scene for the whole
+ * sequence.
+ *
+ * Between frames, only the objects the animation moves are replaced, and the
+ * scene's hierarchy is refitted around them rather than built again. Refitting
+ * keeps the tree's structure, which gets worse as objects move away from where
+ * it was built, so once its surface area cost has grown by
+ * {@link #REBUILD_FACTOR} the hierarchy is built afresh instead.
+ *
+ * When writing a sequence to files, each frame is encoded and written on
+ * another thread while the next is rendered.
+ */
+public final class SequenceRenderer {
+    /**
+     * How many times worse than when it was built a refitted hierarchy may get
+     * before it is rebuilt.
+     */
+    public static final double REBUILD_FACTOR = 1.5;
+
+    private final Animation animation;
+    /** The objects as the scene file gave them. */
+    private final List<Shape> originals;
+    /** The objects as they are in the current frame, in the same order. */
+    private final List<Shape> objects;
+    private final Map<Integer, Matrix4> transformations = new HashMap<>();
+    private final List<Light> lights;
+    private final Camera camera;
+    private final int width;
+    private final int height;
+    private final int threads;
+    private final Supersampling supersampling;
+    private final ReflectionLimits reflectionLimits;
+    private final LightSampling lightSampling;
+    private final boolean singlePrecision;
+    private final AcceleratorType accelerator;
+
+    private Scene scene;
+    private double builtCost;
+    private long samplesTraced;
+    private int refits;
+    private int builds;
+    private long writeWaitNanos;
+
+    /**
+     * @param objects         The scene's shapes, in scene file order, which the
+     *                        animation's object indices count.
+     * @param camera          The camera to use if the animation doesn't move
+     *                        it.
+     * @param supersampling   How to anti-alias the frames, or null to trace a
+     *                        single ray through each pixel.
+     * @param singlePrecision Whether to store the scene's spheres in single
+     *                        precision.
+     * @param accelerator     The kind of accelerator to search the scene with,
+     *                        chosen through the camera whenever the scene is
+     *                        built if it is {@link AcceleratorType#AUTO}.
+     * @throws IllegalArgumentException if the animation moves an object the
+     *                                  scene doesn't have.
+     */
+    public SequenceRenderer(List<Shape> objects, List<Light> lights, Animation animation, Camera camera,
+            int width, int height, int threads, Supersampling supersampling, ReflectionLimits reflectionLimits,
+            LightSampling lightSampling, boolean singlePrecision, AcceleratorType accelerator) {
+        for (int index : animation.getAnimatedObjects()) {
+            if (index >= objects.size()) {
+                throw new IllegalArgumentException(
+                        "The animation moves object " + index + ", but the scene has only " + objects.size() + ".");
+            }
+        }
+        this.animation = animation;
+        this.originals = new ArrayList<>(objects);
+        this.objects = new ArrayList<>(objects);
+        this.lights = lights;
+        this.camera = camera;
+        this.width = width;
+        this.height = height;
+        this.threads = threads;
+        this.supersampling = supersampling;
+        this.reflectionLimits = reflectionLimits;
+        this.lightSampling = lightSampling;
+        this.singlePrecision = singlePrecision;
+        this.accelerator = accelerator;
+    }
+
+    /** The number of primary rays traced for every frame rendered so far. */
+    public long getSamplesTraced() {
+        return samplesTraced;
+    }
+
+    /** The number of times the hierarchy has been refitted around moved objects. */
+    public int getRefits() {
+        return refits;
+    }
+
+    /** The number of times the scene's hierarchy has been built, including the first. */
+    public int getBuilds() {
+        return builds;
+    }
+
+    /** The total time spent waiting for earlier frames to be written. */
+    public long getWriteWaitNanos() {
+        return writeWaitNanos;
+    }
+
+    /**
+     * Renders a frame into a new row-major array of RGB pixels. Frames may be
+     * rendered in any order, but each move from one frame to the next is
+     * cheapest when few objects move.
+     */
+    public int[] renderFrame(int frame) {
+        TileRenderer renderer = prepare(frame);
+        int[] pixels = renderer.render();
+        samplesTraced += renderer.getSamplesTraced();
+        return pixels;
+    }
+
+    /**
+     * Renders a frame without clamping, into a new row-major array of red,
+     * green and blue values, three per pixel.
+     */
+    public float[] renderFrameHighDynamicRange(int frame) {
+        TileRenderer renderer = prepare(frame);
+        float[] radiance = renderer.renderHighDynamicRange();
+        samplesTraced += renderer.getSamplesTraced();
+        return radiance;
+    }
+
+    /**
+     * Renders frames `first` to `last` inclusive, writing each to the file
+     * named by formatting `outputPattern` with the frame number, such as
+     * "frame%04d.png". While each frame is written, the next one is rendered;
+     * only if writing a frame takes longer than rendering the next does
+     * rendering wait for it.
+     *
+     * @param onFrameRendered Called with each frame's number once it has been
+     *                        rendered, before it is written.
+     * @throws IOException if a frame can't be written. Frames already written
+     *                     are left in place.
+     */
+    public void renderToFiles(int first, int last, String outputPattern, IntConsumer onFrameRendered)
+            throws IOException {
+        ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Frame writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Future<?> writing = null;
+            for (int frame = first; frame <= last; ++frame) {
+                Path path = Paths.get(String.format(outputPattern, frame));
+                Callable<Void> write;
+                if (ImageFiles.isHighDynamicRange(path)) {
+                    float[] radiance = renderFrameHighDynamicRange(frame);
+                    write = () -> {
+                        ImageFiles.writePfm(path, width, height, radiance);
+                        return null;
+                    };
+                } else {
+                    int[] pixels = renderFrame(frame);
+                    write = () -> {
+                        ImageFiles.write(path, width, height, pixels);
+                        return null;
+                    };
+                }
+                onFrameRendered.accept(frame);
+                // Only one frame waits to be written at a time, which bounds the
+                // memory held by frames when writing is the slower side.
+                long waitStart = System.nanoTime();
+                await(writing);
+                writeWaitNanos += System.nanoTime() - waitStart;
+                writing = writer.submit(write);
+            }
+            long waitStart = System.nanoTime();
+            await(writing);
+            writeWaitNanos += System.nanoTime() - waitStart;
+        } finally {
+            writer.shutdownNow();
+        }
+    }
+
+    private static void await(Future<?> writing) throws IOException {
+        if (writing == null) {
+            return;
+        }
+        try {
+            writing.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not write a frame: " + e.getCause(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing frames.", e);
+        }
+    }
+
+    /**
+     * Moves the objects and camera to where they are at the given frame, and
+     * returns a renderer for it.
+     */
+    private TileRenderer prepare(int frame) {
+        Map<Shape, Shape> replacements = new HashMap<>();
+        for (int index : animation.getAnimatedObjects()) {
+            Matrix4 transformation = animation.transformationAt(index, frame);
+            if (transformation.equals(transformations.get(index))) {
+                continue;
+            }
+            transformations.put(index, transformation);
+            Shape original = originals.get(index);
+            Shape moved = new Shape(new Transformed(original.getShapeType(), transformation), original.getColour(),
+                    original.getReflectionColour());
+            replacements.put(objects.get(index), moved);
+            objects.set(index, moved);
+        }
+
+        if (scene == null) {
+            build();
+        } else if (!replacements.isEmpty()) {
+            scene.replaceObjects(replacements);
+            ++refits;
+            if (scene.getHierarchy().getSurfaceAreaCost() > REBUILD_FACTOR * builtCost) {
+                build();
+            }
+        }
+
+        Camera frameCamera = animation.cameraAt(frame);
+        return new TileRenderer(scene, frameCamera != null ? frameCamera : camera, width, height, threads,
+                TileRenderer.DEFAULT_TILE_SIZE, supersampling);
+    }
+
+    private void build() {
+        scene = new Scene(objects, lights);
+        scene.setReflectionLimits(reflectionLimits);
+        scene.setLightSampling(lightSampling);
+        scene.setSinglePrecision(singlePrecision);
+        if (accelerator == AcceleratorType.AUTO) {
+            scene.chooseAccelerator(camera, width, height);
+        } else {
+            scene.setAccelerator(accelerator);
+        }
+        builtCost = scene.getHierarchy().getSurfaceAreaCost();
+        ++builds;
+    }
+}
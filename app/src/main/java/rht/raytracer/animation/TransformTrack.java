@@ -0,0 +1,105 @@
+package rht.raytracer.animation;
+
+import java.util.List;
+
+import rht.raytracer.maths.Matrix;
+import rht.raytracer.maths.Matrix4;
+
+/**
+ * The keyframed transformation of one object: a fixed list of translations,
+ * scalings and rotations, as in a scene file, whose values are given at each
+ * keyframe and interpolated in between.
+ *
+ * Interpolating the values rather than the matrices keeps a rotation a
+ * rotation part of the way through, where blending two rotation matrices would
+ * shrink and skew the object.
+ */
+final class TransformTrack {
+    private final List<String> operations;
+    private final Keyframes<double[]> keyframes = new Keyframes<>(TransformTrack::between);
+
+    /**
+     * @param operations The transformations, each "translate", "scale",
+     *                   "rotatex", "rotatey" or "rotatez", applied as in a scene
+     *                   file: the last is applied to the object first.
+     */
+    TransformTrack(List<String> operations) {
+        for (String operation : operations) {
+            if (valueCount(operation) < 0) {
+                throw new IllegalArgumentException("Unknown transformation " + operation + ".");
+            }
+        }
+        this.operations = operations;
+    }
+
+    /**
+     * Returns how many values a transformation takes, or -1 if it isn't one
+     * that can be animated.
+     */
+    static int valueCount(String operation) {
+        switch (operation) {
+            case "translate":
+            case "scale":
+                return 3;
+            case "rotatex":
+            case "rotatey":
+            case "rotatez":
+                return 1;
+            default:
+                return -1;
+        }
+    }
+
+    List<String> getOperations() {
+        return operations;
+    }
+
+    /**
+     * Adds a keyframe giving the values of every transformation in turn.
+     */
+    void add(double frame, double[] values) {
+        keyframes.add(frame, values);
+    }
+
+    double lastFrame() {
+        return keyframes.lastFrame();
+    }
+
+    /** The combined transformation at the given frame. */
+    Matrix4 at(double frame) {
+        double[] values = keyframes.at(frame);
+        Matrix4 transformation = Matrix4.IDENTITY;
+        int i = 0;
+        for (String operation : operations) {
+            Matrix matrix;
+            switch (operation) {
+                case "translate":
+                    matrix = Matrix.translation(values[i], values[i + 1], values[i + 2]);
+                    break;
+                case "scale":
+                    matrix = Matrix.scale(values[i], values[i + 1], values[i + 2]);
+                    break;
+                case "rotatex":
+                    matrix = Matrix.rotateX(values[i]);
+                    break;
+                case "rotatey":
+                    matrix = Matrix.rotateY(values[i]);
+                    break;
+                default:
+                    matrix = Matrix.rotateZ(values[i]);
+                    break;
+            }
+            transformation = transformation.times(Matrix4.from(matrix));
+            i += valueCount(operation);
+        }
+        return transformation;
+    }
+
+    private static double[] between(double[] from, double[] to, double fraction) {
+        double[] values = new double[from.length];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = from[i] + (to[i] - from[i]) * fraction;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,329 @@
+package rht.raytracer.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * A directory of rendered images, each stored in a file named by the
+ * {@link RenderKey} it was rendered for, so that rendering the same scene from
+ * the same camera with the same settings again can read the image back instead
+ * of tracing any rays.
+ *
+ * The directory is kept under a size limit by deleting the least recently used
+ * images, going by their modification times, which are updated whenever an
+ * image is read. Each image is written to a temporary file and moved into
+ * place, so several processes can share a directory.
+ *
+ * The cache counts its hits, misses and evictions over its whole life, in a
+ * small file beside the images. Processes sharing a directory may lose each
+ * other's counts when they finish at once, so the counts are approximate.
+ */
+public final class RenderCache {
+    public static final long DEFAULT_MAX_BYTES = 1L << 30;
+    static final int MAGIC = 0x52545243; // "RTRC"
+    static final int VERSION = 1;
+    private static final String SUFFIX = ".frame";
+    private static final String METRICS_FILE = "metrics.properties";
+    private static final int HEADER_BYTES = 8 + RenderKey.PARTS.size() * RenderKey.DIGEST_BYTES + 12;
+
+    private final Path directory;
+    private final long maxBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Opens a cache directory, creating it if it doesn't exist.
+     *
+     * @param maxBytes The most the images may take up together.
+     */
+    public RenderCache(Path directory, long maxBytes) throws IOException {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("A render cache needs room for at least one byte.");
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        Properties metrics = new Properties();
+        try (InputStream in = Files.newInputStream(directory.resolve(METRICS_FILE))) {
+            metrics.load(in);
+        } catch (NoSuchFileException e) {
+            // A new cache.
+        }
+        hits = count(metrics, "hits");
+        misses = count(metrics, "misses");
+        evictions = count(metrics, "evictions");
+    }
+
+    /** The number of images found in the cache, over its whole life. */
+    public long getHits() {
+        return hits;
+    }
+
+    /** The number of images looked for and not found, over the cache's whole life. */
+    public long getMisses() {
+        return misses;
+    }
+
+    /** The number of images deleted to keep the cache under its size limit. */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /** The total size of the images in the cache, in bytes. */
+    public long getSize() throws IOException {
+        long size = 0;
+        for (Entry entry : entries()) {
+            size += entry.size;
+        }
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the pixels rendered for a key, as row-major RGB values, or null
+     * if they aren't in the cache.
+     */
+    public int[] getPixels(RenderKey key) throws IOException {
+        ByteBuffer data = read(key, false);
+        if (data == null) {
+            return null;
+        }
+        int[] pixels = new int[data.remaining() / Integer.BYTES];
+        data.asIntBuffer().get(pixels);
+        return pixels;
+    }
+
+    /**
+     * Returns the unclamped image rendered for a key, as red, green and blue
+     * values for each pixel, or null if it isn't in the cache.
+     */
+    public float[] getRadiance(RenderKey key) throws IOException {
+        ByteBuffer data = read(key, true);
+        if (data == null) {
+            return null;
+        }
+        float[] radiance = new float[data.remaining() / Float.BYTES];
+        data.asFloatBuffer().get(radiance);
+        return radiance;
+    }
+
+    /** Stores pixels rendered for a key, as row-major RGB values. */
+    public void putPixels(RenderKey key, int width, int height, int[] pixels) throws IOException {
+        ByteBuffer data = header(key, width, height, false, pixels.length * Integer.BYTES);
+        data.asIntBuffer().put(pixels);
+        write(key, data);
+    }
+
+    /**
+     * Stores an unclamped image rendered for a key, as red, green and blue
+     * values for each pixel.
+     */
+    public void putRadiance(RenderKey key, int width, int height, float[] radiance) throws IOException {
+        ByteBuffer data = header(key, width, height, true, radiance.length * Float.BYTES);
+        data.asFloatBuffer().put(radiance);
+        write(key, data);
+    }
+
+    /**
+     * Returns the key of the most recently used image, or null if the cache is
+     * empty. Comparing it with a key that missed shows what changed since.
+     */
+    public RenderKey getMostRecentKey() throws IOException {
+        List<Entry> entries = entries();
+        for (int i = entries.size() - 1; i >= 0; --i) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            try (InputStream in = Files.newInputStream(entries.get(i).path)) {
+                int length = in.readNBytes(header.array(), 0, HEADER_BYTES);
+                if (length == HEADER_BYTES && header.getInt() == MAGIC && header.getInt() == VERSION) {
+                    return new RenderKey(readDigests(header));
+                }
+            } catch (NoSuchFileException e) {
+                // Evicted by another process.
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the data of the image for a key, updating its modification time and
+     * the hit and miss counts. An image stored in the other form counts as a
+     * miss, and a damaged one is deleted too.
+     */
+    private ByteBuffer read(RenderKey key, boolean highDynamicRange) throws IOException {
+        Path path = pathFor(key);
+        ByteBuffer data = null;
+        try {
+            data = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+        } catch (NoSuchFileException e) {
+            // A miss.
+        }
+        if (data != null && !isValid(data, key)) {
+            Files.deleteIfExists(path);
+            data = null;
+        } else if (data != null && (data.getInt(HEADER_BYTES - 4) != 0) != highDynamicRange) {
+            data = null;
+        }
+        if (data == null) {
+            ++misses;
+        } else {
+            ++hits;
+            try {
+                Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (NoSuchFileException e) {
+                // Evicted by another process since being read, which does no harm.
+            }
+        }
+        writeMetrics();
+        return data;
+    }
+
+    /**
+     * Checks an image's header against the key it was looked up by, and that it
+     * holds as much data as the header says, leaving the buffer positioned at
+     * the data.
+     */
+    private static boolean isValid(ByteBuffer data, RenderKey key) {
+        if (data.remaining() < HEADER_BYTES || data.getInt() != MAGIC || data.getInt() != VERSION
+                || !key.equals(new RenderKey(readDigests(data)))) {
+            return false;
+        }
+        long width = data.getInt();
+        long height = data.getInt();
+        boolean highDynamicRange = data.getInt() != 0;
+        return data.remaining() == width * height * (highDynamicRange ? 3 * Float.BYTES : Integer.BYTES);
+    }
+
+    private static byte[][] readDigests(ByteBuffer data) {
+        byte[][] digests = new byte[RenderKey.PARTS.size()][RenderKey.DIGEST_BYTES];
+        for (byte[] digest : digests) {
+            data.get(digest);
+        }
+        return digests;
+    }
+
+    private static ByteBuffer header(RenderKey key, int width, int height, boolean highDynamicRange,
+            int dataBytes) {
+        ByteBuffer data = ByteBuffer.allocate(HEADER_BYTES + dataBytes).order(ByteOrder.LITTLE_ENDIAN);
+        data.putInt(MAGIC);
+        data.putInt(VERSION);
+        for (int part = 0; part < RenderKey.PARTS.size(); ++part) {
+            data.put(key.digest(part));
+        }
+        data.putInt(width);
+        data.putInt(height);
+        data.putInt(highDynamicRange ? 1 : 0);
+        return data;
+    }
+
+    /**
+     * Moves an image into place, then evicts the least recently used images
+     * until the cache fits its limit. An image bigger than the whole cache is
+     * not stored at all.
+     */
+    private void write(RenderKey key, ByteBuffer data) throws IOException {
+        if (data.capacity() > maxBytes) {
+            return;
+        }
+        Path path = pathFor(key);
+        Path temporary = path.resolveSibling(path.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+        try {
+            Files.write(temporary, data.array());
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+
+        List<Entry> entries = entries();
+        long size = 0;
+        for (Entry entry : entries) {
+            size += entry.size;
+        }
+        for (Entry entry : entries) {
+            if (size <= maxBytes) {
+                break;
+            }
+            if (entry.path.equals(path)) {
+                continue;
+            }
+            if (Files.deleteIfExists(entry.path)) {
+                ++evictions;
+            }
+            size -= entry.size;
+        }
+        writeMetrics();
+    }
+
+    private Path pathFor(RenderKey key) {
+        return directory.resolve(key.getId() + SUFFIX);
+    }
+
+    /** Lists the images in the cache, least recently used first. */
+    private List<Entry> entries() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path path : paths) {
+                try {
+                    entries.add(new Entry(path, Files.size(path), Files.getLastModifiedTime(path).toMillis()));
+                } catch (NoSuchFileException e) {
+                    // Evicted by another process while listing.
+                }
+            }
+        }
+        entries.sort(Comparator.comparingLong((Entry entry) -> entry.lastUsed));
+        return entries;
+    }
+
+    private void writeMetrics() throws IOException {
+        Properties metrics = new Properties();
+        metrics.setProperty("hits", Long.toString(hits));
+        metrics.setProperty("misses", Long.toString(misses));
+        metrics.setProperty("evictions", Long.toString(evictions));
+        Path path = directory.resolve(METRICS_FILE);
+        Path temporary = path.resolveSibling(METRICS_FILE + "." + ProcessHandle.current().pid() + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                metrics.store(out, "Render cache counts");
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static long count(Properties metrics, String name) {
+        try {
+            return Long.parseLong(metrics.getProperty(name, "0"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static final class Entry {
+        final Path path;
+        final long size;
+        final long lastUsed;
+
+        Entry(Path path, long size, long lastUsed) {
+            this.path = path;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
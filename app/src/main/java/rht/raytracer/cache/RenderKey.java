@@ -0,0 +1,223 @@
+package rht.raytracer.cache;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rht.raytracer.Camera;
+import rht.raytracer.Colour;
+import rht.raytracer.Light;
+import rht.raytracer.LightSampling;
+import rht.raytracer.ReflectionLimits;
+import rht.raytracer.Scene;
+import rht.raytracer.Supersampling;
+import rht.raytracer.acceleration.BoundingVolumeHierarchy;
+import rht.raytracer.maths.Matrix4;
+import rht.raytracer.maths.Vec3;
+import rht.raytracer.shapes.Plane;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.shapes.ShapeType;
+import rht.raytracer.shapes.Sphere;
+import rht.raytracer.shapes.Transformed;
+import rht.raytracer.shapes.TriangleMesh;
+
+/**
+ * Identifies everything that decides a rendered image, as a SHA-256 digest of
+ * each of its parts: the shapes' geometry and transformations, their
+ * materials, the lights, the camera, and the render settings. Two renders with
+ * equal keys produce the same image.
+ *
+ * The parts are kept apart so that a changed key can say what changed, such
+ * as only the materials, even though any change means a different image.
+ */
+public final class RenderKey {
+    /** The names of the parts, in the order they are digested. */
+    public static final List<String> PARTS = List.of("geometry", "materials", "lights", "camera", "settings");
+    static final int DIGEST_BYTES = 32;
+
+    // Tags which start each shape's geometry, so that different kinds of shape
+    // with the same numbers digest differently.
+    private static final byte SPHERE = 1;
+    private static final byte PLANE = 2;
+    private static final byte TRANSFORMED = 3;
+    private static final byte MESH = 4;
+
+    /** One digest per part, in the order of {@link #PARTS}. */
+    private final byte[][] digests;
+
+    RenderKey(byte[][] digests) {
+        this.digests = digests;
+    }
+
+    /**
+     * Works out the key for rendering a scene. The scene's reflection limits,
+     * light sampling and precision are part of the settings. Objects are
+     * digested in the order the scene holds them, which is the same whether it
+     * was built from a scene file or read back from a snapshot of it.
+     *
+     * @param supersampling    How the image is anti-aliased, or null for one
+     *                         ray through each pixel.
+     * @param highDynamicRange Whether the image is rendered without clamping.
+     * @throws IllegalArgumentException if the scene holds a kind of shape whose
+     *                                  geometry can't be digested.
+     */
+    public static RenderKey of(Scene scene, Camera camera, int width, int height, Supersampling supersampling,
+            boolean highDynamicRange) {
+        MessageDigest geometry = sha256();
+        MessageDigest materials = sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(16 * Double.BYTES);
+        for (Shape shape : scene.getUnboundedObjects()) {
+            digestShape(geometry, materials, buffer, shape);
+        }
+        BoundingVolumeHierarchy hierarchy = scene.getHierarchy();
+        for (int i = 0; i < hierarchy.size(); ++i) {
+            digestShape(geometry, materials, buffer, hierarchy.getShape(i));
+        }
+
+        MessageDigest lights = sha256();
+        for (Light light : scene.getLights()) {
+            buffer.clear();
+            putVec3(buffer, light.getPosition());
+            putColour(buffer, light.getColour());
+            update(lights, buffer);
+        }
+
+        MessageDigest view = sha256();
+        buffer.clear();
+        putVec3(buffer, camera.getFocalPoint());
+        putVec3(buffer, camera.getFrameCentre());
+        putVec3(buffer, camera.getXDirection());
+        putVec3(buffer, camera.getYDirection());
+        update(view, buffer);
+
+        MessageDigest settings = sha256();
+        ReflectionLimits limits = scene.getReflectionLimits();
+        buffer.clear();
+        buffer.putInt(width).putInt(height);
+        buffer.put((byte) (highDynamicRange ? 1 : 0)).put((byte) (scene.isSinglePrecision() ? 1 : 0));
+        buffer.putInt(limits.maxDepth).putDouble(limits.cutoff).putDouble(limits.rouletteThroughput);
+        LightSampling lightSampling = scene.getLightSampling();
+        buffer.putDouble(lightSampling.cutoff).putInt(lightSampling.samples);
+        if (supersampling != null) {
+            buffer.putInt(supersampling.initialSamples).putInt(supersampling.maxSamples)
+                    .putDouble(supersampling.threshold);
+        }
+        update(settings, buffer);
+
+        return new RenderKey(new byte[][] { geometry.digest(), materials.digest(), lights.digest(), view.digest(),
+                settings.digest() });
+    }
+
+    /** The key as a hexadecimal digest of all its parts, usable as a file name. */
+    public String getId() {
+        MessageDigest all = sha256();
+        for (byte[] digest : digests) {
+            all.update(digest);
+        }
+        StringBuilder id = new StringBuilder();
+        for (byte b : all.digest()) {
+            id.append(Character.forDigit(b >> 4 & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return id.toString();
+    }
+
+    /** Returns the names of the parts which differ from another key's. */
+    public List<String> changesFrom(RenderKey other) {
+        List<String> changes = new ArrayList<>();
+        for (int part = 0; part < digests.length; ++part) {
+            if (!Arrays.equals(digests[part], other.digests[part])) {
+                changes.add(PARTS.get(part));
+            }
+        }
+        return changes;
+    }
+
+    byte[] digest(int part) {
+        return digests[part];
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof RenderKey && Arrays.deepEquals(digests, ((RenderKey) other).digests);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.deepHashCode(digests);
+    }
+
+    @Override
+    public String toString() {
+        return getId();
+    }
+
+    private static void digestShape(MessageDigest geometry, MessageDigest materials, ByteBuffer buffer,
+            Shape shape) {
+        digestGeometry(geometry, buffer, shape.getShapeType());
+        buffer.clear();
+        putColour(buffer, shape.getColour());
+        putColour(buffer, shape.getReflectionColour());
+        update(materials, buffer);
+    }
+
+    private static void digestGeometry(MessageDigest geometry, ByteBuffer buffer, ShapeType shapeType) {
+        buffer.clear();
+        if (shapeType.getClass() == Sphere.class) {
+            Sphere sphere = (Sphere) shapeType;
+            buffer.put(SPHERE);
+            putVec3(buffer, sphere.getCentre());
+            buffer.putDouble(sphere.getRadius());
+            update(geometry, buffer);
+        } else if (shapeType.getClass() == Plane.class) {
+            Plane plane = (Plane) shapeType;
+            buffer.put(PLANE);
+            putVec3(buffer, plane.getCentre());
+            putVec3(buffer, plane.getNormal());
+            update(geometry, buffer);
+        } else if (shapeType.getClass() == Transformed.class) {
+            Transformed transformed = (Transformed) shapeType;
+            Matrix4 m = transformed.getTransformation();
+            buffer.put(TRANSFORMED);
+            buffer.putDouble(m.m00).putDouble(m.m01).putDouble(m.m02).putDouble(m.m03);
+            buffer.putDouble(m.m10).putDouble(m.m11).putDouble(m.m12).putDouble(m.m13);
+            update(geometry, buffer);
+            buffer.clear();
+            buffer.putDouble(m.m20).putDouble(m.m21).putDouble(m.m22).putDouble(m.m23);
+            buffer.putDouble(m.m30).putDouble(m.m31).putDouble(m.m32).putDouble(m.m33);
+            update(geometry, buffer);
+            digestGeometry(geometry, buffer, transformed.getShape());
+        } else if (shapeType.getClass() == TriangleMesh.class) {
+            buffer.put(MESH);
+            update(geometry, buffer);
+            ((TriangleMesh) shapeType).digest(geometry);
+        } else {
+            throw new IllegalArgumentException(
+                    shapeType.getClass().getSimpleName() + " shapes can't be identified for caching.");
+        }
+    }
+
+    private static void putVec3(ByteBuffer buffer, Vec3 v) {
+        buffer.putDouble(v.x).putDouble(v.y).putDouble(v.z);
+    }
+
+    private static void putColour(ByteBuffer buffer, Colour colour) {
+        buffer.putDouble(colour.r).putDouble(colour.g).putDouble(colour.b);
+    }
+
+    private static void update(MessageDigest digest, ByteBuffer buffer) {
+        buffer.flip();
+        digest.update(buffer);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package rht.raytracer.distributed;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The messages passed between a coordinator and its workers, each over a
+ * single socket.
+ *
+ * A worker connects and sends {@link #MAGIC}, {@link #VERSION} and the number
+ * of tiles it renders at once. The coordinator answers with the same magic
+ * number and version and the {@link RenderJob}. After that the coordinator
+ * sends tiles, each as its index, bounds and whether to render it without
+ * clamping, and the worker sends back each tile's index, the number of rays it
+ * traced and its pixels, in whatever order they finish. Either side ends the
+ * exchange by sending a negative index: the coordinator when the frame is
+ * done, and the worker, followed by a message, if it can't render the job.
+ */
+final class Protocol {
+    static final int MAGIC = 0x52545244; // "RTRD"
+    static final int VERSION = 4;
+    /** Sent in place of a tile index by the coordinator when the frame is done. */
+    static final int FINISHED = -1;
+    /** Sent in place of a tile index by a worker which can't render the job. */
+    static final int FAILED = -2;
+
+    private Protocol() {
+    }
+
+    /**
+     * Writes the magic number and version, which begin each side's first message.
+     */
+    static void writeHeader(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /**
+     * Reads the magic number and version, failing if they aren't this
+     * program's.
+     */
+    static void readHeader(DataInput in) throws IOException {
+        int magic = in.readInt();
+        if (magic != MAGIC) {
+            throw new IOException("Not a ray tracer peer (magic number " + Integer.toHexString(magic) + ")");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported protocol version " + version);
+        }
+    }
+}
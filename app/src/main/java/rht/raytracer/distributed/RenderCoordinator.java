@@ -0,0 +1,361 @@
+package rht.raytracer.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import rht.raytracer.RayTracer;
+import rht.raytracer.Tile;
+import rht.raytracer.TileRenderer;
+
+/**
+ * Renders a frame by splitting it into tiles and farming them out to
+ * {@link RenderWorker}s in other processes, which connect to it over TCP.
+ *
+ * Each worker is sent the {@link RenderJob} once when it connects, and then
+ * kept supplied with twice as many tiles as it renders at once, so that it has
+ * the next tile to hand whenever it finishes one. Workers may join at any
+ * point during the render, and may leave: a worker's unfinished tiles are
+ * given to the others, and tiles which a worker is slow to finish are
+ * duplicated on an idle one, as {@link TileScheduler} describes.
+ *
+ * Every tile is rendered exactly as {@link TileRenderer} would render it, so
+ * the image is the same however many workers there are.
+ */
+public final class RenderCoordinator implements Closeable {
+    /** The least time a tile must be out before a backup copy is made. */
+    private static final long MINIMUM_SLOW_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private final RenderJob job;
+    private final long minimumSlowNanos;
+    private final ServerSocket server;
+    private final List<Process> localWorkers = new ArrayList<>();
+    private final List<Socket> connections = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger liveWorkers = new AtomicInteger();
+    private final AtomicInteger workersConnected = new AtomicInteger();
+    private final AtomicInteger workersLost = new AtomicInteger();
+    private final LongAdder samplesTraced = new LongAdder();
+
+    private List<Tile> tiles;
+    private TileScheduler scheduler;
+    private boolean highDynamicRange;
+    private int[] pixels;
+    private float[] radiance;
+
+    /**
+     * Starts listening for workers on the given port, or on any free port if it
+     * is 0. Workers can connect as soon as this returns, but are given no tiles
+     * until a render starts.
+     */
+    public RenderCoordinator(RenderJob job, int port) throws IOException {
+        this(job, port, MINIMUM_SLOW_NANOS);
+    }
+
+    RenderCoordinator(RenderJob job, int port, long minimumSlowNanos) throws IOException {
+        this.job = job;
+        this.minimumSlowNanos = minimumSlowNanos;
+        this.server = new ServerSocket(port);
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Starts worker processes on this machine, running the same Java and class
+     * path as this one, which connect to this coordinator. They exit once the
+     * frame is done, and are killed by {@link #close()} if they haven't.
+     *
+     * @param threads The number of tiles each worker renders at once.
+     */
+    public void startLocalWorkers(int count, int threads) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        String address = InetAddress.getLoopbackAddress().getHostAddress() + ":" + getPort();
+        for (int i = 0; i < count; ++i) {
+            ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    RayTracer.class.getName(), "--worker", address, "--threads", Integer.toString(threads));
+            builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+            builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            localWorkers.add(builder.start());
+        }
+    }
+
+    /**
+     * Renders the frame into a new row-major array of RGB pixels, waiting for as
+     * long as it takes workers to connect and render it.
+     *
+     * @throws IOException if a worker can't render the job, or every worker this
+     *                     coordinator started has exited before the frame was
+     *                     done.
+     */
+    public int[] render() throws IOException {
+        pixels = new int[job.width * job.height];
+        run(false);
+        return pixels;
+    }
+
+    /**
+     * Renders the frame without clamping, into a new row-major array of red,
+     * green and blue values, three per pixel. Fails as {@link #render()} does.
+     */
+    public float[] renderHighDynamicRange() throws IOException {
+        radiance = new float[job.width * job.height * 3];
+        run(true);
+        return radiance;
+    }
+
+    /** The number of primary rays the workers traced for the frame. */
+    public long getSamplesTraced() {
+        return samplesTraced.sum();
+    }
+
+    /** The number of workers which have connected. */
+    public int getWorkersConnected() {
+        return workersConnected.get();
+    }
+
+    /**
+     * The number of workers whose connection failed while the frame still
+     * needed them. Workers which leave once it is done aren't counted.
+     */
+    public int getWorkersLost() {
+        return workersLost.get();
+    }
+
+    /**
+     * The number of tiles handed out again, because a worker left without
+     * finishing them or was slow to.
+     */
+    public int getTilesReissued() {
+        return scheduler == null ? 0 : scheduler.getReissued();
+    }
+
+    private void run(boolean highDynamicRange) throws IOException {
+        if (scheduler != null) {
+            throw new IllegalStateException("A coordinator renders only one frame.");
+        }
+        this.highDynamicRange = highDynamicRange;
+        tiles = TileRenderer.tiles(job.width, job.height, TileRenderer.DEFAULT_TILE_SIZE);
+        scheduler = new TileScheduler(tiles.size(), minimumSlowNanos);
+
+        Thread acceptor = new Thread(this::acceptWorkers, "Render coordinator");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        try {
+            while (!scheduler.awaitDone(1000)) {
+                if (!localWorkers.isEmpty() && liveWorkers.get() == 0 && localWorkersExited()) {
+                    throw new IOException("Every worker exited before the frame was finished.");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for workers.", e);
+        }
+    }
+
+    private boolean localWorkersExited() {
+        for (Process process : localWorkers) {
+            if (process.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void acceptWorkers() {
+        while (true) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                // Closed once the render is over.
+                return;
+            }
+            connections.add(socket);
+            liveWorkers.incrementAndGet();
+            Thread thread = new Thread(() -> serve(socket),
+                    "Render coordinator for " + socket.getRemoteSocketAddress());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Talks to one worker: sends it the job and then tiles, while another thread
+     * reads back its results, until the frame is done or the worker goes.
+     */
+    private void serve(Socket socket) {
+        Collection<Integer> held = Collections.synchronizedSet(new HashSet<>());
+        Thread sender = Thread.currentThread();
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            Protocol.readHeader(in);
+            int threads = in.readInt();
+            Protocol.writeHeader(out);
+            job.write(out);
+            out.flush();
+            workersConnected.incrementAndGet();
+
+            Semaphore window = new Semaphore(2 * Math.max(1, threads));
+            Thread reader = new Thread(() -> {
+                try {
+                    readResults(in, held, window);
+                } catch (IOException e) {
+                    dropWorker(socket);
+                } finally {
+                    // Stop the sender too, if it is waiting for a tile or room to send one.
+                    closeQuietly(socket);
+                    sender.interrupt();
+                }
+            }, "Render coordinator reader");
+            reader.setDaemon(true);
+            reader.start();
+
+            while (true) {
+                window.acquire();
+                int index = scheduler.next(held);
+                if (index < 0) {
+                    out.writeInt(Protocol.FINISHED);
+                    out.flush();
+                    return;
+                }
+                held.add(index);
+                Tile tile = tiles.get(index);
+                out.writeInt(index);
+                out.writeInt(tile.x);
+                out.writeInt(tile.y);
+                out.writeInt(tile.width);
+                out.writeInt(tile.height);
+                out.writeBoolean(highDynamicRange);
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            // The reader has stopped.
+        } catch (IOException e) {
+            dropWorker(socket);
+        } finally {
+            List<Integer> abandoned;
+            synchronized (held) {
+                abandoned = new ArrayList<>(held);
+            }
+            scheduler.abandon(abandoned);
+            liveWorkers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Reads finished tiles from a worker until it disconnects, storing each in
+     * the frame if it is the first copy of that tile to finish.
+     */
+    private void readResults(DataInputStream in, Collection<Integer> held, Semaphore window) throws IOException {
+        while (true) {
+            int index = in.readInt();
+            if (index == Protocol.FAILED) {
+                IOException failure = new IOException("A worker could not render the job: " + in.readUTF());
+                scheduler.fail(failure);
+                throw failure;
+            }
+            if (index < 0 || index >= tiles.size()) {
+                throw new IOException("Result for unknown tile " + index);
+            }
+            long samples = in.readLong();
+            Tile tile = tiles.get(index);
+            Runnable store;
+            if (highDynamicRange) {
+                float[] values = new float[tile.width * tile.height * 3];
+                for (int i = 0; i < values.length; ++i) {
+                    values[i] = in.readFloat();
+                }
+                store = () -> {
+                    for (int y = 0; y < tile.height; ++y) {
+                        System.arraycopy(values, y * tile.width * 3, radiance,
+                                ((tile.y + y) * job.width + tile.x) * 3, tile.width * 3);
+                    }
+                };
+            } else {
+                int[] values = new int[tile.width * tile.height];
+                for (int i = 0; i < values.length; ++i) {
+                    values[i] = in.readInt();
+                }
+                store = () -> {
+                    for (int y = 0; y < tile.height; ++y) {
+                        System.arraycopy(values, y * tile.width, pixels, (tile.y + y) * job.width + tile.x,
+                                tile.width);
+                    }
+                };
+            }
+            held.remove(index);
+            // Counted while storing, so the count is complete once the frame is.
+            scheduler.complete(index, () -> {
+                store.run();
+                samplesTraced.add(samples);
+            });
+            window.release();
+        }
+    }
+
+    /**
+     * Closes a worker's connection once it has failed, counting the worker as
+     * lost if the frame still needed it. Once the frame is over, workers are
+     * expected to go. The reader and sender may both see the same failure, so
+     * only the first to close the connection counts it.
+     */
+    private void dropWorker(Socket socket) {
+        synchronized (socket) {
+            if (!socket.isClosed() && !scheduler.isFinished()) {
+                workersLost.incrementAndGet();
+            }
+            closeQuietly(socket);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing more can go wrong with it.
+        }
+    }
+
+    /**
+     * Stops listening, disconnects every worker, and waits briefly for the
+     * workers this coordinator started to exit before killing them.
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+        synchronized (connections) {
+            for (Socket socket : connections) {
+                closeQuietly(socket);
+            }
+        }
+        for (Process process : localWorkers) {
+            try {
+                if (!process.waitFor(2, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package rht.raytracer.distributed;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import rht.raytracer.Camera;
+import rht.raytracer.LightSampling;
+import rht.raytracer.RayTracer;
+import rht.raytracer.ReflectionLimits;
+import rht.raytracer.Scene;
+import rht.raytracer.Supersampling;
+import rht.raytracer.TileRenderer;
+import rht.raytracer.acceleration.AcceleratorType;
+import rht.raytracer.maths.Vec3;
+import rht.raytracer.scenefile.BinarySceneParser;
+import rht.raytracer.scenefile.BinarySceneWriter;
+import rht.raytracer.scenefile.SceneBuilder;
+import rht.raytracer.scenefile.SceneFiles;
+
+/**
+ * Everything a worker needs to render tiles of a frame: the scene, the camera,
+ * the image size and the render settings. It is sent to each worker once,
+ * before any tiles.
+ *
+ * The scene travels in the binary scene format rather than as a built scene,
+ * since it is much smaller and every worker builds its own hierarchy anyway.
+ * Meshes are referred to by path, relative to the scene file's directory, so
+ * workers must be able to read them at the same paths as the coordinator.
+ */
+public final class RenderJob {
+    /** The scene in the binary scene format, or null for the built-in scene. */
+    private final byte[] scene;
+    /** The directory mesh paths in the scene are relative to, or null. */
+    private final String baseDirectory;
+    public final Camera camera;
+    public final int width;
+    public final int height;
+    /** How to anti-alias the image, or null to trace a single ray through each pixel. */
+    public final Supersampling supersampling;
+    public final ReflectionLimits reflectionLimits;
+    public final LightSampling lightSampling;
+    /** Whether the scene's spheres are stored in single precision. */
+    public final boolean singlePrecision;
+    /** The kind of accelerator to search the scene with. */
+    public final AcceleratorType accelerator;
+
+    private RenderJob(byte[] scene, String baseDirectory, Camera camera, int width, int height,
+            Supersampling supersampling, ReflectionLimits reflectionLimits, LightSampling lightSampling,
+            boolean singlePrecision, AcceleratorType accelerator) {
+        this.scene = scene;
+        this.baseDirectory = baseDirectory;
+        this.camera = camera;
+        this.width = width;
+        this.height = height;
+        this.supersampling = supersampling;
+        this.reflectionLimits = reflectionLimits;
+        this.lightSampling = lightSampling;
+        this.singlePrecision = singlePrecision;
+        this.accelerator = accelerator;
+    }
+
+    /**
+     * Creates a job for rendering a scene file, which is read now and converted to
+     * the binary format if it isn't already.
+     *
+     * @param sceneFile The scene file, or null for the built-in scene.
+     */
+    public static RenderJob create(Path sceneFile, Camera camera, int width, int height,
+            Supersampling supersampling, ReflectionLimits reflectionLimits, LightSampling lightSampling,
+            boolean singlePrecision, AcceleratorType accelerator) throws IOException {
+        if (sceneFile == null) {
+            return new RenderJob(null, null, camera, width, height, supersampling, reflectionLimits, lightSampling,
+                    singlePrecision, accelerator);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinarySceneWriter writer = new BinarySceneWriter(bytes)) {
+            SceneFiles.read(sceneFile, writer);
+        }
+        return new RenderJob(bytes.toByteArray(), sceneFile.toAbsolutePath().getParent().toString(), camera,
+                width, height, supersampling, reflectionLimits, lightSampling, singlePrecision, accelerator);
+    }
+
+    /**
+     * Builds the job's scene, with its reflection limits, light sampling,
+     * precision and accelerator set.
+     */
+    public Scene buildScene() throws IOException {
+        Scene built;
+        if (scene == null) {
+            built = RayTracer.defaultScene();
+        } else {
+            SceneBuilder builder = new SceneBuilder(Paths.get(baseDirectory));
+            new BinarySceneParser(new ByteArrayInputStream(scene), builder).parse();
+            built = builder.getScene();
+        }
+        built.setReflectionLimits(reflectionLimits);
+        built.setLightSampling(lightSampling);
+        built.setSinglePrecision(singlePrecision);
+        if (accelerator == AcceleratorType.AUTO) {
+            built.chooseAccelerator(camera, width, height);
+        } else {
+            built.setAccelerator(accelerator);
+        }
+        return built;
+    }
+
+    /**
+     * Builds the job's scene and a renderer for it, which renders tiles on the
+     * calling thread.
+     */
+    public TileRenderer createRenderer() throws IOException {
+        return new TileRenderer(buildScene(), camera, width, height, 1, TileRenderer.DEFAULT_TILE_SIZE,
+                supersampling);
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeBoolean(scene != null);
+        if (scene != null) {
+            out.writeUTF(baseDirectory);
+            out.writeInt(scene.length);
+            out.write(scene);
+        }
+        writeVec3(out, camera.getFocalPoint());
+        writeVec3(out, camera.getFrameCentre());
+        writeVec3(out, camera.getXDirection());
+        writeVec3(out, camera.getYDirection());
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeBoolean(supersampling != null);
+        if (supersampling != null) {
+            out.writeInt(supersampling.initialSamples);
+            out.writeInt(supersampling.maxSamples);
+            out.writeDouble(supersampling.threshold);
+        }
+        out.writeInt(reflectionLimits.maxDepth);
+        out.writeDouble(reflectionLimits.cutoff);
+        out.writeDouble(reflectionLimits.rouletteThroughput);
+        out.writeDouble(lightSampling.cutoff);
+        out.writeInt(lightSampling.samples);
+        out.writeBoolean(singlePrecision);
+        out.writeUTF(accelerator.name());
+    }
+
+    /**
+     * Reads a job written by {@link #write}.
+     *
+     * @throws IllegalArgumentException if any of its settings are out of range.
+     */
+    static RenderJob read(DataInput in) throws IOException {
+        byte[] scene = null;
+        String baseDirectory = null;
+        if (in.readBoolean()) {
+            baseDirectory = in.readUTF();
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("Negative scene length: " + length);
+            }
+            scene = new byte[length];
+            in.readFully(scene);
+        }
+        Camera camera = new Camera(readVec3(in), readVec3(in), readVec3(in), readVec3(in));
+        int width = in.readInt();
+        int height = in.readInt();
+        if (width < 1 || height < 1) {
+            throw new IOException("Bad image size: " + width + "x" + height);
+        }
+        Supersampling supersampling = null;
+        if (in.readBoolean()) {
+            supersampling = new Supersampling(in.readInt(), in.readInt(), in.readDouble());
+        }
+        ReflectionLimits reflectionLimits = new ReflectionLimits(in.readInt(), in.readDouble(), in.readDouble());
+        LightSampling lightSampling = new LightSampling(in.readDouble(), in.readInt());
+        return new RenderJob(scene, baseDirectory, camera, width, height, supersampling, reflectionLimits,
+                lightSampling, in.readBoolean(), AcceleratorType.fromName(in.readUTF()));
+    }
+
+    private static void writeVec3(DataOutput out, Vec3 v) throws IOException {
+        out.writeDouble(v.x);
+        out.writeDouble(v.y);
+        out.writeDouble(v.z);
+    }
+
+    private static Vec3 readVec3(DataInput in) throws IOException {
+        return new Vec3(in.readDouble(), in.readDouble(), in.readDouble());
+    }
+}
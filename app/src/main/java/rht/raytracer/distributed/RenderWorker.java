@@ -0,0 +1,144 @@
+package rht.raytracer.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import rht.raytracer.Tile;
+import rht.raytracer.TileRenderer;
+
+/**
+ * Renders tiles for a {@link RenderCoordinator}: connects to it, receives the
+ * job, builds the scene once, and then renders each tile it is sent on a pool
+ * of threads, sending back each one as soon as it is done.
+ */
+public final class RenderWorker {
+    private final TileRenderer renderer;
+    private final Socket socket;
+    private final DataOutputStream out;
+    private int[] pixels;
+    private float[] radiance;
+
+    private RenderWorker(TileRenderer renderer, Socket socket, DataOutputStream out) {
+        this.renderer = renderer;
+        this.socket = socket;
+        this.out = out;
+    }
+
+    /**
+     * Connects to the coordinator at the given address and renders the tiles it
+     * sends, rendering up to `threads` at once, until it says the frame is done
+     * or closes the connection.
+     *
+     * @throws IOException if the connection fails, or the job can't be rendered.
+     */
+    public static void run(String host, int port, int threads) throws IOException {
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            Protocol.writeHeader(out);
+            out.writeInt(threads);
+            out.flush();
+
+            Protocol.readHeader(in);
+            TileRenderer renderer;
+            try {
+                renderer = RenderJob.read(in).createRenderer();
+            } catch (IOException | IllegalArgumentException e) {
+                // Tell the coordinator, so that it doesn't give the job to another worker
+                // which will fail in the same way.
+                out.writeInt(Protocol.FAILED);
+                out.writeUTF(String.valueOf(e.getMessage()));
+                out.flush();
+                // Closing with tiles still unread would reset the connection, and could
+                // lose the message, so wait for the coordinator to close it.
+                socket.shutdownOutput();
+                while (in.read() >= 0) {
+                    // Discard the tiles sent before the coordinator heard.
+                }
+                throw new IOException("Could not load the job: " + e.getMessage(), e);
+            }
+            new RenderWorker(renderer, socket, out).serve(in, threads);
+        }
+    }
+
+    /**
+     * Reads tiles and renders them on the pool until the coordinator says the
+     * frame is done or disconnects. Tiles still being rendered then are
+     * abandoned, since the coordinator no longer wants them.
+     */
+    private void serve(DataInputStream in, int threads) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Render worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            while (true) {
+                int index = in.readInt();
+                if (index < 0) {
+                    return;
+                }
+                Tile tile = new Tile(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+                boolean highDynamicRange = in.readBoolean();
+                // Tiles never overlap, so every thread renders into the same frame.
+                if (highDynamicRange && radiance == null) {
+                    radiance = new float[renderer.getWidth() * renderer.getHeight() * 3];
+                } else if (!highDynamicRange && pixels == null) {
+                    pixels = new int[renderer.getWidth() * renderer.getHeight()];
+                }
+                pool.execute(() -> renderAndSend(index, tile, highDynamicRange));
+            }
+        } catch (EOFException e) {
+            // The coordinator has gone, and with it any need for more tiles.
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void renderAndSend(int index, Tile tile, boolean highDynamicRange) {
+        int width = renderer.getWidth();
+        try {
+            if (highDynamicRange) {
+                long samples = renderer.renderTileHighDynamicRange(tile, radiance);
+                synchronized (out) {
+                    out.writeInt(index);
+                    out.writeLong(samples);
+                    for (int y = tile.y; y < tile.y + tile.height; ++y) {
+                        int offset = (y * width + tile.x) * 3;
+                        for (int i = offset; i < offset + tile.width * 3; ++i) {
+                            out.writeFloat(radiance[i]);
+                        }
+                    }
+                    out.flush();
+                }
+            } else {
+                long samples = renderer.renderTile(tile, pixels);
+                synchronized (out) {
+                    out.writeInt(index);
+                    out.writeLong(samples);
+                    for (int y = tile.y; y < tile.y + tile.height; ++y) {
+                        int offset = y * width + tile.x;
+                        for (int i = offset; i < offset + tile.width; ++i) {
+                            out.writeInt(pixels[i]);
+                        }
+                    }
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // The coordinator has gone. Closing the socket stops the reading thread too.
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package rht.raytracer.distributed;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+
+/**
+ * Keeps track of which tiles of a frame have been rendered, and decides which
+ * tile each worker should render next.
+ *
+ * Tiles are handed out in order. A tile held by a worker which disconnects
+ * goes back to the front of the queue. Once the queue is empty, a worker
+ * asking for more is given a backup copy of a tile which has been out much
+ * longer than tiles usually take, so that one slow or stalled worker can't
+ * hold up the end of the frame. Whichever copy finishes first is used.
+ *
+ * Every method is synchronized, since each worker connection calls it from its
+ * own threads.
+ */
+final class TileScheduler {
+    /** How many times longer than average a tile must take to be given a backup. */
+    private static final int SLOW_FACTOR = 4;
+
+    private final int tileCount;
+    private final long minimumSlowNanos;
+    private final Deque<Integer> pending = new ArrayDeque<>();
+    private final boolean[] done;
+    /** The number of workers currently holding each tile. */
+    private final int[] holders;
+    /** When each tile was last handed out, by {@link System#nanoTime()}. */
+    private final long[] issuedAt;
+    private int remaining;
+    private long completedNanos;
+    private int completedCount;
+    private int reissued;
+    private IOException failure;
+
+    /**
+     * @param minimumSlowNanos The least time a tile must have been out before it
+     *                         can be given a backup, however quick other tiles
+     *                         have been.
+     */
+    TileScheduler(int tileCount, long minimumSlowNanos) {
+        this.tileCount = tileCount;
+        this.minimumSlowNanos = minimumSlowNanos;
+        this.done = new boolean[tileCount];
+        this.holders = new int[tileCount];
+        this.issuedAt = new long[tileCount];
+        this.remaining = tileCount;
+        for (int i = 0; i < tileCount; ++i) {
+            pending.add(i);
+        }
+    }
+
+    /**
+     * Returns the next tile for a worker to render, waiting until there is one.
+     *
+     * @param held The tiles the worker already holds, which it won't be given a
+     *             backup of.
+     * @return the tile's index, or -1 once every tile is done.
+     * @throws IOException if the render has failed.
+     */
+    synchronized int next(Collection<Integer> held) throws IOException, InterruptedException {
+        while (true) {
+            if (failure != null) {
+                throw failure;
+            }
+            if (remaining == 0) {
+                return -1;
+            }
+            while (!pending.isEmpty()) {
+                int tile = pending.poll();
+                if (!done[tile]) {
+                    return issue(tile);
+                }
+            }
+            long now = System.nanoTime();
+            long slowNanos = Math.max(minimumSlowNanos,
+                    completedCount == 0 ? 0 : SLOW_FACTOR * (completedNanos / completedCount));
+            int slowest = -1;
+            for (int tile = 0; tile < tileCount; ++tile) {
+                if (!done[tile] && holders[tile] == 1 && !held.contains(tile) && now - issuedAt[tile] > slowNanos
+                        && (slowest < 0 || issuedAt[tile] < issuedAt[slowest])) {
+                    slowest = tile;
+                }
+            }
+            if (slowest >= 0) {
+                ++reissued;
+                return issue(slowest);
+            }
+            // Wake up in time to notice the next tile becoming slow.
+            wait(Math.max(1, slowNanos / 4_000_000));
+        }
+    }
+
+    private int issue(int tile) {
+        ++holders[tile];
+        issuedAt[tile] = System.nanoTime();
+        return tile;
+    }
+
+    /**
+     * Records that a worker has finished rendering a tile. If this is the first
+     * copy of the tile to finish, `store` is run to keep its pixels before anyone
+     * waiting for the frame is told it is done.
+     *
+     * @return whether this copy was the first, and was stored.
+     */
+    synchronized boolean complete(int tile, Runnable store) {
+        --holders[tile];
+        if (done[tile]) {
+            return false;
+        }
+        store.run();
+        done[tile] = true;
+        --remaining;
+        completedNanos += System.nanoTime() - issuedAt[tile];
+        ++completedCount;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Records that a worker has gone without finishing the given tiles. Those no
+     * other worker holds are rendered next.
+     */
+    synchronized void abandon(Collection<Integer> tiles) {
+        for (int tile : tiles) {
+            --holders[tile];
+            if (!done[tile] && holders[tile] == 0) {
+                pending.addFirst(tile);
+                ++reissued;
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Fails the render, so that every call waiting for tiles or for the frame to
+     * finish throws the given exception.
+     */
+    synchronized void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Waits until every tile is done, or at most the given time.
+     *
+     * @return whether every tile is done.
+     * @throws IOException if the render has failed.
+     */
+    synchronized boolean awaitDone(long millis) throws IOException, InterruptedException {
+        long end = System.currentTimeMillis() + millis;
+        while (remaining > 0 && failure == null) {
+            long left = end - System.currentTimeMillis();
+            if (left <= 0) {
+                return false;
+            }
+            wait(left);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return true;
+    }
+
+    /** Whether every tile is done, or the render has failed. */
+    synchronized boolean isFinished() {
+        return remaining == 0 || failure != null;
+    }
+
+    /**
+     * The number of tiles handed out again, because a worker left without
+     * finishing them or was slow to.
+     */
+    synchronized int getReissued() {
+        return reissued;
+    }
+}
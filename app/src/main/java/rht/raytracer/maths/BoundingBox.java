@@ -0,0 +1,79 @@
+package rht.raytracer.maths;
+
+/**
+ * An axis-aligned box, described by its minimum and maximum corners.
+ */
+public class BoundingBox {
+    public final Vec3 min;
+    public final Vec3 max;
+
+    public BoundingBox(Vec3 min, Vec3 max) {
+        this.min = min;
+        this.max = max;
+    }
+
+    public boolean equals(Object other) {
+        if (other instanceof BoundingBox) {
+            BoundingBox otherBox = (BoundingBox) other;
+            return min.equals(otherBox.min) && max.equals(otherBox.max);
+        } else {
+            return false;
+        }
+    }
+
+    public int hashCode() {
+        int hash = 0;
+        for (double value : new double[] { min.x, min.y, min.z, max.x, max.y, max.z }) {
+            // Adding zero turns -0.0 into 0.0, which equals compares as the same.
+            hash = hash * 31 + Double.hashCode(value + 0.0);
+        }
+        return hash;
+    }
+
+    public String toString() {
+        return "[" + min + ", " + max + "]";
+    }
+
+    /** Returns the smallest box containing both this box and the other one. */
+    public BoundingBox union(BoundingBox other) {
+        return new BoundingBox(
+                new Vec3(Math.min(min.x, other.min.x), Math.min(min.y, other.min.y), Math.min(min.z, other.min.z)),
+                new Vec3(Math.max(max.x, other.max.x), Math.max(max.y, other.max.y), Math.max(max.z, other.max.z)));
+    }
+
+    public Vec3 centre() {
+        return new Vec3((min.x + max.x) * 0.5, (min.y + max.y) * 0.5, (min.z + max.z) * 0.5);
+    }
+
+    public double surfaceArea() {
+        double dx = max.x - min.x;
+        double dy = max.y - min.y;
+        double dz = max.z - min.z;
+        return 2.0 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    /**
+     * Returns the smallest axis-aligned box containing this box after it has been
+     * transformed by the given affine transformation.
+     */
+    public BoundingBox transform(Matrix transformation) {
+        return transform(Matrix4.from(transformation));
+    }
+
+    /**
+     * Returns the smallest axis-aligned box containing this box after it has been
+     * transformed by the given affine transformation.
+     */
+    public BoundingBox transform(Matrix4 transformation) {
+        BoundingBox result = null;
+        for (int corner = 0; corner < 8; ++corner) {
+            Vec3 point = transformation.times(new Vec3(
+                    (corner & 1) == 0 ? min.x : max.x,
+                    (corner & 2) == 0 ? min.y : max.y,
+                    (corner & 4) == 0 ? min.z : max.z));
+            BoundingBox pointBox = new BoundingBox(point, point);
+            result = result == null ? pointBox : result.union(pointBox);
+        }
+        return result;
+    }
+}
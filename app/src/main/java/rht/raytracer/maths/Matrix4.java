@@ -0,0 +1,235 @@
+package rht.raytracer.maths;
+
+import java.util.Arrays;
+
+/**
+ * An immutable 4x4 matrix held in sixteen fields, for transforming points and
+ * vectors on the hot path.
+ *
+ * Unlike {@link Matrix}, there are no arrays to index or dimensions to check,
+ * and every operation is written out in full. Matrices whose bottom row is
+ * (0, 0, 0, 1) are affine, and points are multiplied by the top three rows only.
+ */
+public final class Matrix4 {
+    public static final Matrix4 IDENTITY = new Matrix4(
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0,
+            0, 0, 0, 1);
+
+    public final double m00, m01, m02, m03;
+    public final double m10, m11, m12, m13;
+    public final double m20, m21, m22, m23;
+    public final double m30, m31, m32, m33;
+
+    public Matrix4(
+            double m00, double m01, double m02, double m03,
+            double m10, double m11, double m12, double m13,
+            double m20, double m21, double m22, double m23,
+            double m30, double m31, double m32, double m33) {
+        this.m00 = m00;
+        this.m01 = m01;
+        this.m02 = m02;
+        this.m03 = m03;
+        this.m10 = m10;
+        this.m11 = m11;
+        this.m12 = m12;
+        this.m13 = m13;
+        this.m20 = m20;
+        this.m21 = m21;
+        this.m22 = m22;
+        this.m23 = m23;
+        this.m30 = m30;
+        this.m31 = m31;
+        this.m32 = m32;
+        this.m33 = m33;
+    }
+
+    /**
+     * Copies a general matrix, which must be 4x4.
+     */
+    public static Matrix4 from(Matrix matrix) {
+        double[][] v = matrix.values;
+        if (v.length != 4 || v[0].length != 4) {
+            throw new IllegalArgumentException("Only 4x4 matrices can be converted to Matrix4.");
+        }
+        return new Matrix4(
+                v[0][0], v[0][1], v[0][2], v[0][3],
+                v[1][0], v[1][1], v[1][2], v[1][3],
+                v[2][0], v[2][1], v[2][2], v[2][3],
+                v[3][0], v[3][1], v[3][2], v[3][3]);
+    }
+
+    public Matrix toMatrix() {
+        return new Matrix(new double[][] {
+                new double[] { m00, m01, m02, m03 },
+                new double[] { m10, m11, m12, m13 },
+                new double[] { m20, m21, m22, m23 },
+                new double[] { m30, m31, m32, m33 } });
+    }
+
+    public boolean equals(Object other) {
+        if (other instanceof Matrix4) {
+            Matrix4 o = (Matrix4) other;
+            return m00 == o.m00 && m01 == o.m01 && m02 == o.m02 && m03 == o.m03
+                    && m10 == o.m10 && m11 == o.m11 && m12 == o.m12 && m13 == o.m13
+                    && m20 == o.m20 && m21 == o.m21 && m22 == o.m22 && m23 == o.m23
+                    && m30 == o.m30 && m31 == o.m31 && m32 == o.m32 && m33 == o.m33;
+        } else {
+            return false;
+        }
+    }
+
+    public int hashCode() {
+        return Arrays.hashCode(new double[] {
+                m00, m01, m02, m03, m10, m11, m12, m13, m20, m21, m22, m23, m30, m31, m32, m33 });
+    }
+
+    public String toString() {
+        return toMatrix().toString();
+    }
+
+    /** Whether the bottom row is (0, 0, 0, 1). */
+    public boolean isAffine() {
+        return m30 == 0 && m31 == 0 && m32 == 0 && m33 == 1;
+    }
+
+    public Matrix4 times(Matrix4 o) {
+        return new Matrix4(
+                m00 * o.m00 + m01 * o.m10 + m02 * o.m20 + m03 * o.m30,
+                m00 * o.m01 + m01 * o.m11 + m02 * o.m21 + m03 * o.m31,
+                m00 * o.m02 + m01 * o.m12 + m02 * o.m22 + m03 * o.m32,
+                m00 * o.m03 + m01 * o.m13 + m02 * o.m23 + m03 * o.m33,
+                m10 * o.m00 + m11 * o.m10 + m12 * o.m20 + m13 * o.m30,
+                m10 * o.m01 + m11 * o.m11 + m12 * o.m21 + m13 * o.m31,
+                m10 * o.m02 + m11 * o.m12 + m12 * o.m22 + m13 * o.m32,
+                m10 * o.m03 + m11 * o.m13 + m12 * o.m23 + m13 * o.m33,
+                m20 * o.m00 + m21 * o.m10 + m22 * o.m20 + m23 * o.m30,
+                m20 * o.m01 + m21 * o.m11 + m22 * o.m21 + m23 * o.m31,
+                m20 * o.m02 + m21 * o.m12 + m22 * o.m22 + m23 * o.m32,
+                m20 * o.m03 + m21 * o.m13 + m22 * o.m23 + m23 * o.m33,
+                m30 * o.m00 + m31 * o.m10 + m32 * o.m20 + m33 * o.m30,
+                m30 * o.m01 + m31 * o.m11 + m32 * o.m21 + m33 * o.m31,
+                m30 * o.m02 + m31 * o.m12 + m32 * o.m22 + m33 * o.m32,
+                m30 * o.m03 + m31 * o.m13 + m32 * o.m23 + m33 * o.m33);
+    }
+
+    /**
+     * Transforms a point by the affine part of this matrix, ignoring the bottom
+     * row.
+     */
+    public Vec3 times(Vec3 point) {
+        return new Vec3(
+                m00 * point.x + m01 * point.y + m02 * point.z + m03,
+                m10 * point.x + m11 * point.y + m12 * point.z + m13,
+                m20 * point.x + m21 * point.y + m22 * point.z + m23);
+    }
+
+    /**
+     * Multiplies the first 3 rows and columns of this matrix by the given vector,
+     * and returns the result.
+     *
+     * This performs only the linear part of the affine transformation.
+     */
+    public Vec3 linearTimes(Vec3 vector) {
+        return new Vec3(
+                m00 * vector.x + m01 * vector.y + m02 * vector.z,
+                m10 * vector.x + m11 * vector.y + m12 * vector.z,
+                m20 * vector.x + m21 * vector.y + m22 * vector.z);
+    }
+
+    public Matrix4 transpose() {
+        return new Matrix4(
+                m00, m10, m20, m30,
+                m01, m11, m21, m31,
+                m02, m12, m22, m32,
+                m03, m13, m23, m33);
+    }
+
+    /**
+     * Returns the inverse of this matrix, using the cheaper affine inverse when the
+     * bottom row is (0, 0, 0, 1).
+     *
+     * @throws IllegalArgumentException if the matrix is singular.
+     */
+    public Matrix4 inverse() {
+        return isAffine() ? affineInverse() : generalInverse();
+    }
+
+    /**
+     * Inverts the top-left 3x3 block by cofactors and applies it to the negated
+     * translation, assuming the bottom row is (0, 0, 0, 1).
+     */
+    private Matrix4 affineInverse() {
+        double c00 = m11 * m22 - m12 * m21;
+        double c01 = m12 * m20 - m10 * m22;
+        double c02 = m10 * m21 - m11 * m20;
+        double determinant = m00 * c00 + m01 * c01 + m02 * c02;
+        checkInvertible(determinant);
+        double inverseDeterminant = 1.0 / determinant;
+
+        double i00 = c00 * inverseDeterminant;
+        double i01 = (m02 * m21 - m01 * m22) * inverseDeterminant;
+        double i02 = (m01 * m12 - m02 * m11) * inverseDeterminant;
+        double i10 = c01 * inverseDeterminant;
+        double i11 = (m00 * m22 - m02 * m20) * inverseDeterminant;
+        double i12 = (m02 * m10 - m00 * m12) * inverseDeterminant;
+        double i20 = c02 * inverseDeterminant;
+        double i21 = (m01 * m20 - m00 * m21) * inverseDeterminant;
+        double i22 = (m00 * m11 - m01 * m10) * inverseDeterminant;
+
+        return new Matrix4(
+                i00, i01, i02, -(i00 * m03 + i01 * m13 + i02 * m23),
+                i10, i11, i12, -(i10 * m03 + i11 * m13 + i12 * m23),
+                i20, i21, i22, -(i20 * m03 + i21 * m13 + i22 * m23),
+                0, 0, 0, 1);
+    }
+
+    /**
+     * Inverts a general 4x4 matrix by the adjugate, built from 2x2 sub-determinants
+     * of the top and bottom pairs of rows.
+     */
+    private Matrix4 generalInverse() {
+        double s0 = m00 * m11 - m10 * m01;
+        double s1 = m00 * m12 - m10 * m02;
+        double s2 = m00 * m13 - m10 * m03;
+        double s3 = m01 * m12 - m11 * m02;
+        double s4 = m01 * m13 - m11 * m03;
+        double s5 = m02 * m13 - m12 * m03;
+
+        double c5 = m22 * m33 - m32 * m23;
+        double c4 = m21 * m33 - m31 * m23;
+        double c3 = m21 * m32 - m31 * m22;
+        double c2 = m20 * m33 - m30 * m23;
+        double c1 = m20 * m32 - m30 * m22;
+        double c0 = m20 * m31 - m30 * m21;
+
+        double determinant = s0 * c5 - s1 * c4 + s2 * c3 + s3 * c2 - s4 * c1 + s5 * c0;
+        checkInvertible(determinant);
+        double d = 1.0 / determinant;
+
+        return new Matrix4(
+                (m11 * c5 - m12 * c4 + m13 * c3) * d,
+                (-m01 * c5 + m02 * c4 - m03 * c3) * d,
+                (m31 * s5 - m32 * s4 + m33 * s3) * d,
+                (-m21 * s5 + m22 * s4 - m23 * s3) * d,
+                (-m10 * c5 + m12 * c2 - m13 * c1) * d,
+                (m00 * c5 - m02 * c2 + m03 * c1) * d,
+                (-m30 * s5 + m32 * s2 - m33 * s1) * d,
+                (m20 * s5 - m22 * s2 + m23 * s1) * d,
+                (m10 * c4 - m11 * c2 + m13 * c0) * d,
+                (-m00 * c4 + m01 * c2 - m03 * c0) * d,
+                (m30 * s4 - m31 * s2 + m33 * s0) * d,
+                (-m20 * s4 + m21 * s2 - m23 * s0) * d,
+                (-m10 * c3 + m11 * c1 - m12 * c0) * d,
+                (m00 * c3 - m01 * c1 + m02 * c0) * d,
+                (-m30 * s3 + m31 * s1 - m32 * s0) * d,
+                (m20 * s3 - m21 * s1 + m22 * s0) * d);
+    }
+
+    private static void checkInvertible(double determinant) {
+        if (determinant == 0.0 || !Double.isFinite(determinant)) {
+            throw new IllegalArgumentException("Matrix is not invertible.");
+        }
+    }
+}
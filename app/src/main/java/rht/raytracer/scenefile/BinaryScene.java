@@ -0,0 +1,35 @@
+package rht.raytracer.scenefile;
+
+/**
+ * Constants for the compact binary scene format.
+ *
+ * A file starts with {@link #MAGIC} and {@link #VERSION}, followed by a stream
+ * of records, each a tag byte and then its values as big-endian doubles, and
+ * ends with {@link #END}. Materials are named once, in their own record, and
+ * shapes refer to them by the order in which they were defined.
+ */
+final class BinaryScene {
+    static final int MAGIC = 0x52545342; // "RTSB"
+    static final int VERSION = 1;
+
+    static final byte END = 0;
+    /** Name (modified UTF-8), colour and reflection colour. */
+    static final byte MATERIAL = 1;
+    /** Centre, radius, and material index (int). */
+    static final byte SPHERE = 2;
+    /** Point, normal, and material index (int). */
+    static final byte PLANE = 3;
+    /** Position and colour. */
+    static final byte LIGHT = 4;
+    /** Focal point, frame centre, x direction and y direction. */
+    static final byte CAMERA = 5;
+    static final byte PUSH = 6;
+    static final byte POP = 7;
+    /** The top three rows of an affine transformation. */
+    static final byte TRANSFORM = 8;
+    /** OBJ file path (modified UTF-8), and material index (int). */
+    static final byte MESH = 9;
+
+    private BinaryScene() {
+    }
+}
@@ -0,0 +1,114 @@
+package rht.raytracer.scenefile;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import rht.raytracer.Colour;
+import rht.raytracer.maths.Matrix4;
+import rht.raytracer.maths.Vec3;
+
+/**
+ * Reads the compact binary scene format written by {@link BinarySceneWriter},
+ * passing each element to a {@link SceneHandler} as soon as it has been read.
+ *
+ * There is no text to split or numbers to parse, so this is several times
+ * faster than {@link TextSceneParser} for large scenes.
+ */
+public class BinarySceneParser {
+    private final DataInputStream in;
+    private final SceneHandler handler;
+    /** Material names in the order they were defined, for shapes to refer to. */
+    private final List<String> materials = new ArrayList<>();
+
+    public BinarySceneParser(InputStream in, SceneHandler handler) {
+        this.in = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in));
+        this.handler = handler;
+    }
+
+    /**
+     * Reads the whole scene, passing each element to the handler.
+     *
+     * @throws IOException if the file can't be read, or is not a valid scene.
+     */
+    public void parse() throws IOException {
+        try {
+            if (in.readInt() != BinaryScene.MAGIC) {
+                throw new IOException("Not a binary scene file.");
+            }
+            int version = in.readInt();
+            if (version != BinaryScene.VERSION) {
+                throw new IOException("Unsupported binary scene version " + version + ".");
+            }
+            byte tag;
+            while ((tag = in.readByte()) != BinaryScene.END) {
+                parseRecord(tag);
+            }
+        } catch (EOFException e) {
+            throw new IOException("Binary scene file is truncated.");
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private void parseRecord(byte tag) throws IOException {
+        switch (tag) {
+            case BinaryScene.MATERIAL: {
+                String name = in.readUTF();
+                handler.material(name, readColour(), readColour());
+                materials.add(name);
+                break;
+            }
+            case BinaryScene.SPHERE:
+                handler.sphere(readVec3(), in.readDouble(), readMaterial());
+                break;
+            case BinaryScene.PLANE:
+                handler.plane(readVec3(), readVec3(), readMaterial());
+                break;
+            case BinaryScene.MESH:
+                handler.mesh(in.readUTF(), readMaterial());
+                break;
+            case BinaryScene.LIGHT:
+                handler.light(readVec3(), readColour());
+                break;
+            case BinaryScene.CAMERA:
+                handler.camera(readVec3(), readVec3(), readVec3(), readVec3());
+                break;
+            case BinaryScene.PUSH:
+                handler.pushTransform();
+                break;
+            case BinaryScene.POP:
+                handler.popTransform();
+                break;
+            case BinaryScene.TRANSFORM:
+                handler.transform(new Matrix4(
+                        in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+                        in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+                        in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+                        0, 0, 0, 1));
+                break;
+            default:
+                throw new IOException("Unknown record type " + tag + " in binary scene file.");
+        }
+    }
+
+    private String readMaterial() throws IOException {
+        int index = in.readInt();
+        if (index < 0 || index >= materials.size()) {
+            throw new IOException("Material index " + index + " is out of range.");
+        }
+        return materials.get(index);
+    }
+
+    private Vec3 readVec3() throws IOException {
+        return new Vec3(in.readDouble(), in.readDouble(), in.readDouble());
+    }
+
+    private Colour readColour() throws IOException {
+        return new Colour(in.readDouble(), in.readDouble(), in.readDouble());
+    }
+}
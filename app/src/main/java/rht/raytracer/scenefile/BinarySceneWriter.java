@@ -0,0 +1,127 @@
+package rht.raytracer.scenefile;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import rht.raytracer.Colour;
+import rht.raytracer.maths.Matrix4;
+import rht.raytracer.maths.Vec3;
+
+/**
+ * Writes the elements it is given in the compact binary scene format, so that
+ * a text scene can be converted by parsing it with this as the handler.
+ */
+public class BinarySceneWriter implements SceneHandler, Closeable {
+    private final DataOutputStream out;
+    private final Map<String, Integer> materialIndices = new HashMap<>();
+
+    public BinarySceneWriter(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.out.writeInt(BinaryScene.MAGIC);
+        this.out.writeInt(BinaryScene.VERSION);
+    }
+
+    @Override
+    public void camera(Vec3 focalPoint, Vec3 frameCentre, Vec3 xDirection, Vec3 yDirection) throws IOException {
+        out.writeByte(BinaryScene.CAMERA);
+        writeVec3(focalPoint);
+        writeVec3(frameCentre);
+        writeVec3(xDirection);
+        writeVec3(yDirection);
+    }
+
+    @Override
+    public void light(Vec3 position, Colour colour) throws IOException {
+        out.writeByte(BinaryScene.LIGHT);
+        writeVec3(position);
+        writeColour(colour);
+    }
+
+    @Override
+    public void material(String name, Colour colour, Colour reflectionColour) throws IOException {
+        out.writeByte(BinaryScene.MATERIAL);
+        out.writeUTF(name);
+        writeColour(colour);
+        writeColour(reflectionColour);
+        materialIndices.put(name, materialIndices.size());
+    }
+
+    @Override
+    public void sphere(Vec3 centre, double radius, String material) throws IOException {
+        out.writeByte(BinaryScene.SPHERE);
+        writeVec3(centre);
+        out.writeDouble(radius);
+        out.writeInt(materialIndex(material));
+    }
+
+    @Override
+    public void plane(Vec3 point, Vec3 normal, String material) throws IOException {
+        out.writeByte(BinaryScene.PLANE);
+        writeVec3(point);
+        writeVec3(normal);
+        out.writeInt(materialIndex(material));
+    }
+
+    @Override
+    public void mesh(String path, String material) throws IOException {
+        out.writeByte(BinaryScene.MESH);
+        out.writeUTF(path);
+        out.writeInt(materialIndex(material));
+    }
+
+    @Override
+    public void pushTransform() throws IOException {
+        out.writeByte(BinaryScene.PUSH);
+    }
+
+    @Override
+    public void popTransform() throws IOException {
+        out.writeByte(BinaryScene.POP);
+    }
+
+    @Override
+    public void transform(Matrix4 t) throws IOException {
+        if (!t.isAffine()) {
+            throw new IllegalArgumentException("Only affine transformations can be stored.");
+        }
+        out.writeByte(BinaryScene.TRANSFORM);
+        double[] values = { t.m00, t.m01, t.m02, t.m03, t.m10, t.m11, t.m12, t.m13, t.m20, t.m21, t.m22, t.m23 };
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    /**
+     * Marks the end of the scene and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        out.writeByte(BinaryScene.END);
+        out.close();
+    }
+
+    private int materialIndex(String material) {
+        Integer index = materialIndices.get(material);
+        if (index == null) {
+            throw new IllegalArgumentException("Unknown material " + material + ".");
+        }
+        return index;
+    }
+
+    private void writeVec3(Vec3 vector) throws IOException {
+        out.writeDouble(vector.x);
+        out.writeDouble(vector.y);
+        out.writeDouble(vector.z);
+    }
+
+    private void writeColour(Colour colour) throws IOException {
+        out.writeDouble(colour.r);
+        out.writeDouble(colour.g);
+        out.writeDouble(colour.b);
+    }
+}
@@ -0,0 +1,29 @@
+package rht.raytracer.scenefile;
+
+import java.io.IOException;
+
+import rht.raytracer.Camera;
+import rht.raytracer.Scene;
+
+/**
+ * A scene and the camera it was saved with, which is null if there was none.
+ */
+public class LoadedScene {
+    public final Scene scene;
+    public final Camera camera;
+    /**
+     * Why the scene's snapshot couldn't be used or written, or null if it was
+     * or there was none to make. The scene was loaded all the same.
+     */
+    public final IOException snapshotFailure;
+
+    public LoadedScene(Scene scene, Camera camera) {
+        this(scene, camera, null);
+    }
+
+    public LoadedScene(Scene scene, Camera camera, IOException snapshotFailure) {
+        this.scene = scene;
+        this.camera = camera;
+        this.snapshotFailure = snapshotFailure;
+    }
+}
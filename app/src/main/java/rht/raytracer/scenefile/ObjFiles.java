@@ -0,0 +1,211 @@
+package rht.raytracer.scenefile;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import rht.raytracer.shapes.TriangleMesh;
+
+/**
+ * Reads triangle meshes from Wavefront OBJ files.
+ *
+ * Only the geometry is read: vertex positions (`v`), vertex normals (`vn`) and
+ * faces (`f`), whose corners may be given as `v`, `v/vt`, `v//vn` or `v/vt/vn`,
+ * with negative indices counting back from the latest vertex. Faces with more
+ * than three corners are split into a fan of triangles. Everything else, such as
+ * texture co-ordinates, groups and materials, is ignored.
+ *
+ * The file's normals are used only if every face gives one for every corner;
+ * otherwise smooth normals are computed from the triangles.
+ */
+public final class ObjFiles {
+    private ObjFiles() {
+    }
+
+    public static TriangleMesh read(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return read(reader);
+        } catch (IOException e) {
+            throw new IOException(path + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads a mesh from OBJ text.
+     *
+     * @throws IOException if the text can't be read, is not valid OBJ, or has no
+     *                     faces.
+     */
+    public static TriangleMesh read(Reader reader) throws IOException {
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        FloatList positions = new FloatList();
+        FloatList fileNormals = new FloatList();
+        // Two ints per triangle corner: the position and normal indices, the normal
+        // being -1 where none was given.
+        IntList corners = new IntList();
+        boolean allCornersHaveNormals = true;
+
+        int lineNumber = 0;
+        String line;
+        int[] face = new int[16];
+        while ((line = lines.readLine()) != null) {
+            ++lineNumber;
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            String[] tokens = line.trim().split("\\s+");
+            try {
+                switch (tokens[0]) {
+                    case "v":
+                        checkCount(tokens, 3);
+                        positions.add(Float.parseFloat(tokens[1]));
+                        positions.add(Float.parseFloat(tokens[2]));
+                        positions.add(Float.parseFloat(tokens[3]));
+                        break;
+                    case "vn":
+                        checkCount(tokens, 3);
+                        fileNormals.add(Float.parseFloat(tokens[1]));
+                        fileNormals.add(Float.parseFloat(tokens[2]));
+                        fileNormals.add(Float.parseFloat(tokens[3]));
+                        break;
+                    case "f": {
+                        int cornerCount = tokens.length - 1;
+                        if (cornerCount < 3) {
+                            throw new IllegalArgumentException("A face needs at least three corners.");
+                        }
+                        if (face.length < cornerCount * 2) {
+                            face = new int[cornerCount * 2];
+                        }
+                        for (int i = 0; i < cornerCount; ++i) {
+                            String[] parts = tokens[i + 1].split("/", -1);
+                            face[i * 2] = resolve(parts[0], positions.size() / 3);
+                            if (parts.length == 3 && !parts[2].isEmpty()) {
+                                face[i * 2 + 1] = resolve(parts[2], fileNormals.size() / 3);
+                            } else {
+                                face[i * 2 + 1] = -1;
+                                allCornersHaveNormals = false;
+                            }
+                        }
+                        for (int i = 1; i + 1 < cornerCount; ++i) {
+                            corners.add(face[0], face[1]);
+                            corners.add(face[i * 2], face[i * 2 + 1]);
+                            corners.add(face[i * 2 + 2], face[i * 2 + 3]);
+                        }
+                        break;
+                    }
+                    default:
+                        break;
+                }
+            } catch (IllegalArgumentException e) {
+                // NumberFormatException is an IllegalArgumentException.
+                throw new IOException("Line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        if (corners.size() == 0) {
+            throw new IOException("No faces found.");
+        }
+
+        int cornerCount = corners.size() / 2;
+        int[] indices = new int[cornerCount];
+        if (!allCornersHaveNormals) {
+            for (int i = 0; i < cornerCount; ++i) {
+                indices[i] = corners.get(i * 2);
+            }
+            return new TriangleMesh(positions.toArray(), null, indices);
+        }
+
+        // The mesh has one normal per vertex, so each distinct pair of position and
+        // normal becomes a vertex of its own.
+        Map<Long, Integer> vertices = new HashMap<>();
+        FloatList meshPositions = new FloatList();
+        FloatList meshNormals = new FloatList();
+        for (int i = 0; i < cornerCount; ++i) {
+            int position = corners.get(i * 2);
+            int normal = corners.get(i * 2 + 1);
+            Integer vertex = vertices.get(((long) position << 32) | normal);
+            if (vertex == null) {
+                vertex = meshPositions.size() / 3;
+                vertices.put(((long) position << 32) | normal, vertex);
+                meshPositions.add(positions.get(position * 3));
+                meshPositions.add(positions.get(position * 3 + 1));
+                meshPositions.add(positions.get(position * 3 + 2));
+                meshNormals.add(fileNormals.get(normal * 3));
+                meshNormals.add(fileNormals.get(normal * 3 + 1));
+                meshNormals.add(fileNormals.get(normal * 3 + 2));
+            }
+            indices[i] = vertex;
+        }
+        return new TriangleMesh(meshPositions.toArray(), meshNormals.toArray(), indices);
+    }
+
+    private static void checkCount(String[] tokens, int count) {
+        if (tokens.length < count + 1) {
+            throw new IllegalArgumentException("Expected " + count + " values for " + tokens[0] + ".");
+        }
+    }
+
+    /**
+     * Converts a one-based or negative OBJ index to a zero-based one.
+     */
+    private static int resolve(String token, int count) {
+        int index = Integer.parseInt(token);
+        int resolved = index > 0 ? index - 1 : count + index;
+        if (index == 0 || resolved < 0 || resolved >= count) {
+            throw new IllegalArgumentException("Index " + index + " is out of range.");
+        }
+        return resolved;
+    }
+
+    /** A growable array of floats, so that vertices aren't boxed as they're read. */
+    private static class FloatList {
+        private float[] values = new float[1024];
+        private int size = 0;
+
+        void add(float value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        float get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        float[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static class IntList {
+        private int[] values = new int[1024];
+        private int size = 0;
+
+        void add(int first, int second) {
+            if (size + 2 > values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = first;
+            values[size++] = second;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package rht.raytracer.scenefile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import rht.raytracer.Camera;
+import rht.raytracer.Colour;
+import rht.raytracer.Light;
+import rht.raytracer.Scene;
+import rht.raytracer.maths.Matrix4;
+import rht.raytracer.maths.Vec3;
+import rht.raytracer.shapes.Plane;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.shapes.ShapeType;
+import rht.raytracer.shapes.Sphere;
+import rht.raytracer.shapes.Transformed;
+import rht.raytracer.shapes.TriangleMesh;
+
+/**
+ * Builds a {@link Scene} and {@link Camera} from the elements of a scene file.
+ *
+ * Shapes share their material's colours rather than copying them, so the
+ * memory used is that of the finished scene. In the same way, each mesh file
+ * is read once, and every instance of it shares the one mesh.
+ */
+public class SceneBuilder implements SceneHandler {
+    /** The directory that mesh paths are relative to. */
+    private final Path baseDirectory;
+    private final Map<Path, TriangleMesh> meshes = new HashMap<>();
+    private final List<Shape> objects = new ArrayList<>();
+    private final List<Light> lights = new ArrayList<>();
+    private final Map<String, Colour[]> materials = new HashMap<>();
+    private final Deque<Matrix4> transformStack = new ArrayDeque<>();
+    private Matrix4 transformation = Matrix4.IDENTITY;
+    private Camera camera;
+
+    /**
+     * Creates a builder which finds mesh files relative to the current
+     * directory.
+     */
+    public SceneBuilder() {
+        this(Paths.get(""));
+    }
+
+    /**
+     * Creates a builder which finds mesh files relative to the given directory,
+     * normally the one holding the scene file.
+     */
+    public SceneBuilder(Path baseDirectory) {
+        this.baseDirectory = baseDirectory;
+    }
+
+    /** The camera given in the file, or null if it didn't give one. */
+    public Camera getCamera() {
+        return camera;
+    }
+
+    public Scene getScene() {
+        return new Scene(objects, lights);
+    }
+
+    /** The shapes read so far, in file order. */
+    public List<Shape> getObjects() {
+        return objects;
+    }
+
+    public List<Light> getLights() {
+        return lights;
+    }
+
+    @Override
+    public void camera(Vec3 focalPoint, Vec3 frameCentre, Vec3 xDirection, Vec3 yDirection) {
+        camera = new Camera(focalPoint, frameCentre, xDirection, yDirection);
+    }
+
+    @Override
+    public void light(Vec3 position, Colour colour) {
+        lights.add(new Light(position, colour));
+    }
+
+    @Override
+    public void material(String name, Colour colour, Colour reflectionColour) {
+        materials.put(name, new Colour[] { colour, reflectionColour });
+    }
+
+    @Override
+    public void sphere(Vec3 centre, double radius, String material) {
+        add(new Sphere(centre, radius), material);
+    }
+
+    @Override
+    public void plane(Vec3 point, Vec3 normal, String material) {
+        add(new Plane(point, normal), material);
+    }
+
+    @Override
+    public void mesh(String path, String material) throws IOException {
+        Path file = baseDirectory.resolve(path).toAbsolutePath().normalize();
+        TriangleMesh mesh = meshes.get(file);
+        if (mesh == null) {
+            mesh = ObjFiles.read(file);
+            meshes.put(file, mesh);
+        }
+        add(mesh, material);
+    }
+
+    @Override
+    public void pushTransform() {
+        transformStack.push(transformation);
+    }
+
+    @Override
+    public void popTransform() {
+        if (transformStack.isEmpty()) {
+            throw new IllegalArgumentException("pop without a matching push.");
+        }
+        transformation = transformStack.pop();
+    }
+
+    @Override
+    public void transform(Matrix4 transformation) {
+        this.transformation = this.transformation.times(transformation);
+    }
+
+    private void add(ShapeType shape, String material) {
+        Colour[] colours = materials.get(material);
+        if (colours == null) {
+            throw new IllegalArgumentException("Unknown material " + material + ".");
+        }
+        if (!transformation.equals(Matrix4.IDENTITY)) {
+            shape = new Transformed(shape, transformation);
+        }
+        objects.add(new Shape(shape, colours[0], colours[1]));
+    }
+}
@@ -0,0 +1,112 @@
+package rht.raytracer.scenefile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import rht.raytracer.Camera;
+import rht.raytracer.Scene;
+
+/**
+ * Loads and converts scene files, choosing the format from the file extension:
+ * `.rtsb` for the compact binary format and anything else for text.
+ */
+public final class SceneFiles {
+    public static final String BINARY_EXTENSION = ".rtsb";
+    /** Appended to a scene file's name to name its snapshot. */
+    public static final String SNAPSHOT_EXTENSION = ".snapshot";
+
+    private SceneFiles() {
+    }
+
+    public static boolean isBinary(Path path) {
+        return path.getFileName().toString().toLowerCase().endsWith(BINARY_EXTENSION);
+    }
+
+    /**
+     * Reads a scene file, building the scene as it goes.
+     *
+     * @return the builder, holding the scene and, if the file gave one, its
+     *         camera.
+     */
+    public static SceneBuilder load(Path path) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        SceneBuilder builder = new SceneBuilder(directory);
+        read(path, builder);
+        return builder;
+    }
+
+    /**
+     * Loads a scene file through a snapshot kept beside it, so that later loads
+     * of an unchanged file map the built scene instead of parsing and building
+     * it again.
+     *
+     * If the snapshot is missing, stale or damaged, the scene file is loaded and
+     * a new snapshot written, unless the scene holds shapes a snapshot can't
+     * save. Failing to read or write one isn't fatal, since the scene itself
+     * has been loaded, and is returned as the loaded scene's
+     * {@link LoadedScene#snapshotFailure}.
+     */
+    public static LoadedScene loadWithSnapshot(Path path) throws IOException {
+        Path snapshot = path.resolveSibling(path.getFileName() + SNAPSHOT_EXTENSION);
+        long size = Files.size(path);
+        long modified = Files.getLastModifiedTime(path).toMillis();
+        IOException failure = null;
+        if (Files.exists(snapshot)) {
+            try {
+                LoadedScene loaded = SceneSnapshot.read(snapshot, size, modified);
+                if (loaded != null) {
+                    return loaded;
+                }
+            } catch (IOException e) {
+                failure = new IOException("Ignoring " + snapshot + ": " + e.getMessage(), e);
+            }
+        }
+
+        SceneBuilder builder = load(path);
+        Scene scene = builder.getScene();
+        Camera camera = builder.getCamera();
+        if (SceneSnapshot.canWrite(scene)) {
+            try {
+                SceneSnapshot.write(snapshot, new LoadedScene(scene, camera), size, modified);
+            } catch (IOException e) {
+                IOException writeFailure = new IOException("Could not write " + snapshot + ": " + e.getMessage(), e);
+                if (failure != null) {
+                    writeFailure.addSuppressed(failure);
+                }
+                failure = writeFailure;
+            }
+        }
+        return new LoadedScene(scene, camera, failure);
+    }
+
+    /**
+     * Reads a scene file of either format, passing each element to the handler.
+     */
+    public static void read(Path path, SceneHandler handler) throws IOException {
+        if (isBinary(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                new BinarySceneParser(in, handler).parse();
+            }
+        } else {
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                new TextSceneParser(reader, handler).parse();
+            }
+        }
+    }
+
+    /**
+     * Converts a scene file of either format to the binary format, one element at
+     * a time.
+     */
+    public static void convertToBinary(Path input, Path output) throws IOException {
+        try (OutputStream out = Files.newOutputStream(output);
+                BinarySceneWriter writer = new BinarySceneWriter(out)) {
+            read(input, writer);
+        }
+    }
+}
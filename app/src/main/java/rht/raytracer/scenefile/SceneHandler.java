@@ -0,0 +1,50 @@
+package rht.raytracer.scenefile;
+
+import java.io.IOException;
+
+import rht.raytracer.Colour;
+import rht.raytracer.maths.Matrix4;
+import rht.raytracer.maths.Vec3;
+
+/**
+ * Receives the elements of a scene file one at a time, in file order, as a
+ * parser reads them. Nothing is held in memory between calls except what the
+ * handler chooses to keep.
+ */
+public interface SceneHandler {
+
+    public void camera(Vec3 focalPoint, Vec3 frameCentre, Vec3 xDirection, Vec3 yDirection) throws IOException;
+
+    public void light(Vec3 position, Colour colour) throws IOException;
+
+    /**
+     * Defines a named material, which shapes later in the file refer to.
+     */
+    public void material(String name, Colour colour, Colour reflectionColour) throws IOException;
+
+    public void sphere(Vec3 centre, double radius, String material) throws IOException;
+
+    public void plane(Vec3 point, Vec3 normal, String material) throws IOException;
+
+    /**
+     * Adds a triangle mesh read from a Wavefront OBJ file.
+     *
+     * @param path The path of the OBJ file, relative to the scene file's
+     *             directory unless it is absolute.
+     */
+    public void mesh(String path, String material) throws IOException;
+
+    /**
+     * Saves the current transformation, to be restored by the matching
+     * {@link #popTransform()}.
+     */
+    public void pushTransform() throws IOException;
+
+    public void popTransform() throws IOException;
+
+    /**
+     * Multiplies the current transformation by the given one on the right, so
+     * that it applies to shapes before any transformations given earlier.
+     */
+    public void transform(Matrix4 transformation) throws IOException;
+}
@@ -0,0 +1,313 @@
+package rht.raytracer.scenefile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import rht.raytracer.Camera;
+import rht.raytracer.Colour;
+import rht.raytracer.Light;
+import rht.raytracer.Scene;
+import rht.raytracer.acceleration.BoundingVolumeHierarchy;
+import rht.raytracer.shapes.Plane;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.shapes.ShapeType;
+import rht.raytracer.shapes.Sphere;
+import rht.raytracer.shapes.Transformed;
+
+/**
+ * Saves a built scene, including its bounding volume hierarchy, in a form that
+ * can be memory-mapped and rendered without parsing the scene file or
+ * rebuilding the hierarchy.
+ *
+ * The hierarchy's nodes and packed spheres are stored as flat little-endian
+ * arrays and copied out of the mapping in bulk. No objects are created for the
+ * spheres: each sphere's material is read from the mapping when a ray first
+ * hits it. The few shapes which aren't plain spheres, and the lights and
+ * camera, are stored as binary scene records.
+ *
+ * A snapshot records the size and modification time of the scene file it was
+ * made from, so that a stale one can be detected and rebuilt.
+ */
+public final class SceneSnapshot {
+    static final int MAGIC = 0x52545343; // "RTSC"
+    static final int VERSION = 2;
+    private static final int HEADER_BYTES = 48;
+
+    private SceneSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot of a scene, replacing any existing file atomically so
+     * that other processes never map a half-written one.
+     *
+     * @param sourceSize     The size of the scene file the scene was loaded from.
+     * @param sourceModified Its modification time, in milliseconds.
+     * @throws IllegalArgumentException if the scene holds a kind of shape that
+     *                                  can't be saved, as {@link #canWrite}
+     *                                  can check first.
+     */
+    public static void write(Path path, LoadedScene loaded, long sourceSize, long sourceModified)
+            throws IOException {
+        Scene scene = loaded.scene;
+        BoundingVolumeHierarchy hierarchy = scene.getHierarchy();
+        int shapeCount = hierarchy.size();
+
+        // Number every distinct material, and record each sphere's.
+        Map<List<Double>, Integer> materialIndices = new HashMap<>();
+        List<Shape> materials = new ArrayList<>();
+        int[] sphereMaterials = new int[shapeCount];
+        List<Integer> nonSphereSlots = new ArrayList<>();
+        for (int i = 0; i < shapeCount; ++i) {
+            Shape shape = hierarchy.getShape(i);
+            int material = materialIndex(shape, materialIndices, materials);
+            if (hierarchy.isPackedSphere(i)) {
+                sphereMaterials[i] = material;
+            } else {
+                sphereMaterials[i] = -1;
+                nonSphereSlots.add(i);
+            }
+        }
+        for (Shape shape : scene.getUnboundedObjects()) {
+            materialIndex(shape, materialIndices, materials);
+        }
+
+        // Everything except the spheres goes in a stream of scene records.
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        try (BinarySceneWriter records = new BinarySceneWriter(recordBytes)) {
+            Camera camera = loaded.camera;
+            if (camera != null) {
+                records.camera(camera.getFocalPoint(), camera.getFrameCentre(), camera.getXDirection(),
+                        camera.getYDirection());
+            }
+            for (Light light : scene.getLights()) {
+                records.light(light.getPosition(), light.getColour());
+            }
+            for (int i = 0; i < materials.size(); ++i) {
+                Shape material = materials.get(i);
+                records.material(Integer.toString(i), material.getColour(), material.getReflectionColour());
+            }
+            for (Shape shape : scene.getUnboundedObjects()) {
+                writeShape(records, shape.getShapeType(), materialName(shape, materialIndices));
+            }
+            for (int slot : nonSphereSlots) {
+                Shape shape = hierarchy.getShape(slot);
+                writeShape(records, shape.getShapeType(), materialName(shape, materialIndices));
+            }
+        }
+        byte[] recordArray = recordBytes.toByteArray();
+
+        int fixedBytes = HEADER_BYTES + materials.size() * 6 * Double.BYTES
+                + (nonSphereSlots.size() + shapeCount) * Integer.BYTES + recordArray.length;
+        int padding = (8 - fixedBytes % 8) % 8;
+        ByteBuffer fixed = ByteBuffer.allocate(fixedBytes + padding).order(ByteOrder.LITTLE_ENDIAN);
+        fixed.putInt(MAGIC);
+        fixed.putInt(VERSION);
+        fixed.putLong(sourceSize);
+        fixed.putLong(sourceModified);
+        fixed.putInt(materials.size());
+        fixed.putInt(recordArray.length);
+        fixed.putInt(scene.getUnboundedObjects().size());
+        fixed.putInt(nonSphereSlots.size());
+        fixed.putInt(shapeCount);
+        fixed.putInt(0);
+        for (Shape material : materials) {
+            putColour(fixed, material.getColour());
+            putColour(fixed, material.getReflectionColour());
+        }
+        for (int slot : nonSphereSlots) {
+            fixed.putInt(slot);
+        }
+        for (int material : sphereMaterials) {
+            fixed.putInt(material);
+        }
+        fixed.put(recordArray);
+        // Write the zero padding too, so that the hierarchy is aligned.
+        fixed.rewind();
+
+        Path temporary = path.resolveSibling(path.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (fixed.hasRemaining()) {
+                    channel.write(fixed);
+                }
+                hierarchy.write(channel);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Maps a snapshot and builds a scene around it.
+     *
+     * @param sourceSize     The current size of the scene file.
+     * @param sourceModified Its current modification time, in milliseconds.
+     * @return the scene, or null if the snapshot was made from a different
+     *         version of the scene file.
+     * @throws IOException if the file can't be read or is not a valid snapshot.
+     */
+    public static LoadedScene read(Path path, long sourceSize, long sourceModified) throws IOException {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot is too large to map.");
+            }
+            // The mapping stays valid after the channel is closed.
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        try {
+            return read(data, sourceSize, sourceModified);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Damaged scene snapshot: " + e.getMessage());
+        }
+    }
+
+    private static LoadedScene read(ByteBuffer data, long sourceSize, long sourceModified) throws IOException {
+        if (data.remaining() < HEADER_BYTES || data.getInt() != MAGIC) {
+            throw new IOException("Not a scene snapshot.");
+        }
+        int version = data.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported scene snapshot version " + version + ".");
+        }
+        if (data.getLong() != sourceSize || data.getLong() != sourceModified) {
+            return null;
+        }
+        int materialCount = data.getInt();
+        int recordLength = data.getInt();
+        int unboundedCount = data.getInt();
+        int nonSphereCount = data.getInt();
+        int shapeCount = data.getInt();
+        data.getInt();
+
+        Colour[] colours = new Colour[materialCount];
+        Colour[] reflectionColours = new Colour[materialCount];
+        for (int i = 0; i < materialCount; ++i) {
+            colours[i] = getColour(data);
+            reflectionColours[i] = getColour(data);
+        }
+        int[] nonSphereSlots = new int[nonSphereCount];
+        data.asIntBuffer().get(nonSphereSlots);
+        data.position(data.position() + nonSphereCount * Integer.BYTES);
+        // Left in the mapping, and only read when a sphere is first hit.
+        IntBuffer sphereMaterials = data.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        data.position(data.position() + shapeCount * Integer.BYTES);
+
+        byte[] records = new byte[recordLength];
+        data.get(records);
+        SceneBuilder builder = new SceneBuilder();
+        new BinarySceneParser(new ByteArrayInputStream(records), builder).parse();
+        List<Shape> objects = builder.getObjects();
+        if (objects.size() != unboundedCount + nonSphereCount) {
+            throw new IOException("Damaged scene snapshot: wrong number of shapes.");
+        }
+        data.position((data.position() + 7) & ~7);
+
+        Shape[] shapes = new Shape[shapeCount];
+        for (int i = 0; i < nonSphereCount; ++i) {
+            shapes[nonSphereSlots[i]] = objects.get(unboundedCount + i);
+        }
+        BoundingVolumeHierarchy hierarchy = BoundingVolumeHierarchy.read(data, shapes, (index, sphere) -> {
+            int material = sphereMaterials.get(index);
+            return new Shape(sphere, colours[material], reflectionColours[material]);
+        });
+        Scene scene = new Scene(builder.getLights(), objects.subList(0, unboundedCount), hierarchy);
+        return new LoadedScene(scene, builder.getCamera());
+    }
+
+    private static int materialIndex(Shape shape, Map<List<Double>, Integer> materialIndices,
+            List<Shape> materials) {
+        List<Double> key = materialKey(shape);
+        Integer index = materialIndices.get(key);
+        if (index == null) {
+            index = materials.size();
+            materialIndices.put(key, index);
+            materials.add(shape);
+        }
+        return index;
+    }
+
+    private static String materialName(Shape shape, Map<List<Double>, Integer> materialIndices) {
+        return Integer.toString(materialIndices.get(materialKey(shape)));
+    }
+
+    private static List<Double> materialKey(Shape shape) {
+        Colour colour = shape.getColour();
+        Colour reflection = shape.getReflectionColour();
+        return Arrays.asList(colour.r, colour.g, colour.b, reflection.r, reflection.g, reflection.b);
+    }
+
+    /**
+     * Whether every shape in a scene is of a kind that a snapshot can save.
+     */
+    public static boolean canWrite(Scene scene) {
+        BoundingVolumeHierarchy hierarchy = scene.getHierarchy();
+        for (int i = 0; i < hierarchy.size(); ++i) {
+            if (!hierarchy.isPackedSphere(i) && !canSave(hierarchy.getShape(i).getShapeType())) {
+                return false;
+            }
+        }
+        for (Shape shape : scene.getUnboundedObjects()) {
+            if (!canSave(shape.getShapeType())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Whether {@link #writeShape} can write a shape. */
+    private static boolean canSave(ShapeType shapeType) {
+        if (shapeType.getClass() == Transformed.class) {
+            return canSave(((Transformed) shapeType).getShape());
+        }
+        return shapeType.getClass() == Sphere.class || shapeType.getClass() == Plane.class;
+    }
+
+    /**
+     * Writes a shape as scene records, with any transformation around it.
+     */
+    private static void writeShape(SceneHandler records, ShapeType shapeType, String material) throws IOException {
+        if (shapeType.getClass() == Sphere.class) {
+            Sphere sphere = (Sphere) shapeType;
+            records.sphere(sphere.getCentre(), sphere.getRadius(), material);
+        } else if (shapeType.getClass() == Plane.class) {
+            Plane plane = (Plane) shapeType;
+            records.plane(plane.getCentre(), plane.getNormal(), material);
+        } else if (shapeType.getClass() == Transformed.class) {
+            Transformed transformed = (Transformed) shapeType;
+            records.pushTransform();
+            records.transform(transformed.getTransformation());
+            writeShape(records, transformed.getShape(), material);
+            records.popTransform();
+        } else {
+            throw new IllegalArgumentException(
+                    shapeType.getClass().getSimpleName() + " shapes can't be saved in a snapshot.");
+        }
+    }
+
+    private static void putColour(ByteBuffer buffer, Colour colour) {
+        buffer.putDouble(colour.r);
+        buffer.putDouble(colour.g);
+        buffer.putDouble(colour.b);
+    }
+
+    private static Colour getColour(ByteBuffer buffer) {
+        return new Colour(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+    }
+}
@@ -0,0 +1,186 @@
+package rht.raytracer.scenefile;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+import rht.raytracer.Colour;
+import rht.raytracer.maths.Matrix;
+import rht.raytracer.maths.Matrix4;
+import rht.raytracer.maths.Vec3;
+
+/**
+ * Reads the text scene format a line at a time, passing each element to a
+ * {@link SceneHandler} as soon as it has been read.
+ *
+ * Each line holds one element: a keyword followed by its values, separated by
+ * spaces. Blank lines and everything after a `#` are ignored.
+ *
+ * <pre>
+ * camera &lt;focal point&gt; &lt;frame centre&gt; &lt;x direction&gt; &lt;y direction&gt;
+ * light &lt;x y z&gt; &lt;r g b&gt;
+ * material &lt;name&gt; &lt;r g b&gt; [&lt;reflection r g b&gt;]
+ * sphere &lt;x y z&gt; &lt;radius&gt; &lt;material&gt;
+ * plane &lt;point&gt; &lt;normal&gt; &lt;material&gt;
+ * mesh &lt;OBJ file&gt; &lt;material&gt;
+ * push
+ * pop
+ * translate &lt;x y z&gt;
+ * scale &lt;x y z&gt;
+ * rotatex &lt;degrees&gt; (and rotatey, rotatez)
+ * matrix &lt;the top three rows, twelve values&gt;
+ * </pre>
+ *
+ * Transformations apply to the shapes that follow them, until the enclosing
+ * `pop`. As with nested {@link rht.raytracer.shapes.Transformed} shapes, the
+ * last transformation given is applied to the shape first.
+ */
+public class TextSceneParser {
+    private final BufferedReader reader;
+    private final SceneHandler handler;
+    private int lineNumber = 0;
+    private String line;
+    private int position;
+
+    public TextSceneParser(Reader reader, SceneHandler handler) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        this.handler = handler;
+    }
+
+    /**
+     * Reads the whole scene, passing each element to the handler.
+     *
+     * @throws IOException if the file can't be read, or is not a valid scene.
+     */
+    public void parse() throws IOException {
+        while ((line = reader.readLine()) != null) {
+            ++lineNumber;
+            position = 0;
+            String keyword = nextToken();
+            if (keyword == null) {
+                continue;
+            }
+            try {
+                parseElement(keyword);
+            } catch (IllegalArgumentException e) {
+                throw error(e.getMessage());
+            }
+            if (nextToken() != null) {
+                throw error("Too many values for " + keyword + ".");
+            }
+        }
+    }
+
+    private void parseElement(String keyword) throws IOException {
+        switch (keyword) {
+            case "camera":
+                handler.camera(nextVec3(), nextVec3(), nextVec3(), nextVec3());
+                break;
+            case "light":
+                handler.light(nextVec3(), nextColour());
+                break;
+            case "material": {
+                String name = nextName();
+                Colour colour = nextColour();
+                Colour reflectionColour = atEndOfLine() ? Colour.BLACK : nextColour();
+                handler.material(name, colour, reflectionColour);
+                break;
+            }
+            case "sphere":
+                handler.sphere(nextVec3(), nextDouble(), nextName());
+                break;
+            case "plane":
+                handler.plane(nextVec3(), nextVec3(), nextName());
+                break;
+            case "mesh":
+                handler.mesh(nextName(), nextName());
+                break;
+            case "push":
+                handler.pushTransform();
+                break;
+            case "pop":
+                handler.popTransform();
+                break;
+            case "translate":
+                handler.transform(Matrix4.from(Matrix.translation(nextDouble(), nextDouble(), nextDouble())));
+                break;
+            case "scale":
+                handler.transform(Matrix4.from(Matrix.scale(nextDouble(), nextDouble(), nextDouble())));
+                break;
+            case "rotatex":
+                handler.transform(Matrix4.from(Matrix.rotateX(nextDouble())));
+                break;
+            case "rotatey":
+                handler.transform(Matrix4.from(Matrix.rotateY(nextDouble())));
+                break;
+            case "rotatez":
+                handler.transform(Matrix4.from(Matrix.rotateZ(nextDouble())));
+                break;
+            case "matrix":
+                handler.transform(new Matrix4(
+                        nextDouble(), nextDouble(), nextDouble(), nextDouble(),
+                        nextDouble(), nextDouble(), nextDouble(), nextDouble(),
+                        nextDouble(), nextDouble(), nextDouble(), nextDouble(),
+                        0, 0, 0, 1));
+                break;
+            default:
+                throw error("Unknown element " + keyword + ".");
+        }
+    }
+
+    /**
+     * Returns the next space-separated token on the current line, or null at the
+     * end of the line or the start of a comment.
+     */
+    private String nextToken() {
+        int length = line.length();
+        while (position < length && Character.isWhitespace(line.charAt(position))) {
+            ++position;
+        }
+        if (position == length || line.charAt(position) == '#') {
+            return null;
+        }
+        int start = position;
+        while (position < length && !Character.isWhitespace(line.charAt(position))
+                && line.charAt(position) != '#') {
+            ++position;
+        }
+        return line.substring(start, position);
+    }
+
+    private boolean atEndOfLine() {
+        int mark = position;
+        boolean atEnd = nextToken() == null;
+        position = mark;
+        return atEnd;
+    }
+
+    private String nextName() throws IOException {
+        String token = nextToken();
+        if (token == null) {
+            throw error("Missing value.");
+        }
+        return token;
+    }
+
+    private double nextDouble() throws IOException {
+        String token = nextName();
+        try {
+            return Double.parseDouble(token);
+        } catch (NumberFormatException e) {
+            throw error("Expected a number, not " + token + ".");
+        }
+    }
+
+    private Vec3 nextVec3() throws IOException {
+        return new Vec3(nextDouble(), nextDouble(), nextDouble());
+    }
+
+    private Colour nextColour() throws IOException {
+        return new Colour(nextDouble(), nextDouble(), nextDouble());
+    }
+
+    private IOException error(String message) {
+        return new IOException("Line " + lineNumber + ": " + message);
+    }
+}
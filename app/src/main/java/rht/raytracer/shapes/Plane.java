@@ -1,6 +1,6 @@
 package rht.raytracer.shapes;
 
-import rht.raytracer.Ray;
+import rht.raytracer.maths.BoundingBox;
 import rht.raytracer.maths.Vec3;
 
 public class Plane implements ShapeType {
@@ -13,17 +13,28 @@ public class Plane implements ShapeType {
         this.normal = normal;
     }
 
+    /** A point on the plane. */
+    public Vec3 getCentre() {
+        return centre;
+    }
+
+    public Vec3 getNormal() {
+        return normal;
+    }
+
     @Override
-    public Double intersect(Ray ray) {
-        double denominator = normal.dot(ray.getDirection());
-        double numerator = normal.dot(centre.minus(ray.getOrigin()));
+    public double intersectDistance(double originX, double originY, double originZ,
+            double directionX, double directionY, double directionZ) {
+        double denominator = normal.x * directionX + normal.y * directionY + normal.z * directionZ;
+        double numerator = normal.x * (centre.x - originX) + normal.y * (centre.y - originY)
+                + normal.z * (centre.z - originZ);
         if (denominator == 0) {
-            return null;
+            return MISS;
         }
         double distance = numerator / denominator;
 
         if (distance < 0) {
-            return null;
+            return MISS;
         }
 
         return distance;
@@ -33,4 +44,12 @@ public class Plane implements ShapeType {
     public Vec3 normalAtPoint(Vec3 pointOnSurface) {
         return normal;
     }
+
+    /**
+     * Planes extend infinitely, so have no bounding box.
+     */
+    @Override
+    public BoundingBox boundingBox() {
+        return null;
+    }
 }
@@ -1,15 +1,36 @@
 package rht.raytracer.shapes;
 
 import rht.raytracer.Ray;
+import rht.raytracer.maths.BoundingBox;
 import rht.raytracer.maths.Vec3;
 
 public interface ShapeType {
+    /** The distance returned by intersectDistance when a ray misses the object. */
+    public static final double MISS = Double.POSITIVE_INFINITY;
+
+    /**
+     * Returns the distance at which the ray with the given origin and unit
+     * direction intersects the object, or {@link #MISS} if it never does.
+     *
+     * This is called for every object a ray is tested against, so implementations
+     * work on the components directly and must not allocate.
+     */
+    public double intersectDistance(double originX, double originY, double originZ,
+            double directionX, double directionY, double directionZ);
 
     /**
      * Returns the distance at which the given ray intersects the object, or null if
      * it never does.
      */
-    public Double intersect(Ray ray);
+    public default Double intersect(Ray ray) {
+        Vec3 origin = ray.getOrigin();
+        Vec3 direction = ray.getDirection();
+        double distance = intersectDistance(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z);
+        if (distance == MISS) {
+            return null;
+        }
+        return distance;
+    }
 
     /**
      * Returns the normal vector on the surface of the object at the given point.
@@ -18,4 +39,23 @@ public interface ShapeType {
      */
     public Vec3 normalAtPoint(Vec3 pointOnSurface);
 
+    /**
+     * Returns an axis-aligned box containing the whole of the object, or null if
+     * the object is unbounded.
+     */
+    public default BoundingBox boundingBox() {
+        return null;
+    }
+
+    /**
+     * Returns whether a ray leaving the surface of the object can hit the object
+     * again, as it can for a mesh but not for a convex shape or a plane.
+     *
+     * Rays leaving an object which can't hit itself skip it entirely, which saves
+     * testing it and avoids hitting it again at the point the ray starts from.
+     * Objects which can hit themselves must ignore such hits themselves.
+     */
+    public default boolean canHitItself() {
+        return false;
+    }
 }
@@ -1,6 +1,6 @@
 package rht.raytracer.shapes;
 
-import rht.raytracer.Ray;
+import rht.raytracer.maths.BoundingBox;
 import rht.raytracer.maths.Vec3;
 
 public class Sphere implements ShapeType {
@@ -13,22 +13,30 @@ public class Sphere implements ShapeType {
         this.radius = radius;
     }
 
-    /**
-     * Returns the distance at which the given ray intersects the object, or null if
-     * it never does.
-     */
-    public Double intersect(Ray ray) {
-        Vec3 v = ray.getOrigin().minus(centre);
-        double dirDotV = ray.getDirection().dot(v);
-        double discriminant = dirDotV * dirDotV - v.squared() + radius * radius;
+    public Vec3 getCentre() {
+        return centre;
+    }
+
+    public double getRadius() {
+        return radius;
+    }
+
+    @Override
+    public double intersectDistance(double originX, double originY, double originZ,
+            double directionX, double directionY, double directionZ) {
+        double vX = originX - centre.x;
+        double vY = originY - centre.y;
+        double vZ = originZ - centre.z;
+        double dirDotV = directionX * vX + directionY * vY + directionZ * vZ;
+        double discriminant = dirDotV * dirDotV - (vX * vX + vY * vY + vZ * vZ) + radius * radius;
         if (discriminant < 0) {
-            return null;
+            return MISS;
         }
-        double distance = -ray.getDirection().dot(v) - Math.sqrt(discriminant);
+        double distance = -dirDotV - Math.sqrt(discriminant);
         if (distance >= 0) {
             return distance;
         } else {
-            return null;
+            return MISS;
         }
     }
 
@@ -40,4 +48,10 @@ public class Sphere implements ShapeType {
     public Vec3 normalAtPoint(Vec3 pointOnSurface) {
         return pointOnSurface.minus(centre).normalise();
     }
+
+    @Override
+    public BoundingBox boundingBox() {
+        return new BoundingBox(centre.minus(new Vec3(radius, radius, radius)),
+                centre.plus(new Vec3(radius, radius, radius)));
+    }
 }
@@ -1,40 +1,97 @@
 package rht.raytracer.shapes;
 
-import rht.raytracer.Ray;
+import rht.raytracer.maths.BoundingBox;
 import rht.raytracer.maths.Matrix;
+import rht.raytracer.maths.Matrix4;
 import rht.raytracer.maths.Vec3;
 
+/**
+ * A shape moved, rotated or scaled by an affine transformation.
+ *
+ * Wrapping a Transformed in another Transformed doesn't nest them: the two
+ * transformations are multiplied together once, here, so that a ray is only
+ * ever transformed once however many transformations an asset stacks up.
+ */
 public class Transformed implements ShapeType {
     private final ShapeType shape;
-    private final Matrix transformation;
-    private final Matrix inverseTransformation;
+    private final Matrix4 transformation;
+    private final Matrix4 inverseTransformation;
+    /** The inverse transpose, whose linear part transforms normals. */
+    private final Matrix4 normalTransformation;
 
     public Transformed(ShapeType shape, Matrix transformation) {
+        this(shape, Matrix4.from(transformation));
+    }
+
+    public Transformed(ShapeType shape, Matrix4 transformation) {
+        if (shape instanceof Transformed) {
+            Transformed inner = (Transformed) shape;
+            shape = inner.shape;
+            transformation = transformation.times(inner.transformation);
+        }
         this.shape = shape;
         this.transformation = transformation;
         this.inverseTransformation = transformation.inverse();
+        this.normalTransformation = inverseTransformation.transpose();
+    }
+
+    /** The untransformed shape. This is never itself a Transformed. */
+    public ShapeType getShape() {
+        return shape;
+    }
+
+    /** The transformation from the shape's co-ordinates to the outer ones. */
+    public Matrix4 getTransformation() {
+        return transformation;
     }
 
     @Override
-    public Double intersect(Ray ray) {
-        Ray transformedRay = ray.transform(inverseTransformation);
-        Double transformedIntersection = shape.intersect(transformedRay);
-        if (transformedIntersection == null) {
-            return null;
+    public double intersectDistance(double originX, double originY, double originZ,
+            double directionX, double directionY, double directionZ) {
+        Matrix4 m = inverseTransformation;
+        double transformedOriginX = m.m00 * originX + m.m01 * originY + m.m02 * originZ + m.m03;
+        double transformedOriginY = m.m10 * originX + m.m11 * originY + m.m12 * originZ + m.m13;
+        double transformedOriginZ = m.m20 * originX + m.m21 * originY + m.m22 * originZ + m.m23;
+        double transformedDirectionX = m.m00 * directionX + m.m01 * directionY + m.m02 * directionZ;
+        double transformedDirectionY = m.m10 * directionX + m.m11 * directionY + m.m12 * directionZ;
+        double transformedDirectionZ = m.m20 * directionX + m.m21 * directionY + m.m22 * directionZ;
+        double length = Math.sqrt(transformedDirectionX * transformedDirectionX
+                + transformedDirectionY * transformedDirectionY + transformedDirectionZ * transformedDirectionZ);
+        transformedDirectionX /= length;
+        transformedDirectionY /= length;
+        transformedDirectionZ /= length;
+
+        double transformedIntersection = shape.intersectDistance(transformedOriginX, transformedOriginY,
+                transformedOriginZ, transformedDirectionX, transformedDirectionY, transformedDirectionZ);
+        if (transformedIntersection == MISS) {
+            return MISS;
         }
 
-        // To transform the distance back to the outer co-ordinate system, we find the
-        // point of intersection, transform that back, and then find the distance from
-        // the original ray's origin.
-        Vec3 transformedIntersectionPoint = transformedRay.distanceAlong(transformedIntersection);
-        Vec3 intersectionPoint = transformation.times(transformedIntersectionPoint);
-        return intersectionPoint.minus(ray.getOrigin()).length();
+        // The transformation is affine, so moving a distance t along the outer ray
+        // moves t * length along the transformed one.
+        return transformedIntersection / length;
     }
 
     @Override
     public Vec3 normalAtPoint(Vec3 pointOnSurface) {
         Vec3 transformedPoint = inverseTransformation.times(pointOnSurface);
         Vec3 transformedNormal = shape.normalAtPoint(transformedPoint);
-        return transformation.linearTimes(transformedNormal).normalise();
+        // Normals are transformed by the inverse transpose, so that they stay
+        // perpendicular to the surface under non-uniform scaling.
+        return normalTransformation.linearTimes(transformedNormal).normalise();
+    }
+
+    @Override
+    public BoundingBox boundingBox() {
+        BoundingBox innerBox = shape.boundingBox();
+        if (innerBox == null) {
+            return null;
+        }
+        return innerBox.transform(transformation);
+    }
+
+    @Override
+    public boolean canHitItself() {
+        return shape.canHitItself();
     }
 }
@@ -0,0 +1,468 @@
+package rht.raytracer.shapes;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+import rht.raytracer.acceleration.BoundingVolumeBuilder;
+import rht.raytracer.maths.BoundingBox;
+import rht.raytracer.maths.Vec3;
+
+/**
+ * A mesh of triangles, held in packed arrays of vertex positions, vertex
+ * normals and triangle indices rather than as one object per triangle.
+ *
+ * The triangles are put in a bounding volume hierarchy of their own, so that
+ * however many there are, the mesh is a single bounded shape to the scene.
+ * Normals are interpolated across each triangle from its vertices, giving a
+ * smooth surface. A mesh is immutable, so one can be shared between any number
+ * of {@link Transformed} instances without copying it.
+ */
+public class TriangleMesh implements ShapeType {
+    /**
+     * How close to the surface, relative to the size of the mesh, a point must be
+     * to count as lying on it, and how far a ray must travel before it can hit
+     * the mesh.
+     */
+    private static final double TOLERANCE = 1e-7;
+
+    /** Three values per vertex. */
+    private final float[] positions;
+    /** Three values per vertex, each of unit length. */
+    private final float[] normals;
+    /** Three vertex indices per triangle, in hierarchy order. */
+    private final int[] triangles;
+    /** As for {@link BoundingVolumeBuilder#compactBounds}. */
+    private final float[] nodeBounds;
+    /** For leaves, the index of the first triangle; for interior nodes, the right child. */
+    private final int[] nodeOffset;
+    /** For leaves, the number of triangles; zero for interior nodes. */
+    private final int[] nodeTriangleCount;
+    private final BoundingBox boundingBox;
+    /** The distance within which points count as on the surface. */
+    private final double tolerance;
+
+    private final ThreadLocal<Traversal> traversals = ThreadLocal.withInitial(Traversal::new);
+
+    /**
+     * Creates a mesh from packed arrays, which are kept rather than copied and
+     * must not be changed afterwards.
+     *
+     * @param positions The x, y and z of each vertex.
+     * @param normals   The normal at each vertex, in the same layout, or null to
+     *                  compute them from the triangles around each vertex.
+     * @param indices   The three vertex indices of each triangle, counter-clockwise
+     *                  seen from outside. This array is reordered.
+     */
+    public TriangleMesh(float[] positions, float[] normals, int[] indices) {
+        if (positions.length % 3 != 0 || indices.length % 3 != 0) {
+            throw new IllegalArgumentException("Positions and indices must come in threes.");
+        }
+        if (indices.length == 0) {
+            throw new IllegalArgumentException("A mesh needs at least one triangle.");
+        }
+        if (normals != null && normals.length != positions.length) {
+            throw new IllegalArgumentException("There must be one normal per vertex.");
+        }
+        int vertexCount = positions.length / 3;
+        for (int index : indices) {
+            if (index < 0 || index >= vertexCount) {
+                throw new IllegalArgumentException("Vertex index " + index + " is out of range.");
+            }
+        }
+
+        this.positions = positions;
+        this.normals = normals != null ? normalise(normals) : vertexNormals(positions, indices);
+
+        int triangleCount = indices.length / 3;
+        double[] triangleBounds = new double[triangleCount * 6];
+        double[] meshBounds = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+        for (int triangle = 0; triangle < triangleCount; ++triangle) {
+            int b = triangle * 6;
+            for (int axis = 0; axis < 3; ++axis) {
+                triangleBounds[b + axis] = Double.POSITIVE_INFINITY;
+                triangleBounds[b + 3 + axis] = Double.NEGATIVE_INFINITY;
+            }
+            for (int corner = 0; corner < 3; ++corner) {
+                int vertex = indices[triangle * 3 + corner] * 3;
+                for (int axis = 0; axis < 3; ++axis) {
+                    triangleBounds[b + axis] = Math.min(triangleBounds[b + axis], positions[vertex + axis]);
+                    triangleBounds[b + 3 + axis] = Math.max(triangleBounds[b + 3 + axis], positions[vertex + axis]);
+                }
+            }
+            for (int axis = 0; axis < 3; ++axis) {
+                meshBounds[axis] = Math.min(meshBounds[axis], triangleBounds[b + axis]);
+                meshBounds[3 + axis] = Math.max(meshBounds[3 + axis], triangleBounds[b + 3 + axis]);
+            }
+        }
+        boundingBox = new BoundingBox(new Vec3(meshBounds[0], meshBounds[1], meshBounds[2]),
+                new Vec3(meshBounds[3], meshBounds[4], meshBounds[5]));
+        tolerance = TOLERANCE * boundingBox.max.minus(boundingBox.min).length();
+
+        BoundingVolumeBuilder builder = new BoundingVolumeBuilder(triangleBounds, triangleCount);
+        nodeBounds = builder.compactBounds();
+        nodeOffset = builder.nodeOffset;
+        nodeTriangleCount = builder.nodeItemCount;
+
+        int[] original = indices.clone();
+        for (int triangle = 0; triangle < triangleCount; ++triangle) {
+            System.arraycopy(original, builder.order[triangle] * 3, indices, triangle * 3, 3);
+        }
+        triangles = indices;
+    }
+
+    public int getVertexCount() {
+        return positions.length / 3;
+    }
+
+    public int getTriangleCount() {
+        return triangles.length / 3;
+    }
+
+    /**
+     * Feeds the mesh's vertex positions, normals and triangles to a digest, so
+     * that meshes with the same data digest the same without their arrays being
+     * copied out.
+     */
+    public void digest(MessageDigest digest) {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES * 4096);
+        buffer.putInt(positions.length).putInt(triangles.length);
+        for (float value : positions) {
+            digestFull(digest, buffer).putFloat(value);
+        }
+        for (float value : normals) {
+            digestFull(digest, buffer).putFloat(value);
+        }
+        for (int index : triangles) {
+            digestFull(digest, buffer).putInt(index);
+        }
+        buffer.flip();
+        digest.update(buffer);
+    }
+
+    private static ByteBuffer digestFull(MessageDigest digest, ByteBuffer buffer) {
+        if (!buffer.hasRemaining()) {
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+        }
+        return buffer;
+    }
+
+    @Override
+    public double intersectDistance(double originX, double originY, double originZ,
+            double directionX, double directionY, double directionZ) {
+        double ix = 1.0 / directionX;
+        double iy = 1.0 / directionY;
+        double iz = 1.0 / directionZ;
+
+        double closestDistance = MISS;
+        int closest = -1;
+        Traversal traversal = traversals.get();
+        int[] stack = traversal.stack;
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            if (BoundingVolumeBuilder.entryDistance(nodeBounds, node, originX, originY, originZ, ix, iy, iz,
+                    closestDistance) >= closestDistance) {
+                continue;
+            }
+            int triangleCount = nodeTriangleCount[node];
+            if (triangleCount > 0) {
+                int first = nodeOffset[node];
+                for (int triangle = first; triangle < first + triangleCount; ++triangle) {
+                    double distance = intersectTriangle(triangle, originX, originY, originZ, directionX,
+                            directionY, directionZ);
+                    if (distance < closestDistance) {
+                        closestDistance = distance;
+                        closest = triangle;
+                    }
+                }
+            } else {
+                stack[stackSize++] = nodeOffset[node];
+                stack[stackSize++] = node + 1;
+            }
+        }
+        if (closest >= 0) {
+            traversal.lastHit = closest;
+        }
+        return closestDistance;
+    }
+
+    /**
+     * Intersects a ray with one triangle by the Moller-Trumbore method, which
+     * solves for the distance and barycentric co-ordinates together without
+     * first finding the triangle's plane.
+     */
+    private double intersectTriangle(int triangle, double originX, double originY, double originZ,
+            double directionX, double directionY, double directionZ) {
+        int v0 = triangles[triangle * 3] * 3;
+        int v1 = triangles[triangle * 3 + 1] * 3;
+        int v2 = triangles[triangle * 3 + 2] * 3;
+        double edge1X = positions[v1] - positions[v0];
+        double edge1Y = positions[v1 + 1] - positions[v0 + 1];
+        double edge1Z = positions[v1 + 2] - positions[v0 + 2];
+        double edge2X = positions[v2] - positions[v0];
+        double edge2Y = positions[v2 + 1] - positions[v0 + 1];
+        double edge2Z = positions[v2 + 2] - positions[v0 + 2];
+
+        double pX = directionY * edge2Z - directionZ * edge2Y;
+        double pY = directionZ * edge2X - directionX * edge2Z;
+        double pZ = directionX * edge2Y - directionY * edge2X;
+        double determinant = edge1X * pX + edge1Y * pY + edge1Z * pZ;
+        if (determinant == 0.0) {
+            // The ray is parallel to the triangle.
+            return MISS;
+        }
+        double inverseDeterminant = 1.0 / determinant;
+
+        double sX = originX - positions[v0];
+        double sY = originY - positions[v0 + 1];
+        double sZ = originZ - positions[v0 + 2];
+        double u = (sX * pX + sY * pY + sZ * pZ) * inverseDeterminant;
+        if (u < 0.0 || u > 1.0) {
+            return MISS;
+        }
+
+        double qX = sY * edge1Z - sZ * edge1Y;
+        double qY = sZ * edge1X - sX * edge1Z;
+        double qZ = sX * edge1Y - sY * edge1X;
+        double v = (directionX * qX + directionY * qY + directionZ * qZ) * inverseDeterminant;
+        if (v < 0.0 || u + v > 1.0) {
+            return MISS;
+        }
+
+        double distance = (edge2X * qX + edge2Y * qY + edge2Z * qZ) * inverseDeterminant;
+        // Rays leaving the surface mustn't hit the triangle they start on.
+        return distance > tolerance ? distance : MISS;
+    }
+
+    /**
+     * Returns the smooth normal at a point on the surface, interpolated from the
+     * normals at the corners of the triangle the point lies on.
+     *
+     * Only the point is given, so the triangle is found again. Normals are
+     * almost always asked for just after a ray has hit the point, so the last
+     * triangle this thread hit is tried first, and only if the point isn't on it
+     * is the hierarchy searched for the triangle the point lies closest to.
+     */
+    @Override
+    public Vec3 normalAtPoint(Vec3 pointOnSurface) {
+        double x = pointOnSurface.x;
+        double y = pointOnSurface.y;
+        double z = pointOnSurface.z;
+
+        int best = -1;
+        double bestError = Double.POSITIVE_INFINITY;
+        double bestU = 0.0;
+        double bestV = 0.0;
+        double[] barycentric = new double[2];
+
+        Traversal traversal = traversals.get();
+        if (traversal.lastHit >= 0 && distanceToTriangle(traversal.lastHit, x, y, z, barycentric) <= tolerance) {
+            return smoothNormal(traversal.lastHit, barycentric[0], barycentric[1]);
+        }
+
+        int[] stack = traversal.stack;
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            if (!nodeContains(node, x, y, z)) {
+                continue;
+            }
+            int triangleCount = nodeTriangleCount[node];
+            if (triangleCount > 0) {
+                int first = nodeOffset[node];
+                for (int triangle = first; triangle < first + triangleCount; ++triangle) {
+                    double error = distanceToTriangle(triangle, x, y, z, barycentric);
+                    if (error < bestError) {
+                        bestError = error;
+                        best = triangle;
+                        bestU = barycentric[0];
+                        bestV = barycentric[1];
+                    }
+                }
+            } else {
+                stack[stackSize++] = nodeOffset[node];
+                stack[stackSize++] = node + 1;
+            }
+        }
+        if (best < 0) {
+            throw new IllegalArgumentException("Point " + pointOnSurface + " is not on the mesh.");
+        }
+        return smoothNormal(best, bestU, bestV);
+    }
+
+    @Override
+    public BoundingBox boundingBox() {
+        return boundingBox;
+    }
+
+    /**
+     * Rays leaving a mesh can hit another part of it, so a mesh guards against
+     * hitting the triangle a ray starts on itself.
+     */
+    @Override
+    public boolean canHitItself() {
+        return true;
+    }
+
+    /**
+     * Interpolates the normals at a triangle's corners, given the barycentric
+     * co-ordinates of the second and third corners.
+     */
+    private Vec3 smoothNormal(int triangle, double u, double v) {
+        double w = 1.0 - u - v;
+        int n0 = triangles[triangle * 3] * 3;
+        int n1 = triangles[triangle * 3 + 1] * 3;
+        int n2 = triangles[triangle * 3 + 2] * 3;
+        Vec3 normal = new Vec3(
+                w * normals[n0] + u * normals[n1] + v * normals[n2],
+                w * normals[n0 + 1] + u * normals[n1 + 1] + v * normals[n2 + 1],
+                w * normals[n0 + 2] + u * normals[n1 + 2] + v * normals[n2 + 2]);
+        if (normal.squared() == 0.0) {
+            return faceNormal(triangle);
+        }
+        return normal.normalise();
+    }
+
+    private boolean nodeContains(int node, double x, double y, double z) {
+        int b = node * 6;
+        return x >= nodeBounds[b] - tolerance && x <= nodeBounds[b + 3] + tolerance
+                && y >= nodeBounds[b + 1] - tolerance && y <= nodeBounds[b + 4] + tolerance
+                && z >= nodeBounds[b + 2] - tolerance && z <= nodeBounds[b + 5] + tolerance;
+    }
+
+    /**
+     * Returns roughly how far a point is from a triangle: its distance from the
+     * triangle's plane, plus how far outside the triangle its projection falls.
+     * The barycentric co-ordinates of the projection, clamped to the triangle,
+     * are stored in `barycentric`.
+     */
+    private double distanceToTriangle(int triangle, double x, double y, double z, double[] barycentric) {
+        int v0 = triangles[triangle * 3] * 3;
+        int v1 = triangles[triangle * 3 + 1] * 3;
+        int v2 = triangles[triangle * 3 + 2] * 3;
+        double edge1X = positions[v1] - positions[v0];
+        double edge1Y = positions[v1 + 1] - positions[v0 + 1];
+        double edge1Z = positions[v1 + 2] - positions[v0 + 2];
+        double edge2X = positions[v2] - positions[v0];
+        double edge2Y = positions[v2 + 1] - positions[v0 + 1];
+        double edge2Z = positions[v2 + 2] - positions[v0 + 2];
+        double toPointX = x - positions[v0];
+        double toPointY = y - positions[v0 + 1];
+        double toPointZ = z - positions[v0 + 2];
+
+        double d11 = edge1X * edge1X + edge1Y * edge1Y + edge1Z * edge1Z;
+        double d12 = edge1X * edge2X + edge1Y * edge2Y + edge1Z * edge2Z;
+        double d22 = edge2X * edge2X + edge2Y * edge2Y + edge2Z * edge2Z;
+        double d1p = edge1X * toPointX + edge1Y * toPointY + edge1Z * toPointZ;
+        double d2p = edge2X * toPointX + edge2Y * toPointY + edge2Z * toPointZ;
+        double denominator = d11 * d22 - d12 * d12;
+        if (denominator <= 0.0) {
+            // A degenerate triangle has no area for a point to lie on.
+            return Double.POSITIVE_INFINITY;
+        }
+        double u = (d22 * d1p - d12 * d2p) / denominator;
+        double v = (d11 * d2p - d12 * d1p) / denominator;
+
+        double normalX = edge1Y * edge2Z - edge1Z * edge2Y;
+        double normalY = edge1Z * edge2X - edge1X * edge2Z;
+        double normalZ = edge1X * edge2Y - edge1Y * edge2X;
+        double planeDistance = Math.abs(normalX * toPointX + normalY * toPointY + normalZ * toPointZ)
+                / Math.sqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
+        double outside = Math.max(0.0, Math.max(-u, Math.max(-v, u + v - 1.0)));
+        double size = Math.sqrt(Math.max(d11, d22));
+
+        if (outside > 0.0) {
+            u = Math.max(0.0, u);
+            v = Math.max(0.0, v);
+            double sum = u + v;
+            if (sum > 1.0) {
+                u /= sum;
+                v /= sum;
+            }
+        }
+        barycentric[0] = u;
+        barycentric[1] = v;
+        return planeDistance + outside * size;
+    }
+
+    private Vec3 faceNormal(int triangle) {
+        int v0 = triangles[triangle * 3] * 3;
+        int v1 = triangles[triangle * 3 + 1] * 3;
+        int v2 = triangles[triangle * 3 + 2] * 3;
+        double edge1X = positions[v1] - positions[v0];
+        double edge1Y = positions[v1 + 1] - positions[v0 + 1];
+        double edge1Z = positions[v1 + 2] - positions[v0 + 2];
+        double edge2X = positions[v2] - positions[v0];
+        double edge2Y = positions[v2 + 1] - positions[v0 + 1];
+        double edge2Z = positions[v2 + 2] - positions[v0 + 2];
+        return new Vec3(edge1Y * edge2Z - edge1Z * edge2Y, edge1Z * edge2X - edge1X * edge2Z,
+                edge1X * edge2Y - edge1Y * edge2X).normalise();
+    }
+
+    private static float[] normalise(float[] normals) {
+        float[] result = new float[normals.length];
+        for (int i = 0; i < normals.length; i += 3) {
+            double length = Math.sqrt(normals[i] * normals[i] + normals[i + 1] * normals[i + 1]
+                    + normals[i + 2] * normals[i + 2]);
+            if (length > 0.0) {
+                result[i] = (float) (normals[i] / length);
+                result[i + 1] = (float) (normals[i + 1] / length);
+                result[i + 2] = (float) (normals[i + 2] / length);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Computes a normal for each vertex by summing the normals of the triangles
+     * around it, weighted by their areas.
+     */
+    private static float[] vertexNormals(float[] positions, int[] indices) {
+        double[] sums = new double[positions.length];
+        for (int i = 0; i < indices.length; i += 3) {
+            int v0 = indices[i] * 3;
+            int v1 = indices[i + 1] * 3;
+            int v2 = indices[i + 2] * 3;
+            double edge1X = positions[v1] - positions[v0];
+            double edge1Y = positions[v1 + 1] - positions[v0 + 1];
+            double edge1Z = positions[v1 + 2] - positions[v0 + 2];
+            double edge2X = positions[v2] - positions[v0];
+            double edge2Y = positions[v2 + 1] - positions[v0 + 1];
+            double edge2Z = positions[v2 + 2] - positions[v0 + 2];
+            // The cross product's length is twice the triangle's area.
+            double normalX = edge1Y * edge2Z - edge1Z * edge2Y;
+            double normalY = edge1Z * edge2X - edge1X * edge2Z;
+            double normalZ = edge1X * edge2Y - edge1Y * edge2X;
+            for (int corner = 0; corner < 3; ++corner) {
+                int vertex = indices[i + corner] * 3;
+                sums[vertex] += normalX;
+                sums[vertex + 1] += normalY;
+                sums[vertex + 2] += normalZ;
+            }
+        }
+        float[] normals = new float[positions.length];
+        for (int i = 0; i < sums.length; i += 3) {
+            double length = Math.sqrt(sums[i] * sums[i] + sums[i + 1] * sums[i + 1] + sums[i + 2] * sums[i + 2]);
+            if (length > 0.0) {
+                normals[i] = (float) (sums[i] / length);
+                normals[i + 1] = (float) (sums[i + 1] / length);
+                normals[i + 2] = (float) (sums[i + 2] / length);
+            }
+        }
+        return normals;
+    }
+
+    /**
+     * Each thread's scratch space for walking the hierarchy.
+     */
+    private static class Traversal {
+        final int[] stack = new int[BoundingVolumeBuilder.MAX_DEPTH];
+        /** The triangle this thread's last hit was on, or -1. */
+        int lastHit = -1;
+    }
+}
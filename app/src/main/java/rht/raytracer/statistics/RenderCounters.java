@@ -0,0 +1,157 @@
+package rht.raytracer.statistics;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One thread's counts of the work done while rendering.
+ *
+ * Only the owning thread writes to a thread's counters, so they are plain
+ * fields with no synchronisation. They are read when merged by
+ * {@link RenderStatistics#total()}, which is exact once rendering has finished
+ * and approximate while it is running.
+ *
+ * Every update must be guarded by {@link RenderStatistics#ENABLED}, so that it
+ * is compiled away when statistics are off.
+ */
+public final class RenderCounters {
+    /** Rays traced from the camera. */
+    public long primaryRays;
+    /** Rays traced from a surface towards a light. */
+    public long shadowRays;
+    /** Shadow rays answered by the object that last shadowed the same light. */
+    public long shadowCacheHits;
+    /** Rays traced from a surface in the direction of reflection. */
+    public long reflectionRays;
+    /** The most reflections followed from a single primary ray. */
+    public int maxDepth;
+    /** Bounding volume hierarchy nodes whose contents or children were examined. */
+    public long nodesVisited;
+    public long tilesRendered;
+    public long tileNanos;
+    public long slowestTileNanos;
+
+    /** Intersection tests, indexed by {@link RenderStatistics#shapeTypeIndex(Class)}. */
+    private long[] intersectionTests = new long[8];
+
+    RenderCounters() {
+    }
+
+    /**
+     * Counts one intersection test against a shape of the given class.
+     */
+    public void countIntersection(Class<?> shapeType) {
+        countIntersections(shapeType, 1);
+    }
+
+    /**
+     * Counts a number of intersection tests against a shape of the given class,
+     * such as one for each ray of a packet.
+     */
+    public void countIntersections(Class<?> shapeType, long count) {
+        int index = RenderStatistics.shapeTypeIndex(shapeType);
+        if (index >= intersectionTests.length) {
+            intersectionTests = Arrays.copyOf(intersectionTests, Math.max(index + 1, intersectionTests.length * 2));
+        }
+        intersectionTests[index] += count;
+    }
+
+    /**
+     * Counts a tile, and how long it took to render.
+     */
+    public void countTile(long nanos) {
+        ++tilesRendered;
+        tileNanos += nanos;
+        slowestTileNanos = Math.max(slowestTileNanos, nanos);
+    }
+
+    /**
+     * Returns the number of intersection tests against each type of shape, by
+     * the shape class's simple name.
+     */
+    public Map<String, Long> getIntersectionTests() {
+        List<String> names = RenderStatistics.shapeTypeNames();
+        long[] tests = intersectionTests;
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < Math.min(names.size(), tests.length); ++i) {
+            if (tests[i] != 0) {
+                result.put(names.get(i), tests[i]);
+            }
+        }
+        return result;
+    }
+
+    public long getTotalIntersectionTests() {
+        long total = 0;
+        for (long tests : intersectionTests) {
+            total += tests;
+        }
+        return total;
+    }
+
+    /** Adds another thread's counts to these. */
+    void add(RenderCounters other) {
+        primaryRays += other.primaryRays;
+        shadowRays += other.shadowRays;
+        shadowCacheHits += other.shadowCacheHits;
+        reflectionRays += other.reflectionRays;
+        maxDepth = Math.max(maxDepth, other.maxDepth);
+        nodesVisited += other.nodesVisited;
+        tilesRendered += other.tilesRendered;
+        tileNanos += other.tileNanos;
+        slowestTileNanos = Math.max(slowestTileNanos, other.slowestTileNanos);
+        long[] otherTests = other.intersectionTests;
+        if (otherTests.length > intersectionTests.length) {
+            intersectionTests = Arrays.copyOf(intersectionTests, otherTests.length);
+        }
+        for (int i = 0; i < otherTests.length; ++i) {
+            intersectionTests[i] += otherTests[i];
+        }
+    }
+
+    void reset() {
+        primaryRays = 0;
+        shadowRays = 0;
+        shadowCacheHits = 0;
+        reflectionRays = 0;
+        maxDepth = 0;
+        nodesVisited = 0;
+        tilesRendered = 0;
+        tileNanos = 0;
+        slowestTileNanos = 0;
+        Arrays.fill(intersectionTests, 0);
+    }
+
+    /**
+     * Returns the counts as a JSON object, with times in milliseconds.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"primaryRays\": ").append(primaryRays).append(",\n");
+        json.append("  \"shadowRays\": ").append(shadowRays).append(",\n");
+        json.append("  \"shadowCacheHits\": ").append(shadowCacheHits).append(",\n");
+        json.append("  \"reflectionRays\": ").append(reflectionRays).append(",\n");
+        json.append("  \"maxDepth\": ").append(maxDepth).append(",\n");
+        json.append("  \"nodesVisited\": ").append(nodesVisited).append(",\n");
+        json.append("  \"intersectionTests\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Long> entry : getIntersectionTests().entrySet()) {
+            json.append(separator).append("    \"").append(entry.getKey()).append("\": ").append(entry.getValue());
+            separator = ",\n";
+        }
+        json.append(separator.equals("\n") ? "},\n" : "\n  },\n");
+        json.append("  \"tilesRendered\": ").append(tilesRendered).append(",\n");
+        json.append("  \"tileMillis\": ").append(millis(tileNanos)).append(",\n");
+        json.append("  \"slowestTileMillis\": ").append(millis(slowestTileNanos)).append("\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+}
@@ -0,0 +1,198 @@
+package rht.raytracer.statistics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts the work done while rendering, for finding where the time goes.
+ *
+ * Statistics are off unless the {@link #PROPERTY} system property is "true"
+ * when this class is first used. {@link #ENABLED} is then a constant, and the
+ * JIT compiler removes every `if (RenderStatistics.ENABLED)` block entirely, so
+ * renders without statistics pay nothing for them.
+ *
+ * Each thread counts into its own {@link RenderCounters}, and the counts are
+ * only added together when asked for, so rendering threads never contend. The
+ * counts of threads which have finished are folded into one retired total, so
+ * that threads coming and going don't grow the list of counters.
+ */
+public final class RenderStatistics {
+    public static final String PROPERTY = "rht.raytracer.statistics";
+    public static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+    public static final String MBEAN_NAME = "rht.raytracer:type=RenderStatistics";
+
+    /** Each thread's counters, until the thread has finished. */
+    private static final Map<Thread, RenderCounters> allCounters = new HashMap<>();
+    /** The counts of every thread which has finished, added together. Guarded by `allCounters`. */
+    private static final RenderCounters retiredCounters = new RenderCounters();
+    private static final ThreadLocal<RenderCounters> threadCounters = ThreadLocal.withInitial(() -> {
+        RenderCounters counters = new RenderCounters();
+        synchronized (allCounters) {
+            retireFinishedThreads();
+            allCounters.put(Thread.currentThread(), counters);
+        }
+        return counters;
+    });
+
+    /** The simple names of the shape classes counted so far, in index order. */
+    private static final List<String> shapeTypeNames = new ArrayList<>();
+    private static final ClassValue<Integer> shapeTypeIndices = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            synchronized (shapeTypeNames) {
+                shapeTypeNames.add(type.getSimpleName());
+                return shapeTypeNames.size() - 1;
+            }
+        }
+    };
+
+    private RenderStatistics() {
+    }
+
+    /**
+     * Returns the calling thread's counters. Code on the hot path should look
+     * these up once per ray or tile, not once per count.
+     */
+    public static RenderCounters forCurrentThread() {
+        return threadCounters.get();
+    }
+
+    /**
+     * Returns the counts of every thread added together.
+     */
+    public static RenderCounters total() {
+        RenderCounters total = new RenderCounters();
+        synchronized (allCounters) {
+            retireFinishedThreads();
+            total.add(retiredCounters);
+            for (RenderCounters counters : allCounters.values()) {
+                total.add(counters);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Sets every thread's counts back to zero. Counts made by threads which are
+     * still rendering may be lost.
+     */
+    public static void reset() {
+        synchronized (allCounters) {
+            retiredCounters.reset();
+            for (RenderCounters counters : allCounters.values()) {
+                counters.reset();
+            }
+        }
+    }
+
+    /**
+     * Adds the counts of threads which have finished to the retired total and
+     * stops tracking them. A finished thread counts nothing more, and seeing it
+     * finished makes all its counts visible. Must be called holding `allCounters`.
+     */
+    private static void retireFinishedThreads() {
+        Iterator<Map.Entry<Thread, RenderCounters>> entries = allCounters.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Thread, RenderCounters> entry = entries.next();
+            if (!entry.getKey().isAlive()) {
+                retiredCounters.add(entry.getValue());
+                entries.remove();
+            }
+        }
+    }
+
+    /** The number of threads whose counters are still tracked one by one. */
+    static int countingThreadCount() {
+        synchronized (allCounters) {
+            retireFinishedThreads();
+            return allCounters.size();
+        }
+    }
+
+    /**
+     * Makes the statistics readable over JMX, as {@link #MBEAN_NAME} on the
+     * platform MBean server. Does nothing if they already are.
+     */
+    public static void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(MBEAN_NAME);
+        if (!server.isRegistered(name)) {
+            server.registerMBean(new MBean(), name);
+        }
+    }
+
+    static int shapeTypeIndex(Class<?> type) {
+        return shapeTypeIndices.get(type);
+    }
+
+    static List<String> shapeTypeNames() {
+        synchronized (shapeTypeNames) {
+            return new ArrayList<>(shapeTypeNames);
+        }
+    }
+
+    private static class MBean implements RenderStatisticsMXBean {
+        @Override
+        public long getPrimaryRays() {
+            return total().primaryRays;
+        }
+
+        @Override
+        public long getShadowRays() {
+            return total().shadowRays;
+        }
+
+        @Override
+        public long getShadowCacheHits() {
+            return total().shadowCacheHits;
+        }
+
+        @Override
+        public long getReflectionRays() {
+            return total().reflectionRays;
+        }
+
+        @Override
+        public int getMaxDepth() {
+            return total().maxDepth;
+        }
+
+        @Override
+        public long getNodesVisited() {
+            return total().nodesVisited;
+        }
+
+        @Override
+        public Map<String, Long> getIntersectionTests() {
+            return total().getIntersectionTests();
+        }
+
+        @Override
+        public long getTilesRendered() {
+            return total().tilesRendered;
+        }
+
+        @Override
+        public double getTileMillis() {
+            return total().tileNanos / 1e6;
+        }
+
+        @Override
+        public double getSlowestTileMillis() {
+            return total().slowestTileNanos / 1e6;
+        }
+
+        @Override
+        public void reset() {
+            RenderStatistics.reset();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package rht.raytracer.statistics;
+
+import java.util.Map;
+
+/**
+ * The render statistics as seen over JMX, totalled over every rendering
+ * thread. Values read during a render are approximate.
+ */
+public interface RenderStatisticsMXBean {
+    public long getPrimaryRays();
+
+    public long getShadowRays();
+
+    public long getShadowCacheHits();
+
+    public long getReflectionRays();
+
+    public int getMaxDepth();
+
+    public long getNodesVisited();
+
+    /** Intersection tests against each type of shape, by class name. */
+    public Map<String, Long> getIntersectionTests();
+
+    public long getTilesRendered();
+
+    public double getTileMillis();
+
+    public double getSlowestTileMillis();
+
+    /** Sets every count back to zero. */
+    public void reset();
+}
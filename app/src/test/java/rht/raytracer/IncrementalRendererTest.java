@@ -0,0 +1,112 @@
+package rht.raytracer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static rht.raytracer.SceneHelpers.testCamera;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import rht.raytracer.maths.Vec3;
+import rht.raytracer.shapes.Plane;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.shapes.Sphere;
+
+public class IncrementalRendererTest {
+    private static final int WIDTH = 96;
+    private static final int HEIGHT = 64;
+
+    /** A floor with a grid of small spheres on it, the first of which is shiny. */
+    private static List<Shape> gridObjects() {
+        List<Shape> objects = new ArrayList<>();
+        for (int i = 0; i < 25; ++i) {
+            Colour reflection = i == 0 ? new Colour(0.5, 0.5, 0.5) : Colour.BLACK;
+            objects.add(new Shape(new Sphere(new Vec3(i % 5 - 2.0, 0.7, i / 5 * 1.5 + 1.0), 0.3),
+                    new Colour(1.0, 0.8, 0.6), reflection));
+        }
+        objects.add(new Shape(new Plane(new Vec3(0.0, 1.0, 0.0), new Vec3(0.0, -1.0, 0.0)), Colour.WHITE,
+                new Colour(0.2, 0.2, 0.2)));
+        return objects;
+    }
+
+    private static Scene gridScene(List<Shape> objects) {
+        List<Light> lights = new ArrayList<>();
+        lights.add(new Light(new Vec3(3.0, -5.0, -2.0), Colour.WHITE));
+        lights.add(new Light(new Vec3(-3.0, -4.0, 8.0), new Colour(0.5, 0.5, 0.8)));
+        return new Scene(objects, lights);
+    }
+
+    private static Shape moved(Shape object, double dx, double dy, double dz) {
+        Sphere sphere = (Sphere) object.getShapeType();
+        Sphere movedSphere = new Sphere(sphere.getCentre().plus(new Vec3(dx, dy, dz)), sphere.getRadius());
+        return new Shape(movedSphere, object.getColour(), object.getReflectionColour());
+    }
+
+    @Test
+    public void testEditsMatchFullRenders() {
+        for (int threads : new int[] { 1, 3 }) {
+            List<Shape> objects = gridObjects();
+            Scene scene = gridScene(objects);
+            IncrementalRenderer renderer = new IncrementalRenderer(scene, testCamera(), WIDTH, HEIGHT, threads, 16,
+                    null);
+            renderer.render();
+
+            Shape original = objects.get(12);
+            Shape nudged = moved(original, 0.2, 0.0, 0.1);
+            List<Tile> rendered = renderer.replaceObjects(Map.of(original, nudged));
+            assertFalse(rendered.isEmpty());
+            assertTrue(rendered.size() + " tiles", rendered.size() < renderer.getTileCount() / 2);
+            assertArrayEquals(new TileRenderer(scene, testCamera(), WIDTH, HEIGHT, 1).render(),
+                    renderer.getPixels());
+
+            // Moving the sphere in front of the grid puts it where rays met only
+            // the floor. The shiny sphere shows its neighbours, and they shadow
+            // each other.
+            Shape shiny = objects.get(0);
+            renderer.replaceObjects(Map.of(nudged, moved(original, 1.5, 0.0, -5.0)));
+            renderer.replaceObjects(Map.of(shiny, moved(shiny, 0.0, 0.0, 0.4)));
+            assertArrayEquals(new TileRenderer(scene, testCamera(), WIDTH, HEIGHT, 1).render(),
+                    renderer.getPixels());
+        }
+    }
+
+    @Test
+    public void testEditsMatchFullRendersWhenAntiAliasing() {
+        List<Shape> objects = gridObjects();
+        Scene scene = gridScene(objects);
+        Supersampling supersampling = new Supersampling(1, 8, 0.05);
+        IncrementalRenderer renderer = new IncrementalRenderer(scene, testCamera(), WIDTH, HEIGHT, 2, 16,
+                supersampling);
+        renderer.render();
+
+        renderer.replaceObjects(Map.of(objects.get(7), moved(objects.get(7), -0.3, 0.0, 0.0)));
+        assertArrayEquals(new TileRenderer(scene, testCamera(), WIDTH, HEIGHT, 1, 16, supersampling).render(),
+                renderer.getPixels());
+    }
+
+    @Test
+    public void testUnboundedReplacementRendersEverything() {
+        List<Shape> objects = gridObjects();
+        Scene scene = gridScene(objects);
+        IncrementalRenderer renderer = new IncrementalRenderer(scene, testCamera(), WIDTH, HEIGHT, 2);
+        renderer.render();
+
+        Shape floor = objects.get(objects.size() - 1);
+        Shape blueFloor = new Shape(floor.getShapeType(), new Colour(0.5, 0.5, 1.0), floor.getReflectionColour());
+        assertEquals(renderer.getTileCount(), renderer.replaceObjects(Map.of(floor, blueFloor)).size());
+        assertEquals(2L * renderer.getTileCount(), renderer.getTilesRendered());
+        assertArrayEquals(new TileRenderer(scene, testCamera(), WIDTH, HEIGHT, 1).render(), renderer.getPixels());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEditBeforeRender() {
+        List<Shape> objects = gridObjects();
+        new IncrementalRenderer(gridScene(objects), testCamera(), WIDTH, HEIGHT, 1)
+                .replaceObjects(Map.of(objects.get(0), moved(objects.get(0), 0.1, 0.0, 0.0)));
+    }
+}
@@ -0,0 +1,191 @@
+package rht.raytracer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import rht.raytracer.acceleration.AcceleratorType;
+
+public class RenderOptionsTest {
+
+    @Test
+    public void testParse() {
+        RenderOptions options = RenderOptions.parse(
+                new String[] { "--width", "640", "--height", "480", "--threads", "3", "--output", "frame.png" });
+
+        assertEquals(640, options.width);
+        assertEquals(480, options.height);
+        assertEquals(3, options.threads);
+        assertEquals("frame.png", options.output);
+        assertTrue(options.isHeadless());
+    }
+
+    @Test
+    public void testDefaults() {
+        RenderOptions options = RenderOptions.parse(new String[0]);
+
+        assertEquals(1000, options.width);
+        assertEquals(1000, options.height);
+        assertFalse(options.isHeadless());
+        assertFalse(options.singlePrecision);
+        assertTrue(RenderOptions.parse(new String[] { "--single-precision" }).singlePrecision);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingValue() {
+        RenderOptions.parse(new String[] { "--width" });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositive() {
+        RenderOptions.parse(new String[] { "--threads", "0" });
+    }
+
+    @Test
+    public void testOutputFormat() {
+        for (String output : new String[] { "frame.ppm", "frame.PFM", "frame.png", "frames/frame%04d.jpg" }) {
+            assertEquals(output, RenderOptions.parse(new String[] { "--output", output }).output);
+        }
+        for (String output : new String[] { "out", "frame.xyz", "frame." }) {
+            try {
+                RenderOptions.parse(new String[] { "--output", output });
+                fail("Expected --output " + output + " to be rejected.");
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+    }
+
+    @Test
+    public void testSupersampling() {
+        assertNull(RenderOptions.parse(new String[0]).supersampling());
+
+        Supersampling supersampling = RenderOptions.parse(new String[] { "--samples", "4" }).supersampling();
+        assertEquals(4, supersampling.initialSamples);
+        assertEquals(64, supersampling.maxSamples);
+
+        supersampling = RenderOptions
+                .parse(new String[] { "--samples", "2", "--max-samples", "8", "--aa-threshold", "0.1" })
+                .supersampling();
+        assertEquals(8, supersampling.maxSamples);
+        assertEquals(0.1, supersampling.threshold, 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxSamplesBelowSamples() {
+        RenderOptions.parse(new String[] { "--samples", "8", "--max-samples", "4" });
+    }
+
+    @Test
+    public void testReflectionLimits() {
+        ReflectionLimits limits = RenderOptions.parse(new String[0]).reflectionLimits();
+        assertEquals(ReflectionLimits.DEFAULT_MAX_DEPTH, limits.maxDepth);
+        assertEquals(ReflectionLimits.DEFAULT_CUTOFF, limits.cutoff, 0.0);
+        assertEquals(0.0, limits.rouletteThroughput, 0.0);
+
+        limits = RenderOptions
+                .parse(new String[] { "--max-depth", "0", "--reflection-cutoff", "0", "--roulette", "0.1" })
+                .reflectionLimits();
+        assertEquals(0, limits.maxDepth);
+        assertEquals(0.0, limits.cutoff, 0.0);
+        assertEquals(0.1, limits.rouletteThroughput, 0.0);
+    }
+
+    @Test
+    public void testLightSampling() {
+        LightSampling sampling = RenderOptions.parse(new String[0]).lightSampling();
+        assertEquals(0.0, sampling.cutoff, 0.0);
+        assertEquals(0, sampling.samples);
+
+        sampling = RenderOptions.parse(new String[] { "--light-cutoff", "0.001", "--light-samples", "4" })
+                .lightSampling();
+        assertEquals(0.001, sampling.cutoff, 0.0);
+        assertEquals(4, sampling.samples);
+    }
+
+    @Test
+    public void testAccelerator() {
+        assertEquals(AcceleratorType.BVH, RenderOptions.parse(new String[0]).accelerator);
+        assertEquals(AcceleratorType.OCTREE,
+                RenderOptions.parse(new String[] { "--accelerator", "octree" }).accelerator);
+        assertEquals(AcceleratorType.AUTO, RenderOptions.parse(new String[] { "--accelerator", "AUTO" }).accelerator);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownAccelerator() {
+        RenderOptions.parse(new String[] { "--accelerator", "kd-tree" });
+    }
+
+    @Test
+    public void testDistributed() {
+        assertFalse(RenderOptions.parse(new String[0]).isDistributed());
+
+        RenderOptions options = RenderOptions.parse(new String[] { "--workers", "4", "--output", "frame.png" });
+        assertEquals(4, options.workers);
+        assertTrue(options.isDistributed());
+
+        options = RenderOptions.parse(new String[] { "--listen", "7000", "--output", "frame.png" });
+        assertEquals(7000, options.listen);
+        assertTrue(options.isDistributed());
+
+        options = RenderOptions.parse(new String[] { "--worker", "render-host:7000" });
+        assertEquals("render-host", options.workerHost);
+        assertEquals(7000, options.workerPort);
+        assertFalse(options.isDistributed());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDistributedNeedsOutput() {
+        RenderOptions.parse(new String[] { "--workers", "2" });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWorkerNeedsPort() {
+        RenderOptions.parse(new String[] { "--worker", "render-host" });
+    }
+
+    @Test
+    public void testAnimation() {
+        RenderOptions options = RenderOptions
+                .parse(new String[] { "--animation", "fly.anim", "--output", "frames/frame%04d.png" });
+        assertEquals("fly.anim", options.animation);
+        assertEquals("frames/frame%04d.png", options.output);
+    }
+
+    @Test
+    public void testAnimationNeedsNumberedOutput() {
+        String[][] invalid = {
+                { "--animation", "fly.anim" },
+                { "--animation", "fly.anim", "--output", "frame.png" },
+                { "--animation", "fly.anim", "--output", "frame%%.png" },
+                { "--animation", "fly.anim", "--output", "frame%s%s.png" },
+                { "--animation", "fly.anim", "--output", "frame%d.png", "--workers", "2" },
+        };
+        for (String[] args : invalid) {
+            try {
+                RenderOptions.parse(args);
+                fail("Expected " + String.join(" ", args) + " to be rejected.");
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+    }
+
+    @Test
+    public void testCache() {
+        RenderOptions options = RenderOptions.parse(
+                new String[] { "--cache", "renders", "--cache-size", "64", "--output", "frame.png" });
+        assertEquals("renders", options.cache);
+        assertEquals(64L << 20, options.cacheBytes);
+        assertNull(RenderOptions.parse(new String[0]).cache);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCacheNeedsOutput() {
+        RenderOptions.parse(new String[] { "--cache", "renders" });
+    }
+}
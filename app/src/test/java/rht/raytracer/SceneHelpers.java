@@ -0,0 +1,39 @@
+package rht.raytracer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import rht.raytracer.maths.Vec3;
+import rht.raytracer.shapes.Plane;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.shapes.Sphere;
+
+public class SceneHelpers {
+    /** Two spheres, the larger one shiny, over a shiny floor. */
+    public static List<Shape> testObjects() {
+        List<Shape> objects = new ArrayList<>();
+        objects.add(new Shape(new Sphere(new Vec3(-0.5, 0.0, 3.0), 1.0), new Colour(1.0, 0.5, 0.5),
+                new Colour(0.3, 0.3, 0.3)));
+        objects.add(new Shape(new Sphere(new Vec3(0.8, 0.2, 2.0), 0.5), new Colour(0.5, 0.5, 1.0)));
+        objects.add(new Shape(new Plane(new Vec3(0.0, 1.0, 0.0), new Vec3(0.0, -1.0, 0.0)), Colour.WHITE,
+                new Colour(0.5, 0.5, 0.5)));
+        return objects;
+    }
+
+    /** One white light above and behind the camera. */
+    public static List<Light> testLights() {
+        List<Light> lights = new ArrayList<>();
+        lights.add(new Light(new Vec3(0.0, -5.0, -5.0), Colour.WHITE));
+        return lights;
+    }
+
+    public static Scene testScene() {
+        return new Scene(testObjects(), testLights());
+    }
+
+    /** A camera five units in front of the origin, looking at it along the z axis. */
+    public static Camera testCamera() {
+        return new Camera(new Vec3(0.0, 0.0, -5.0), new Vec3(0.0, 0.0, -2.0), new Vec3(1.0, 0.0, 0.0),
+                new Vec3(0.0, 1.0, 0.0));
+    }
+}
@@ -0,0 +1,355 @@
+package rht.raytracer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static rht.raytracer.SceneHelpers.testCamera;
+import static rht.raytracer.SceneHelpers.testScene;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import rht.raytracer.acceleration.AcceleratorProbe;
+import rht.raytracer.acceleration.AcceleratorType;
+import rht.raytracer.maths.Vec3;
+import rht.raytracer.shapes.Plane;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.shapes.Sphere;
+
+public class TileRendererTest {
+    private static final int WIDTH = 67;
+    private static final int HEIGHT = 45;
+
+    @Test
+    public void testParallelMatchesSerial() {
+        Scene scene = testScene();
+        Camera camera = testCamera();
+
+        int[] expected = new int[WIDTH * HEIGHT];
+        for (int x = 0; x < WIDTH; ++x) {
+            for (int y = 0; y < HEIGHT; ++y) {
+                Ray ray = camera.rayForPixel(x * 2.0 / WIDTH - 1.0, y * 2.0 / HEIGHT - 1.0);
+                expected[y * WIDTH + x] = scene.colourForRay(ray).toRGBInt();
+            }
+        }
+
+        assertArrayEquals(expected, new TileRenderer(scene, camera, WIDTH, HEIGHT, 1).render());
+        assertArrayEquals(expected, new TileRenderer(scene, camera, WIDTH, HEIGHT, 4, 8).render());
+    }
+
+    @Test
+    public void testTilesCoverImage() {
+        TileRenderer renderer = new TileRenderer(testScene(), testCamera(), WIDTH, HEIGHT, 1, 32);
+        List<Tile> tiles = renderer.tiles();
+
+        assertEquals(6, tiles.size());
+        int area = 0;
+        for (Tile tile : tiles) {
+            area += tile.width * tile.height;
+        }
+        assertEquals(WIDTH * HEIGHT, area);
+        assertEquals(new Tile(64, 32, 3, 13), tiles.get(5));
+    }
+
+    @Test
+    public void testProgressiveMatchesFullRender() {
+        TileRenderer renderer = new TileRenderer(testScene(), testCamera(), WIDTH, HEIGHT, 2, 16);
+        int[] expected = renderer.render();
+
+        int[] pixels = new int[WIDTH * HEIGHT];
+        AtomicInteger tilesDone = new AtomicInteger();
+        renderer.renderProgressive(pixels, tile -> tilesDone.incrementAndGet());
+
+        assertArrayEquals(expected, pixels);
+        // One callback per tile per pass, for steps of 16, 8, 4, 2 and 1.
+        assertEquals(renderer.tiles().size() * 5, tilesDone.get());
+    }
+
+    @Test
+    public void testSupersamplingIndependentOfTiles() {
+        Supersampling supersampling = new Supersampling(4);
+        int[] expected = new TileRenderer(testScene(), testCamera(), WIDTH, HEIGHT, 1, 64, supersampling).render();
+
+        assertArrayEquals(expected,
+                new TileRenderer(testScene(), testCamera(), WIDTH, HEIGHT, 4, 8, supersampling).render());
+        int[] pixels = new int[WIDTH * HEIGHT];
+        new TileRenderer(testScene(), testCamera(), WIDTH, HEIGHT, 2, 16, supersampling).renderProgressive(pixels,
+                tile -> {
+                });
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test
+    public void testSupersamplingAdapts() {
+        TileRenderer renderer = new TileRenderer(testScene(), testCamera(), WIDTH, HEIGHT, 1, 32,
+                new Supersampling(4, 64, 0.02));
+        renderer.render();
+        double average = renderer.getSamplesTraced() / (double) (WIDTH * HEIGHT);
+        // Edges are refined, but most of the image is smooth.
+        assertTrue(average > 4.0);
+        assertTrue(average < 16.0);
+
+        // A threshold of 1 can never be exceeded, so no pixel is refined.
+        renderer = new TileRenderer(testScene(), testCamera(), WIDTH, HEIGHT, 1, 32, new Supersampling(4, 64, 1.0));
+        renderer.render();
+        assertEquals(4L * WIDTH * HEIGHT, renderer.getSamplesTraced());
+    }
+
+    @Test
+    public void testReflectionCutoff() {
+        Scene scene = testScene();
+        Camera camera = testCamera();
+        scene.setReflectionLimits(new ReflectionLimits(ReflectionLimits.DEFAULT_MAX_DEPTH, 0.0, 0.0));
+        int[] expected = new TileRenderer(scene, camera, WIDTH, HEIGHT, 1).render();
+
+        // Cutting off reflections too dim to see changes pixels by at most one step.
+        scene.setReflectionLimits(new ReflectionLimits(ReflectionLimits.DEFAULT_MAX_DEPTH, 1.0 / 2048, 0.0));
+        int[] pixels = new TileRenderer(scene, camera, WIDTH, HEIGHT, 1).render();
+        for (int i = 0; i < pixels.length; ++i) {
+            for (int shift = 0; shift < 24; shift += 8) {
+                assertTrue(Math.abs((expected[i] >> shift & 0xff) - (pixels[i] >> shift & 0xff)) <= 1);
+            }
+        }
+
+        // With no reflections, the reflective surfaces look different.
+        scene.setReflectionLimits(new ReflectionLimits(0, 0.0, 0.0));
+        assertFalse(Arrays.equals(expected, new TileRenderer(scene, camera, WIDTH, HEIGHT, 1).render()));
+    }
+
+    @Test
+    public void testDefaultReflectionsMatchRecursiveTracing() {
+        // Facing mirrors with a light close to them, so that reflections of the
+        // brightly lit walls are still visible after several bounces.
+        List<Shape> objects = new ArrayList<>();
+        Colour reflection = new Colour(0.45, 0.45, 0.45);
+        objects.add(new Shape(new Plane(new Vec3(-2.0, 0.0, 0.0), new Vec3(1.0, 0.0, 0.0)),
+                new Colour(0.2, 0.2, 0.2), reflection));
+        objects.add(new Shape(new Plane(new Vec3(2.0, 0.0, 0.0), new Vec3(-1.0, 0.0, 0.0)),
+                new Colour(0.2, 0.2, 0.2), reflection));
+        objects.add(new Shape(new Plane(new Vec3(0.0, 0.0, 6.0), new Vec3(0.0, 0.0, -1.0)),
+                new Colour(0.1, 0.1, 0.1), reflection));
+        objects.add(new Shape(new Plane(new Vec3(0.0, 1.5, 0.0), new Vec3(0.0, -1.0, 0.0)),
+                new Colour(0.2, 0.2, 0.2), reflection));
+        objects.add(new Shape(new Plane(new Vec3(0.0, -1.5, 0.0), new Vec3(0.0, 1.0, 0.0)),
+                new Colour(0.2, 0.2, 0.2), reflection));
+        objects.add(new Shape(new Sphere(new Vec3(-0.6, 0.5, 3.0), 0.6), new Colour(1.0, 0.3, 0.3),
+                new Colour(0.3, 0.3, 0.3)));
+        objects.add(new Shape(new Sphere(new Vec3(0.7, -0.3, 2.0), 0.5), new Colour(0.3, 1.0, 0.3),
+                new Colour(0.3, 0.3, 0.3)));
+        List<Light> lights = new ArrayList<>();
+        lights.add(new Light(new Vec3(0.0, -1.2, 1.0), Colour.WHITE));
+        lights.add(new Light(new Vec3(1.0, 1.0, -2.0), new Colour(0.5, 0.5, 0.5)));
+        Scene scene = new Scene(objects, lights);
+        Camera camera = new Camera(new Vec3(0.0, 0.0, -4.0), new Vec3(0.0, 0.0, -2.0), new Vec3(1.0, 0.0, 0.0),
+                new Vec3(0.0, 1.0, 0.0));
+
+        boolean cutoffVisible = false;
+        ReflectionLimits cutoff = new ReflectionLimits(ReflectionLimits.DEFAULT_MAX_DEPTH, 1.0 / 2048, 0.0);
+        for (int x = 0; x < WIDTH; ++x) {
+            for (int y = 0; y < HEIGHT; ++y) {
+                Ray ray = camera.rayForPixel(x * 2.0 / WIDTH - 1.0, y * 2.0 / HEIGHT - 1.0);
+                int expected = recursiveColour(scene, objects, ray, ReflectionLimits.DEFAULT_MAX_DEPTH, null)
+                        .toRGBInt();
+                scene.setReflectionLimits(ReflectionLimits.DEFAULT);
+                assertEquals(expected, scene.colourForRay(ray).toRGBInt());
+                scene.setReflectionLimits(cutoff);
+                cutoffVisible |= scene.colourForRay(ray).toRGBInt() != expected;
+            }
+        }
+        // The scene is one in which a throughput cutoff would show.
+        assertTrue(cutoffVisible);
+    }
+
+    /**
+     * Traces a ray by recursion, one reflection at a time, as the scene used
+     * to. The scene itself only lights each hit, with reflections turned off.
+     */
+    private static Colour recursiveColour(Scene scene, List<Shape> objects, Ray ray, int recursionLimit,
+            Shape ignored) {
+        Shape closest = null;
+        double closestDistance = Double.POSITIVE_INFINITY;
+        Vec3 origin = ray.getOrigin();
+        Vec3 direction = ray.getDirection();
+        for (Shape object : objects) {
+            double distance = object.getShapeType().intersectDistance(origin.x, origin.y, origin.z, direction.x,
+                    direction.y, direction.z);
+            if (object != ignored && distance < closestDistance) {
+                closest = object;
+                closestDistance = distance;
+            }
+        }
+        if (closest == null) {
+            return Colour.BLACK;
+        }
+        Colour local = scene.colourForRay(ray, 0, ignored);
+        Colour reflectionColour = closest.getReflectionColour();
+        if (recursionLimit == 0 || reflectionColour.equals(Colour.BLACK)) {
+            return local;
+        }
+        Vec3 point = ray.distanceAlong(closestDistance);
+        Vec3 normal = closest.getShapeType().normalAtPoint(point);
+        Vec3 reflected = direction.minus(normal.times(2 * normal.dot(direction)));
+        Colour seen = recursiveColour(scene, objects, new Ray(point, reflected), recursionLimit - 1, closest);
+        return new Colour(local.r + seen.r * reflectionColour.r, local.g + seen.g * reflectionColour.g,
+                local.b + seen.b * reflectionColour.b);
+    }
+
+    @Test
+    public void testSinglePrecision() {
+        Scene scene = testScene();
+        Camera camera = testCamera();
+        int[] expected = new TileRenderer(scene, camera, WIDTH, HEIGHT, 1).render();
+
+        // Rounding the spheres to floats moves them too little to change the image
+        // by more than one step.
+        scene.setSinglePrecision(true);
+        int[] pixels = new TileRenderer(scene, camera, WIDTH, HEIGHT, 1).render();
+        for (int i = 0; i < pixels.length; ++i) {
+            for (int shift = 0; shift < 24; shift += 8) {
+                assertTrue(Math.abs((expected[i] >> shift & 0xff) - (pixels[i] >> shift & 0xff)) <= 1);
+            }
+        }
+    }
+
+    @Test
+    public void testRouletteIndependentOfThreads() {
+        Scene scene = testScene();
+        Camera camera = testCamera();
+        scene.setReflectionLimits(new ReflectionLimits(ReflectionLimits.DEFAULT_MAX_DEPTH, 0.0, 0.5));
+        int[] expected = new TileRenderer(scene, camera, WIDTH, HEIGHT, 1).render();
+
+        assertArrayEquals(expected, new TileRenderer(scene, camera, WIDTH, HEIGHT, 4, 8).render());
+    }
+
+    /** A floor covered in small spheres, some of them shiny, with the test scene's light. */
+    private static Scene sphereFieldScene() {
+        Random random = new Random(17);
+        List<Shape> objects = new ArrayList<>(testScene().getUnboundedObjects());
+        for (int i = 0; i < 400; ++i) {
+            Vec3 centre = new Vec3(random.nextDouble() * 8 - 4, random.nextDouble() * 1.5 - 0.9,
+                    random.nextDouble() * 8);
+            objects.add(new Shape(new Sphere(centre, 0.05 + random.nextDouble() * 0.1), new Colour(1.0, 0.8, 0.6),
+                    i % 4 == 0 ? new Colour(0.5, 0.5, 0.5) : Colour.BLACK));
+        }
+        return new Scene(objects, testScene().getLights());
+    }
+
+    @Test
+    public void testAccelerators() {
+        Camera camera = testCamera();
+        Scene scene = sphereFieldScene();
+        int[] expected = new TileRenderer(scene, camera, WIDTH, HEIGHT, 1).render();
+        for (AcceleratorType type : new AcceleratorType[] { AcceleratorType.GRID, AcceleratorType.OCTREE }) {
+            scene.setAccelerator(type);
+            assertEquals(type, scene.getAcceleratorType());
+            assertArrayEquals(expected, new TileRenderer(scene, camera, WIDTH, HEIGHT, 2).render());
+        }
+        AcceleratorProbe probe = scene.chooseAccelerator(camera, WIDTH, HEIGHT);
+        assertEquals(probe.getChosenType(), scene.getAcceleratorType());
+        assertArrayEquals(expected, new TileRenderer(scene, camera, WIDTH, HEIGHT, 1).render());
+
+        // Replacing objects builds the grid again around them, so the image is the
+        // same as a new scene's with the moved objects.
+        scene.setAccelerator(AcceleratorType.GRID);
+        Map<Shape, Shape> replacements = new HashMap<>();
+        for (int i = 0; i < scene.getHierarchy().size(); i += 3) {
+            Shape object = scene.getHierarchy().getShape(i);
+            Sphere sphere = (Sphere) object.getShapeType();
+            replacements.put(object, new Shape(new Sphere(sphere.getCentre().plus(new Vec3(0.3, 0.0, -0.5)),
+                    sphere.getRadius()), object.getColour(), object.getReflectionColour()));
+        }
+        scene.replaceObjects(replacements);
+        List<Shape> objects = new ArrayList<>(scene.getUnboundedObjects());
+        for (int i = 0; i < scene.getHierarchy().size(); ++i) {
+            objects.add(scene.getHierarchy().getShape(i));
+        }
+        int[] movedImage = new TileRenderer(new Scene(objects, scene.getLights()), camera, WIDTH, HEIGHT, 1)
+                .render();
+        assertFalse(Arrays.equals(expected, movedImage));
+        assertArrayEquals(movedImage, new TileRenderer(scene, camera, WIDTH, HEIGHT, 1).render());
+    }
+
+    /**
+     * The test scene's objects lit by a ring of dim lights close by, then, if
+     * asked, a ring of dimmer lights much further away.
+     */
+    private static Scene manyLightScene(boolean farLights) {
+        List<Light> lights = new ArrayList<>();
+        for (int i = 0; i < 40; ++i) {
+            double angle = i * Math.PI / 20;
+            lights.add(new Light(new Vec3(6 * Math.cos(angle), -4.0, 3.0 + 6 * Math.sin(angle)),
+                    new Colour(0.05, 0.04, 0.03)));
+        }
+        for (int i = 0; farLights && i < 40; ++i) {
+            double angle = i * Math.PI / 20;
+            lights.add(new Light(new Vec3(500 * Math.cos(angle), -50.0, 500 * Math.sin(angle)),
+                    new Colour(0.01, 0.01, 0.01)));
+        }
+        List<Shape> objects = new ArrayList<>(testScene().getUnboundedObjects());
+        for (int i = 0; i < testScene().getHierarchy().size(); ++i) {
+            objects.add(testScene().getHierarchy().getShape(i));
+        }
+        return new Scene(objects, lights);
+    }
+
+    @Test
+    public void testLightCutoff() {
+        Camera camera = testCamera();
+        LightSampling sampling = new LightSampling(1e-3, 0);
+        Scene nearLights = manyLightScene(false);
+        float[] expected = new TileRenderer(nearLights, camera, WIDTH, HEIGHT, 1).renderHighDynamicRange();
+
+        // Each skipped light adds less than the cutoff to a point, and reflections
+        // at most double what reaches the camera.
+        nearLights.setLightSampling(sampling);
+        float[] culled = new TileRenderer(nearLights, camera, WIDTH, HEIGHT, 1).renderHighDynamicRange();
+        assertArrayEquals(expected, culled, (float) (2 * 40 * sampling.cutoff));
+
+        // The far lights reach no more than 20 units, not even down to the floor, so
+        // with them skipped the image is exactly the same as without them.
+        Scene scene = manyLightScene(true);
+        scene.setLightSampling(sampling);
+        assertArrayEquals(culled, new TileRenderer(scene, camera, WIDTH, HEIGHT, 1).renderHighDynamicRange(),
+                0.0f);
+        assertArrayEquals(culled, new TileRenderer(scene, camera, WIDTH, HEIGHT, 3, 8).renderHighDynamicRange(),
+                0.0f);
+        scene.setLightSampling(LightSampling.DEFAULT);
+        assertFalse(Arrays.equals(culled,
+                new TileRenderer(scene, camera, WIDTH, HEIGHT, 1).renderHighDynamicRange()));
+    }
+
+    @Test
+    public void testLightSampling() {
+        Scene scene = manyLightScene(false);
+        Camera camera = testCamera();
+        float[] expected = new TileRenderer(scene, camera, WIDTH, HEIGHT, 1).renderHighDynamicRange();
+
+        // Sampling a few lights at each point is noisy, but the same whatever the
+        // threads, and right on average.
+        scene.setLightSampling(new LightSampling(0.0, 4));
+        float[] sampled = new TileRenderer(scene, camera, WIDTH, HEIGHT, 1).renderHighDynamicRange();
+        assertArrayEquals(sampled, new TileRenderer(scene, camera, WIDTH, HEIGHT, 4, 8).renderHighDynamicRange(),
+                0.0f);
+        assertFalse(Arrays.equals(expected, sampled));
+        double expectedTotal = 0.0;
+        double sampledTotal = 0.0;
+        for (int i = 0; i < expected.length; ++i) {
+            expectedTotal += expected[i];
+            sampledTotal += sampled[i];
+        }
+        assertEquals(1.0, sampledTotal / expectedTotal, 0.05);
+
+        // With as many samples as lights, every light is traced.
+        scene.setLightSampling(new LightSampling(0.0, 40));
+        assertArrayEquals(expected, new TileRenderer(scene, camera, WIDTH, HEIGHT, 1).renderHighDynamicRange(),
+                0.0f);
+    }
+}
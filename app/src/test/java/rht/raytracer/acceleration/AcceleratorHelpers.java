@@ -0,0 +1,130 @@
+package rht.raytracer.acceleration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import rht.raytracer.Colour;
+import rht.raytracer.ObjectAndDistance;
+import rht.raytracer.RayPacket;
+import rht.raytracer.maths.BoundingBox;
+import rht.raytracer.maths.Matrix;
+import rht.raytracer.maths.Vec3;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.shapes.Sphere;
+import rht.raytracer.shapes.Transformed;
+
+public class AcceleratorHelpers {
+    /** Small spheres spread evenly through a cube, with every tenth one stretched. */
+    public static List<Shape> scatteredObjects(Random random, int count) {
+        List<Shape> objects = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            Vec3 centre = new Vec3(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5,
+                    random.nextDouble() * 10 - 5);
+            Sphere sphere = new Sphere(centre, 0.05 + random.nextDouble() * 0.3);
+            objects.add(new Shape(i % 10 == 0 ? new Transformed(sphere, Matrix.scale(1, 2, 1)) : sphere,
+                    Colour.WHITE));
+        }
+        return objects;
+    }
+
+    /**
+     * Tiny spheres bunched into a few clusters far apart, with a few large spheres
+     * overlapping many of them.
+     */
+    public static List<Shape> clusteredObjects(Random random, int count) {
+        List<Shape> objects = new ArrayList<>();
+        Vec3[] clusters = new Vec3[5];
+        for (int i = 0; i < clusters.length; ++i) {
+            clusters[i] = new Vec3(random.nextDouble() * 100 - 50, random.nextDouble() * 100 - 50,
+                    random.nextDouble() * 100 - 50);
+        }
+        for (int i = 0; i < count; ++i) {
+            Vec3 centre = clusters[i % clusters.length].plus(new Vec3(random.nextGaussian(), random.nextGaussian(),
+                    random.nextGaussian()));
+            double radius = i % 50 == 0 ? 3.0 : 0.02 + random.nextDouble() * 0.1;
+            objects.add(new Shape(new Sphere(centre, radius), Colour.WHITE));
+        }
+        return objects;
+    }
+
+    /**
+     * Checks that an accelerator finds exactly the same hits as the hierarchy it
+     * was built over, for rays from outside and inside the shapes' box, some
+     * along the axes, some ignoring a shape and some stopping short. `spread`
+     * is about the width of the box.
+     */
+    public static void assertMatchesHierarchy(Accelerator accelerator, BoundingVolumeHierarchy hierarchy,
+            Random random, double spread) {
+        ObjectAndDistance expected = new ObjectAndDistance();
+        ObjectAndDistance actual = new ObjectAndDistance();
+        RayPacket packet = new RayPacket(8);
+        for (int i = 0; i < 3000; ++i) {
+            Vec3 origin = randomPoint(random, i % 3 == 0 ? spread : 4 * spread);
+            // Aim at a shape some of the time, so that sparse scenes are hit too.
+            Vec3 target = randomPoint(random, spread);
+            if (i % 5 < 3 && hierarchy.size() > 0) {
+                BoundingBox box = hierarchy.getShape(random.nextInt(hierarchy.size())).getShapeType().boundingBox();
+                target = box.min.plus(box.max).times(0.5);
+            }
+            Vec3 direction = target.minus(origin);
+            if (i % 7 == 0) {
+                // Along an axis, where a direction's other components are zero.
+                int axis = random.nextInt(3);
+                direction = new Vec3(axis == 0 ? direction.x : 0, axis == 1 ? direction.y : 0,
+                        axis == 2 ? direction.z : 0);
+            }
+            direction = direction.normalise();
+            Shape ignored = i % 2 == 0 || hierarchy.size() == 0 ? null
+                    : hierarchy.getShape(random.nextInt(hierarchy.size()));
+            double maxDistance = i % 4 == 0 ? random.nextDouble() * 4 * spread : Double.POSITIVE_INFINITY;
+
+            expected.object = null;
+            actual.object = null;
+            boolean found = hierarchy.findFirstIntersectionExcept(origin.x, origin.y, origin.z, direction.x,
+                    direction.y, direction.z, ignored, maxDistance, expected);
+            assertEquals(found, accelerator.findFirstIntersectionExcept(origin.x, origin.y, origin.z, direction.x,
+                    direction.y, direction.z, ignored, maxDistance, actual));
+            assertSame(expected.object, actual.object);
+            if (found) {
+                assertEquals(expected.distance, actual.distance, 0.0);
+            }
+
+            Shape any = accelerator.findAnyIntersectionExcept(origin.x, origin.y, origin.z, direction.x,
+                    direction.y, direction.z, ignored, maxDistance);
+            if (found) {
+                assertNotNull(any);
+                assertNotSame(ignored, any);
+            } else {
+                assertNull(any);
+            }
+            if (ignored != null) {
+                continue;
+            }
+
+            packet.originX = origin.x;
+            packet.originY = origin.y;
+            packet.originZ = origin.z;
+            packet.size = 1;
+            packet.directionX[0] = direction.x;
+            packet.directionY[0] = direction.y;
+            packet.directionZ[0] = direction.z;
+            packet.clearHits();
+            packet.distance[0] = maxDistance;
+            accelerator.findFirstIntersections(packet);
+            assertSame(expected.object, packet.hit[0]);
+            assertEquals(found ? expected.distance : maxDistance, packet.distance[0], 0.0);
+        }
+    }
+
+    private static Vec3 randomPoint(Random random, double spread) {
+        return new Vec3((random.nextDouble() - 0.5) * spread, (random.nextDouble() - 0.5) * spread,
+                (random.nextDouble() - 0.5) * spread);
+    }
+}
@@ -0,0 +1,388 @@
+package rht.raytracer.acceleration;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import rht.raytracer.Colour;
+import rht.raytracer.ObjectAndDistance;
+import rht.raytracer.Ray;
+import rht.raytracer.RayPacket;
+import rht.raytracer.maths.Matrix;
+import rht.raytracer.maths.Vec3;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.shapes.Sphere;
+import rht.raytracer.shapes.Transformed;
+
+public class BoundingVolumeHierarchyTest {
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    public void testMatchesLinearSearch() {
+        Random random = new Random(1234);
+        List<Shape> objects = new ArrayList<>();
+        for (int i = 0; i < 500; ++i) {
+            Vec3 centre = new Vec3(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5,
+                    random.nextDouble() * 10 - 5);
+            objects.add(new Shape(new Sphere(centre, 0.05 + random.nextDouble() * 0.3), Colour.WHITE));
+        }
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(objects);
+
+        for (int i = 0; i < 2000; ++i) {
+            Ray ray = new Ray(new Vec3(0, 0, -20),
+                    new Vec3(random.nextDouble() - 0.5, random.nextDouble() - 0.5, 1.0));
+            Shape ignored = i % 2 == 0 ? null : objects.get(random.nextInt(objects.size()));
+
+            Shape expected = null;
+            double expectedDistance = Double.POSITIVE_INFINITY;
+            for (Shape object : objects) {
+                Double distance = object.getShapeType().intersect(ray);
+                if (object != ignored && distance != null && distance < expectedDistance) {
+                    expected = object;
+                    expectedDistance = distance;
+                }
+            }
+
+            ObjectAndDistance actual = hierarchy.findFirstIntersectionExcept(ray, ignored,
+                    Double.POSITIVE_INFINITY);
+            if (expected == null) {
+                assertNull(actual);
+            } else {
+                assertSame(expected, actual.object);
+                assertEquals(expectedDistance, actual.distance, EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void testPacketMatchesSingleRays() {
+        Random random = new Random(4321);
+        List<Shape> objects = new ArrayList<>();
+        for (int i = 0; i < 500; ++i) {
+            Vec3 centre = new Vec3(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5,
+                    random.nextDouble() * 10 - 5);
+            Sphere sphere = new Sphere(centre, 0.05 + random.nextDouble() * 0.3);
+            if (i % 10 == 0) {
+                objects.add(new Shape(new Transformed(sphere, Matrix.scale(1, 2, 1)), Colour.WHITE));
+            } else {
+                objects.add(new Shape(sphere, Colour.WHITE));
+            }
+        }
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(objects);
+
+        RayPacket packet = new RayPacket(16);
+        for (int i = 0; i < 500; ++i) {
+            // Narrow packets, as from neighbouring pixels, and wide ones whose
+            // directions differ in sign.
+            double spread = i % 2 == 0 ? 0.02 : 2.0;
+            Vec3 origin = new Vec3(random.nextDouble() * 4 - 2, random.nextDouble() * 4 - 2, -20);
+            Vec3 centre = new Vec3(random.nextDouble() - 0.5, random.nextDouble() - 0.5, 1.0);
+            packet.originX = origin.x;
+            packet.originY = origin.y;
+            packet.originZ = origin.z;
+            packet.size = 1 + random.nextInt(16);
+            Vec3[] directions = new Vec3[packet.size];
+            for (int j = 0; j < packet.size; ++j) {
+                directions[j] = centre.plus(new Vec3((random.nextDouble() - 0.5) * spread,
+                        (random.nextDouble() - 0.5) * spread, 0)).normalise();
+                packet.directionX[j] = directions[j].x;
+                packet.directionY[j] = directions[j].y;
+                packet.directionZ[j] = directions[j].z;
+            }
+            packet.clearHits();
+            // Some rays already have a hit, which only closer ones should replace.
+            double[] maxDistances = new double[packet.size];
+            for (int j = 0; j < packet.size; ++j) {
+                maxDistances[j] = random.nextBoolean() ? Double.POSITIVE_INFINITY : 15 + random.nextDouble() * 10;
+                packet.distance[j] = maxDistances[j];
+            }
+            hierarchy.findFirstIntersections(packet);
+
+            for (int j = 0; j < packet.size; ++j) {
+                ObjectAndDistance expected = new ObjectAndDistance();
+                if (!hierarchy.findFirstIntersectionExcept(origin.x, origin.y, origin.z, directions[j].x,
+                        directions[j].y, directions[j].z, null, maxDistances[j], expected)) {
+                    assertNull(packet.hit[j]);
+                    assertEquals(maxDistances[j], packet.distance[j], 0.0);
+                } else {
+                    assertSame(expected.object, packet.hit[j]);
+                    assertEquals(expected.distance, packet.distance[j], 0.0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReplaceShapesRefits() {
+        Random random = new Random(555);
+        List<Shape> objects = new ArrayList<>();
+        for (int i = 0; i < 300; ++i) {
+            Vec3 centre = new Vec3(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5,
+                    random.nextDouble() * 10 - 5);
+            objects.add(new Shape(new Sphere(centre, 0.05 + random.nextDouble() * 0.3), Colour.WHITE));
+        }
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(objects);
+        double builtCost = hierarchy.getSurfaceAreaCost();
+        assertTrue(builtCost > 0.0);
+
+        // Move every third sphere, some staying plain spheres and some becoming
+        // transformed ones.
+        Map<Shape, Shape> replacements = new HashMap<>();
+        for (int i = 0; i < objects.size(); i += 3) {
+            Sphere sphere = (Sphere) objects.get(i).getShapeType();
+            Vec3 offset = new Vec3(random.nextDouble() * 6 - 3, random.nextDouble() * 6 - 3,
+                    random.nextDouble() * 6 - 3);
+            Shape moved = i % 2 == 0 ? new Shape(new Sphere(sphere.getCentre().plus(offset), sphere.getRadius()),
+                    Colour.WHITE)
+                    : new Shape(new Transformed(sphere, Matrix.translation(offset.x, offset.y, offset.z)),
+                            Colour.WHITE);
+            replacements.put(objects.get(i), moved);
+            objects.set(i, moved);
+        }
+        assertEquals(replacements.size(), hierarchy.replaceShapes(replacements));
+
+        for (int i = 0; i < 2000; ++i) {
+            Ray ray = new Ray(new Vec3(0, 0, -20),
+                    new Vec3(random.nextDouble() - 0.5, random.nextDouble() - 0.5, 1.0));
+            Shape expected = null;
+            double expectedDistance = Double.POSITIVE_INFINITY;
+            for (Shape object : objects) {
+                Double distance = object.getShapeType().intersect(ray);
+                if (distance != null && distance < expectedDistance) {
+                    expected = object;
+                    expectedDistance = distance;
+                }
+            }
+
+            ObjectAndDistance actual = hierarchy.findFirstIntersectionExcept(ray, null, Double.POSITIVE_INFINITY);
+            if (expected == null) {
+                assertNull(actual);
+            } else {
+                assertSame(expected, actual.object);
+                assertEquals(expectedDistance, actual.distance, EPSILON);
+            }
+        }
+        // Scattering a third of the spheres leaves the old tree worse than a new one.
+        assertTrue(hierarchy.getSurfaceAreaCost() > new BoundingVolumeHierarchy(objects).getSurfaceAreaCost());
+    }
+
+    @Test
+    public void testSinglePrecision() {
+        Random random = new Random(2468);
+        List<Shape> objects = new ArrayList<>();
+        List<Sphere> rounded = new ArrayList<>();
+        for (int i = 0; i < 500; ++i) {
+            Vec3 centre = new Vec3(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5,
+                    random.nextDouble() * 10 - 5);
+            double radius = 0.05 + random.nextDouble() * 0.3;
+            objects.add(new Shape(new Sphere(centre, radius), Colour.WHITE));
+            rounded.add(new Sphere(new Vec3((float) centre.x, (float) centre.y, (float) centre.z), (float) radius));
+        }
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(objects);
+        hierarchy.setSinglePrecision(true);
+        assertTrue(hierarchy.isSinglePrecision());
+
+        RayPacket packet = new RayPacket(1);
+        for (int i = 0; i < 2000; ++i) {
+            Ray ray = new Ray(new Vec3(0, 0, -20),
+                    new Vec3(random.nextDouble() - 0.5, random.nextDouble() - 0.5, 1.0));
+            int expected = -1;
+            double expectedDistance = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < rounded.size(); ++j) {
+                Double distance = rounded.get(j).intersect(ray);
+                if (distance != null && distance < expectedDistance) {
+                    expected = j;
+                    expectedDistance = distance;
+                }
+            }
+
+            // The rounded spheres are found exactly, both alone and in packets.
+            ObjectAndDistance actual = hierarchy.findFirstIntersectionExcept(ray, null, Double.POSITIVE_INFINITY);
+            Vec3 direction = ray.getDirection();
+            packet.originX = 0;
+            packet.originY = 0;
+            packet.originZ = -20;
+            packet.size = 1;
+            packet.directionX[0] = direction.x;
+            packet.directionY[0] = direction.y;
+            packet.directionZ[0] = direction.z;
+            packet.clearHits();
+            hierarchy.findFirstIntersections(packet);
+            if (expected < 0) {
+                assertNull(actual);
+                assertNull(packet.hit[0]);
+            } else {
+                assertSame(objects.get(expected), actual.object);
+                assertEquals(expectedDistance, actual.distance, EPSILON);
+                assertSame(objects.get(expected), packet.hit[0]);
+                assertEquals(actual.distance, packet.distance[0], 0.0);
+                // And they are hardly moved from the originals.
+                assertEquals(objects.get(expected).getShapeType().intersect(ray), actual.distance, 1e-5);
+            }
+        }
+    }
+
+    @Test
+    public void testAnyIntersectionAgreesWithClosest() {
+        Random random = new Random(99);
+        List<Shape> objects = new ArrayList<>();
+        for (int i = 0; i < 300; ++i) {
+            Vec3 centre = new Vec3(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5,
+                    random.nextDouble() * 10 - 5);
+            objects.add(new Shape(new Sphere(centre, 0.05 + random.nextDouble() * 0.3), Colour.WHITE));
+        }
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(objects);
+
+        for (int i = 0; i < 2000; ++i) {
+            Vec3 origin = new Vec3(0, 0, -20);
+            Vec3 direction = new Vec3(random.nextDouble() - 0.5, random.nextDouble() - 0.5, 1.0).normalise();
+            double maxDistance = 15 + random.nextDouble() * 10;
+
+            ObjectAndDistance closest = hierarchy.findFirstIntersectionExcept(new Ray(origin, direction), null,
+                    maxDistance);
+            Shape any = hierarchy.findAnyIntersectionExcept(origin.x, origin.y, origin.z, direction.x,
+                    direction.y, direction.z, null, maxDistance);
+            assertEquals(closest == null, any == null);
+            if (any != null) {
+                assertTrue(any.getShapeType().intersect(new Ray(origin, direction)) < maxDistance);
+            }
+        }
+    }
+
+    @Test
+    public void testMaxDistance() {
+        List<Shape> objects = new ArrayList<>();
+        Shape sphere = new Shape(new Sphere(new Vec3(0, 0, 5), 1), Colour.WHITE);
+        objects.add(sphere);
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(objects);
+        Ray ray = new Ray(new Vec3(0, 0, 0), new Vec3(0, 0, 1));
+
+        assertNull(hierarchy.findFirstIntersectionExcept(ray, null, 3.0));
+        assertSame(sphere, hierarchy.findFirstIntersectionExcept(ray, null, 5.0).object);
+        assertNull(hierarchy.findFirstIntersectionExcept(ray, sphere, 5.0));
+    }
+
+    @Test
+    public void testEmpty() {
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(new ArrayList<>());
+        assertNull(hierarchy.findFirstIntersectionExcept(new Ray(new Vec3(0, 0, 0), new Vec3(0, 0, 1)), null,
+                Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        Random random = new Random(7);
+        List<Shape> objects = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            Vec3 centre = new Vec3(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5,
+                    random.nextDouble() * 10 - 5);
+            Sphere sphere = new Sphere(centre, 0.05 + random.nextDouble() * 0.3);
+            if (i % 10 == 0) {
+                objects.add(new Shape(new Transformed(sphere, Matrix.scale(1, 2, 1)), Colour.WHITE));
+            } else {
+                objects.add(new Shape(sphere, Colour.WHITE));
+            }
+        }
+        BoundingVolumeHierarchy built = new BoundingVolumeHierarchy(objects);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        built.write(Channels.newChannel(bytes));
+        assertEquals(built.getDataSize(), bytes.size());
+
+        Shape[] shapes = new Shape[built.size()];
+        for (int i = 0; i < shapes.length; ++i) {
+            if (!built.isPackedSphere(i)) {
+                shapes[i] = built.getShape(i);
+            }
+        }
+        BoundingVolumeHierarchy read = BoundingVolumeHierarchy.read(ByteBuffer.wrap(bytes.toByteArray()), shapes,
+                (index, sphere) -> new Shape(sphere, Colour.BLACK));
+        assertEquals(built.getNodeCount(), read.getNodeCount());
+
+        for (int i = 0; i < 2000; ++i) {
+            Ray ray = new Ray(new Vec3(0, 0, -20),
+                    new Vec3(random.nextDouble() - 0.5, random.nextDouble() - 0.5, 1.0));
+            ObjectAndDistance expected = built.findFirstIntersectionExcept(ray, null, Double.POSITIVE_INFINITY);
+            ObjectAndDistance actual = read.findFirstIntersectionExcept(ray, null, Double.POSITIVE_INFINITY);
+            if (expected == null) {
+                assertNull(actual);
+                continue;
+            }
+            assertNotNull(actual);
+            assertEquals(expected.distance, actual.distance, 0.0);
+            if (expected.object.getShapeType() instanceof Sphere) {
+                Sphere expectedSphere = (Sphere) expected.object.getShapeType();
+                Sphere actualSphere = (Sphere) actual.object.getShapeType();
+                assertEquals(expectedSphere.getCentre(), actualSphere.getCentre());
+                assertEquals(expectedSphere.getRadius(), actualSphere.getRadius(), 0.0);
+                // Once created, the same shape is returned so that it can be ignored.
+                assertNull(read.findFirstIntersectionExcept(ray, actual.object, actual.distance + EPSILON));
+            } else {
+                assertSame(expected.object, actual.object);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelBuildMatchesSequential() {
+        // Enough primitives for the top nodes to be binned in parallel as well.
+        Random random = new Random(2718);
+        int count = 100_000;
+        double[] bounds = new double[count * 6];
+        for (int i = 0; i < count; ++i) {
+            for (int axis = 0; axis < 3; ++axis) {
+                double centre = i % 3 == 0 ? random.nextGaussian() : random.nextDouble() * 100;
+                double size = random.nextDouble() * 0.5;
+                bounds[i * 6 + axis] = centre - size;
+                bounds[i * 6 + 3 + axis] = centre + size;
+            }
+        }
+        BoundingVolumeBuilder sequential = new BoundingVolumeBuilder(bounds, count, false);
+        BoundingVolumeBuilder parallel = new BoundingVolumeBuilder(bounds, count, true);
+
+        int nodeCount = sequential.nodeCount;
+        assertEquals(nodeCount, parallel.nodeCount);
+        assertArrayEquals(sequential.order, parallel.order);
+        assertArrayEquals(Arrays.copyOf(sequential.nodeBounds, nodeCount * 6),
+                Arrays.copyOf(parallel.nodeBounds, nodeCount * 6), 0.0);
+        assertArrayEquals(Arrays.copyOf(sequential.nodeOffset, nodeCount),
+                Arrays.copyOf(parallel.nodeOffset, nodeCount));
+        assertArrayEquals(Arrays.copyOf(sequential.nodeItemCount, nodeCount),
+                Arrays.copyOf(parallel.nodeItemCount, nodeCount));
+
+        // With the gaps closed, the leaves cover every primitive once, in order, within their boxes.
+        int next = 0;
+        for (int node = 0; node < nodeCount; ++node) {
+            int items = parallel.nodeItemCount[node];
+            if (items == 0) {
+                assertTrue(parallel.nodeOffset[node] > node + 1 && parallel.nodeOffset[node] < nodeCount);
+                continue;
+            }
+            assertEquals(next, parallel.nodeOffset[node]);
+            for (int i = next; i < next + items; ++i) {
+                int primitive = parallel.order[i];
+                for (int axis = 0; axis < 3; ++axis) {
+                    assertTrue(parallel.nodeBounds[node * 6 + axis] <= bounds[primitive * 6 + axis]);
+                    assertTrue(parallel.nodeBounds[node * 6 + 3 + axis] >= bounds[primitive * 6 + 3 + axis]);
+                }
+            }
+            next += items;
+        }
+        assertEquals(count, next);
+    }
+}
@@ -0,0 +1,89 @@
+package rht.raytracer.acceleration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import rht.raytracer.maths.Vec3;
+
+public class LightGridTest {
+    /**
+     * Checks that the cell holding each point lists every light in range of it,
+     * in increasing order, and that points outside the grid are in range of
+     * none.
+     */
+    private static void assertFindsLightsInRange(Vec3[] positions, double[] ranges, Random random, double spread) {
+        LightGrid grid = new LightGrid(positions, ranges);
+        int[] lights = grid.getLightIndices();
+        for (int n = 0; n < 2000; ++n) {
+            Vec3 point = new Vec3((random.nextDouble() - 0.5) * spread, (random.nextDouble() - 0.5) * spread,
+                    (random.nextDouble() - 0.5) * spread);
+            int cell = grid.cellAt(point.x, point.y, point.z);
+            for (int light = 0; light < positions.length; ++light) {
+                Vec3 offset = positions[light].minus(point);
+                if (offset.dot(offset) > ranges[light] * ranges[light]) {
+                    continue;
+                }
+                assertTrue("Point " + point + " is in range of light " + light, cell >= 0);
+                boolean listed = false;
+                for (int i = grid.cellStart(cell); i < grid.cellEnd(cell); ++i) {
+                    listed |= lights[i] == light;
+                }
+                assertTrue("Light " + light + " is missing for " + point, listed);
+            }
+            for (int i = cell < 0 ? 0 : grid.cellStart(cell) + 1; cell >= 0 && i < grid.cellEnd(cell); ++i) {
+                assertTrue(lights[i - 1] < lights[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testFindsLightsInRange() {
+        Random random = new Random(5);
+        Vec3[] positions = new Vec3[300];
+        double[] ranges = new double[positions.length];
+        for (int i = 0; i < positions.length; ++i) {
+            positions[i] = new Vec3((random.nextDouble() - 0.5) * 100, (random.nextDouble() - 0.5) * 100,
+                    (random.nextDouble() - 0.5) * 10);
+            // Mostly short ranges, and a few lights which reach everywhere.
+            ranges[i] = i % 50 == 0 ? 200.0 : random.nextDouble() * 8;
+        }
+        assertFindsLightsInRange(positions, ranges, random, 120);
+
+        // A point only looks at the few lights near it, besides those which reach
+        // everywhere.
+        LightGrid grid = new LightGrid(positions, ranges);
+        long listed = 0;
+        for (int n = 0; n < 1000; ++n) {
+            int cell = grid.cellAt((random.nextDouble() - 0.5) * 100, (random.nextDouble() - 0.5) * 100,
+                    (random.nextDouble() - 0.5) * 10);
+            listed += grid.cellEnd(cell) - grid.cellStart(cell);
+        }
+        assertTrue(listed / 1000.0 + " lights per point", listed < 30 * 1000);
+    }
+
+    @Test
+    public void testSingleLight() {
+        Random random = new Random(6);
+        assertFindsLightsInRange(new Vec3[] { new Vec3(1, 2, 3) }, new double[] { 2.5 }, random, 12);
+        LightGrid grid = new LightGrid(new Vec3[] { new Vec3(1, 2, 3) }, new double[] { 2.5 });
+        assertEquals(-1, grid.cellAt(1, 2, 6));
+        assertEquals(-1, grid.cellAt(Double.NaN, 2, 3));
+    }
+
+    @Test
+    public void testNoLights() {
+        LightGrid grid = new LightGrid(new Vec3[0], new double[0]);
+        int cell = grid.cellAt(0, 0, 0);
+        assertTrue(cell < 0 || grid.cellStart(cell) == grid.cellEnd(cell));
+        assertEquals(-1, grid.cellAt(5, 0, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInfiniteRange() {
+        new LightGrid(new Vec3[] { new Vec3(0, 0, 0) }, new double[] { Double.POSITIVE_INFINITY });
+    }
+}
@@ -0,0 +1,72 @@
+package rht.raytracer.acceleration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static rht.raytracer.acceleration.AcceleratorHelpers.assertMatchesHierarchy;
+import static rht.raytracer.acceleration.AcceleratorHelpers.clusteredObjects;
+import static rht.raytracer.acceleration.AcceleratorHelpers.scatteredObjects;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import rht.raytracer.Colour;
+import rht.raytracer.ObjectAndDistance;
+import rht.raytracer.maths.Vec3;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.shapes.Sphere;
+
+public class OctreeTest {
+    @Test
+    public void testMatchesHierarchy() {
+        Random random = new Random(81);
+        BoundingVolumeHierarchy scattered = new BoundingVolumeHierarchy(scatteredObjects(random, 2000));
+        Octree octree = new Octree(scattered);
+        assertMatchesHierarchy(octree, scattered, random, 12);
+        // Splitting stops before too many shapes are copied into several children.
+        assertTrue(octree.getListedCount() < 4 * 2000);
+
+        BoundingVolumeHierarchy clustered = new BoundingVolumeHierarchy(clusteredObjects(random, 2000));
+        assertMatchesHierarchy(new Octree(clustered), clustered, random, 120);
+    }
+
+    @Test
+    public void testSinglePrecision() {
+        Random random = new Random(82);
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(scatteredObjects(random, 500));
+        hierarchy.setSinglePrecision(true);
+        assertMatchesHierarchy(new Octree(hierarchy), hierarchy, random, 12);
+    }
+
+    @Test
+    public void testOverlappingShapesStayInOneLeaf() {
+        // Splitting can't separate shapes which all overlap the centre.
+        List<Shape> objects = new ArrayList<>();
+        for (int i = 0; i < 50; ++i) {
+            objects.add(new Shape(new Sphere(new Vec3(i * 0.01, 0, 0), 1.0 + i * 0.02), Colour.WHITE));
+        }
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(objects);
+        Octree octree = new Octree(hierarchy);
+        assertEquals(1, octree.getNodeCount());
+        assertEquals(50, octree.getListedCount());
+        assertMatchesHierarchy(octree, hierarchy, new Random(83), 6);
+
+        ObjectAndDistance hit = new ObjectAndDistance();
+        assertTrue(octree.findFirstIntersectionExcept(-5, 0, 0, 1, 0, 0, null, Double.POSITIVE_INFINITY, hit));
+        assertSame(objects.get(49), hit.object);
+    }
+
+    @Test
+    public void testEmpty() {
+        Octree octree = new Octree(new BoundingVolumeHierarchy(new ArrayList<>()));
+        assertFalse(octree.findFirstIntersectionExcept(0, 0, -5, 0, 0, 1, null, Double.POSITIVE_INFINITY,
+                new ObjectAndDistance()));
+        assertNull(octree.findAnyIntersectionExcept(0, 0, -5, 0, 0, 1, null, Double.POSITIVE_INFINITY));
+        assertEquals(0, octree.getNodeCount());
+    }
+}
@@ -0,0 +1,74 @@
+package rht.raytracer.acceleration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static rht.raytracer.acceleration.AcceleratorHelpers.assertMatchesHierarchy;
+import static rht.raytracer.acceleration.AcceleratorHelpers.clusteredObjects;
+import static rht.raytracer.acceleration.AcceleratorHelpers.scatteredObjects;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import rht.raytracer.Colour;
+import rht.raytracer.ObjectAndDistance;
+import rht.raytracer.maths.Vec3;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.shapes.Sphere;
+
+public class UniformGridTest {
+    @Test
+    public void testMatchesHierarchy() {
+        Random random = new Random(91);
+        BoundingVolumeHierarchy scattered = new BoundingVolumeHierarchy(scatteredObjects(random, 2000));
+        UniformGrid grid = new UniformGrid(scattered);
+        assertMatchesHierarchy(grid, scattered, random, 12);
+        // About two cells per shape, each small shape in only a few of them.
+        assertTrue(grid.getCellCount() >= 2000 && grid.getCellCount() <= 8000);
+        assertTrue(grid.getListedCount() < 10 * 2000);
+
+        BoundingVolumeHierarchy clustered = new BoundingVolumeHierarchy(clusteredObjects(random, 2000));
+        assertMatchesHierarchy(new UniformGrid(clustered), clustered, random, 120);
+    }
+
+    @Test
+    public void testSinglePrecision() {
+        Random random = new Random(92);
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(scatteredObjects(random, 500));
+        hierarchy.setSinglePrecision(true);
+        assertMatchesHierarchy(new UniformGrid(hierarchy), hierarchy, random, 12);
+    }
+
+    @Test
+    public void testThinScene() {
+        // A row of spheres, far longer than it is wide or high.
+        List<Shape> objects = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            objects.add(new Shape(new Sphere(new Vec3(i * 0.5, 3.0, 0), 0.2), Colour.WHITE));
+        }
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(objects);
+        UniformGrid grid = new UniformGrid(hierarchy);
+        assertMatchesHierarchy(grid, hierarchy, new Random(93), 100);
+
+        ObjectAndDistance hit = new ObjectAndDistance();
+        assertTrue(grid.findFirstIntersectionExcept(-5, 3.0, 0, 1, 0, 0, null, Double.POSITIVE_INFINITY, hit));
+        assertSame(objects.get(0), hit.object);
+        assertEquals(4.8, hit.distance, 1e-12);
+        assertFalse(grid.findFirstIntersectionExcept(-5, 3.0, 0, 1, 0, 0, null, 4.5, hit));
+        assertSame(objects.get(100), grid.findAnyIntersectionExcept(50.0, 4.0, 0, 0, -1, 0, null, 1.0));
+    }
+
+    @Test
+    public void testEmpty() {
+        UniformGrid grid = new UniformGrid(new BoundingVolumeHierarchy(new ArrayList<>()));
+        assertFalse(grid.findFirstIntersectionExcept(0, 0, -5, 0, 0, 1, null, Double.POSITIVE_INFINITY,
+                new ObjectAndDistance()));
+        assertNull(grid.findAnyIntersectionExcept(0, 0, -5, 0, 0, 1, null, Double.POSITIVE_INFINITY));
+        assertEquals(1, grid.getCellCount());
+    }
+}
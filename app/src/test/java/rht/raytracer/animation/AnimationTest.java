@@ -0,0 +1,79 @@
+package rht.raytracer.animation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import rht.raytracer.Camera;
+import rht.raytracer.maths.Matrix;
+import rht.raytracer.maths.Matrix4;
+import rht.raytracer.maths.Vec3;
+
+public class AnimationTest {
+    private static Animation parse(String text) throws IOException {
+        return new AnimationParser(new StringReader(text)).parse();
+    }
+
+    @Test
+    public void testCameraPath() throws IOException {
+        Animation animation = parse("camera 0  0 0 -5  0 0 -2  1 0 0  0 1 0\n"
+                + "camera 10  2 0 -5  2 0 -2  1 0 0  0 1 0  # Slide right\n");
+        assertEquals(11, animation.getFrameCount());
+        assertTrue(animation.getAnimatedObjects().isEmpty());
+
+        Camera middle = animation.cameraAt(5);
+        assertEquals(new Vec3(1, 0, -5), middle.getFocalPoint());
+        assertEquals(new Vec3(1, 0, -2), middle.getFrameCentre());
+        assertEquals(new Vec3(0, 0, -5), animation.cameraAt(-1).getFocalPoint());
+        assertEquals(new Vec3(2, 0, -5), animation.cameraAt(12).getFocalPoint());
+    }
+
+    @Test
+    public void testObjectTransformations() throws IOException {
+        Animation animation = parse("frames 30\n"
+                + "object 2 0  translate 0 0 0  rotatez 0\n"
+                + "object 2 10  translate 2 0 0  rotatez 90\n"
+                + "object 0 4  scale 2 2 2\n");
+        assertEquals(30, animation.getFrameCount());
+        assertEquals(new HashSet<>(Arrays.asList(0, 2)), animation.getAnimatedObjects());
+        assertNull(animation.cameraAt(0));
+
+        // The values are interpolated, not the matrices, so halfway is a true
+        // rotation by 45 degrees.
+        Matrix4 expected = Matrix4.from(Matrix.translation(1, 0, 0)).times(Matrix4.from(Matrix.rotateZ(45)));
+        assertEquals(expected, animation.transformationAt(2, 5));
+        assertEquals(Matrix4.from(Matrix.translation(2, 0, 0)).times(Matrix4.from(Matrix.rotateZ(90))),
+                animation.transformationAt(2, 20));
+        assertEquals(Matrix4.from(Matrix.scale(2, 2, 2)), animation.transformationAt(0, 0));
+    }
+
+    @Test
+    public void testErrors() {
+        assertInvalid("", "frames line");
+        assertInvalid("frames 0\n", "at least 1");
+        assertInvalid("object 1 0  translate 0 0 0\nobject 1 5  scale 1 1 1\n", "same transformations");
+        assertInvalid("object 1 5  translate 0 0 0\nobject 1 2  translate 1 1 1\n", "in order");
+        assertInvalid("object 1 0  matrix 1 0 0 0  0 1 0 0  0 0 1 0\n", "Unknown transformation");
+        assertInvalid("object 1 0\n", "Missing transformation");
+        assertInvalid("object 1.5 0  translate 0 0 0\n", "whole number");
+        assertInvalid("camera -1  0 0 -5  0 0 -2  1 0 0  0 1 0\n", "negative");
+        assertInvalid("frames 5\nfly 1 2 3\n", "Line 2");
+    }
+
+    private static void assertInvalid(String text, String message) {
+        try {
+            parse(text);
+            fail("Expected an error for " + text);
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+}
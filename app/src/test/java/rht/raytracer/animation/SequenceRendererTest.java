@@ -0,0 +1,169 @@
+package rht.raytracer.animation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static rht.raytracer.SceneHelpers.testCamera;
+import static rht.raytracer.SceneHelpers.testLights;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import rht.raytracer.Camera;
+import rht.raytracer.Colour;
+import rht.raytracer.LightSampling;
+import rht.raytracer.ReflectionLimits;
+import rht.raytracer.Scene;
+import rht.raytracer.TileRenderer;
+import rht.raytracer.acceleration.AcceleratorType;
+import rht.raytracer.maths.Matrix;
+import rht.raytracer.maths.Vec3;
+import rht.raytracer.shapes.Plane;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.shapes.Sphere;
+import rht.raytracer.shapes.Transformed;
+
+public class SequenceRendererTest {
+    private static final int WIDTH = 60;
+    private static final int HEIGHT = 40;
+    private static final String ANIMATION = "frames 5\n"
+            + "camera 0  0 0 -5  0 0 -2  1 0 0  0 1 0\n"
+            + "camera 4  0.5 -0.5 -4  0.5 -0.5 -1  1 0 0  0 1 0\n"
+            + "object 0 0  translate 0 0 0  rotatey 0\n"
+            + "object 0 4  translate 0.5 -0.5 0  rotatey 60\n"
+            + "object 3 1  translate 0 0 0\n"
+            + "object 3 3  translate -0.5 0 1\n";
+
+    private static List<Shape> animatedObjects() {
+        List<Shape> objects = new ArrayList<>();
+        objects.add(new Shape(new Transformed(new Sphere(new Vec3(0, 0, 0), 0.5), Matrix.scale(1, 2, 1)),
+                new Colour(1.0, 0.5, 0.0), new Colour(0.2, 0.2, 0.2)));
+        objects.add(new Shape(new Sphere(new Vec3(-1.0, -0.5, 3.0), 1.0), new Colour(1.0, 0.9, 0.9),
+                new Colour(0.3, 0.3, 0.3)));
+        objects.add(new Shape(new Plane(new Vec3(0.0, 1.0, 0.0), new Vec3(0.0, -1.0, 0.0)), Colour.WHITE,
+                new Colour(0.5, 0.5, 0.5)));
+        objects.add(new Shape(new Sphere(new Vec3(1.0, 0.5, 1.0), 0.3), new Colour(0.5, 0.5, 1.0)));
+        return objects;
+    }
+
+    private static Animation parse(String text) throws IOException {
+        return new AnimationParser(new StringReader(text)).parse();
+    }
+
+    private static SequenceRenderer sequence(List<Shape> objects, Animation animation) {
+        return sequence(objects, animation, 2);
+    }
+
+    private static SequenceRenderer sequence(List<Shape> objects, Animation animation, int threads) {
+        return new SequenceRenderer(objects, testLights(), animation, testCamera(), WIDTH, HEIGHT, threads, null,
+                ReflectionLimits.DEFAULT, LightSampling.DEFAULT, false, AcceleratorType.BVH);
+    }
+
+    /** Renders a frame from scratch, with a new scene holding the objects where the animation puts them. */
+    private static int[] renderFromScratch(List<Shape> objects, Animation animation, int frame) {
+        List<Shape> moved = new ArrayList<>(objects);
+        for (int index : animation.getAnimatedObjects()) {
+            Shape object = objects.get(index);
+            Transformed shape = new Transformed(object.getShapeType(), animation.transformationAt(index, frame));
+            moved.set(index, new Shape(shape, object.getColour(), object.getReflectionColour()));
+        }
+        Camera camera = animation.cameraAt(frame) != null ? animation.cameraAt(frame) : testCamera();
+        return new TileRenderer(new Scene(moved, testLights()), camera, WIDTH, HEIGHT, 1).render();
+    }
+
+    @Test
+    public void testFramesMatchScenesBuiltFromScratch() throws IOException {
+        List<Shape> objects = animatedObjects();
+        Animation animation = parse(ANIMATION);
+        SequenceRenderer renderer = sequence(objects, animation);
+
+        for (int frame = 0; frame < animation.getFrameCount(); ++frame) {
+            assertArrayEquals("Frame " + frame, renderFromScratch(objects, animation, frame),
+                    renderer.renderFrame(frame));
+        }
+        // Going back to the start moves every animated object again.
+        assertArrayEquals(renderFromScratch(objects, animation, 0), renderer.renderFrame(0));
+        assertEquals(1, renderer.getBuilds());
+        assertEquals(5, renderer.getRefits());
+        assertEquals(6L * WIDTH * HEIGHT, renderer.getSamplesTraced());
+    }
+
+    @Test
+    public void testSingleThreadedFramesMatchScenesBuiltFromScratch() throws IOException {
+        // One thread traces every frame, so anything it remembers from one frame
+        // must not outlast the objects moving, such as the object that last
+        // shadowed a light.
+        List<Shape> objects = animatedObjects();
+        Animation animation = parse(ANIMATION);
+        SequenceRenderer renderer = sequence(objects, animation, 1);
+
+        for (int frame = 0; frame < animation.getFrameCount(); ++frame) {
+            assertArrayEquals("Frame " + frame, renderFromScratch(objects, animation, frame),
+                    renderer.renderFrame(frame));
+        }
+        assertArrayEquals(renderFromScratch(objects, animation, 0), renderer.renderFrame(0));
+    }
+
+    @Test
+    public void testRebuildsWhenRefittingGetsExpensive() throws IOException {
+        List<Shape> objects = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            objects.add(new Shape(new Sphere(new Vec3(i % 10 - 4.5, i / 10 - 4.5, 5), 0.2), Colour.WHITE));
+        }
+        // Swapping the corner spheres makes the boxes around each span the grid.
+        Animation animation = parse("object 0 0  translate 0 0 0\nobject 0 1  translate 9 9 0\n"
+                + "object 99 0  translate 0 0 0\nobject 99 1  translate -9 -9 0\n");
+        SequenceRenderer renderer = sequence(objects, animation);
+        renderer.renderFrame(0);
+        assertEquals(1, renderer.getBuilds());
+        int[] pixels = renderer.renderFrame(1);
+        assertEquals(1, renderer.getRefits());
+        assertEquals(2, renderer.getBuilds());
+        assertArrayEquals(renderFromScratch(objects, animation, 1), pixels);
+    }
+
+    @Test
+    public void testRenderToFiles() throws IOException {
+        Path directory = Files.createTempDirectory("sequence");
+        List<Shape> objects = animatedObjects();
+        Animation animation = parse(ANIMATION);
+        List<Integer> rendered = new ArrayList<>();
+        sequence(objects, animation).renderToFiles(1, 3, directory.resolve("frame%02d.ppm").toString(),
+                rendered::add);
+
+        assertEquals(List.of(1, 2, 3), rendered);
+        for (int frame = 1; frame <= 3; ++frame) {
+            Path file = directory.resolve(String.format("frame%02d.ppm", frame));
+            byte[] header = ("P6\n" + WIDTH + " " + HEIGHT + "\n255\n").getBytes("US-ASCII");
+            assertEquals(header.length + WIDTH * HEIGHT * 3, Files.size(file));
+            Files.delete(file);
+        }
+        assertFalse(Files.exists(directory.resolve("frame00.ppm")));
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testWriteFailure() throws IOException {
+        Path missing = Files.createTempDirectory("sequence").resolve("missing");
+        try {
+            sequence(animatedObjects(), parse(ANIMATION)).renderToFiles(0, 4,
+                    missing.resolve("frame%d.ppm").toString(), frame -> {
+                    });
+            fail("Writing into a missing directory should fail.");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testObjectOutOfRange() throws IOException {
+        sequence(animatedObjects(), parse("object 4 0  translate 0 0 0\n"));
+    }
+}
@@ -0,0 +1,121 @@
+package rht.raytracer.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class RenderCacheTest {
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+    private static final int ENTRY_BYTES = 8 + 5 * 32 + 12 + WIDTH * HEIGHT * Integer.BYTES;
+
+    private static RenderKey key(int seed) {
+        byte[][] digests = new byte[RenderKey.PARTS.size()][RenderKey.DIGEST_BYTES];
+        for (int part = 0; part < digests.length; ++part) {
+            Arrays.fill(digests[part], (byte) (seed + part));
+        }
+        return new RenderKey(digests);
+    }
+
+    private static int[] pixels(int seed) {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; ++i) {
+            pixels[i] = seed * 1000 + i;
+        }
+        return pixels;
+    }
+
+    private static Path entry(Path directory, RenderKey key) {
+        return directory.resolve(key.getId() + ".frame");
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        Path directory = Files.createTempDirectory("render-cache");
+        RenderCache cache = new RenderCache(directory, RenderCache.DEFAULT_MAX_BYTES);
+        assertNull(cache.getPixels(key(1)));
+        assertNull(cache.getMostRecentKey());
+
+        cache.putPixels(key(1), WIDTH, HEIGHT, pixels(1));
+        float[] radiance = { 0.5f, 2.0f, 1e6f };
+        cache.putRadiance(key(2), 1, 1, radiance);
+        assertArrayEquals(pixels(1), cache.getPixels(key(1)));
+        assertArrayEquals(radiance, cache.getRadiance(key(2)), 0.0f);
+        // An image is only found in the form it was stored in.
+        assertNull(cache.getRadiance(key(1)));
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(ENTRY_BYTES + ENTRY_BYTES - WIDTH * HEIGHT * Integer.BYTES + 3 * Float.BYTES,
+                cache.getSize());
+
+        // The counts last beyond the cache object.
+        RenderCache reopened = new RenderCache(directory, RenderCache.DEFAULT_MAX_BYTES);
+        assertEquals(2, reopened.getHits());
+        assertEquals(2, reopened.getMisses());
+        delete(directory);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws IOException {
+        Path directory = Files.createTempDirectory("render-cache");
+        RenderCache cache = new RenderCache(directory, 3 * ENTRY_BYTES);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 3; ++i) {
+            cache.putPixels(key(i), WIDTH, HEIGHT, pixels(i));
+            Files.setLastModifiedTime(entry(directory, key(i)), FileTime.fromMillis(now - 10000 + i * 1000));
+        }
+        assertEquals(key(2), cache.getMostRecentKey());
+
+        // Reading the oldest image makes it the most recently used.
+        assertNotNull(cache.getPixels(key(0)));
+        assertEquals(key(0), cache.getMostRecentKey());
+        cache.putPixels(key(3), WIDTH, HEIGHT, pixels(3));
+
+        assertEquals(1, cache.getEvictions());
+        assertFalse(Files.exists(entry(directory, key(1))));
+        assertNull(cache.getPixels(key(1)));
+        for (int i : new int[] { 0, 2, 3 }) {
+            assertArrayEquals(pixels(i), cache.getPixels(key(i)));
+        }
+        assertTrue(cache.getSize() <= 3 * ENTRY_BYTES);
+
+        // An image bigger than the whole cache isn't stored.
+        new RenderCache(directory, ENTRY_BYTES - 1).putPixels(key(4), WIDTH, HEIGHT, pixels(4));
+        assertFalse(Files.exists(entry(directory, key(4))));
+        delete(directory);
+    }
+
+    @Test
+    public void testDamagedEntryIsAMiss() throws IOException {
+        Path directory = Files.createTempDirectory("render-cache");
+        RenderCache cache = new RenderCache(directory, RenderCache.DEFAULT_MAX_BYTES);
+        cache.putPixels(key(1), WIDTH, HEIGHT, pixels(1));
+        Path path = entry(directory, key(1));
+        byte[] data = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(data, data.length - 1));
+
+        assertNull(cache.getPixels(key(1)));
+        assertEquals(1, cache.getMisses());
+        assertFalse(Files.exists(path));
+        delete(directory);
+    }
+}
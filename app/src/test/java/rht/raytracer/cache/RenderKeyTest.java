@@ -0,0 +1,90 @@
+package rht.raytracer.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static rht.raytracer.SceneHelpers.testCamera;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import rht.raytracer.Camera;
+import rht.raytracer.Colour;
+import rht.raytracer.Light;
+import rht.raytracer.ReflectionLimits;
+import rht.raytracer.Scene;
+import rht.raytracer.Supersampling;
+import rht.raytracer.maths.Matrix;
+import rht.raytracer.maths.Vec3;
+import rht.raytracer.shapes.Plane;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.shapes.Sphere;
+import rht.raytracer.shapes.Transformed;
+import rht.raytracer.shapes.TriangleMesh;
+
+public class RenderKeyTest {
+    private static Scene keyedScene(Colour sphereColour, double sphereX, Vec3 lightPosition) {
+        List<Shape> objects = new ArrayList<>();
+        objects.add(new Shape(new Sphere(new Vec3(sphereX, 0, 3), 1), sphereColour, new Colour(0.3, 0.3, 0.3)));
+        objects.add(new Shape(new Transformed(new Sphere(new Vec3(0, 0, 0), 0.5), Matrix.scale(1, 2, 1)),
+                Colour.WHITE));
+        objects.add(new Shape(new Plane(new Vec3(0, -1, 0), new Vec3(0, 1, 0)), Colour.WHITE));
+        objects.add(new Shape(new TriangleMesh(new float[] { 0, 0, 5, 1, 0, 5, 0, 1, 5 }, null,
+                new int[] { 0, 1, 2 }), Colour.WHITE));
+        return new Scene(objects, Collections.singletonList(new Light(lightPosition, Colour.WHITE)));
+    }
+
+    private static Scene keyedScene() {
+        return keyedScene(new Colour(1, 0.5, 0.5), -0.5, new Vec3(0, -5, -5));
+    }
+
+    private static RenderKey key(Scene scene) {
+        return RenderKey.of(scene, testCamera(), 64, 48, null, false);
+    }
+
+    @Test
+    public void testSameSceneSameKey() {
+        RenderKey key = key(keyedScene());
+        assertEquals(key, key(keyedScene()));
+        assertEquals(key.getId(), key(keyedScene()).getId());
+        assertEquals(64, key.getId().length());
+        assertEquals(List.of(), key.changesFrom(key(keyedScene())));
+    }
+
+    @Test
+    public void testChangesAreTracedToTheirPart() {
+        RenderKey key = key(keyedScene());
+
+        assertEquals(List.of("materials"), key(keyedScene(new Colour(1, 0.5, 0.4), -0.5, new Vec3(0, -5, -5)))
+                .changesFrom(key));
+        assertEquals(List.of("geometry"), key(keyedScene(new Colour(1, 0.5, 0.5), -0.4, new Vec3(0, -5, -5)))
+                .changesFrom(key));
+        assertEquals(List.of("lights"), key(keyedScene(new Colour(1, 0.5, 0.5), -0.5, new Vec3(0, -5, -4)))
+                .changesFrom(key));
+
+        Camera moved = new Camera(new Vec3(0, 0, -6), new Vec3(0, 0, -3), new Vec3(1, 0, 0), new Vec3(0, 1, 0));
+        assertEquals(List.of("camera"), RenderKey.of(keyedScene(), moved, 64, 48, null, false).changesFrom(key));
+    }
+
+    @Test
+    public void testSettingsChangeTheKey() {
+        RenderKey key = key(keyedScene());
+        List<RenderKey> others = new ArrayList<>();
+        others.add(RenderKey.of(keyedScene(), testCamera(), 65, 48, null, false));
+        others.add(RenderKey.of(keyedScene(), testCamera(), 64, 48, new Supersampling(4), false));
+        others.add(RenderKey.of(keyedScene(), testCamera(), 64, 48, null, true));
+        Scene limited = keyedScene();
+        limited.setReflectionLimits(new ReflectionLimits(2, 0.0, 0.0));
+        others.add(key(limited));
+        Scene single = keyedScene();
+        single.setSinglePrecision(true);
+        others.add(key(single));
+
+        for (RenderKey other : others) {
+            assertNotEquals(key, other);
+            assertEquals(List.of("settings"), other.changesFrom(key));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package rht.raytracer.distributed;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static rht.raytracer.SceneHelpers.testCamera;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import rht.raytracer.LightSampling;
+import rht.raytracer.ReflectionLimits;
+import rht.raytracer.Supersampling;
+import rht.raytracer.TileRenderer;
+import rht.raytracer.acceleration.AcceleratorType;
+
+public class RenderCoordinatorTest {
+    private static final int WIDTH = 100;
+    private static final int HEIGHT = 70;
+    private static final String SCENE = "material red 1 0.5 0.5  0.3 0.3 0.3\n"
+            + "material white 1 1 1\n"
+            + "sphere -0.5 0 3  1  red\n"
+            + "sphere 0.8 0.2 2  0.5  white\n"
+            + "plane 0 1 0  0 -1 0  white\n"
+            + "light 0 -5 -5  1 1 1\n";
+
+    private static RenderJob testJob(String scene, Supersampling supersampling) throws IOException {
+        Path file = Files.createTempFile("coordinator", ".scene");
+        file.toFile().deleteOnExit();
+        Files.write(file, scene.getBytes(StandardCharsets.UTF_8));
+        return RenderJob.create(file, testCamera(), WIDTH, HEIGHT, supersampling, ReflectionLimits.DEFAULT,
+                LightSampling.DEFAULT, false, AcceleratorType.GRID);
+    }
+
+    private static int[] renderLocally(RenderJob job) throws IOException {
+        return new TileRenderer(job.buildScene(), job.camera, WIDTH, HEIGHT, 1, TileRenderer.DEFAULT_TILE_SIZE,
+                job.supersampling).render();
+    }
+
+    /** Starts a worker in this process, on a background thread. */
+    private static Thread startWorker(int port, int threads) {
+        Thread thread = new Thread(() -> {
+            try {
+                RenderWorker.run(InetAddress.getLoopbackAddress().getHostAddress(), port, threads);
+            } catch (IOException e) {
+                // Expected when the job can't be loaded, which the coordinator reports.
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Connects as a worker which takes one tile and then either disconnects or
+     * stays connected without ever finishing it.
+     *
+     * @param tileTaken Counted down once the tile has been received.
+     */
+    private static Thread startFaultyWorker(int port, boolean disconnect, CountDownLatch tileTaken) {
+        Thread thread = new Thread(() -> {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                Protocol.writeHeader(out);
+                out.writeInt(1);
+                out.flush();
+                Protocol.readHeader(in);
+                RenderJob.read(in);
+                in.readInt();
+                tileTaken.countDown();
+                if (!disconnect) {
+                    while (in.read() >= 0) {
+                        // Wait to be disconnected.
+                    }
+                }
+            } catch (IOException e) {
+                // Disconnected by the coordinator.
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void testMatchesLocalRender() throws IOException {
+        RenderJob job = testJob(SCENE, null);
+        try (RenderCoordinator coordinator = new RenderCoordinator(job, 0)) {
+            startWorker(coordinator.getPort(), 2);
+            startWorker(coordinator.getPort(), 1);
+
+            assertArrayEquals(renderLocally(job), coordinator.render());
+            assertEquals((long) WIDTH * HEIGHT, coordinator.getSamplesTraced());
+            assertEquals(0, coordinator.getWorkersLost());
+        }
+    }
+
+    @Test
+    public void testSupersampling() throws IOException {
+        RenderJob job = testJob(SCENE, new Supersampling(2));
+        try (RenderCoordinator coordinator = new RenderCoordinator(job, 0)) {
+            startWorker(coordinator.getPort(), 2);
+
+            assertArrayEquals(renderLocally(job), coordinator.render());
+            assertTrue(coordinator.getSamplesTraced() > 2L * WIDTH * HEIGHT);
+        }
+    }
+
+    @Test
+    public void testReissuesTilesOfLostWorker() throws Exception {
+        RenderJob job = testJob(SCENE, null);
+        try (RenderCoordinator coordinator = new RenderCoordinator(job, 0)) {
+            CountDownLatch tileTaken = new CountDownLatch(1);
+            startFaultyWorker(coordinator.getPort(), true, tileTaken);
+            Thread worker = new Thread(() -> {
+                try {
+                    tileTaken.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                startWorker(coordinator.getPort(), 1);
+            });
+            worker.start();
+
+            assertArrayEquals(renderLocally(job), coordinator.render());
+            assertTrue(coordinator.getTilesReissued() >= 1);
+            assertEquals(1, coordinator.getWorkersLost());
+        }
+    }
+
+    @Test
+    public void testBacksUpStalledWorker() throws Exception {
+        RenderJob job = testJob(SCENE, null);
+        try (RenderCoordinator coordinator = new RenderCoordinator(job, 0, TimeUnit.MILLISECONDS.toNanos(50))) {
+            CountDownLatch tileTaken = new CountDownLatch(1);
+            startFaultyWorker(coordinator.getPort(), false, tileTaken);
+            Thread worker = new Thread(() -> {
+                try {
+                    tileTaken.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                startWorker(coordinator.getPort(), 1);
+            });
+            worker.start();
+
+            assertArrayEquals(renderLocally(job), coordinator.render());
+            assertTrue(coordinator.getTilesReissued() >= 1);
+        }
+    }
+
+    @Test
+    public void testWorkerCannotLoadJob() throws IOException {
+        RenderJob job = testJob(SCENE + "mesh missing.obj white\n", null);
+        try (RenderCoordinator coordinator = new RenderCoordinator(job, 0)) {
+            startWorker(coordinator.getPort(), 1);
+            coordinator.render();
+            fail("The render should fail.");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("missing.obj"));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package rht.raytracer.maths;
+
+import static org.junit.Assert.assertEquals;
+import static rht.raytracer.maths.AssertHelpers.assertMatrixEquals;
+import static rht.raytracer.maths.AssertHelpers.assertVecEquals;
+
+import org.junit.Test;
+
+public class Matrix4Test {
+    private static final double EPSILON = 1e-9;
+
+    private static final Matrix AFFINE = Matrix.translation(0.5, -0.5, 2.0).times(Matrix.rotateY(30))
+            .times(Matrix.scale(1, 3, 0.5));
+    private static final Matrix GENERAL = new Matrix(new double[][] {
+            new double[] { 9, 6, 3, 5 },
+            new double[] { 5, 7, 3, 4 },
+            new double[] { 2, 6, 7, 1 },
+            new double[] { 5, 8, 9, 53 }, });
+
+    @Test
+    public void testTimesMatchesMatrix() {
+        Matrix other = Matrix.rotateX(45).times(Matrix.translation(1, 2, 3));
+        assertMatrixEquals(AFFINE.times(other), Matrix4.from(AFFINE).times(Matrix4.from(other)).toMatrix(),
+                EPSILON);
+        assertMatrixEquals(GENERAL.times(AFFINE), Matrix4.from(GENERAL).times(Matrix4.from(AFFINE)).toMatrix(),
+                EPSILON);
+    }
+
+    @Test
+    public void testTimesVector() {
+        Vec3 vector = new Vec3(5.0, 6.0, -7.0);
+        Matrix4 matrix = Matrix4.from(AFFINE);
+
+        assertVecEquals(AFFINE.times(vector), matrix.times(vector), EPSILON);
+        assertVecEquals(AFFINE.linearTimes(vector), matrix.linearTimes(vector), EPSILON);
+    }
+
+    @Test
+    public void testAffineInverse() {
+        Matrix4 matrix = Matrix4.from(AFFINE);
+
+        assertEquals(true, matrix.isAffine());
+        assertMatrixEquals(Matrix4.IDENTITY.toMatrix(), matrix.inverse().times(matrix).toMatrix(), EPSILON);
+        assertMatrixEquals(AFFINE.inverse(), matrix.inverse().toMatrix(), EPSILON);
+    }
+
+    @Test
+    public void testGeneralInverse() {
+        Matrix4 matrix = Matrix4.from(GENERAL);
+
+        assertEquals(false, matrix.isAffine());
+        assertMatrixEquals(Matrix4.IDENTITY.toMatrix(), matrix.inverse().times(matrix).toMatrix(), EPSILON);
+        assertMatrixEquals(Matrix4.IDENTITY.toMatrix(), matrix.times(matrix.inverse()).toMatrix(), EPSILON);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSingular() {
+        Matrix4.from(Matrix.scale(1, 0, 1)).inverse();
+    }
+}
@@ -0,0 +1,88 @@
+package rht.raytracer.scenefile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static rht.raytracer.maths.AssertHelpers.assertVecEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Test;
+
+import rht.raytracer.Ray;
+import rht.raytracer.maths.Vec3;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.shapes.Transformed;
+import rht.raytracer.shapes.TriangleMesh;
+
+public class ObjFilesTest {
+    private static final double EPSILON = 1e-5;
+
+    /** A unit square in the z = 0 plane, facing -z, as a single quad. */
+    private static final String SQUARE = "# A square\n"
+            + "v 0 0 0\n"
+            + "v 0 1 0\n"
+            + "v 1 1 0\n"
+            + "v 1 0 0\n"
+            + "vt 0 0\n"
+            + "f 1/1 2/1 -2/1 -1/1\n";
+
+    @Test
+    public void testReadQuad() throws IOException {
+        TriangleMesh mesh = ObjFiles.read(new StringReader(SQUARE));
+        assertEquals(4, mesh.getVertexCount());
+        assertEquals(2, mesh.getTriangleCount());
+
+        Ray ray = new Ray(new Vec3(0.75, 0.25, -2), new Vec3(0, 0, 1));
+        assertEquals(2.0, mesh.intersect(ray), EPSILON);
+        assertVecEquals(new Vec3(0, 0, -1), mesh.normalAtPoint(ray.distanceAlong(2.0)), EPSILON);
+    }
+
+    @Test
+    public void testFileNormals() throws IOException {
+        String obj = "v 0 0 0\nv 0 1 0\nv 1 0 0\n"
+                + "vn 0 0 -2\nvn 0 1 -1\n"
+                + "f 1//1 2//2 3//1\n";
+        TriangleMesh mesh = ObjFiles.read(new StringReader(obj));
+        assertEquals(3, mesh.getVertexCount());
+
+        // The file's normals are normalised and interpolated, rather than replaced.
+        assertVecEquals(new Vec3(0, 1, -1).normalise(), mesh.normalAtPoint(new Vec3(0, 1, 0)), EPSILON);
+        assertVecEquals(new Vec3(0, 0, -1), mesh.normalAtPoint(new Vec3(1, 0, 0)), EPSILON);
+    }
+
+    @Test(expected = IOException.class)
+    public void testIndexOutOfRange() throws IOException {
+        ObjFiles.read(new StringReader("v 0 0 0\nv 0 1 0\nf 1 2 3\n"));
+    }
+
+    @Test
+    public void testMeshInstancesShareGeometry() throws IOException {
+        Path directory = Files.createTempDirectory("meshes");
+        Path obj = directory.resolve("square.obj");
+        Path scene = directory.resolve("instances.scene");
+        try {
+            Files.write(obj, SQUARE.getBytes(StandardCharsets.UTF_8));
+            Files.write(scene, ("material grey 0.5 0.5 0.5\n"
+                    + "mesh square.obj grey\n"
+                    + "push\n"
+                    + "  translate 2 0 0\n"
+                    + "  mesh square.obj grey\n"
+                    + "pop\n").getBytes(StandardCharsets.UTF_8));
+
+            List<Shape> objects = SceneFiles.load(scene).getObjects();
+            assertEquals(2, objects.size());
+            TriangleMesh first = (TriangleMesh) objects.get(0).getShapeType();
+            Transformed second = (Transformed) objects.get(1).getShapeType();
+            assertTrue(second.getShape() == first);
+        } finally {
+            Files.deleteIfExists(obj);
+            Files.deleteIfExists(scene);
+            Files.delete(directory);
+        }
+    }
+}
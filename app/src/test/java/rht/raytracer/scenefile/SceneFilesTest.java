@@ -0,0 +1,115 @@
+package rht.raytracer.scenefile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import rht.raytracer.Camera;
+import rht.raytracer.Colour;
+import rht.raytracer.Light;
+import rht.raytracer.Scene;
+import rht.raytracer.TileRenderer;
+import rht.raytracer.maths.Matrix;
+import rht.raytracer.maths.Vec3;
+import rht.raytracer.shapes.Plane;
+import rht.raytracer.shapes.Shape;
+import rht.raytracer.shapes.Sphere;
+import rht.raytracer.shapes.Transformed;
+
+public class SceneFilesTest {
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+
+    private static final String TEXT = "# A test scene\n"
+            + "camera 0 0 -5  0 0 -2  1 0 0  0 1 0\n"
+            + "material red 1 0.5 0.5  0.3 0.3 0.3\n"
+            + "material blue 0.5 0.5 1\n"
+            + "sphere -0.5 0 3  1  red\n"
+            + "push\n"
+            + "  translate 0.8 0.2 2\n"
+            + "  scale 1 2 1   # stretched vertically\n"
+            + "  sphere 0 0 0  0.5  blue\n"
+            + "pop\n"
+            + "plane 0 1 0  0 -1 0  red\n"
+            + "light 0 -5 -5  1 1 1\n";
+
+    private static Scene expectedScene() {
+        List<Shape> objects = new ArrayList<>();
+        Colour red = new Colour(1.0, 0.5, 0.5);
+        Colour redReflection = new Colour(0.3, 0.3, 0.3);
+        objects.add(new Shape(new Sphere(new Vec3(-0.5, 0.0, 3.0), 1.0), red, redReflection));
+        objects.add(new Shape(new Transformed(new Sphere(new Vec3(0.0, 0.0, 0.0), 0.5),
+                Matrix.translation(0.8, 0.2, 2.0).times(Matrix.scale(1.0, 2.0, 1.0))), new Colour(0.5, 0.5, 1.0)));
+        objects.add(new Shape(new Plane(new Vec3(0.0, 1.0, 0.0), new Vec3(0.0, -1.0, 0.0)), red, redReflection));
+        List<Light> lights = new ArrayList<>();
+        lights.add(new Light(new Vec3(0.0, -5.0, -5.0), Colour.WHITE));
+        return new Scene(objects, lights);
+    }
+
+    private static int[] render(Scene scene, Camera camera) {
+        return new TileRenderer(scene, camera, WIDTH, HEIGHT, 1).render();
+    }
+
+    private static SceneBuilder parseText(String text) throws IOException {
+        SceneBuilder builder = new SceneBuilder();
+        new TextSceneParser(new StringReader(text), builder).parse();
+        return builder;
+    }
+
+    @Test
+    public void testTextMatchesCode() throws IOException {
+        SceneBuilder builder = parseText(TEXT);
+
+        assertArrayEquals(render(expectedScene(), builder.getCamera()),
+                render(builder.getScene(), builder.getCamera()));
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BinarySceneWriter writer = new BinarySceneWriter(bytes)) {
+            new TextSceneParser(new StringReader(TEXT), writer).parse();
+        }
+        SceneBuilder builder = new SceneBuilder();
+        new BinarySceneParser(new ByteArrayInputStream(bytes.toByteArray()), builder).parse();
+
+        SceneBuilder fromText = parseText(TEXT);
+        assertArrayEquals(render(fromText.getScene(), fromText.getCamera()),
+                render(builder.getScene(), builder.getCamera()));
+    }
+
+    @Test
+    public void testNoCamera() throws IOException {
+        assertNull(parseText("material white 1 1 1\nsphere 0 0 0 1 white\n").getCamera());
+    }
+
+    @Test
+    public void testErrorsGiveLineNumber() {
+        String[] invalid = {
+                "material white 1 1 1\n\nsphere 0 0 0 1 black\n",
+                "# comment\npush\npop\npop\n",
+                "light 0 0 0\n",
+                "light 0 0 0 1 1 1 1\n",
+                "\nsphere 0 0 zero 1 white\n",
+                "cube 0 0 0 1\n" };
+        int[] lines = { 3, 4, 1, 1, 2, 1 };
+        for (int i = 0; i < invalid.length; ++i) {
+            try {
+                parseText(invalid[i]);
+                throw new AssertionError("Parsed invalid scene: " + invalid[i]);
+            } catch (IOException e) {
+                String message = e.getMessage();
+                assertEquals("Line " + lines[i] + ":", message.substring(0, message.indexOf(':') + 1));
+            }
+        }
+    }
+}
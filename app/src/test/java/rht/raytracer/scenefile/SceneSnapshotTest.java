@@ -0,0 +1,116 @@
+package rht.raytracer.scenefile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import rht.raytracer.TileRenderer;
+
+public class SceneSnapshotTest {
+    private static final String TEXT = "camera 0 0 -5  0 0 -2  1 0 0  0 1 0\n"
+            + "material red 1 0.5 0.5  0.3 0.3 0.3\n"
+            + "material blue 0.5 0.5 1\n"
+            + "sphere -0.5 0 3  1  red\n"
+            + "sphere 0.9 -0.6 2.5  0.3  blue\n"
+            + "push\n"
+            + "  translate 0.8 0.2 2\n"
+            + "  scale 1 2 1\n"
+            + "  sphere 0 0 0  0.5  blue\n"
+            + "pop\n"
+            + "plane 0 1 0  0 -1 0  red\n"
+            + "light 0 -5 -5  1 1 1\n";
+
+    private static int[] render(LoadedScene loaded) {
+        return new TileRenderer(loaded.scene, loaded.camera, 40, 30, 1).render();
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testSnapshotRendersTheSame() throws IOException {
+        SceneBuilder builder = new SceneBuilder();
+        new TextSceneParser(new StringReader(TEXT), builder).parse();
+        LoadedScene built = new LoadedScene(builder.getScene(), builder.getCamera());
+
+        Path snapshot = Files.createTempFile("scene", SceneFiles.SNAPSHOT_EXTENSION);
+        try {
+            SceneSnapshot.write(snapshot, built, 123, 456);
+            LoadedScene read = SceneSnapshot.read(snapshot, 123, 456);
+
+            assertArrayEquals(render(built), render(read));
+            assertNull(SceneSnapshot.read(snapshot, 124, 456));
+            assertNull(SceneSnapshot.read(snapshot, 123, 457));
+        } finally {
+            Files.delete(snapshot);
+        }
+    }
+
+    @Test
+    public void testLoadWithSnapshot() throws IOException {
+        Path directory = Files.createTempDirectory("scene");
+        try {
+            Path scene = directory.resolve("test.scene");
+            Path snapshot = directory.resolve("test.scene" + SceneFiles.SNAPSHOT_EXTENSION);
+            Files.write(scene, TEXT.getBytes(StandardCharsets.UTF_8));
+
+            LoadedScene built = SceneFiles.loadWithSnapshot(scene);
+            assertNull(built.snapshotFailure);
+            assertTrue(Files.exists(snapshot));
+            LoadedScene read = SceneFiles.loadWithSnapshot(scene);
+            assertNull(read.snapshotFailure);
+            assertArrayEquals(render(built), render(read));
+
+            // A damaged snapshot is reported, and replaced.
+            Files.write(snapshot, TEXT.getBytes(StandardCharsets.UTF_8));
+            assertNotNull(SceneFiles.loadWithSnapshot(scene).snapshotFailure);
+            assertNull(SceneFiles.loadWithSnapshot(scene).snapshotFailure);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testNoSnapshotOfMesh() throws IOException {
+        Path directory = Files.createTempDirectory("scene");
+        try {
+            Path scene = directory.resolve("mesh.scene");
+            Files.write(directory.resolve("square.obj"), "v 0 0 0\nv 0 1 0\nv 1 1 0\nv 1 0 0\nf 1 2 3 4\n"
+                    .getBytes(StandardCharsets.UTF_8));
+            Files.write(scene, (TEXT + "mesh square.obj red\n").getBytes(StandardCharsets.UTF_8));
+
+            LoadedScene loaded = SceneFiles.loadWithSnapshot(scene);
+            assertNull(loaded.snapshotFailure);
+            assertFalse(SceneSnapshot.canWrite(loaded.scene));
+            assertFalse(Files.exists(directory.resolve("mesh.scene" + SceneFiles.SNAPSHOT_EXTENSION)));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotASnapshot() throws IOException {
+        Path file = Files.createTempFile("scene", SceneFiles.SNAPSHOT_EXTENSION);
+        try {
+            Files.write(file, TEXT.getBytes(StandardCharsets.UTF_8));
+            SceneSnapshot.read(file, 0, 0);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import static rht.raytracer.maths.AssertHelpers.assertVecEquals;
 import org.junit.Test;
 
 import rht.raytracer.Ray;
+import rht.raytracer.maths.BoundingBox;
 import rht.raytracer.maths.Matrix;
 import rht.raytracer.maths.Vec3;
 
@@ -40,4 +41,46 @@ public class TransformedTest {
         Vec3 normal = rotatedPlane.normalAtPoint(intersectionPoint);
         assertVecEquals(normal, new Vec3(-1, 1, 0).normalise(), EPSILON);
     }
+
+    @Test
+    public void testBoundingBox() {
+        Sphere sphere = new Sphere(new Vec3(0, 0, 0), 1);
+        Transformed transformedSphere = new Transformed(sphere,
+                Matrix.translation(1, 2, 0).times(Matrix.scale(1, 3, 1)));
+
+        BoundingBox box = transformedSphere.boundingBox();
+        assertVecEquals(new Vec3(0, -1, -1), box.min, EPSILON);
+        assertVecEquals(new Vec3(2, 5, 1), box.max, EPSILON);
+
+        Transformed rotatedPlane = new Transformed(new Plane(new Vec3(0, 0, 0), new Vec3(0, 1, 0)),
+                Matrix.rotateZ(45));
+        assertEquals(null, rotatedPlane.boundingBox());
+    }
+
+    @Test
+    public void testScaledSphereNormal() {
+        Sphere sphere = new Sphere(new Vec3(0, 0, 0), 1);
+        Transformed longSphere = new Transformed(sphere, Matrix.scale(1, 3, 1));
+
+        double root = Math.sqrt(0.5);
+        Vec3 normal = longSphere.normalAtPoint(new Vec3(root, 3 * root, 0));
+        assertVecEquals(new Vec3(3, 1, 0).normalise(), normal, EPSILON);
+    }
+
+    @Test
+    public void testNestedTransformsAreFlattened() {
+        Sphere sphere = new Sphere(new Vec3(0, 0, 0), 1);
+        Transformed inner = new Transformed(sphere, Matrix.scale(1, 3, 1));
+        Transformed middle = new Transformed(inner, Matrix.rotateZ(30));
+        Transformed outer = new Transformed(middle, Matrix.translation(1, 2, 3));
+        Transformed single = new Transformed(sphere,
+                Matrix.translation(1, 2, 3).times(Matrix.rotateZ(30)).times(Matrix.scale(1, 3, 1)));
+
+        assertEquals(sphere, outer.getShape());
+        Ray ray = new Ray(new Vec3(-5, 1, 2), new Vec3(1, 0.2, 0.1));
+        double distance = outer.intersect(ray);
+        assertEquals(single.intersect(ray), distance, EPSILON);
+        Vec3 point = ray.distanceAlong(distance);
+        assertVecEquals(single.normalAtPoint(point), outer.normalAtPoint(point), EPSILON);
+    }
 }
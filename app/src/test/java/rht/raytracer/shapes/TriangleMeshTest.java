@@ -0,0 +1,129 @@
+package rht.raytracer.shapes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static rht.raytracer.maths.AssertHelpers.assertVecEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import rht.raytracer.Ray;
+import rht.raytracer.maths.BoundingBox;
+import rht.raytracer.maths.Matrix;
+import rht.raytracer.maths.Vec3;
+
+public class TriangleMeshTest {
+    private static final double EPSILON = 1e-5;
+
+    /** Two triangles meeting at a ridge along the z axis, like a roof. */
+    private static TriangleMesh roof() {
+        float[] positions = {
+                -1, 0, -1, -1, 0, 1,
+                0, 1, -1, 0, 1, 1,
+                1, 0, -1, 1, 0, 1 };
+        int[] indices = { 0, 1, 2, 1, 3, 2, 2, 3, 4, 3, 5, 4 };
+        return new TriangleMesh(positions, null, indices);
+    }
+
+    @Test
+    public void testIntersect() {
+        TriangleMesh mesh = roof();
+
+        Ray ray = new Ray(new Vec3(-0.5, 5, 0), new Vec3(0, -1, 0));
+        double distance = mesh.intersect(ray);
+        assertEquals(4.5, distance, EPSILON);
+
+        assertEquals(null, mesh.intersect(new Ray(new Vec3(2, 5, 0), new Vec3(0, -1, 0))));
+        assertEquals(null, mesh.intersect(new Ray(new Vec3(0, 5, 0), new Vec3(0, 1, 0))));
+    }
+
+    @Test
+    public void testSmoothNormals() {
+        TriangleMesh mesh = roof();
+
+        Vec3 left = new Vec3(-1, 1, 0).normalise();
+        Vec3 right = new Vec3(1, 1, 0).normalise();
+
+        // Along the ridge the two faces' normals are averaged.
+        assertVecEquals(new Vec3(0, 1, 0), mesh.normalAtPoint(new Vec3(0, 1, 0)), EPSILON);
+        // Vertex 2 is shared by two triangles on the left and one on the right, and
+        // vertex 1 by two on the left, so half way between them the normal leans
+        // towards the ridge.
+        Vec3 vertex2 = left.times(2).plus(right).normalise();
+        Vec3 expected = left.plus(vertex2).normalise();
+        assertVecEquals(expected, mesh.normalAtPoint(new Vec3(-0.5, 0.5, 0)), EPSILON);
+        // Along the bottom edge only the left face counts.
+        assertVecEquals(left, mesh.normalAtPoint(new Vec3(-1, 0, 0)), EPSILON);
+    }
+
+    @Test
+    public void testBoundingBox() {
+        BoundingBox box = roof().boundingBox();
+        assertVecEquals(new Vec3(-1, 0, -1), box.min, EPSILON);
+        assertVecEquals(new Vec3(1, 1, 1), box.max, EPSILON);
+    }
+
+    @Test
+    public void testHierarchyMatchesBruteForce() {
+        Random random = new Random(13);
+        int triangleCount = 500;
+        float[] positions = new float[triangleCount * 9];
+        for (int i = 0; i < positions.length; i += 9) {
+            float x = random.nextFloat() * 10;
+            float y = random.nextFloat() * 10;
+            float z = random.nextFloat() * 10;
+            for (int j = 0; j < 9; j += 3) {
+                positions[i + j] = x + random.nextFloat() - 0.5f;
+                positions[i + j + 1] = y + random.nextFloat() - 0.5f;
+                positions[i + j + 2] = z + random.nextFloat() - 0.5f;
+            }
+        }
+        int[] indices = new int[triangleCount * 3];
+        for (int i = 0; i < indices.length; ++i) {
+            indices[i] = i;
+        }
+        TriangleMesh mesh = new TriangleMesh(positions, null, indices.clone());
+        TriangleMesh[] single = new TriangleMesh[triangleCount];
+        for (int i = 0; i < triangleCount; ++i) {
+            single[i] = new TriangleMesh(positions, null, new int[] { i * 3, i * 3 + 1, i * 3 + 2 });
+        }
+        assertEquals(triangleCount, mesh.getTriangleCount());
+
+        int hits = 0;
+        for (int i = 0; i < 1000; ++i) {
+            Vec3 origin = new Vec3(random.nextDouble() * 20 - 5, random.nextDouble() * 20 - 5, -5);
+            Vec3 direction = new Vec3(random.nextDouble() - 0.5, random.nextDouble() - 0.5, 1).normalise();
+            double expected = ShapeType.MISS;
+            for (TriangleMesh triangle : single) {
+                expected = Math.min(expected, triangle.intersectDistance(origin.x, origin.y, origin.z, direction.x,
+                        direction.y, direction.z));
+            }
+            double actual = mesh.intersectDistance(origin.x, origin.y, origin.z, direction.x, direction.y,
+                    direction.z);
+            assertEquals(expected, actual, EPSILON);
+            if (expected != ShapeType.MISS) {
+                ++hits;
+            }
+        }
+        assertTrue(hits > 50);
+    }
+
+    @Test
+    public void testInstancesShareGeometry() {
+        TriangleMesh mesh = roof();
+        Transformed left = new Transformed(mesh, Matrix.translation(-5, 0, 0));
+        Transformed right = new Transformed(mesh, Matrix.translation(5, 0, 0));
+        assertTrue(left.getShape() == right.getShape());
+        assertTrue(left.canHitItself());
+
+        Ray ray = new Ray(new Vec3(5, 5, 0), new Vec3(0, -1, 0));
+        assertEquals(4.0, right.intersect(ray), EPSILON);
+        assertEquals(null, left.intersect(ray));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIndexOutOfRange() {
+        new TriangleMesh(new float[] { 0, 0, 0, 1, 0, 0, 0, 1, 0 }, null, new int[] { 0, 1, 3 });
+    }
+}
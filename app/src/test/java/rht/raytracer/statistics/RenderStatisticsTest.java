@@ -0,0 +1,67 @@
+package rht.raytracer.statistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import rht.raytracer.shapes.Plane;
+import rht.raytracer.shapes.Sphere;
+
+public class RenderStatisticsTest {
+
+    @Test
+    public void testTotalAddsEveryThread() throws InterruptedException {
+        RenderStatistics.reset();
+        RenderCounters mine = RenderStatistics.forCurrentThread();
+        mine.primaryRays += 3;
+        mine.maxDepth = 2;
+        mine.countIntersection(Sphere.class);
+        mine.countTile(5_000_000);
+
+        Thread other = new Thread(() -> {
+            RenderCounters counters = RenderStatistics.forCurrentThread();
+            counters.primaryRays += 4;
+            counters.maxDepth = 5;
+            counters.countIntersection(Sphere.class);
+            counters.countIntersection(Plane.class);
+            counters.countTile(7_000_000);
+        });
+        other.start();
+        other.join();
+
+        RenderCounters total = RenderStatistics.total();
+        assertEquals(7, total.primaryRays);
+        assertEquals(5, total.maxDepth);
+        assertEquals(Long.valueOf(2), total.getIntersectionTests().get("Sphere"));
+        assertEquals(Long.valueOf(1), total.getIntersectionTests().get("Plane"));
+        assertEquals(3, total.getTotalIntersectionTests());
+        assertEquals(2, total.tilesRendered);
+        assertEquals(7_000_000, total.slowestTileNanos);
+
+        String json = total.toJson();
+        assertTrue(json.contains("\"primaryRays\": 7,"));
+        assertTrue(json.contains("\"Sphere\": 2"));
+        assertTrue(json.contains("\"tileMillis\": 12.000,"));
+
+        RenderStatistics.reset();
+        assertEquals(0, RenderStatistics.total().primaryRays);
+    }
+
+    @Test
+    public void testFinishedThreadsAreRetired() throws InterruptedException {
+        RenderStatistics.reset();
+        int before = RenderStatistics.countingThreadCount();
+        for (int i = 0; i < 20; ++i) {
+            Thread thread = new Thread(() -> RenderStatistics.forCurrentThread().primaryRays += 2);
+            thread.start();
+            thread.join();
+        }
+        // The finished threads' counts are kept, but not their counters.
+        assertEquals(before, RenderStatistics.countingThreadCount());
+        assertEquals(40, RenderStatistics.total().primaryRays);
+
+        RenderStatistics.reset();
+        assertEquals(0, RenderStatistics.total().primaryRays);
+    }
+}